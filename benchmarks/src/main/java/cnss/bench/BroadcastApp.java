@@ -0,0 +1,44 @@
+package cnss.bench;
+
+import cnss.lib.AbstractApplicationAlgorithm;
+import cnss.simulator.DataPacket;
+import cnss.simulator.Node;
+import cnss.simulator.Packet;
+
+/**
+ * A broadcasting application used by the macro benchmarks. Arguments: the time
+ * of the broadcast (-1 means never broadcast) and the TTL of the broadcasted
+ * packet.
+ */
+public class BroadcastApp extends AbstractApplicationAlgorithm {
+
+	private int ttl;
+	private int received = 0;
+
+	public BroadcastApp() {
+		super(false, "broadcast app");
+	}
+
+	public int initialise(int now, int node_id, Node nodeObj, String[] args) {
+		super.initialise(now, node_id, nodeObj, args);
+		if (args.length < 2)
+			return 0;
+		int time = Integer.parseInt(args[0]);
+		ttl = Integer.parseInt(args[1]);
+		return time <= 0 ? 0 : time;
+	}
+
+	public void on_clock_tick(int now) {
+		if (ttl == 0)
+			return; // only one broadcast
+		DataPacket p = self.createDataPacket(Packet.BROADCAST, new byte[16]);
+		p.setTtl(ttl);
+		ttl = 0;
+		self.send(p);
+	}
+
+	public void on_receive(int now, DataPacket p) {
+		received++;
+	}
+
+}
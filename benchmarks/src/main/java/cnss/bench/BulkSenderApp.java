@@ -0,0 +1,36 @@
+package cnss.bench;
+
+import cnss.lib.AbstractApplicationAlgorithm;
+import cnss.simulator.Node;
+
+/**
+ * A bulk sender used by the macro benchmarks. Arguments: the destination (-1
+ * means only receive), the number of packets sent by tick, the payload size
+ * and the tick period in ms.
+ */
+public class BulkSenderApp extends AbstractApplicationAlgorithm {
+
+	private int destination = -1;
+	private int burst;
+	private byte[] payload;
+
+	public BulkSenderApp() {
+		super(false, "bulk sender app");
+	}
+
+	public int initialise(int now, int node_id, Node nodeObj, String[] args) {
+		super.initialise(now, node_id, nodeObj, args);
+		if (args.length < 4)
+			return 0;
+		destination = Integer.parseInt(args[0]);
+		burst = Integer.parseInt(args[1]);
+		payload = new byte[Integer.parseInt(args[2])];
+		return destination < 0 ? 0 : Integer.parseInt(args[3]);
+	}
+
+	public void on_clock_tick(int now) {
+		for (int i = 0; i < burst; i++)
+			self.send(self.createDataPacket(destination, payload));
+	}
+
+}
@@ -0,0 +1,112 @@
+package cnss.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cnss.lib.AbstractControlAlgorithm;
+import cnss.simulator.GlobalParameters;
+import cnss.simulator.Link;
+import cnss.simulator.Node;
+import cnss.simulator.Packet;
+
+/**
+ * A control algorithm used by the macro benchmarks: each node computes, at
+ * initialisation, the next hops of its hop count shortest paths from the link
+ * lines of the configuration file named by the parameter
+ * <code>topology</code>. The topology is parsed once and shared by all nodes.
+ * Down links are not routed around.
+ */
+public class ConfigShortestPathControl extends AbstractControlAlgorithm {
+
+	private static Map<String, int[][]> topologies = new HashMap<>();
+
+	private int[] nextIface; // interface by destination, UNKNOWN if unreachable
+
+	public ConfigShortestPathControl() {
+		super("config shortest path control");
+	}
+
+	public int initialise(int now, int node_id, Node nodeObj, GlobalParameters parameters, Link[] links, int nint) {
+		super.initialise(now, node_id, nodeObj, parameters, links, nint);
+		// adjacency: for each node, pairs (neighbour, local interface)
+		int[][] adj = topology(parameters.get("topology"));
+		nextIface = new int[adj.length];
+		Arrays.fill(nextIface, UNKNOWN);
+		nextIface[node_id] = LOCAL;
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		for (int i = 0; i < adj[node_id].length; i += 2) {
+			int n = adj[node_id][i];
+			if (nextIface[n] == UNKNOWN) {
+				nextIface[n] = adj[node_id][i + 1];
+				queue.add(n);
+			}
+		}
+		while (!queue.isEmpty()) {
+			int u = queue.poll();
+			for (int i = 0; i < adj[u].length; i += 2) {
+				int n = adj[u][i];
+				if (nextIface[n] == UNKNOWN) {
+					nextIface[n] = nextIface[u];
+					queue.add(n);
+				}
+			}
+		}
+		return 0;
+	}
+
+	public void forward_packet(int now, Packet p, int iface) {
+		int dst = p.getDestination();
+		if (dst == nodeId) {
+			self.send(p.getCopy(), LOCAL);
+			return;
+		}
+		if (dst < 0 || dst >= nextIface.length || nextIface[dst] == UNKNOWN || !links[nextIface[dst]].isUp()) {
+			self.send(p, UNKNOWN);
+			return;
+		}
+		self.send(iface == LOCAL ? p.getCopy() : p, nextIface[dst]);
+	}
+
+	/**
+	 * Parses, or gets from the cache, the adjacency lists of a configuration file
+	 */
+	private static synchronized int[][] topology(String file) {
+		int[][] adj = topologies.get(file);
+		if (adj != null)
+			return adj;
+		List<List<Integer>> lists = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] t = line.split("\\s");
+				if (!t[0].equalsIgnoreCase("link"))
+					continue;
+				int n1 = Integer.parseInt(t[1].split("\\.")[0]);
+				int i1 = Integer.parseInt(t[1].split("\\.")[1]);
+				int n2 = Integer.parseInt(t[2].split("\\.")[0]);
+				int i2 = Integer.parseInt(t[2].split("\\.")[1]);
+				while (lists.size() <= Math.max(n1, n2))
+					lists.add(new ArrayList<>());
+				lists.get(n1).add(n2);
+				lists.get(n1).add(i1);
+				lists.get(n2).add(n1);
+				lists.get(n2).add(i2);
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("cannot read topology " + file, e);
+		}
+		adj = new int[lists.size()][];
+		for (int n = 0; n < adj.length; n++)
+			adj[n] = lists.get(n).stream().mapToInt(Integer::intValue).toArray();
+		topologies.put(file, adj);
+		return adj;
+	}
+
+}
@@ -0,0 +1,157 @@
+package cnss.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import cnss.simulator.Simulator;
+
+/**
+ * The macro benchmark suite: runs end-to-end scenarios at several sizes and
+ * writes, for each run, the number of events, the wall time, the events per
+ * second, the peak heap and the allocation rate to a results file. Each run is
+ * executed in its own JVM, so that the heap of a run is not polluted by the
+ * previous ones.
+ *
+ * Usage: MacroBenchmarks [-o results.csv|results.json] [-Xmx...] [scenario[:size,size...]] ...
+ *
+ * Without scenarios, all scenarios are run with their default sizes. The
+ * configuration files are written in the directory of the results file.
+ */
+public class MacroBenchmarks {
+
+	static final String HEADER = "scenario,size,nodes,links,events,wall_s,events_per_s,peak_heap_mb,allocated_mb,alloc_rate_mb_s";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && args[0].equals("--single")) {
+			runSingle(args[1], args[2]);
+			return;
+		}
+		String results = "macro-results.csv";
+		String heap = "-Xmx4g";
+		List<String> selected = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o"))
+				results = args[++i];
+			else if (args[i].startsWith("-Xmx"))
+				heap = args[i];
+			else
+				selected.add(args[i]);
+		}
+		if (selected.isEmpty())
+			for (Scenario s : Scenario.ALL)
+				selected.add(s.name);
+
+		File dir = new File(results).getAbsoluteFile().getParentFile();
+		boolean json = results.endsWith(".json");
+		try (PrintWriter out = new PrintWriter(new FileWriter(results))) {
+			if (!json)
+				out.println(HEADER);
+			for (String sel : selected) {
+				Scenario scenario = Scenario.byName(sel.split(":")[0]);
+				int[] sizes = scenario.defaultSizes;
+				if (sel.contains(":")) {
+					String[] s = sel.split(":")[1].split(",");
+					sizes = new int[s.length];
+					for (int i = 0; i < s.length; i++)
+						sizes[i] = Integer.parseInt(s[i]);
+				}
+				for (int size : sizes) {
+					File config = new File(dir, scenario.name + "-" + size + ".config.txt");
+					try (PrintWriter cfg = new PrintWriter(new FileWriter(config))) {
+						scenario.write(size, config.getPath(), cfg);
+					}
+					String line = fork(heap, scenario.name, config.getPath(), size);
+					System.out.println(line);
+					out.println(json ? toJson(line) : line);
+					out.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs one (scenario, size) pair in a child JVM and returns its results line
+	 */
+	private static String fork(String heap, String scenario, String config, int size) throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder pb = new ProcessBuilder(java, heap, "-cp", System.getProperty("java.class.path"), MacroBenchmarks.class.getName(), "--single",
+				config, scenario + ":" + size);
+		pb.redirectErrorStream(true);
+		Process p = pb.start();
+		String result = null;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("RESULT "))
+					result = line.substring(7);
+				else
+					System.err.println(line);
+			}
+		}
+		if (p.waitFor() != 0 || result == null)
+			return scenario + "," + size + ",failed,,,,,,,";
+		return result;
+	}
+
+	/**
+	 * Runs one simulation in this JVM and prints its results line
+	 */
+	private static void runSingle(String config, String label) {
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		List<MemoryPoolMXBean> pools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				pools.add(pool);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+
+		System.gc();
+		for (MemoryPoolMXBean pool : pools)
+			pool.resetPeakUsage();
+		long alloc0 = threads.getThreadAllocatedBytes(tid);
+		long t0 = System.nanoTime();
+
+		Simulator sim = new Simulator(config);
+		sim.main_loop();
+
+		double wall = (System.nanoTime() - t0) / 1e9;
+		double allocated = (threads.getThreadAllocatedBytes(tid) - alloc0) / 1048576.0;
+		long peak = 0;
+		for (MemoryPoolMXBean pool : pools)
+			peak += pool.getPeakUsage().getUsed();
+		System.setOut(stdout);
+		String[] sl = label.split(":");
+		System.out.printf("RESULT %s,%s,%d,%d,%d,%.3f,%.0f,%.1f,%.1f,%.1f%n", sl[0], sl[1], sim.getNodes().length, sim.getLinks().length,
+				sim.getProcessedEvents(), wall, sim.getProcessedEvents() / wall, peak / 1048576.0, allocated, allocated / wall);
+	}
+
+	/**
+	 * Converts a CSV results line to a JSON object
+	 */
+	private static String toJson(String line) {
+		String[] names = HEADER.split(",");
+		String[] values = line.split(",", -1);
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			String v = i < values.length ? values[i] : "";
+			boolean number = !v.isEmpty() && v.matches("-?[0-9.]+");
+			sb.append('"').append(names[i]).append("\":").append(number ? v : "\"" + v + "\"");
+		}
+		return sb.append('}').toString();
+	}
+
+}
@@ -0,0 +1,48 @@
+package cnss.bench;
+
+import cnss.lib.AbstractApplicationAlgorithm;
+import cnss.simulator.DataPacket;
+import cnss.simulator.Node;
+
+/**
+ * A ping application used by the macro benchmarks. Arguments: the destination
+ * of the pings (-1 means only reply to pings) and the period of the pings in ms.
+ * Every received ping is answered with a reply of the same size.
+ */
+public class PingApp extends AbstractApplicationAlgorithm {
+
+	private int destination = -1;
+	private byte[] ping = new byte[] { 'p' };
+	private byte[] reply = new byte[] { 'r' };
+	private int sent = 0;
+	private int replies = 0;
+
+	public PingApp() {
+		super(false, "ping app");
+	}
+
+	public int initialise(int now, int node_id, Node nodeObj, String[] args) {
+		super.initialise(now, node_id, nodeObj, args);
+		if (args.length < 2)
+			return 0;
+		destination = Integer.parseInt(args[0]);
+		return destination < 0 ? 0 : Integer.parseInt(args[1]);
+	}
+
+	public void on_clock_tick(int now) {
+		sent++;
+		self.send(self.createDataPacket(destination, ping));
+	}
+
+	public void on_receive(int now, DataPacket p) {
+		if (p.getPayload().length > 0 && p.getPayload()[0] == 'p')
+			self.send(self.createDataPacket(p.getSource(), reply));
+		else
+			replies++;
+	}
+
+	public void showState(int now) {
+		self.getOutput().println("ping app node " + nodeId + " sent " + sent + " replies " + replies);
+	}
+
+}
@@ -0,0 +1,181 @@
+package cnss.bench;
+
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * A macro benchmark scenario: a generator of configuration files of a family
+ * of networks parametrised by a size. Generators are deterministic, so each
+ * (scenario, size) pair always produces the same simulation.
+ */
+public abstract class Scenario {
+
+	final String name;
+	final int[] defaultSizes;
+
+	Scenario(String name, int... defaultSizes) {
+		this.name = name;
+		this.defaultSizes = defaultSizes;
+	}
+
+	/**
+	 * Writes the configuration of this scenario with a given size
+	 *
+	 * @param size     the size of the scenario
+	 * @param fileName the name of the configuration file being written
+	 * @param out      where to write it
+	 */
+	abstract void write(int size, String fileName, PrintWriter out);
+
+	/**
+	 * Returns the scenario with a given name
+	 */
+	static Scenario byName(String name) {
+		for (Scenario s : ALL)
+			if (s.name.equals(name))
+				return s;
+		throw new IllegalArgumentException("unknown scenario " + name);
+	}
+
+	static final Scenario[] ALL = { new Ring(), new GridFlooding(), new GridFlooding(true), new FatTree(), new RandomWan() };
+
+	/**
+	 * A ring of <code>size</code> flooding switches; each node pings the node
+	 * 8 hops away once per second.
+	 */
+	static class Ring extends Scenario {
+		Ring() {
+			super("ring-ping", 100, 1000, 10000);
+		}
+
+		void write(int size, String fileName, PrintWriter out) {
+			out.println("parameter stop 10000");
+			for (int n = 0; n < size; n++)
+				out.println("node " + n + " 2 cnss.lib.FloodingSwitch cnss.bench.PingApp " + (n + 8) % size + " 1000");
+			for (int n = 0; n < size; n++)
+				out.println("link " + n + ".1 " + (n + 1) % size + ".0 100000000 1 0 0");
+		}
+	}
+
+	/**
+	 * A <code>size</code> x <code>size</code> grid of flooding switches; one
+	 * node in 16 broadcasts one packet with TTL 6. With duplicate suppression,
+	 * one node in 64 broadcasts one packet with a TTL large enough to reach
+	 * the whole grid.
+	 */
+	static class GridFlooding extends Scenario {
+		private final boolean dedup;
+
+		GridFlooding() {
+			super("grid-flooding", 10, 50, 200);
+			dedup = false;
+		}
+
+		GridFlooding(boolean dedup) {
+			super("grid-dedup-flooding", 10, 50, 100);
+			this.dedup = dedup;
+		}
+
+		void write(int size, String fileName, PrintWriter out) {
+			// interfaces are numbered in the order links are added, border nodes have less than 4
+			int[] degree = new int[size * size];
+			StringBuilder links = new StringBuilder();
+			for (int r = 0; r < size; r++) {
+				for (int c = 0; c < size; c++) {
+					int n = r * size + c;
+					if (c + 1 < size)
+						links.append("link " + n + "." + degree[n]++ + " " + (n + 1) + "." + degree[n + 1]++ + " 100000000 1 0 0\n");
+					if (r + 1 < size)
+						links.append("link " + n + "." + degree[n]++ + " " + (n + size) + "." + degree[n + size]++ + " 100000000 1 0 0\n");
+				}
+			}
+			String control = dedup ? " cnss.lib.DedupFloodingSwitch" : " cnss.lib.FloodingSwitch";
+			int every = dedup ? 64 : 16;
+			int ttl = dedup ? 2 * size : 6;
+			out.println("parameter stop 10000");
+			for (int n = 0; n < size * size; n++)
+				out.println("node " + n + " " + degree[n] + control + " cnss.bench.BroadcastApp " + (n % every == 0 ? 1 + n % 1000 : -1) + " " + ttl);
+			out.print(links);
+		}
+	}
+
+	/**
+	 * A k-ary fat-tree (k = <code>size</code>, k^3/4 hosts, 5k^2/4 switches);
+	 * each host sends a bulk flow to a host in another pod.
+	 */
+	static class FatTree extends Scenario {
+		FatTree() {
+			super("fattree-bulk", 4, 8, 16);
+		}
+
+		void write(int k, String fileName, PrintWriter out) {
+			int half = k / 2;
+			int hosts = k * k * k / 4;
+			int edges = k * half; // k pods with k/2 edge switches
+			int aggs = k * half;
+			int cores = half * half;
+			int firstEdge = hosts;
+			int firstAgg = firstEdge + edges;
+			int firstCore = firstAgg + aggs;
+			String control = " cnss.bench.ConfigShortestPathControl ";
+			out.println("parameter stop 2000");
+			out.println("parameter topology " + fileName);
+			for (int h = 0; h < hosts; h++)
+				out.println("node " + h + " 1" + control + "cnss.bench.BulkSenderApp " + (h + hosts / 2) % hosts + " 10 1000 10");
+			for (int s = firstEdge; s < firstCore + cores; s++)
+				out.println("node " + s + " " + k + control + "cnss.lib.EmptyApp");
+			// edge switch e: interfaces 0..k/2-1 to hosts, k/2..k-1 to the aggregation switches of its pod
+			for (int e = 0; e < edges; e++) {
+				int pod = e / half;
+				for (int i = 0; i < half; i++)
+					out.println("link " + (e * half + i) + ".0 " + (firstEdge + e) + "." + i + " 1000000000 1 0 0");
+				for (int i = 0; i < half; i++)
+					out.println("link " + (firstEdge + e) + "." + (half + i) + " " + (firstAgg + pod * half + i) + "." + (e % half) + " 1000000000 1 0 0");
+			}
+			// aggregation switch a: interfaces k/2..k-1 to the core switches
+			for (int a = 0; a < aggs; a++) {
+				for (int i = 0; i < half; i++)
+					out.println("link " + (firstAgg + a) + "." + (half + i) + " " + (firstCore + (a % half) * half + i) + "." + (a / half) + " 1000000000 1 0 0");
+			}
+		}
+	}
+
+	/**
+	 * A random WAN of <code>size</code> routers: a ring plus as many random
+	 * chords, random latencies, pings between random pairs and chords going
+	 * down and up every 500 ms.
+	 */
+	static class RandomWan extends Scenario {
+		RandomWan() {
+			super("wan-churn", 100, 500, 2000);
+		}
+
+		void write(int size, String fileName, PrintWriter out) {
+			Random r = new Random(42);
+			int[] degree = new int[size];
+			StringBuilder links = new StringBuilder();
+			String[] chords = new String[size];
+			for (int n = 0; n < size; n++) {
+				int m = (n + 1) % size;
+				links.append("link " + n + "." + degree[n]++ + " " + m + "." + degree[m]++ + " 100000000 " + (5 + r.nextInt(45)) + " 0 0\n");
+			}
+			for (int c = 0; c < size; c++) {
+				int a = r.nextInt(size);
+				int b = (a + 2 + r.nextInt(size - 3)) % size;
+				chords[c] = a + "." + degree[a]++ + " " + b + "." + degree[b]++;
+				links.append("link " + chords[c] + " 100000000 " + (5 + r.nextInt(45)) + " 0 0\n");
+			}
+			out.println("parameter stop 10000");
+			out.println("parameter topology " + fileName);
+			for (int n = 0; n < size; n++)
+				out.println("node " + n + " " + degree[n] + " cnss.bench.ConfigShortestPathControl cnss.bench.PingApp " + r.nextInt(size) + " 100");
+			out.print(links);
+			for (int t = 500; t < 10000; t += 1000) {
+				String chord = chords[r.nextInt(size)];
+				out.println("downlink " + t + " " + chord);
+				out.println("uplink " + (t + 500) + " " + chord);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package cnss.lib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cnss.simulator.BenchmarkNetworks;
+import cnss.simulator.ControlAlgorithm;
+import cnss.simulator.GlobalParameters;
+import cnss.simulator.Packet;
+import cnss.simulator.Packet.PacketType;
+
+/**
+ * <code>FloodingSwitch.forward_packet</code> on nodes with many interfaces;
+ * the packets copies queued in the links are discarded after each call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloodingSwitchBenchmark {
+
+	@Param({ "4", "32", "256" })
+	int degree;
+
+	@Param({ "64", "1480" })
+	int payloadSize;
+
+	@Param({ "false" }) // -p latencies=true records the delays, as the parameter latencies of a simulation
+	boolean latencies;
+
+	BenchmarkNetworks.Star star;
+	ControlAlgorithm flooding;
+	Packet packet;
+
+	@Setup
+	public void setup() {
+		GlobalParameters gp = new GlobalParameters();
+		if (latencies)
+			gp.put("latencies", "");
+		star = BenchmarkNetworks.star("cnss.lib.FloodingSwitch", "cnss.lib.EmptyApp", degree, 1000000000L, gp);
+		flooding = new FloodingSwitch();
+		flooding.initialise(0, 0, star.node, gp, star.links, degree);
+		packet = BenchmarkNetworks.newPacket(1, degree + 1, PacketType.DATA, payloadSize);
+	}
+
+	@Benchmark
+	public void forwardPacket() {
+		flooding.forward_packet(0, packet, 0);
+		star.clearLinks();
+	}
+
+}
@@ -0,0 +1,93 @@
+package cnss.simulator;
+
+/**
+ * Auxiliary methods of the benchmarks to build small, fully wired, pieces of
+ * network without a configuration file. They belong to the simulator package
+ * since nodes and links are normally wired by the <code>Simulator</code>.
+ */
+public class BenchmarkNetworks {
+
+	/**
+	 * Builds a node with <code>degree</code> interfaces, each one connected by a
+	 * link to a different neighbour; neighbours are not created. As in a
+	 * simulation, the delays are only recorded if the parameter
+	 * <code>latencies</code> is defined.
+	 *
+	 * @param control the control algorithm class name
+	 * @param app     the application algorithm class name
+	 * @param degree  the number of interfaces of the node
+	 * @param bwidth  the bandwidth of the links
+	 * @param gp      the global parameters
+	 * @return the links of the node, the node is returned by getNode()
+	 */
+	public static Star star(String control, String app, int degree, long bwidth, GlobalParameters gp) {
+		Node node = new Node(0, degree, control, app, new String[0], gp);
+		Link[] links = new Link[degree];
+		Metrics metrics = new Metrics(degree + 1, degree, gp);
+		Latencies latencies = gp.containsKey("latencies") ? new Latencies(degree) : null;
+		for (int i = 0; i < degree; i++) {
+			links[i] = newLink(0, i, i + 1, 0, bwidth, 1, 0.0, metrics, latencies, i);
+			node.addLinks(links[i]);
+		}
+		node.setMetrics(metrics);
+		node.setLatencies(latencies);
+		node.setMulticastGroups(new MulticastGroups(degree + 1, links, gp));
+		node.initialize();
+		while (node.getOutputEvent() != null)
+			; // discards the clock ticks requested by the algorithms
+		return new Star(node, links);
+	}
+
+	/**
+	 * Builds a link ready to transmit packets; it records no delays if
+	 * <code>latencies</code> is null
+	 */
+	public static Link newLink(int n1, int i1, int n2, int i2, long bwidth, int latency, double errors, Metrics metrics, Latencies latencies,
+			int index) {
+		Link l = new Link(n1, i1, n2, i2, bwidth, latency, errors, 0.0, null);
+		l.setMetrics(metrics, index);
+		l.setLatencies(latencies);
+		return l;
+	}
+
+	/**
+	 * Creates a packet with a given type and payload size
+	 */
+	public static Packet newPacket(int src, int dst, Packet.PacketType type, int payloadSize) {
+		Packet p;
+		if (type == Packet.PacketType.DATA)
+			p = new DataPacket(src, dst, new byte[payloadSize]);
+		else if (type == Packet.PacketType.CONTROL)
+			p = new ControlPacket(src, dst, new byte[payloadSize]);
+		else {
+			p = new Packet(src, dst, new byte[payloadSize]);
+			p.setType(type);
+		}
+		p.setSequenceNumber(1);
+		return p;
+	}
+
+	/**
+	 * A node and its links
+	 */
+	public static class Star {
+		public final Node node;
+		public final Link[] links;
+
+		Star(Node n, Link[] l) {
+			node = n;
+			links = l;
+		}
+
+		/**
+		 * Discards all packets waiting in the links output queues
+		 */
+		public void clearLinks() {
+			for (Link l : links) {
+				l.setState(false);
+				l.setState(true);
+			}
+		}
+	}
+
+}
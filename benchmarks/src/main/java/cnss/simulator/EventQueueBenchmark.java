@@ -0,0 +1,68 @@
+package cnss.simulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cnss.simulator.Event.EventType;
+
+/**
+ * Insert and pop of the global event queue, using the classic "hold" model: the
+ * queue is kept at a constant size by inserting one future event for each
+ * event popped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventQueueBenchmark {
+
+	@Param({ "100", "10000", "1000000" })
+	int queueSize;
+
+	@Param({ "10", "1000" })
+	int maxDelay;
+
+	EventQueue queue;
+	Random random;
+	long nextId;
+
+	@Setup
+	public void setup() {
+		queue = new EventQueue();
+		random = new Random(1);
+		for (int i = 0; i < queueSize; i++)
+			queue.add(newEvent(random.nextInt(maxDelay) + 1));
+	}
+
+	private Event newEvent(int time) {
+		nextId = (nextId + 1) % Event.DISPLACEMENT;
+		return new Event(EventType.CLOCK_INTERRUPT, time, nextId, null);
+	}
+
+	@Benchmark
+	public Event hold() {
+		Event ev = queue.poll();
+		queue.add(newEvent(ev.getTime() + random.nextInt(maxDelay) + 1));
+		return ev;
+	}
+
+	@Benchmark
+	public Event peek() {
+		return queue.peek();
+	}
+
+}
@@ -0,0 +1,68 @@
+package cnss.simulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cnss.simulator.Packet.PacketType;
+
+/**
+ * <code>Link.transmitPackets</code> with bursts of packets queued in one side
+ * of the link during a processing step, including the retrieval of the
+ * delivery events by the simulator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkBenchmark {
+
+	@Param({ "1", "16", "256" })
+	int burst;
+
+	@Param({ "0.0", "0.01" })
+	double errors;
+
+	@Param({ "false" }) // -p latencies=true records the delays, as the parameter latencies of a simulation
+	boolean latencies;
+
+	Link link;
+	Packet[] packets;
+	int now;
+
+	@Setup
+	public void setup() {
+		GlobalParameters gp = new GlobalParameters();
+		link = BenchmarkNetworks.newLink(0, 0, 1, 0, 1000000000L, 10, errors, new Metrics(2, 1, gp),
+				latencies ? new Latencies(1) : null, 0);
+		packets = new Packet[burst];
+		for (int i = 0; i < burst; i++)
+			packets[i] = BenchmarkNetworks.newPacket(0, 1, PacketType.DATA, 1000);
+		now = 0;
+	}
+
+	@Benchmark
+	public int transmitBurst() {
+		now++;
+		for (int i = 0; i < burst; i++)
+			link.enqueuePacket(0, packets[i]);
+		link.transmitPackets(now);
+		int delivered = 0;
+		while (link.getOutputEvent() != null)
+			delivered++;
+		return delivered;
+	}
+
+}
@@ -0,0 +1,88 @@
+package cnss.simulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cnss.simulator.Event.EventType;
+import cnss.simulator.Packet.PacketType;
+
+/**
+ * <code>Node.process_input_events</code> of an end system with a mix of
+ * events in the same processing step: data and control packets delivered to
+ * the node, a data packet to be forwarded and a clock interrupt.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeBenchmark {
+
+	@Param({ "4", "64" })
+	int eventsPerStep;
+
+	@Param({ "64", "1480" })
+	int payloadSize;
+
+	@Param({ "false" }) // -p latencies=true records the delays, as the parameter latencies of a simulation
+	boolean latencies;
+
+	BenchmarkNetworks.Star star;
+	Packet data;
+	Packet control;
+	Packet transit;
+	int now;
+
+	@Setup
+	public void setup() {
+		GlobalParameters gp = new GlobalParameters();
+		if (latencies)
+			gp.put("latencies", "");
+		star = BenchmarkNetworks.star("cnss.lib.EndSystemControl", "cnss.lib.EmptyApp", 1, 1000000000L, gp);
+		data = BenchmarkNetworks.newPacket(1, 0, PacketType.DATA, payloadSize);
+		control = BenchmarkNetworks.newPacket(1, 0, PacketType.CONTROL, payloadSize);
+		transit = BenchmarkNetworks.newPacket(1, 2, PacketType.DATA, payloadSize);
+		now = 0;
+	}
+
+	@Benchmark
+	public int processStep() {
+		now++;
+		Node node = star.node;
+		for (int i = 0; i < eventsPerStep; i++) {
+			switch (i % 4) {
+			case 0:
+				node.addInputEvent(new Event(EventType.DELIVER_PACKET, now, 0, null, data, 0, 0));
+				break;
+			case 1:
+				node.addInputEvent(new Event(EventType.DELIVER_PACKET, now, 0, null, control, 0, 0));
+				break;
+			case 2:
+				transit.setTtl(Packet.INITIALTTL);
+				node.addInputEvent(new Event(EventType.DELIVER_PACKET, now, 0, null, transit, 0, 0));
+				break;
+			default:
+				node.addInputEvent(new Event(EventType.CLOCK_INTERRUPT, now, 0, null, null, 0, 0));
+			}
+		}
+		node.process_input_events(now);
+		int generated = 0;
+		while (node.getOutputEvent() != null)
+			generated++;
+		star.clearLinks();
+		return generated;
+	}
+
+}
@@ -0,0 +1,51 @@
+package cnss.simulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cnss.simulator.Packet.PacketType;
+
+/**
+ * Packet copies made by control algorithms (<code>getCopy</code>) and by the
+ * node kernel when delivering data packets (<code>toDataPacket</code>).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark {
+
+	@Param({ "0", "64", "1480", "9000" })
+	int payloadSize;
+
+	Packet packet;
+
+	@Setup
+	public void setup() {
+		packet = BenchmarkNetworks.newPacket(0, 1, PacketType.DATA, payloadSize);
+	}
+
+	@Benchmark
+	public Packet getCopy() {
+		return packet.getCopy();
+	}
+
+	@Benchmark
+	public DataPacket toDataPacket() {
+		return packet.toDataPacket();
+	}
+
+}
@@ -0,0 +1,44 @@
+package cnss.examples;
+
+import cnss.lib.BlockingApplication;
+import cnss.simulator.DataPacket;
+
+/*
+ * A blocking program: with the arguments "client dst count" it sends count
+ * pings to dst, one per second, each waiting at most 500 ms for its reply;
+ * with the argument "server" it replies to every ping.
+ */
+public class PingPongProgram extends BlockingApplication {
+
+	private int replies = 0;
+
+	public PingPongProgram() {
+		super(true, "ping pong");
+	}
+
+	protected void run() {
+		if (args.length > 0 && args[0].equals("server")) {
+			while (true) {
+				DataPacket p = receive();
+				log("replying to \"" + new String(p.getPayload()) + "\"");
+				send(p.getSource(), ("pong " + new String(p.getPayload())).getBytes());
+			}
+		}
+		int dst = Integer.parseInt(args[1]);
+		int count = Integer.parseInt(args[2]);
+		for (int i = 1; i <= count; i++) {
+			int sent = now();
+			send(dst, ("ping " + i).getBytes());
+			DataPacket p = receive(500);
+			if (p == null) {
+				log("ping " + i + " lost");
+			} else {
+				replies++;
+				log("received \"" + new String(p.getPayload()) + "\" after " + (now() - sent) + " ms");
+			}
+			sleep(1000 - (now() - sent));
+		}
+		log("done, " + replies + " replies to " + count + " pings");
+	}
+
+}
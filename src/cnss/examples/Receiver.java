@@ -1,10 +1,15 @@
 package cnss.examples;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import cnss.simulator.ApplicationAlgorithm;
 import cnss.simulator.DataPacket;
 import cnss.simulator.Node;
+import cnss.simulator.StateSnapshot;
 
-public class Receiver implements ApplicationAlgorithm {
+public class Receiver implements ApplicationAlgorithm, StateSnapshot {
 
 	private Node nodeObj;
 	private int nodeId;
@@ -44,14 +49,22 @@ public class Receiver implements ApplicationAlgorithm {
 	}
 
 	public void showState(int now) {
-		System.out.println(name + " replyed to "+counter+" ping messages");
+		nodeObj.getOutput().println(name + " replyed to "+counter+" ping messages");
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(counter);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		counter = in.readInt();
 	}
 
 	// auxiliary methods
 
 	private void log(int now, String msg) {
 		if (logOn)
-			System.out.println("log: " + name + " time " + now + " node " + nodeId + " " + msg);
+			nodeObj.getOutput().println("log: " + name + " time " + now + " node " + nodeId + " " + msg);
 	}
 
 }
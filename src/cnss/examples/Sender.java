@@ -1,12 +1,17 @@
 package cnss.examples;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import cnss.simulator.ApplicationAlgorithm;
 import cnss.simulator.DataPacket;
 import cnss.simulator.Node;
+import cnss.simulator.StateSnapshot;
 import cnss.simulator.Packet;
 import cnss.simulator.DataPacket;
 
-public class Sender implements ApplicationAlgorithm {
+public class Sender implements ApplicationAlgorithm, StateSnapshot {
 
 	private Node nodeObj;
 	private int nodeId;
@@ -46,14 +51,22 @@ public class Sender implements ApplicationAlgorithm {
 	}
 
 	public void showState(int now) {
-		System.out.println(name + " received "+count+" replies to pings");
+		nodeObj.getOutput().println(name + " received "+count+" replies to pings");
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(count);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		count = in.readInt();
 	}
 
 	// auxiliary methods
 
 	private void log(int now, String msg) {
 		if (logOn)
-			System.out.println("log: " + name + " time " + now + " node " + nodeId + " " + msg);
+			nodeObj.getOutput().println("log: " + name + " time " + now + " node " + nodeId + " " + msg);
 	}
 
 }
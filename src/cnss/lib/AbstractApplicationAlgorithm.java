@@ -47,6 +47,6 @@ abstract public class AbstractApplicationAlgorithm implements ApplicationAlgorit
 
 	protected void log(int now, String msg) {
 		if (logOn)
-			System.out.println("log: " + name + " time " + now + " node " + self.getId() + " " + msg);
+			self.getOutput().println("log: " + name + " time " + now + " node " + self.getId() + " " + msg);
 	}
 }
@@ -74,7 +74,7 @@ public class AbstractControlAlgorithm implements ControlAlgorithm {
 
 	protected void trace(int now, String msg) {
 		if (traceOn)
-			System.out.println("trace: " + name + " time " + now + " node " + self.getId() + " " + msg);
+			self.getOutput().println("trace: " + name + " time " + now + " node " + self.getId() + " " + msg);
 	}
 	
 }
@@ -0,0 +1,187 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A congestion control modelled on BBR: instead of reacting to losses, it
+ * estimates the bottleneck bandwidth, as the largest delivery rate of the last
+ * rounds, and the propagation delay, as the smallest round trip time of the
+ * last 10 s, and paces the flow at the bandwidth times a gain, with a window of
+ * twice the bandwidth delay product. It starts with a gain of 2/ln 2 until the
+ * bandwidth stops growing, drains the queue it built, and then cycles the gain
+ * through 1.25, 0.75 and six rounds of 1 to probe for more bandwidth. When the
+ * minimum round trip time was not seen for 10 s, the window drops to 4
+ * segments for at least 200 ms to measure it again with empty queues. A round
+ * lasts one minimum round trip time. Losses are ignored; a timeout keeps the
+ * window at 4 segments until the next ack.
+ */
+public class BbrCongestionControl implements CongestionControl {
+
+	private static final double HIGH_GAIN = 2.885;
+	private static final double[] CYCLE = { 1.25, 0.75, 1, 1, 1, 1, 1, 1 };
+	private static final int BW_ROUNDS = 10; // length of the bandwidth filter
+	private static final int MIN_RTT_WINDOW = 10000;
+	private static final int MIN_WINDOW = 4;
+	private static final int PROBE_RTT_TIME = 200;
+
+	private static final int STARTUP = 0;
+	private static final int DRAIN = 1;
+	private static final int PROBE_BW = 2;
+	private static final int PROBE_RTT = 3;
+
+	private int mode = STARTUP;
+	private final double[] bwSamples = new double[BW_ROUNDS]; // the largest rate of each round
+	private long round = 0;
+	private int roundStart = 0;
+	private int minRtt = -1;
+	private int minRttStamp = 0;
+	private double fullBw = 0; // to detect the end of startup
+	private int fullBwRounds = 0;
+	private int cyclePhase = 0;
+	private boolean filled = false; // startup ended
+	private int probeRttEnd = -1; // the end of the probe rtt phase, once the queue is drained
+	private int probeMinRtt = -1; // the smallest rtt seen in that phase
+	private boolean afterTimeout = false;
+
+	public BbrCongestionControl() {
+
+	}
+
+	/**
+	 * Returns the estimated bottleneck bandwidth
+	 *
+	 * @return the bandwidth in segments per ms
+	 */
+	public double bandwidth() {
+		double bw = 0;
+		for (double s : bwSamples)
+			bw = Math.max(bw, s);
+		return bw;
+	}
+
+	private double bdp() {
+		return bandwidth() * minRtt;
+	}
+
+	private double pacingGain() {
+		switch (mode) {
+		case STARTUP:
+			return HIGH_GAIN;
+		case DRAIN:
+			return 1 / HIGH_GAIN;
+		case PROBE_RTT:
+			return 1;
+		default:
+			return CYCLE[cyclePhase];
+		}
+	}
+
+	public int window() {
+		if (afterTimeout || mode == PROBE_RTT)
+			return MIN_WINDOW;
+		if (minRtt < 0 || bandwidth() == 0)
+			return INITIAL_WINDOW;
+		double gain = mode == PROBE_BW ? 2 : HIGH_GAIN;
+		return Math.max(MIN_WINDOW, (int) Math.ceil(gain * bdp()));
+	}
+
+	public double pacingRate() {
+		return pacingGain() * bandwidth();
+	}
+
+	public void onAck(int now, int acked, int rtt, double deliveryRate, int inFlight) {
+		afterTimeout = false;
+		boolean expired = minRtt >= 0 && now - minRttStamp > MIN_RTT_WINDOW;
+		if (rtt > 0 && (minRtt < 0 || rtt <= minRtt)) {
+			minRtt = rtt;
+			minRttStamp = now;
+		}
+		if (minRtt < 0)
+			return;
+		if (expired && mode != PROBE_RTT) {
+			mode = PROBE_RTT;
+			probeRttEnd = -1;
+			probeMinRtt = -1;
+		}
+		if (mode == PROBE_RTT) {
+			if (rtt > 0 && (probeMinRtt < 0 || rtt < probeMinRtt))
+				probeMinRtt = rtt;
+			if (probeRttEnd < 0 && inFlight <= MIN_WINDOW) {
+				probeRttEnd = now + Math.max(PROBE_RTT_TIME, minRtt);
+			} else if (probeRttEnd >= 0 && now >= probeRttEnd) {
+				if (probeMinRtt > 0)
+					minRtt = probeMinRtt;
+				minRttStamp = now;
+				mode = filled ? PROBE_BW : STARTUP;
+			}
+		}
+		if (now - roundStart >= minRtt) { // a new round
+			round++;
+			roundStart = now;
+			bwSamples[(int) (round % BW_ROUNDS)] = 0;
+			if (mode == STARTUP) {
+				double bw = bandwidth();
+				if (bw >= fullBw * 1.25) {
+					fullBw = bw;
+					fullBwRounds = 0;
+				} else if (++fullBwRounds >= 3) {
+					mode = DRAIN;
+					filled = true;
+				}
+			} else if (mode == PROBE_BW) {
+				cyclePhase = (cyclePhase + 1) % CYCLE.length;
+			}
+		}
+		int slot = (int) (round % BW_ROUNDS);
+		if (deliveryRate > bwSamples[slot])
+			bwSamples[slot] = deliveryRate;
+		if (mode == DRAIN && inFlight <= bdp()) {
+			mode = PROBE_BW;
+			cyclePhase = 2;
+		}
+	}
+
+	public void onLoss(int now, int inFlight) {
+	}
+
+	public void onTimeout(int now) {
+		afterTimeout = true;
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(mode);
+		for (double s : bwSamples)
+			out.writeDouble(s);
+		out.writeLong(round);
+		out.writeInt(roundStart);
+		out.writeInt(minRtt);
+		out.writeInt(minRttStamp);
+		out.writeDouble(fullBw);
+		out.writeInt(fullBwRounds);
+		out.writeInt(cyclePhase);
+		out.writeBoolean(filled);
+		out.writeInt(probeRttEnd);
+		out.writeInt(probeMinRtt);
+		out.writeBoolean(afterTimeout);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		mode = in.readInt();
+		for (int i = 0; i < bwSamples.length; i++)
+			bwSamples[i] = in.readDouble();
+		round = in.readLong();
+		roundStart = in.readInt();
+		minRtt = in.readInt();
+		minRttStamp = in.readInt();
+		fullBw = in.readDouble();
+		fullBwRounds = in.readInt();
+		cyclePhase = in.readInt();
+		filled = in.readBoolean();
+		probeRttEnd = in.readInt();
+		probeMinRtt = in.readInt();
+		afterTimeout = in.readBoolean();
+	}
+
+}
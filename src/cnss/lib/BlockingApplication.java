@@ -0,0 +1,327 @@
+package cnss.lib;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+
+import cnss.simulator.DataPacket;
+import cnss.simulator.Node;
+
+/**
+ * An application algorithm written as a sequential program that blocks,
+ * instead of a state machine driven by upcalls. Subclasses implement
+ * <code>run</code>, which may call <code>receive</code>, to wait for a
+ * packet, <code>sleep</code>, to wait for some virtual time, and
+ * <code>send</code>.
+ *
+ * The program of each node runs in its own thread, a virtual thread when the
+ * Java runtime has them (Java 21 or later) and a daemon platform thread
+ * otherwise, but never at the same time as the simulator: an upcall resumes
+ * the program and waits until it blocks again, or ends. The program thus runs
+ * at the virtual time of the upcall that resumed it, in the processing step of
+ * its node, and a simulation with blocking programs is as deterministic as any
+ * other. The program starts when the node is initialised and is resumed:
+ * <ul>
+ * <li>by <code>on_receive</code>, when it waits in <code>receive</code>;
+ * packets received while it does something else are queued;</li>
+ * <li>by <code>on_timeout</code>, when the time of its <code>sleep</code>, or
+ * of a <code>receive</code> with a timeout, has come.</li>
+ * </ul>
+ * The timeouts are set with <code>set_timeout</code> of the node, which a
+ * received packet cancels: they are then set again for the time left. The
+ * clock ticks are not used.
+ *
+ * A program still blocked when the simulation ends, by <code>finish</code> of
+ * the simulator, is unwound: its primitive throws an error that ends it, which
+ * it should not catch, so that its thread ends too. Blocking programs cannot be
+ * saved in checkpoints.
+ */
+public abstract class BlockingApplication extends AbstractApplicationAlgorithm {
+
+	private static final int RUNNING = 0;
+	private static final int RECEIVING = 1;
+	private static final int SLEEPING = 2;
+	private static final int ENDED = 3;
+
+	private static final String[] STATES = { "running", "waiting for a packet", "sleeping", "ended" };
+
+	// Thread.ofVirtual() and the name and unstarted methods of its builders,
+	// found by reflection to run on Java 11; null if there are no virtual threads
+	private static final Method ofVirtual;
+	private static final Method named;
+	private static final Method unstarted;
+
+	static {
+		Method v = null;
+		Method n = null;
+		Method u = null;
+		try {
+			v = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			n = builder.getMethod("name", String.class);
+			u = builder.getMethod("unstarted", Runnable.class);
+			// preview versions have the methods but refuse to create virtual threads
+			u.invoke(v.invoke(null), (Runnable) () -> {
+			});
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			v = null;
+		}
+		ofVirtual = v;
+		named = n;
+		unstarted = u;
+	}
+
+	private final Semaphore toProgram = new Semaphore(0);
+	private final Semaphore toKernel = new Semaphore(0);
+	private final ArrayDeque<DataPacket> inbox = new ArrayDeque<>();
+	private Thread thread;
+	private int state = RUNNING;
+	private int clock = 0; // the virtual time of the upcall running the program
+	private int wakeup = -1; // when a sleep or a receive with a timeout ends, -1 if none
+	private Throwable failure = null;
+	private boolean terminated = false; // the simulation ended: the program must unwind
+
+	/**
+	 * Thrown by the primitives of a program when the simulation has ended
+	 */
+	private static final class Terminated extends Error {
+		private static final long serialVersionUID = 1L;
+
+		Terminated() {
+			super("simulation ended", null, false, false);
+		}
+	}
+
+	protected BlockingApplication(boolean logOn, String name) {
+		super(logOn, name);
+	}
+
+	/**
+	 * The program of the node, started when the node is initialised
+	 */
+	protected abstract void run();
+
+	@Override
+	public int initialise(int now, int node_id, Node nodeObj, String[] args) {
+		super.initialise(now, node_id, nodeObj, args);
+		clock = now;
+		thread = new_thread(() -> {
+			toProgram.acquireUninterruptibly();
+			try {
+				run();
+			} catch (Terminated t) {
+				// unwound at the end of the simulation
+			} catch (Throwable t) {
+				failure = t;
+			} finally {
+				state = ENDED;
+				toKernel.release();
+			}
+		}, "node " + node_id + " " + name);
+		thread.start();
+		self.atEnd(this::terminate);
+		resume(now);
+		return 0;
+	}
+
+	@Override
+	public void on_clock_tick(int now) {
+	}
+
+	@Override
+	public void on_timeout(int now) {
+		if ((state == SLEEPING || state == RECEIVING) && wakeup == now)
+			resume(now);
+	}
+
+	@Override
+	public void on_receive(int now, DataPacket p) {
+		if (state == ENDED)
+			return;
+		inbox.add(p);
+		if (state == RECEIVING || (state == SLEEPING && wakeup <= now)) {
+			// a packet cancels the timeout, even of this step
+			resume(now);
+		} else if (state == SLEEPING) {
+			self.set_timeout(wakeup - now);
+		}
+	}
+
+	@Override
+	public void showState(int now) {
+		self.getOutput().println(name + " time " + now + " node " + nodeId + " program " + STATES[state]
+				+ (state == SLEEPING || (state == RECEIVING && wakeup >= 0) ? " until " + wakeup : "")
+				+ ", " + inbox.size() + " packets queued");
+	}
+
+	// the primitives of the program
+
+	/**
+	 * Waits for a packet
+	 *
+	 * @return the first packet received and not yet returned
+	 */
+	protected DataPacket receive() {
+		check_thread("receive");
+		while (inbox.isEmpty())
+			block(RECEIVING, -1);
+		return inbox.poll();
+	}
+
+	/**
+	 * Waits for a packet, at most some time
+	 *
+	 * @param timeout the time to wait, in ms, at least 1
+	 * @return the first packet received and not yet returned, or null if none
+	 *         arrived in time
+	 */
+	protected DataPacket receive(int timeout) {
+		check_thread("receive");
+		if (timeout < 1)
+			throw new IllegalArgumentException(name + ": receive timeout must be >= 1: " + timeout);
+		int until = clock + timeout;
+		if (inbox.isEmpty()) {
+			self.set_timeout(timeout);
+			while (inbox.isEmpty() && clock < until)
+				block(RECEIVING, until);
+		}
+		return inbox.poll();
+	}
+
+	/**
+	 * Waits for some virtual time; the packets received meanwhile are kept for
+	 * <code>receive</code>
+	 *
+	 * @param ms the time to wait, in ms, at least 1
+	 */
+	protected void sleep(int ms) {
+		check_thread("sleep");
+		if (ms < 1)
+			throw new IllegalArgumentException(name + ": sleep time must be >= 1: " + ms);
+		int until = clock + ms;
+		self.set_timeout(ms);
+		while (clock < until)
+			block(SLEEPING, until);
+	}
+
+	/**
+	 * Sends a packet created with <code>createDataPacket</code> of the node
+	 *
+	 * @param p the packet
+	 */
+	protected void send(DataPacket p) {
+		check_thread("send");
+		self.send(p);
+	}
+
+	/**
+	 * Sends a packet with a payload to a node
+	 *
+	 * @param dst     the destination node
+	 * @param payload the payload
+	 * @return the packet sent
+	 */
+	protected DataPacket send(int dst, byte[] payload) {
+		DataPacket p = self.createDataPacket(dst, payload);
+		send(p);
+		return p;
+	}
+
+	/**
+	 * Returns the current virtual time
+	 *
+	 * @return the time, in ms
+	 */
+	protected int now() {
+		return clock;
+	}
+
+	/**
+	 * Logs a message with the current virtual time
+	 *
+	 * @param msg the message
+	 */
+	protected void log(String msg) {
+		log(clock, msg);
+	}
+
+	// auxiliary methods
+
+	/**
+	 * Runs the program until it blocks or ends; its exceptions are thrown by
+	 * the upcall
+	 */
+	private void resume(int now) {
+		clock = now;
+		state = RUNNING;
+		toProgram.release();
+		toKernel.acquireUninterruptibly();
+		if (failure != null) {
+			Throwable t = failure;
+			failure = null;
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			throw new IllegalStateException(name + ": program failed: " + t, t);
+		}
+	}
+
+	/**
+	 * Called by the program: gives the control back to the upcall and waits to
+	 * be resumed
+	 */
+	private void block(int s, int until) {
+		if (terminated)
+			throw new Terminated();
+		state = s;
+		wakeup = until;
+		toKernel.release();
+		toProgram.acquireUninterruptibly();
+		wakeup = -1;
+		if (terminated)
+			throw new Terminated();
+	}
+
+	/**
+	 * Unwinds the program if it is still blocked, and waits until its thread
+	 * ends; the errors it throws while unwinding are ignored
+	 */
+	private void terminate() {
+		if (state == ENDED)
+			return;
+		terminated = true;
+		toProgram.release();
+		toKernel.acquireUninterruptibly();
+		failure = null;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void check_thread(String primitive) {
+		if (Thread.currentThread() != thread)
+			throw new IllegalStateException(name + ": " + primitive + " may only be called by the program of the node");
+	}
+
+	/**
+	 * Creates a virtual thread if the runtime has them, else a daemon thread;
+	 * builders are not thread safe and nodes may start in parallel, so each
+	 * thread has its own
+	 */
+	private static Thread new_thread(Runnable r, String name) {
+		if (ofVirtual != null) {
+			try {
+				return (Thread) unstarted.invoke(named.invoke(ofVirtual.invoke(null), name), r);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// as if there were no virtual threads
+			}
+		}
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+}
@@ -0,0 +1,211 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import cnss.simulator.ApplicationAlgorithm;
+import cnss.simulator.DataPacket;
+import cnss.simulator.FluidFlow;
+import cnss.simulator.FluidFlowListener;
+import cnss.simulator.Node;
+import cnss.simulator.StateSnapshot;
+
+/**
+ * An application that sends bulk flows with a <code>ReliableTransport</code>
+ * and receives the flows sent to its node. Its arguments are options
+ * <code>name=value</code> and flows <code>dst:bytes[:start]</code>, started
+ * at time start (default 0), where 0 bytes is a flow that never ends. The
+ * options are <code>cc</code>, the congestion control (<code>reno</code>,
+ * <code>cubic</code> - the default - , <code>bbr</code> or a class name),
+ * <code>mss</code>, <code>min_rto</code>, <code>max_window</code> (in
+ * segments), <code>tick</code>, the clock tick
+ * period in ms (default 10), and <code>log</code>. A node without flows only
+ * receives. Its state shows the goodput and retransmissions of each flow.
+ *
+ * With the option <code>fluid</code>, the flows are fluid flows, started with
+ * <code>Node.startFlow</code>, instead of transport connections, and the
+ * state shows their rates and completion times; the node then gets no clock
+ * ticks, only a timeout at the start of each flow.
+ */
+public class BulkTransferApp implements ApplicationAlgorithm, StateSnapshot, FluidFlowListener {
+
+	private Node nodeObj;
+	private int nodeId;
+	private String[] args;
+
+	private String name = "bulk transfer";
+	private boolean logOn = false;
+
+	private ReliableTransport transport;
+	private String cc = "cubic";
+	private int[] dsts;
+	private long[] sizes;
+	private int[] starts;
+	private boolean[] opened;
+	private boolean fluid = false;
+	private int[] flowIds; // the ids of the fluid flows
+	private int[] completed; // the completion times of the fluid flows, -1 if not completed
+
+	public BulkTransferApp() {
+	}
+
+	public int initialise(int now, int node_id, Node mynode, String[] args) {
+		nodeId = node_id;
+		nodeObj = mynode;
+		this.args = args;
+		int mss = ReliableTransport.MSS;
+		int minRto = ReliableTransport.MIN_RTO;
+		int maxWindow = ReliableTransport.MAX_WINDOW;
+		int tick = 10;
+		int n = 0;
+		dsts = new int[args.length];
+		sizes = new long[args.length];
+		starts = new int[args.length];
+		for (String a : args) {
+			if (a.equals("log")) {
+				logOn = true;
+			} else if (a.equals("fluid")) {
+				fluid = true;
+			} else if (a.startsWith("cc=")) {
+				cc = a.substring(3);
+			} else if (a.startsWith("mss=")) {
+				mss = Integer.parseInt(a.substring(4));
+			} else if (a.startsWith("min_rto=")) {
+				minRto = Integer.parseInt(a.substring(8));
+			} else if (a.startsWith("max_window=")) {
+				maxWindow = Integer.parseInt(a.substring(11));
+			} else if (a.startsWith("tick=")) {
+				tick = Integer.parseInt(a.substring(5));
+			} else {
+				String[] f = a.split(":");
+				if (f.length < 2 || f.length > 3)
+					throw new IllegalArgumentException(name + ": bad flow " + a);
+				dsts[n] = Integer.parseInt(f[0]);
+				sizes[n] = Long.parseLong(f[1]);
+				starts[n] = f.length == 3 ? Integer.parseInt(f[2]) : 0;
+				n++;
+			}
+		}
+		ReliableTransport.congestionControl(cc); // fails early on a bad name
+		dsts = Arrays.copyOf(dsts, n);
+		sizes = Arrays.copyOf(sizes, n);
+		starts = Arrays.copyOf(starts, n);
+		opened = new boolean[n];
+		flowIds = new int[n];
+		completed = new int[n];
+		Arrays.fill(completed, -1);
+		transport = new ReliableTransport(nodeObj, mss, minRto, maxWindow);
+		open_flows(now);
+		if (fluid) { // no clock ticks: a timeout at the start of the next flow
+			set_next_timeout(now);
+			return 0;
+		}
+		return tick;
+	}
+
+	public void on_clock_tick(int now) {
+		open_flows(now);
+		transport.on_clock_tick(now);
+	}
+
+	public void on_timeout(int now) {
+		if (fluid) {
+			open_flows(now);
+			set_next_timeout(now);
+		} else
+			log(now, "timeout");
+	}
+
+	public void on_receive(int now, DataPacket p) {
+		if (!transport.on_receive(now, p))
+			log(now, "received a packet not of the transport " + p);
+	}
+
+	public void on_flow_end(int now, FluidFlow f) {
+		if (f.getSource() != nodeId) {
+			log(now, "received " + f);
+			return;
+		}
+		for (int i = 0; i < flowIds.length; i++) {
+			if (opened[i] && flowIds[i] == f.getId())
+				completed[i] = now;
+		}
+		log(now, "completed " + f);
+	}
+
+	public void showState(int now) {
+		if (!fluid) {
+			transport.showState(now, name);
+			return;
+		}
+		nodeObj.getOutput().println(name + " node " + nodeId + " time " + now + " fluid flows:");
+		for (int i = 0; i < opened.length; i++) {
+			if (!opened[i])
+				continue;
+			FluidFlow f = nodeObj.getFlow(flowIds[i]);
+			if (f != null)
+				nodeObj.getOutput().println("   " + f);
+			else if (completed[i] >= 0)
+				nodeObj.getOutput().println("   flow " + flowIds[i] + " to " + dsts[i] + " completed at " + completed[i]
+						+ " in " + (completed[i] - starts[i]) + " ms");
+			else
+				nodeObj.getOutput().println("   flow " + flowIds[i] + " to " + dsts[i] + " ended");
+		}
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		for (int i = 0; i < opened.length; i++) {
+			out.writeBoolean(opened[i]);
+			out.writeInt(flowIds[i]);
+			out.writeInt(completed[i]);
+		}
+		transport.saveState(out);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		for (int i = 0; i < opened.length; i++) {
+			opened[i] = in.readBoolean();
+			flowIds[i] = in.readInt();
+			completed[i] = in.readInt();
+		}
+		transport.restoreState(in);
+	}
+
+	// auxiliary methods
+
+	private void open_flows(int now) {
+		for (int i = 0; i < opened.length; i++) {
+			if (opened[i] || starts[i] > now)
+				continue;
+			opened[i] = true;
+			int id;
+			long bytes;
+			if (fluid) {
+				bytes = sizes[i] == 0 ? FluidFlow.UNBOUNDED : sizes[i];
+				id = flowIds[i] = nodeObj.startFlow(dsts[i], bytes);
+			} else {
+				bytes = sizes[i] == 0 ? ReliableTransport.UNBOUNDED : sizes[i];
+				id = transport.open(now, dsts[i], bytes, ReliableTransport.congestionControl(cc));
+			}
+			log(now, "opened flow " + id + " to " + dsts[i] + " of " + (sizes[i] == 0 ? "unbounded" : bytes) + " bytes");
+		}
+	}
+
+	private void set_next_timeout(int now) {
+		int next = Integer.MAX_VALUE;
+		for (int i = 0; i < opened.length; i++) {
+			if (!opened[i])
+				next = Math.min(next, starts[i]);
+		}
+		if (next != Integer.MAX_VALUE)
+			nodeObj.set_timeout(next - now);
+	}
+
+	private void log(int now, String msg) {
+		if (logOn)
+			nodeObj.getOutput().println("log: " + name + " time " + now + " node " + nodeId + " " + msg);
+	}
+
+}
@@ -0,0 +1,62 @@
+package cnss.lib;
+
+import cnss.simulator.StateSnapshot;
+
+/**
+ * The <code>CongestionControl</code> interface is implemented by the
+ * congestion control algorithms of the flows of a
+ * <code>ReliableTransport</code>. The transport tells the algorithm about
+ * the acknowledgements, losses and timeouts of a flow, and the algorithm
+ * gives the congestion window and, optionally, the pacing rate. All sizes are
+ * in segments and all times in ms.
+ */
+public interface CongestionControl extends StateSnapshot {
+
+	/**
+	 * The initial congestion window, as in RFC 6928
+	 */
+	public static final int INITIAL_WINDOW = 10;
+
+	/**
+	 * Returns the congestion window: the largest number of segments in flight
+	 *
+	 * @return the window in segments, at least 1
+	 */
+	public int window();
+
+	/**
+	 * Returns the pacing rate of the flow
+	 *
+	 * @return the rate in segments per ms, or 0 if the flow is not paced
+	 */
+	public double pacingRate();
+
+	/**
+	 * Signals an acknowledgement of new data
+	 *
+	 * @param now          the current time
+	 * @param acked        the number of segments newly acknowledged,
+	 *                     cumulatively or selectively
+	 * @param rtt          the round trip time measured by this ack, -1 if none
+	 * @param deliveryRate the delivery rate measured by this ack, in segments
+	 *                     per ms, 0 if none
+	 * @param inFlight     the number of segments in flight
+	 */
+	public void onAck(int now, int acked, int rtt, double deliveryRate, int inFlight);
+
+	/**
+	 * Signals a loss detected by duplicate or selective acks, once per window
+	 *
+	 * @param now      the current time
+	 * @param inFlight the number of segments in flight
+	 */
+	public void onLoss(int now, int inFlight);
+
+	/**
+	 * Signals a retransmission timeout
+	 *
+	 * @param now the current time
+	 */
+	public void onTimeout(int now);
+
+}
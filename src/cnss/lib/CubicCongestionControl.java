@@ -0,0 +1,105 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * CUBIC congestion control, as in RFC 8312: after a loss the window grows as a
+ * cubic function of the time since the loss, centered on the window before
+ * it, and never slower than Reno would. A loss multiplies the window by 0.7,
+ * with fast convergence, and a timeout brings it back to one segment.
+ */
+public class CubicCongestionControl implements CongestionControl {
+
+	private static final double C = 0.4;
+	private static final double BETA = 0.7;
+
+	private double cwnd = INITIAL_WINDOW;
+	private double ssthresh = Integer.MAX_VALUE;
+	private double wMax = 0;
+	private double wLastMax = 0;
+	private double k = 0;
+	private int epochStart = -1; // start of the current congestion avoidance epoch
+	private double wEst = 0; // the window Reno would have
+	private int minRtt = Integer.MAX_VALUE;
+
+	public CubicCongestionControl() {
+
+	}
+
+	public int window() {
+		return Math.max(1, (int) cwnd);
+	}
+
+	public double pacingRate() {
+		return 0;
+	}
+
+	public void onAck(int now, int acked, int rtt, double deliveryRate, int inFlight) {
+		if (rtt > 0)
+			minRtt = Math.min(minRtt, rtt);
+		if (cwnd < ssthresh) {
+			cwnd += acked;
+			return;
+		}
+		if (epochStart < 0) {
+			epochStart = now;
+			if (cwnd < wMax) {
+				k = Math.cbrt((wMax - cwnd) / C);
+			} else {
+				k = 0;
+				wMax = cwnd;
+			}
+			wEst = cwnd;
+		}
+		double rttSec = (minRtt == Integer.MAX_VALUE ? 0 : minRtt) / 1000.0;
+		double t = (now - epochStart) / 1000.0 + rttSec;
+		double target = C * Math.pow(t - k, 3) + wMax;
+		if (target > cwnd)
+			cwnd += acked * (target - cwnd) / cwnd;
+		else
+			cwnd += acked * 0.01 / cwnd;
+		wEst += acked * 3 * (1 - BETA) / (1 + BETA) / cwnd;
+		cwnd = Math.max(cwnd, wEst);
+	}
+
+	public void onLoss(int now, int inFlight) {
+		epochStart = -1;
+		if (cwnd < wLastMax) // fast convergence
+			wLastMax = cwnd * (1 + BETA) / 2;
+		else
+			wLastMax = cwnd;
+		wMax = wLastMax;
+		cwnd = Math.max(2, cwnd * BETA);
+		ssthresh = cwnd;
+	}
+
+	public void onTimeout(int now) {
+		onLoss(now, 0);
+		cwnd = 1;
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeDouble(cwnd);
+		out.writeDouble(ssthresh);
+		out.writeDouble(wMax);
+		out.writeDouble(wLastMax);
+		out.writeDouble(k);
+		out.writeInt(epochStart);
+		out.writeDouble(wEst);
+		out.writeInt(minRtt);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		cwnd = in.readDouble();
+		ssthresh = in.readDouble();
+		wMax = in.readDouble();
+		wLastMax = in.readDouble();
+		k = in.readDouble();
+		epochStart = in.readInt();
+		wEst = in.readDouble();
+		minRtt = in.readInt();
+	}
+
+}
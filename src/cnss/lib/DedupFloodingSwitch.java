@@ -0,0 +1,171 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import cnss.simulator.ControlAlgorithm;
+import cnss.simulator.GlobalParameters;
+import cnss.simulator.Link;
+import cnss.simulator.Node;
+import cnss.simulator.Packet;
+import cnss.simulator.StateSnapshot;
+
+/**
+ * A flooding switch that floods each packet only once. Each node remembers the
+ * (source, sequence number) of the packets it has already forwarded or
+ * delivered and drops the copies that come back through the cycles of the
+ * network, so flooding costs one transmission per link instead of growing
+ * exponentially until the TTL expires.
+ *
+ * The global parameter <code>dedup_capacity</code> sets how many packets each
+ * node remembers (default 4096); older ones are forgotten first. With the
+ * parameter <code>dedup_bloom</code>, packets are remembered in Bloom filters,
+ * which use less memory but may drop around 1% of new packets as if they were
+ * duplicates. The numbers of suppressed packets and bytes are shown by
+ * <code>dumpcontrolstate</code>.
+ */
+public class DedupFloodingSwitch implements ControlAlgorithm, StateSnapshot {
+
+	private Node nodeObj;
+	private int nodeId;
+	private GlobalParameters parameters;
+	private Link[] links;
+	private int numInterfaces;
+	private String name = "dedup flooding switch control: ";
+	private boolean tracingOn = false;
+
+	private SeenPackets seen;
+	private long suppressedPackets = 0;
+	private long suppressedBytes = 0;
+	private long floodedPackets = 0;
+
+	public DedupFloodingSwitch() {
+
+	}
+
+	public int initialise(int now, int node_id, Node mynode, GlobalParameters parameters, Link[] links, int nint) {
+		nodeId = node_id;
+		nodeObj = mynode;
+		this.parameters = parameters;
+		this.links = links;
+		numInterfaces = nint;
+		tracingOn = parameters.containsKey("trace");
+		int capacity = parameters.containsKey("dedup_capacity") ? Integer.parseInt(parameters.get("dedup_capacity")) : 4096;
+		seen = new SeenPackets(capacity, parameters.containsKey("dedup_bloom"));
+		return 0;
+	}
+
+	public void on_clock_tick(int now) {
+		trace(now, "clock tick");
+	}
+
+	public void on_timeout(int now) {
+		trace(now, "timeout");
+	}
+
+	public void on_link_up(int now, int iface) {
+		trace(now, iface + " link up");
+	}
+
+	public void on_link_down(int now, int iface) {
+		trace(now, iface + " link down");
+	}
+
+	public void on_receive(int now, Packet p, int iface) {
+		trace(now, "received control packet");
+	}
+
+	private void flood_packet(int now, Packet p, int iface) {
+		int copiesSent = 0;
+		// do the flood
+		for (int i = 0; i < links.length; i++) {
+			if (i != iface && links[i].isUp()) {
+				// always send a copy of p, not the object itself
+				nodeObj.send(p.getCopy(), i);
+				copiesSent++;
+			}
+		}
+		if (copiesSent == 0) { // allows the local node to count dropped packets
+			nodeObj.send(p, UNKNOWN);
+		}
+		floodedPackets++;
+		trace(now, "forwarded " + copiesSent + " packet copy(ies)");
+	}
+
+	public void forward_packet(int now, Packet p, int iface) {
+
+		if (seen.checkAndAdd(p.getSource(), p.getSequenceNumber())) {
+			suppressedPackets++;
+			suppressedBytes += p.getSize();
+			trace(now, "suppressed a duplicate of packet " + p.getSource() + "/" + p.getSequenceNumber());
+			return;
+		}
+
+		if (p.getDestination() == nodeObj.getId()) {
+			Packet localPacket = p.getCopy();
+			nodeObj.send(localPacket, LOCAL);
+			trace(now, "forwarded a packet locally sent to this node");
+			return; // all done
+		}
+
+		if (p.getDestination() == Packet.BROADCAST) {
+			Packet localPacket = p.getCopy();
+			localPacket.setDestination(nodeObj.getId());
+			nodeObj.send(localPacket, LOCAL);
+			trace(now, "forwarded a local copy of a broadcasted packet");
+		}
+
+		flood_packet(now, p, iface);
+	}
+
+	public void showControlState(int now) {
+		nodeObj.getOutput().println(name + "time " + now + " node " + nodeId + " flooded " + floodedPackets
+				+ " packets, suppressed " + suppressedPackets + " duplicates (" + suppressedBytes + " bytes), remembers "
+				+ seen.size() + " packets");
+	}
+
+	public void showRoutingTable(int now) {
+		trace(now, "has no routing table to show");
+	}
+
+	/**
+	 * Returns the number of duplicate packets dropped by this node
+	 * 
+	 * @return the number of packets
+	 */
+	public long getSuppressedPackets() {
+		return suppressedPackets;
+	}
+
+	/**
+	 * Returns the number of bytes of the duplicate packets dropped by this node
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getSuppressedBytes() {
+		return suppressedBytes;
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeLong(suppressedPackets);
+		out.writeLong(suppressedBytes);
+		out.writeLong(floodedPackets);
+		seen.saveState(out);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		suppressedPackets = in.readLong();
+		suppressedBytes = in.readLong();
+		floodedPackets = in.readLong();
+		seen.restoreState(in);
+	}
+
+	// auxiliary methods
+
+	private void trace(int now, String msg) {
+		if (tracingOn)
+			nodeObj.getOutput().println("-- trace: " + name + " time " + now + " node " + nodeId + " " + msg);
+	}
+
+}
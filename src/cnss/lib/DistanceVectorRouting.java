@@ -0,0 +1,412 @@
+package cnss.lib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import cnss.simulator.ControlAlgorithm;
+import cnss.simulator.GlobalParameters;
+import cnss.simulator.Link;
+import cnss.simulator.Node;
+import cnss.simulator.Packet;
+import cnss.simulator.StateSnapshot;
+
+/**
+ * A distance-vector routing algorithm with hop count metrics. Distances equal
+ * or above <code>INFINITY</code> mean unreachable.
+ *
+ * Each router keeps the last vector received by each interface and, for each
+ * destination, chooses the interface with the smallest distance; directly
+ * connected nodes are always at distance 1. Vectors are sent with split
+ * horizon and poisoned reverse: a router announces <code>INFINITY</code> to
+ * the neighbour it uses to reach a destination.
+ *
+ * Changed routes are not sent at once: they are collected and sent together,
+ * in one control packet per interface, when the control timeout expires,
+ * which is armed so that two triggered updates are at least
+ * <code>dv_trigger</code> ms apart (default 100). Full vectors are only sent
+ * when a link comes up and every <code>dv_period</code> ms (default 30000);
+ * destinations missing from a full vector are unreachable by its sender.
+ * Vectors are encoded as sorted lists of (destination delta, distance) pairs
+ * of variable length integers.
+ */
+public class DistanceVectorRouting implements ControlAlgorithm, StateSnapshot {
+
+	private static final byte TRIGGERED = 0;
+	private static final byte FULL = 1;
+	private static final int[] NONE = new int[0];
+
+	private Node nodeObj;
+	private int nodeId;
+	private GlobalParameters parameters;
+	private Link[] links;
+	private int numInterfaces;
+	private String name = "distance vector routing: ";
+	private boolean tracingOn = false;
+
+	private int period;
+	private int triggerInterval;
+
+	// routing table and the vectors received by each interface, indexed by destination
+	private int[] dist = NONE;
+	private int[] nextHop = NONE;
+	private int[][] received;
+
+	// routes changed since the last update
+	private boolean[] changed = new boolean[0];
+	private int[] changedList = NONE;
+	private int changedCount = 0;
+	private int updateAt = -1; // time of the next triggered update, -1 if none
+	private int lastUpdate = Integer.MIN_VALUE / 2;
+
+	private long triggeredPackets = 0;
+	private long fullPackets = 0;
+	private long sentEntries = 0;
+	private long sentBytes = 0;
+
+	public DistanceVectorRouting() {
+
+	}
+
+	public int initialise(int now, int node_id, Node mynode, GlobalParameters parameters, Link[] links, int nint) {
+		nodeId = node_id;
+		nodeObj = mynode;
+		this.parameters = parameters;
+		this.links = links;
+		numInterfaces = nint;
+		tracingOn = parameters.containsKey("trace");
+		period = parameters.containsKey("dv_period") ? Integer.parseInt(parameters.get("dv_period")) : 30000;
+		triggerInterval = parameters.containsKey("dv_trigger") ? Integer.parseInt(parameters.get("dv_trigger")) : 100;
+		received = new int[nint][0];
+		ensure(nodeId);
+		dist[nodeId] = 0;
+		nextHop[nodeId] = LOCAL;
+		for (int i = 0; i < nint; i++)
+			if (links[i].isUp())
+				connect(i);
+		for (int i = 0; i < nint; i++)
+			if (links[i].isUp())
+				send_full(i);
+		clear_changes();
+		return period;
+	}
+
+	public void on_clock_tick(int now) {
+		trace(now, "clock tick");
+		for (int i = 0; i < numInterfaces; i++)
+			if (links[i].isUp())
+				send_full(i);
+		// full vectors carry every change
+		clear_changes();
+		updateAt = -1;
+		lastUpdate = now;
+	}
+
+	public void on_timeout(int now) {
+		if (updateAt < 0 || now < updateAt)
+			return;
+		trace(now, "sending " + changedCount + " changed routes");
+		Arrays.sort(changedList, 0, changedCount);
+		for (int i = 0; i < numInterfaces; i++)
+			if (links[i].isUp())
+				send(TRIGGERED, changedList, changedCount, i);
+		clear_changes();
+		updateAt = -1;
+		lastUpdate = now;
+	}
+
+	public void on_link_up(int now, int iface) {
+		trace(now, iface + " link up");
+		connect(iface);
+		send_full(iface);
+		schedule_update(now);
+	}
+
+	public void on_link_down(int now, int iface) {
+		trace(now, iface + " link down");
+		int[] v = received[iface];
+		Arrays.fill(v, INFINITY);
+		for (int d = 0; d < dist.length; d++)
+			if (nextHop[d] == iface)
+				route(d);
+		schedule_update(now);
+	}
+
+	public void on_receive(int now, Packet p, int iface) {
+		byte[] b = p.getPayload();
+		if (iface < 0 || b.length == 0 || !links[iface].isUp()) {
+			trace(now, "ignored control packet " + p);
+			return;
+		}
+		int[] pos = { 1 };
+		int count = read_varint(b, pos);
+		int d = 0;
+		int next = 0; // full vectors: the first destination not yet processed
+		for (int k = 0; k < count; k++) {
+			d += read_varint(b, pos);
+			int m = Math.min(INFINITY, read_varint(b, pos));
+			ensure(d);
+			if (b[0] == FULL)
+				for (; next < d; next++)
+					set_received(iface, next, INFINITY);
+			set_received(iface, d, m);
+			next = d + 1;
+		}
+		if (b[0] == FULL)
+			for (; next < dist.length; next++)
+				set_received(iface, next, INFINITY);
+		connect(iface);
+		schedule_update(now);
+	}
+
+	public void forward_packet(int now, Packet p, int iface) {
+		int dst = p.getDestination();
+		if (dst == nodeId) {
+			nodeObj.send(p.getCopy(), LOCAL);
+			trace(now, "forwarded a packet locally sent to this node");
+			return;
+		}
+		if (dst == Packet.BROADCAST) {
+			Packet localPacket = p.getCopy();
+			localPacket.setDestination(nodeId);
+			nodeObj.send(localPacket, LOCAL);
+			trace(now, "forwarded a local copy of a broadcasted packet");
+			return;
+		}
+		if (dst < 0 || dst >= nextHop.length || nextHop[dst] < 0 || !links[nextHop[dst]].isUp()) {
+			nodeObj.send(p, UNKNOWN);
+			trace(now, "no route to " + dst);
+			return;
+		}
+		nodeObj.send(iface == LOCAL ? p.getCopy() : p, nextHop[dst]);
+	}
+
+	public void showControlState(int now) {
+		nodeObj.getOutput().println(name + "time " + now + " node " + nodeId + " sent " + triggeredPackets
+				+ " triggered and " + fullPackets + " full vectors, " + sentEntries + " entries in " + sentBytes
+				+ " bytes, " + changedCount + " changes pending");
+	}
+
+	public void showRoutingTable(int now) {
+		StringBuilder s = new StringBuilder(name + "time " + now + " node " + nodeId + " routing table");
+		for (int d = 0; d < dist.length; d++)
+			if (d != nodeId && dist[d] < INFINITY)
+				s.append("\n  " + d + " -> " + nextHop[d] + " cost " + dist[d]);
+		nodeObj.getOutput().println(s);
+	}
+
+	/**
+	 * Returns the number of bytes of the vectors sent by this node
+	 *
+	 * @return the number of bytes
+	 */
+	public long getSentBytes() {
+		return sentBytes;
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(dist.length);
+		for (int d = 0; d < dist.length; d++) {
+			out.writeInt(dist[d]);
+			out.writeInt(nextHop[d]);
+			for (int i = 0; i < numInterfaces; i++)
+				out.writeInt(received[i][d]);
+		}
+		out.writeInt(changedCount);
+		for (int k = 0; k < changedCount; k++)
+			out.writeInt(changedList[k]);
+		out.writeInt(updateAt);
+		out.writeInt(lastUpdate);
+		out.writeLong(triggeredPackets);
+		out.writeLong(fullPackets);
+		out.writeLong(sentEntries);
+		out.writeLong(sentBytes);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		// the tables are rebuilt with the saved size, even if they grew since
+		clear_changes();
+		dist = NONE;
+		nextHop = NONE;
+		changed = new boolean[0];
+		for (int i = 0; i < numInterfaces; i++)
+			received[i] = NONE;
+		ensure(n - 1);
+		for (int d = 0; d < n; d++) {
+			dist[d] = in.readInt();
+			nextHop[d] = in.readInt();
+			for (int i = 0; i < numInterfaces; i++)
+				received[i][d] = in.readInt();
+		}
+		clear_changes();
+		for (int k = in.readInt(); k > 0; k--)
+			mark_changed(in.readInt());
+		updateAt = in.readInt();
+		lastUpdate = in.readInt();
+		triggeredPackets = in.readLong();
+		fullPackets = in.readLong();
+		sentEntries = in.readLong();
+		sentBytes = in.readLong();
+	}
+
+	// routes
+
+	/**
+	 * Records the distance to d announced by the neighbour at iface
+	 */
+	private void set_received(int iface, int d, int m) {
+		if (received[iface][d] == m)
+			return;
+		received[iface][d] = m;
+		route(d);
+	}
+
+	/**
+	 * The neighbour at iface is always at distance 0 from itself, even if it
+	 * does not run this algorithm
+	 */
+	private void connect(int iface) {
+		int v = links[iface].getNode(1) == nodeId ? links[iface].getNode(2) : links[iface].getNode(1);
+		if (v == nodeId)
+			return;
+		ensure(v);
+		received[iface][v] = 0;
+		route(v);
+	}
+
+	/**
+	 * Chooses the route to d, keeping the current next hop among equals
+	 */
+	private void route(int d) {
+		if (d == nodeId)
+			return;
+		int best = INFINITY;
+		int hop = UNKNOWN;
+		for (int i = 0; i < numInterfaces; i++) {
+			int c = received[i][d] + 1;
+			if (!links[i].isUp() || c >= INFINITY)
+				continue;
+			if (c < best || (c == best && i == nextHop[d])) {
+				best = c;
+				hop = i;
+			}
+		}
+		if (best != dist[d] || hop != nextHop[d]) {
+			dist[d] = best;
+			nextHop[d] = hop;
+			mark_changed(d);
+		}
+	}
+
+	private void mark_changed(int d) {
+		if (changed[d])
+			return;
+		changed[d] = true;
+		if (changedCount == changedList.length)
+			changedList = Arrays.copyOf(changedList, Math.max(16, 2 * changedCount));
+		changedList[changedCount++] = d;
+	}
+
+	private void clear_changes() {
+		for (int k = 0; k < changedCount; k++)
+			changed[changedList[k]] = false;
+		changedCount = 0;
+	}
+
+	/**
+	 * Arms the control timeout for the next triggered update, if there are
+	 * changes to send. Receiving a control packet cancels the control timeout,
+	 * so it is armed again after each one.
+	 */
+	private void schedule_update(int now) {
+		if (changedCount == 0)
+			return;
+		if (updateAt < 0)
+			updateAt = Math.max(now + 1, lastUpdate + triggerInterval);
+		nodeObj.set_control_timeout(Math.max(1, updateAt - now));
+	}
+
+	// vectors
+
+	private void send_full(int iface) {
+		int[] all = new int[dist.length];
+		int n = 0;
+		for (int d = 0; d < dist.length; d++)
+			if (dist[d] < INFINITY)
+				all[n++] = d;
+		send(FULL, all, n, iface);
+	}
+
+	/**
+	 * Sends the routes to the destinations in dests[0..n), which are sorted,
+	 * with split horizon and poisoned reverse
+	 */
+	private void send(byte kind, int[] dests, int n, int iface) {
+		ByteArrayOutputStream b = new ByteArrayOutputStream(2 + 3 * n);
+		b.write(kind);
+		write_varint(b, n);
+		int prev = 0;
+		for (int k = 0; k < n; k++) {
+			int d = dests[k];
+			write_varint(b, d - prev);
+			write_varint(b, nextHop[d] == iface ? INFINITY : dist[d]);
+			prev = d;
+		}
+		byte[] payload = b.toByteArray();
+		nodeObj.send(nodeObj.createControlPacket(nodeId, Packet.ONEHOP, payload), iface);
+		if (kind == FULL)
+			fullPackets++;
+		else
+			triggeredPackets++;
+		sentEntries += n;
+		sentBytes += payload.length;
+	}
+
+	private static void write_varint(ByteArrayOutputStream b, int v) {
+		while ((v & ~0x7f) != 0) {
+			b.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		b.write(v);
+	}
+
+	private static int read_varint(byte[] b, int[] pos) {
+		int v = 0;
+		for (int shift = 0;; shift += 7) {
+			int x = b[pos[0]++];
+			v |= (x & 0x7f) << shift;
+			if ((x & 0x80) == 0)
+				return v;
+		}
+	}
+
+	/**
+	 * Grows the arrays indexed by destination to hold d
+	 */
+	private void ensure(int d) {
+		int old = dist.length;
+		if (d < old)
+			return;
+		int n = Math.max(d + 1, 2 * old);
+		dist = Arrays.copyOf(dist, n);
+		nextHop = Arrays.copyOf(nextHop, n);
+		changed = Arrays.copyOf(changed, n);
+		Arrays.fill(dist, old, n, INFINITY);
+		Arrays.fill(nextHop, old, n, UNKNOWN);
+		for (int i = 0; i < numInterfaces; i++) {
+			received[i] = Arrays.copyOf(received[i], n);
+			Arrays.fill(received[i], old, n, INFINITY);
+		}
+	}
+
+	// auxiliary methods
+
+	private void trace(int now, String msg) {
+		if (tracingOn)
+			nodeObj.getOutput().println("-- trace: " + name + " time " + now + " node " + nodeId + " " + msg);
+	}
+
+}
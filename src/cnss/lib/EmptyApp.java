@@ -2,12 +2,17 @@ package cnss.lib;
 
 // An application algorithm that does nothing
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import cnss.simulator.ApplicationAlgorithm;
 import cnss.simulator.Node;
 import cnss.simulator.Packet;
 import cnss.simulator.DataPacket;
+import cnss.simulator.StateSnapshot;
 
-public class EmptyApp implements ApplicationAlgorithm {
+public class EmptyApp implements ApplicationAlgorithm, StateSnapshot {
 
 	private Node nodeObj;
 	private int nodeId;
@@ -44,11 +49,18 @@ public class EmptyApp implements ApplicationAlgorithm {
 		log(now, "has no state to show");
 	}
 
+	public void saveState(DataOutputStream out) throws IOException {
+		// no state to save
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+	}
+
 	// auxiliary methods
 
 	private void log(int now, String msg) {
 		if (logOn)
-			System.out.println("log: " + name + " time " + now + " node " + nodeId + " " + msg);
+			nodeObj.getOutput().println("log: " + name + " time " + now + " node " + nodeId + " " + msg);
 	}
 
 }
@@ -2,13 +2,19 @@ package cnss.lib;
 
 // the control (routing) of an end system with one only interface
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import cnss.simulator.ControlAlgorithm;
 import cnss.simulator.GlobalParameters;
 import cnss.simulator.Link;
 import cnss.simulator.Node;
 import cnss.simulator.Packet;
+import cnss.simulator.SimulatorException;
+import cnss.simulator.StateSnapshot;
 
-public class EndSystemControl extends AbstractControlAlgorithm {
+public class EndSystemControl extends AbstractControlAlgorithm implements StateSnapshot {
 	
 	private Node nodeObj;
 	private int nodeId;
@@ -28,9 +34,7 @@ public class EndSystemControl extends AbstractControlAlgorithm {
 			super.set_trace(true);
 		}
 		if ( nint > 1 ) {
-			super.set_trace(true);
-			trace(now,"end system has more than one interface");
-			System.exit(-1);
+			throw new SimulatorException("end system node " + node_id + " has more than one interface");
 		}
 		trace(now, "starting");
 		nodeId = node_id;
@@ -74,5 +78,12 @@ public class EndSystemControl extends AbstractControlAlgorithm {
 		nodeObj.send(p,UNKNOWN);
 	}
 
+	public void saveState(DataOutputStream out) throws IOException {
+		// no state besides the one rebuilt by initialise
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+	}
+
 }
 
@@ -1,12 +1,17 @@
 package cnss.lib;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import cnss.simulator.ControlAlgorithm;
 import cnss.simulator.GlobalParameters;
 import cnss.simulator.Link;
 import cnss.simulator.Node;
 import cnss.simulator.Packet;
+import cnss.simulator.StateSnapshot;
 
-public class FloodingSwitch implements ControlAlgorithm {
+public class FloodingSwitch implements ControlAlgorithm, StateSnapshot {
 
 	private Node nodeObj;
 	private int nodeId;
@@ -94,11 +99,18 @@ public class FloodingSwitch implements ControlAlgorithm {
 		trace(now, "has no routing table to show");
 	}
 
+	public void saveState(DataOutputStream out) throws IOException {
+		// no state besides the one rebuilt by initialise
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+	}
+
 	// auxiliary methods
 
 	private void trace(int now, String msg) {
 		if (tracingOn)
-			System.out.println("-- trace: " + name + " time " + now + " node " + nodeId + " " + msg);
+			nodeObj.getOutput().println("-- trace: " + name + " time " + now + " node " + nodeId + " " + msg);
 	}
 
 }
@@ -0,0 +1,200 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import cnss.simulator.ControlAlgorithm;
+
+/**
+ * The forwarding table of a learning switch: maps node ids to the interface
+ * where packets sent by them were last received. Entries are kept in a
+ * primitive open addressing table, together with the time they were last
+ * refreshed, and expire <code>agingTime</code> ms after that. Expired entries
+ * are removed when they are looked up or when the table needs to grow.
+ */
+class ForwardingTable {
+
+	private static final int EMPTY = -1; // node ids are never negative
+	private static final int INITIAL_SIZE = 16;
+
+	private final int agingTime;
+
+	private int[] keys = new int[INITIAL_SIZE];
+	private int[] ifaces = new int[INITIAL_SIZE];
+	private int[] stamps = new int[INITIAL_SIZE];
+	private int size = 0;
+
+	/**
+	 * @param agingTime the time, in ms, an entry lives without being refreshed
+	 */
+	ForwardingTable(int agingTime) {
+		this.agingTime = agingTime;
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * Records that packets from node were received by interface iface
+	 */
+	void learn(int node, int iface, int now) {
+		int mask = keys.length - 1;
+		int i = hash(node) & mask;
+		while (keys[i] != EMPTY) {
+			if (keys[i] == node) {
+				ifaces[i] = iface;
+				stamps[i] = now;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		if (2 * (size + 1) > keys.length) {
+			rebuild(now);
+			learn(node, iface, now);
+			return;
+		}
+		keys[i] = node;
+		ifaces[i] = iface;
+		stamps[i] = now;
+		size++;
+	}
+
+	/**
+	 * Returns the interface to reach node, or UNKNOWN if there is no valid entry
+	 */
+	int lookup(int node, int now) {
+		int mask = keys.length - 1;
+		int i = hash(node) & mask;
+		while (keys[i] != EMPTY) {
+			if (keys[i] == node) {
+				if (now - stamps[i] <= agingTime)
+					return ifaces[i];
+				removeAt(i);
+				return ControlAlgorithm.UNKNOWN;
+			}
+			i = (i + 1) & mask;
+		}
+		return ControlAlgorithm.UNKNOWN;
+	}
+
+	/**
+	 * Removes all the entries pointing to an interface
+	 */
+	void flush(int iface) {
+		for (int i = 0; i < keys.length; i++) {
+			// removals shift keys back to i, so check it again
+			while (keys[i] != EMPTY && ifaces[i] == iface)
+				removeAt(i);
+		}
+	}
+
+	/**
+	 * Removes all the entries
+	 */
+	void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of entries, including the expired ones not yet removed
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the valid entries as pairs (node, interface), sorted by node
+	 */
+	int[][] entries(int now) {
+		int[][] e = new int[size][];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++)
+			if (keys[i] != EMPTY && now - stamps[i] <= agingTime)
+				e[n++] = new int[] { keys[i], ifaces[i] };
+		e = Arrays.copyOf(e, n);
+		Arrays.sort(e, (a, b) -> Integer.compare(a[0], b[0]));
+		return e;
+	}
+
+	/**
+	 * Drops the expired entries and doubles the table if it is still more than
+	 * a quarter full
+	 */
+	private void rebuild(int now) {
+		int[] oldKeys = keys;
+		int[] oldIfaces = ifaces;
+		int[] oldStamps = stamps;
+		int live = 0;
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != EMPTY && now - oldStamps[i] <= agingTime)
+				live++;
+		int length = 4 * (live + 1) > oldKeys.length ? oldKeys.length * 2 : oldKeys.length;
+		keys = new int[length];
+		ifaces = new int[length];
+		stamps = new int[length];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != EMPTY && now - oldStamps[i] <= agingTime)
+				learn(oldKeys[i], oldIfaces[i], oldStamps[i]);
+	}
+
+	/**
+	 * Removes the entry at slot i, shifting back the keys of the same cluster
+	 * so that no tombstone is needed
+	 */
+	private void removeAt(int i) {
+		int mask = keys.length - 1;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (keys[j] == EMPTY)
+				break;
+			int home = hash(keys[j]) & mask;
+			// the key at j can move to i if its home slot is not in (i, j]
+			boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+			if (!stays) {
+				keys[i] = keys[j];
+				ifaces[i] = ifaces[j];
+				stamps[i] = stamps[j];
+				i = j;
+			}
+		}
+		keys[i] = EMPTY;
+		size--;
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Writes the entries to a checkpoint
+	 */
+	void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY) {
+				out.writeInt(keys[i]);
+				out.writeInt(ifaces[i]);
+				out.writeInt(stamps[i]);
+			}
+		}
+	}
+
+	/**
+	 * Restores the entries written by saveState
+	 */
+	void restoreState(DataInputStream in) throws IOException {
+		clear();
+		for (int n = in.readInt(); n > 0; n--) {
+			int node = in.readInt();
+			int iface = in.readInt();
+			int stamp = in.readInt();
+			learn(node, iface, stamp);
+		}
+	}
+
+}
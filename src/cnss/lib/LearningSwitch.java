@@ -0,0 +1,389 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import cnss.simulator.ControlAlgorithm;
+import cnss.simulator.GlobalParameters;
+import cnss.simulator.Link;
+import cnss.simulator.Node;
+import cnss.simulator.Packet;
+import cnss.simulator.StateSnapshot;
+
+/**
+ * A learning switch. Each switch learns, from the packets it forwards, the
+ * interface that leads to their source and sends the packets addressed to a
+ * known node only by that interface. Packets to unknown nodes and broadcast
+ * packets are flooded. Learned entries expire after
+ * <code>learning_aging</code> ms (default 300000) without being refreshed.
+ *
+ * Loops are avoided by a simplified spanning tree protocol: every
+ * <code>stp_hello</code> ms (default 1000), and whenever its view of the tree
+ * changes, each switch sends by all its interfaces a one hop control packet
+ * with the root it knows (the smallest node id), its distance to it in hops,
+ * its id, the interface and the role of the interface. Each switch elects a
+ * root interface, the one leading to the root by the best path, and the
+ * designated interfaces, where it offers a better path to the root than the
+ * neighbour; the other interfaces are blocked and neither send nor receive
+ * data packets. Data packets are also not sent to interfaces whose neighbour
+ * reported them as blocked. The information received by an interface is
+ * forgotten after <code>stp_max_age</code> ms (default three hello periods)
+ * and an interface that leaves the blocked state only starts forwarding after
+ * <code>stp_forward_delay</code> ms (default two hello periods). When the
+ * roles of its interfaces change, a switch starts a topology change: it
+ * increments a counter, carried by its control packets, and every switch that
+ * sees a larger counter clears its learned entries.
+ */
+public class LearningSwitch implements ControlAlgorithm, StateSnapshot {
+
+	// interface roles
+	static final int DISABLED = 0;
+	static final int DESIGNATED = 1;
+	static final int ROOT = 2;
+	static final int BLOCKED = 3;
+	static final String[] ROLE_NAMES = { "disabled", "designated", "root", "blocked" };
+
+	private static final int BPDU_SIZE = 21;
+
+	private Node nodeObj;
+	private int nodeId;
+	private GlobalParameters parameters;
+	private Link[] links;
+	private int numInterfaces;
+	private String name = "learning switch control: ";
+	private boolean tracingOn = false;
+
+	private int helloTime;
+	private int maxAge;
+	private int forwardDelay;
+	private ForwardingTable table;
+
+	// spanning tree state
+	private int root;
+	private int rootCost;
+	private int rootPort;
+	private int topologyChanges = 0;
+	private int[] role;
+	private int[] forwardAt; // when a non blocked interface starts forwarding
+
+	// the last information received by each interface, rxTime < 0 if none
+	private int[] rxRoot;
+	private int[] rxCost;
+	private int[] rxBridge;
+	private int[] rxPort;
+	private int[] rxRole;
+	private int[] rxTime;
+
+	private long unicastPackets = 0;
+	private long floodedPackets = 0;
+	private long discardedPackets = 0;
+
+	public LearningSwitch() {
+
+	}
+
+	public int initialise(int now, int node_id, Node mynode, GlobalParameters parameters, Link[] links, int nint) {
+		nodeId = node_id;
+		nodeObj = mynode;
+		this.parameters = parameters;
+		this.links = links;
+		numInterfaces = nint;
+		tracingOn = parameters.containsKey("trace");
+		helloTime = intParameter("stp_hello", 1000);
+		maxAge = intParameter("stp_max_age", 3 * helloTime);
+		forwardDelay = intParameter("stp_forward_delay", 2 * helloTime);
+		table = new ForwardingTable(intParameter("learning_aging", 300000));
+		root = nodeId;
+		rootCost = 0;
+		rootPort = UNKNOWN;
+		role = new int[nint];
+		forwardAt = new int[nint];
+		rxRoot = new int[nint];
+		rxCost = new int[nint];
+		rxBridge = new int[nint];
+		rxPort = new int[nint];
+		rxRole = new int[nint];
+		rxTime = new int[nint];
+		Arrays.fill(rxTime, -1);
+		update_tree(now, true);
+		topologyChanges = 0; // enabling the interfaces is not a change
+		return helloTime;
+	}
+
+	public void on_clock_tick(int now) {
+		trace(now, "clock tick");
+		for (int i = 0; i < numInterfaces; i++)
+			if (rxTime[i] >= 0 && now - rxTime[i] > maxAge)
+				rxTime[i] = -1;
+		if (!update_tree(now, false))
+			send_bpdus(now);
+	}
+
+	public void on_timeout(int now) {
+		trace(now, "timeout");
+	}
+
+	public void on_link_up(int now, int iface) {
+		trace(now, iface + " link up");
+		update_tree(now, true);
+	}
+
+	public void on_link_down(int now, int iface) {
+		trace(now, iface + " link down");
+		rxTime[iface] = -1;
+		table.flush(iface);
+		update_tree(now, true);
+	}
+
+	public void on_receive(int now, Packet p, int iface) {
+		byte[] payload = p.getPayload();
+		if (iface < 0 || payload.length != BPDU_SIZE) {
+			trace(now, "ignored control packet " + p);
+			return;
+		}
+		ByteBuffer b = ByteBuffer.wrap(payload);
+		rxRoot[iface] = b.getInt();
+		rxCost[iface] = b.getInt();
+		rxBridge[iface] = b.getInt();
+		rxPort[iface] = b.getInt();
+		rxRole[iface] = b.get();
+		rxTime[iface] = now;
+		int changes = b.getInt();
+		if (changes > topologyChanges) {
+			topologyChanges = changes;
+			table.clear();
+			trace(now, "topology change " + changes + ", cleared learned entries");
+		}
+		update_tree(now, false);
+	}
+
+	public void forward_packet(int now, Packet p, int iface) {
+
+		if (iface != LOCAL && !forwarding(iface, now)) {
+			discardedPackets++;
+			nodeObj.send(p, UNKNOWN);
+			trace(now, "discarded a packet received by non forwarding interface " + iface);
+			return;
+		}
+		if (iface != LOCAL && p.getSource() != nodeId)
+			table.learn(p.getSource(), iface, now);
+
+		if (p.getDestination() == nodeObj.getId()) {
+			Packet localPacket = p.getCopy();
+			nodeObj.send(localPacket, LOCAL);
+			trace(now, "forwarded a packet locally sent to this node");
+			return; // all done
+		}
+
+		if (p.getDestination() == Packet.BROADCAST) {
+			Packet localPacket = p.getCopy();
+			localPacket.setDestination(nodeObj.getId());
+			nodeObj.send(localPacket, LOCAL);
+			trace(now, "forwarded a local copy of a broadcasted packet");
+			flood_packet(now, p, iface);
+			return;
+		}
+
+		int out = table.lookup(p.getDestination(), now);
+		if (out == UNKNOWN || !sends_data(out, now)) {
+			flood_packet(now, p, iface);
+			return;
+		}
+		if (out == iface) { // the destination is on the side the packet came from
+			discardedPackets++;
+			nodeObj.send(p, UNKNOWN);
+			trace(now, "filtered a packet to " + p.getDestination() + " received by its interface");
+			return;
+		}
+		unicastPackets++;
+		nodeObj.send(p.getCopy(), out);
+		trace(now, "forwarded packet to " + p.getDestination() + " by interface " + out);
+	}
+
+	private void flood_packet(int now, Packet p, int iface) {
+		int copiesSent = 0;
+		for (int i = 0; i < numInterfaces; i++) {
+			if (i != iface && sends_data(i, now)) {
+				// always send a copy of p, not the object itself
+				nodeObj.send(p.getCopy(), i);
+				copiesSent++;
+			}
+		}
+		if (copiesSent == 0) { // allows the local node to count dropped packets
+			nodeObj.send(p, UNKNOWN);
+		}
+		floodedPackets++;
+		trace(now, "flooded " + copiesSent + " packet copy(ies)");
+	}
+
+	public void showControlState(int now) {
+		StringBuilder s = new StringBuilder(name + "time " + now + " node " + nodeId + " root " + root + " cost " + rootCost + " topology changes "
+				+ topologyChanges + " unicast " + unicastPackets + " flooded " + floodedPackets + " discarded "
+				+ discardedPackets);
+		for (int i = 0; i < numInterfaces; i++)
+			s.append("\n  interface " + i + " " + ROLE_NAMES[role[i]] + (forwarding(i, now) ? " forwarding" : ""));
+		nodeObj.getOutput().println(s);
+	}
+
+	public void showRoutingTable(int now) {
+		StringBuilder s = new StringBuilder(name + "time " + now + " node " + nodeId + " learned "
+				+ table.size() + " entries");
+		for (int[] e : table.entries(now))
+			s.append("\n  " + e[0] + " -> " + e[1]);
+		nodeObj.getOutput().println(s);
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(root);
+		out.writeInt(rootCost);
+		out.writeInt(rootPort);
+		out.writeInt(topologyChanges);
+		int[][] arrays = { role, forwardAt, rxRoot, rxCost, rxBridge, rxPort, rxRole, rxTime };
+		for (int[] a : arrays)
+			for (int v : a)
+				out.writeInt(v);
+		out.writeLong(unicastPackets);
+		out.writeLong(floodedPackets);
+		out.writeLong(discardedPackets);
+		table.saveState(out);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		root = in.readInt();
+		rootCost = in.readInt();
+		rootPort = in.readInt();
+		topologyChanges = in.readInt();
+		int[][] arrays = { role, forwardAt, rxRoot, rxCost, rxBridge, rxPort, rxRole, rxTime };
+		for (int[] a : arrays)
+			for (int i = 0; i < a.length; i++)
+				a[i] = in.readInt();
+		unicastPackets = in.readLong();
+		floodedPackets = in.readLong();
+		discardedPackets = in.readLong();
+		table.restoreState(in);
+	}
+
+	// spanning tree
+
+	/**
+	 * Elects the root and the roles of the interfaces from the information
+	 * received, and sends control packets if they changed
+	 *
+	 * @return true if control packets were sent
+	 */
+	private boolean update_tree(int now, boolean force) {
+		int newRoot = nodeId;
+		int newCost = 0;
+		int newRootPort = UNKNOWN;
+		// the best path to the root, as (root, cost, bridge, port, local interface)
+		for (int i = 0; i < numInterfaces; i++) {
+			if (!valid(i) || rxCost[i] + 1 >= INFINITY)
+				continue; // INFINITY stops counting to infinity when the root is gone
+			if (newRootPort == UNKNOWN ? better(rxRoot[i], rxCost[i] + 1, rxBridge[i], rxPort[i], newRoot, newCost, nodeId, -1)
+					: better(rxRoot[i], rxCost[i] + 1, rxBridge[i], rxPort[i], newRoot, newCost, rxBridge[newRootPort],
+							rxPort[newRootPort])) {
+				newRoot = rxRoot[i];
+				newCost = rxCost[i] + 1;
+				newRootPort = i;
+			}
+		}
+		boolean changed = newRoot != root || newCost != rootCost || newRootPort != rootPort;
+		boolean topologyChanged = false;
+		root = newRoot;
+		rootCost = newCost;
+		rootPort = newRootPort;
+		for (int i = 0; i < numInterfaces; i++) {
+			int r;
+			if (!links[i].isUp())
+				r = DISABLED;
+			else if (i == rootPort)
+				r = ROOT;
+			else if (!valid(i) || better(root, rootCost, nodeId, i, rxRoot[i], rxCost[i], rxBridge[i], rxPort[i]))
+				r = DESIGNATED;
+			else
+				r = BLOCKED;
+			if (r == role[i])
+				continue;
+			boolean wasForwarding = role[i] == DESIGNATED || role[i] == ROOT;
+			boolean willForward = r == DESIGNATED || r == ROOT;
+			if (willForward && !wasForwarding)
+				forwardAt[i] = now + forwardDelay;
+			if (wasForwarding != willForward)
+				topologyChanged = true;
+			if (!willForward)
+				table.flush(i);
+			trace(now, "interface " + i + " " + ROLE_NAMES[role[i]] + " -> " + ROLE_NAMES[r]);
+			role[i] = r;
+			changed = true;
+		}
+		if (topologyChanged) {
+			topologyChanges++;
+			table.clear();
+		}
+		if (changed || force) {
+			send_bpdus(now);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends the spanning tree information to all neighbours
+	 */
+	private void send_bpdus(int now) {
+		for (int i = 0; i < numInterfaces; i++) {
+			if (!links[i].isUp())
+				continue;
+			ByteBuffer b = ByteBuffer.allocate(BPDU_SIZE);
+			b.putInt(root).putInt(rootCost).putInt(nodeId).putInt(i).put((byte) role[i]).putInt(topologyChanges);
+			nodeObj.send(nodeObj.createControlPacket(nodeId, Packet.ONEHOP, b.array()), i);
+		}
+	}
+
+	/**
+	 * Returns true if the vector (root, cost, bridge, port) a is better than b
+	 */
+	private static boolean better(int aRoot, int aCost, int aBridge, int aPort, int bRoot, int bCost, int bBridge,
+			int bPort) {
+		if (aRoot != bRoot)
+			return aRoot < bRoot;
+		if (aCost != bCost)
+			return aCost < bCost;
+		if (aBridge != bBridge)
+			return aBridge < bBridge;
+		return aPort < bPort;
+	}
+
+	private boolean valid(int iface) {
+		return rxTime[iface] >= 0 && links[iface].isUp();
+	}
+
+	/**
+	 * Returns true if data packets can be received by an interface
+	 */
+	private boolean forwarding(int iface, int now) {
+		return (role[iface] == DESIGNATED || role[iface] == ROOT) && now >= forwardAt[iface] && links[iface].isUp();
+	}
+
+	/**
+	 * Returns true if data packets can be sent by an interface
+	 */
+	private boolean sends_data(int iface, int now) {
+		return forwarding(iface, now) && !(valid(iface) && rxRole[iface] == BLOCKED);
+	}
+
+	// auxiliary methods
+
+	private int intParameter(String key, int defaultValue) {
+		return parameters.containsKey(key) ? Integer.parseInt(parameters.get(key)) : defaultValue;
+	}
+
+	private void trace(int now, String msg) {
+		if (tracingOn)
+			nodeObj.getOutput().println("-- trace: " + name + " time " + now + " node " + nodeId + " " + msg);
+	}
+
+}
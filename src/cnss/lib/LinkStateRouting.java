@@ -0,0 +1,511 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import cnss.simulator.ControlAlgorithm;
+import cnss.simulator.GlobalParameters;
+import cnss.simulator.Link;
+import cnss.simulator.Node;
+import cnss.simulator.Packet;
+import cnss.simulator.StateSnapshot;
+
+/**
+ * A link-state routing algorithm. Each router describes its up links in a
+ * link-state advertisement (LSA) with a sequence number, and floods it, in one
+ * hop control packets, whenever one of its links goes up or down and every
+ * <code>ls_refresh</code> ms (default 30000). Each router keeps the last LSA
+ * of every other router and forgets the LSAs not refreshed for
+ * <code>ls_max_age</code> ms (default three refresh periods). When a link
+ * comes up, the whole database is sent to the neighbour. The cost of a link is
+ * 1 or, if the parameter <code>ls_cost</code> is <code>latency</code>, its
+ * latency in ms.
+ *
+ * The shortest path tree is not recomputed from scratch when an LSA changes.
+ * When the links of a router get worse, only the subtrees hanging from them
+ * are invalidated and reattached through their best neighbours outside the
+ * subtrees; when they get better, the improvement is propagated from the
+ * router. Both the database and the routing table are kept in primitive arrays
+ * indexed by node id.
+ *
+ * Broadcast packets are not routed: they are only delivered locally.
+ */
+public class LinkStateRouting implements ControlAlgorithm, StateSnapshot {
+
+	private static final int INF = Integer.MAX_VALUE;
+	private static final int AFFECTED = -2; // parent of a node that lost its path
+	private static final int[] NONE = new int[0];
+
+	// the heaps are empty between updates, so the routers run by a thread share one
+	private static final ThreadLocal<NodeHeap> heaps = ThreadLocal.withInitial(NodeHeap::new);
+
+	private Node nodeObj;
+	private int nodeId;
+	private GlobalParameters parameters;
+	private Link[] links;
+	private int numInterfaces;
+	private String name = "link state routing: ";
+	private boolean tracingOn = false;
+
+	private int refresh;
+	private int maxAge;
+	private boolean latencyCost;
+
+	// link state database, indexed by origin
+	private int[] lsaSeq = NONE; // 0 if never received
+	private int[] lsaTime = NONE; // when it was received, -1 if expired
+	private int[][] adjNode = new int[0][];
+	private int[][] adjCost = new int[0][];
+	// reverse adjacencies: the routers announcing a link to each node
+	private int[][] revNode = new int[0][];
+	private int[] revCount = NONE;
+
+	// shortest path tree and routing table, indexed by destination
+	private int[] dist = NONE;
+	private int[] parent = NONE;
+	private int[] nextHop = NONE;
+	private int[] ownIfaces = NONE; // the interface of each link of this node's LSA
+
+	private int[] affected = NONE;
+
+	private long spfUpdates = 0;
+	private long settledNodes = 0;
+
+	public LinkStateRouting() {
+
+	}
+
+	public int initialise(int now, int node_id, Node mynode, GlobalParameters parameters, Link[] links, int nint) {
+		nodeId = node_id;
+		nodeObj = mynode;
+		this.parameters = parameters;
+		this.links = links;
+		numInterfaces = nint;
+		tracingOn = parameters.containsKey("trace");
+		refresh = parameters.containsKey("ls_refresh") ? Integer.parseInt(parameters.get("ls_refresh")) : 30000;
+		maxAge = parameters.containsKey("ls_max_age") ? Integer.parseInt(parameters.get("ls_max_age")) : 3 * refresh;
+		latencyCost = "latency".equals(parameters.get("ls_cost"));
+		ensure(nodeId);
+		dist[nodeId] = 0;
+		nextHop[nodeId] = LOCAL;
+		originate(now);
+		return refresh;
+	}
+
+	public void on_clock_tick(int now) {
+		trace(now, "clock tick");
+		for (int r = 0; r < lsaSeq.length; r++) {
+			if (r != nodeId && lsaTime[r] >= 0 && lsaSeq[r] > 0 && now - lsaTime[r] > maxAge) {
+				trace(now, "LSA of " + r + " expired");
+				lsaTime[r] = -1;
+				update(r, NONE, NONE);
+			}
+		}
+		if (now - lsaTime[nodeId] >= refresh)
+			originate(now);
+	}
+
+	public void on_timeout(int now) {
+		trace(now, "timeout");
+	}
+
+	public void on_link_up(int now, int iface) {
+		trace(now, iface + " link up");
+		originate(now);
+		// synchronise the neighbour database
+		int count = 0;
+		int ints = 1;
+		for (int r = 0; r < lsaSeq.length; r++) {
+			if (lsaSeq[r] > 0 && lsaTime[r] >= 0) {
+				count++;
+				ints += 3 + 2 * adjNode[r].length;
+			}
+		}
+		ByteBuffer b = ByteBuffer.allocate(4 * ints);
+		b.putInt(count);
+		for (int r = 0; r < lsaSeq.length; r++)
+			if (lsaSeq[r] > 0 && lsaTime[r] >= 0)
+				put_lsa(b, r);
+		send(b.array(), iface);
+	}
+
+	public void on_link_down(int now, int iface) {
+		trace(now, iface + " link down");
+		originate(now);
+	}
+
+	public void on_receive(int now, Packet p, int iface) {
+		ByteBuffer b = ByteBuffer.wrap(p.getPayload());
+		int count = b.getInt();
+		// the accepted LSAs are flooded, the older ones answered with ours
+		ByteBuffer accepted = null;
+		int acceptedCount = 0;
+		int[] older = NONE;
+		int olderCount = 0;
+		for (int k = 0; k < count; k++) {
+			int start = b.position();
+			int origin = b.getInt();
+			int seq = b.getInt();
+			int n = b.getInt();
+			ensure(origin);
+			if (origin == nodeId || seq <= lsaSeq[origin]) {
+				b.position(b.position() + 8 * n); // not needed, skip the links
+				if (origin != nodeId && seq < lsaSeq[origin] && lsaTime[origin] >= 0) {
+					if (olderCount == older.length)
+						older = Arrays.copyOf(older, Math.max(4, 2 * olderCount));
+					older[olderCount++] = origin;
+				} else if (origin == nodeId && seq > lsaSeq[nodeId]) {
+					// an old incarnation of ours is still around
+					lsaSeq[nodeId] = seq;
+					originate(now);
+				}
+				continue;
+			}
+			int[] nodes = new int[n];
+			int[] costs = new int[n];
+			for (int j = 0; j < n; j++) {
+				nodes[j] = b.getInt();
+				costs[j] = b.getInt();
+			}
+			lsaSeq[origin] = seq;
+			lsaTime[origin] = now;
+			update(origin, nodes, costs);
+			if (accepted == null) {
+				accepted = ByteBuffer.allocate(p.getPayload().length);
+				accepted.putInt(0);
+			}
+			accepted.put(p.getPayload(), start, b.position() - start);
+			acceptedCount++;
+		}
+		if (acceptedCount > 0) {
+			// payloads are never modified, so they can be shared by the copies
+			byte[] payload = p.getPayload();
+			if (acceptedCount < count) {
+				accepted.putInt(0, acceptedCount);
+				payload = Arrays.copyOf(accepted.array(), accepted.position());
+			}
+			for (int i = 0; i < numInterfaces; i++)
+				if (i != iface && links[i].isUp())
+					send(payload, i);
+		}
+		if (olderCount > 0) {
+			int ints = 1;
+			for (int k = 0; k < olderCount; k++)
+				ints += 3 + 2 * adjNode[older[k]].length;
+			ByteBuffer reply = ByteBuffer.allocate(4 * ints);
+			reply.putInt(olderCount);
+			for (int k = 0; k < olderCount; k++)
+				put_lsa(reply, older[k]);
+			send(reply.array(), iface);
+		}
+	}
+
+	public void forward_packet(int now, Packet p, int iface) {
+		int dst = p.getDestination();
+		if (dst == nodeId) {
+			nodeObj.send(p.getCopy(), LOCAL);
+			trace(now, "forwarded a packet locally sent to this node");
+			return;
+		}
+		if (dst == Packet.BROADCAST) {
+			Packet localPacket = p.getCopy();
+			localPacket.setDestination(nodeId);
+			nodeObj.send(localPacket, LOCAL);
+			trace(now, "forwarded a local copy of a broadcasted packet");
+			return;
+		}
+		if (dst < 0 || dst >= nextHop.length || nextHop[dst] < 0 || !links[nextHop[dst]].isUp()) {
+			nodeObj.send(p, UNKNOWN);
+			trace(now, "no route to " + dst);
+			return;
+		}
+		nodeObj.send(iface == LOCAL ? p.getCopy() : p, nextHop[dst]);
+	}
+
+	public void showControlState(int now) {
+		int known = 0;
+		for (int r = 0; r < lsaSeq.length; r++)
+			if (lsaSeq[r] > 0 && lsaTime[r] >= 0)
+				known++;
+		nodeObj.getOutput().println(name + "time " + now + " node " + nodeId + " LSA seq " + lsaSeq[nodeId] + " knows "
+				+ known + " LSAs, " + spfUpdates + " SPF updates settled " + settledNodes + " nodes");
+	}
+
+	public void showRoutingTable(int now) {
+		StringBuilder s = new StringBuilder(name + "time " + now + " node " + nodeId + " routing table");
+		for (int d = 0; d < dist.length; d++)
+			if (d != nodeId && dist[d] != INF)
+				s.append("\n  " + d + " -> " + nextHop[d] + " cost " + dist[d]);
+		nodeObj.getOutput().println(s);
+	}
+
+	/**
+	 * Returns the number of shortest path tree updates, one per LSA change
+	 *
+	 * @return the number of updates
+	 */
+	public long getSpfUpdates() {
+		return spfUpdates;
+	}
+
+	/**
+	 * Returns the number of nodes settled by all the shortest path tree updates
+	 *
+	 * @return the number of nodes
+	 */
+	public long getSettledNodes() {
+		return settledNodes;
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		int n = lsaSeq.length;
+		out.writeInt(n);
+		out.writeLong(spfUpdates);
+		out.writeLong(settledNodes);
+		for (int[] a : new int[][] { lsaSeq, lsaTime, dist, parent, nextHop, revCount })
+			for (int v : a)
+				out.writeInt(v);
+		out.writeInt(ownIfaces.length);
+		for (int v : ownIfaces)
+			out.writeInt(v);
+		for (int r = 0; r < n; r++) {
+			out.writeInt(adjNode[r].length);
+			for (int j = 0; j < adjNode[r].length; j++) {
+				out.writeInt(adjNode[r][j]);
+				out.writeInt(adjCost[r][j]);
+			}
+			for (int j = 0; j < revCount[r]; j++)
+				out.writeInt(revNode[r][j]);
+		}
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		// the tables are rebuilt with the saved size, even if they grew since
+		lsaSeq = lsaTime = revCount = dist = parent = nextHop = NONE;
+		adjNode = new int[0][];
+		adjCost = new int[0][];
+		revNode = new int[0][];
+		ensure(n - 1);
+		spfUpdates = in.readLong();
+		settledNodes = in.readLong();
+		for (int[] a : new int[][] { lsaSeq, lsaTime, dist, parent, nextHop, revCount })
+			for (int i = 0; i < n; i++)
+				a[i] = in.readInt();
+		ownIfaces = new int[in.readInt()];
+		for (int i = 0; i < ownIfaces.length; i++)
+			ownIfaces[i] = in.readInt();
+		for (int r = 0; r < n; r++) {
+			adjNode[r] = new int[in.readInt()];
+			adjCost[r] = new int[adjNode[r].length];
+			for (int j = 0; j < adjNode[r].length; j++) {
+				adjNode[r][j] = in.readInt();
+				adjCost[r][j] = in.readInt();
+			}
+			revNode[r] = new int[Math.max(2, revCount[r])];
+			for (int j = 0; j < revCount[r]; j++)
+				revNode[r][j] = in.readInt();
+		}
+	}
+
+	// link state advertisements
+
+	/**
+	 * Builds a new LSA from the up links of this node, installs and floods it
+	 */
+	private void originate(int now) {
+		int[] nodes = new int[numInterfaces];
+		int[] costs = new int[numInterfaces];
+		int[] ifaces = new int[numInterfaces];
+		int n = 0;
+		for (int i = 0; i < numInterfaces; i++) {
+			if (!links[i].isUp())
+				continue;
+			int v = links[i].getNode(1) == nodeId ? links[i].getNode(2) : links[i].getNode(1);
+			int c = latencyCost ? Math.max(1, links[i].getLatency()) : 1;
+			if (v == nodeId)
+				continue;
+			int k = 0;
+			while (k < n && nodes[k] != v)
+				k++;
+			if (k == n) {
+				nodes[n] = v;
+				costs[n] = c;
+				ifaces[n++] = i;
+			} else if (c < costs[k]) { // parallel links: keep the best
+				costs[k] = c;
+				ifaces[k] = i;
+			}
+		}
+		nodes = Arrays.copyOf(nodes, n);
+		costs = Arrays.copyOf(costs, n);
+		ownIfaces = Arrays.copyOf(ifaces, n);
+		lsaSeq[nodeId]++;
+		lsaTime[nodeId] = now;
+		update(nodeId, nodes, costs);
+		ByteBuffer b = ByteBuffer.allocate(4 * (4 + 2 * n));
+		b.putInt(1);
+		put_lsa(b, nodeId);
+		for (int i = 0; i < numInterfaces; i++)
+			if (links[i].isUp())
+				send(b.array(), i);
+		trace(now, "originated LSA " + lsaSeq[nodeId] + " with " + n + " neighbours");
+	}
+
+	private void put_lsa(ByteBuffer b, int r) {
+		b.putInt(r).putInt(lsaSeq[r]).putInt(adjNode[r].length);
+		for (int j = 0; j < adjNode[r].length; j++)
+			b.putInt(adjNode[r][j]).putInt(adjCost[r][j]);
+	}
+
+	private void send(byte[] payload, int iface) {
+		nodeObj.send(nodeObj.createControlPacket(nodeId, Packet.ONEHOP, payload), iface);
+	}
+
+	// incremental shortest path tree
+
+	/**
+	 * Replaces the links announced by router r and updates the shortest path
+	 * tree, touching only the nodes whose distance or next hop changes
+	 */
+	private void update(int r, int[] nodes, int[] costs) {
+		int[] oldNodes = adjNode[r];
+		int[] oldCosts = adjCost[r];
+		for (int v : oldNodes)
+			rev_remove(v, r);
+		for (int k = 0; k < nodes.length; k++) {
+			ensure(nodes[k]);
+			rev_add(nodes[k], r);
+		}
+		adjNode[r] = nodes;
+		adjCost[r] = costs;
+		spfUpdates++;
+		NodeHeap heap = heaps.get();
+
+		// the subtrees below the links that got worse lose their paths
+		int count = 0;
+		for (int k = 0; k < oldNodes.length; k++) {
+			int v = oldNodes[k];
+			if (parent[v] != r)
+				continue;
+			int j = index_of(nodes, v);
+			// a neighbour of this node reached by another interface is also affected
+			if (j >= 0 && costs[j] <= oldCosts[k] && !(r == nodeId && ownIfaces[j] != nextHop[v]))
+				continue;
+			parent[v] = AFFECTED;
+			int first = count;
+			affected = push(affected, count++, v);
+			while (first < count) {
+				int x = affected[first++];
+				for (int y : adjNode[x]) {
+					if (parent[y] == x) {
+						parent[y] = AFFECTED;
+						affected = push(affected, count++, y);
+					}
+				}
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			dist[affected[k]] = INF;
+			nextHop[affected[k]] = UNKNOWN;
+		}
+		// reattach them through their neighbours outside the subtrees
+		for (int k = 0; k < count; k++) {
+			int x = affected[k];
+			for (int j = 0; j < revCount[x]; j++) {
+				int u = revNode[x][j];
+				if (dist[u] != INF)
+					relax(heap, u, x, adjCost[u][index_of(adjNode[u], x)]);
+			}
+		}
+		for (int k = 0; k < count; k++)
+			if (parent[affected[k]] == AFFECTED)
+				parent[affected[k]] = -1; // unreachable, unless found below
+		// and propagate the links that got better
+		for (int k = 0; k < nodes.length; k++)
+			relax(heap, r, nodes[k], costs[k]);
+
+		while (!heap.isEmpty()) {
+			int x = heap.poll();
+			settledNodes++;
+			nextHop[x] = parent[x] == nodeId ? ownIfaces[index_of(adjNode[nodeId], x)] : nextHop[parent[x]];
+			for (int j = 0; j < adjNode[x].length; j++)
+				relax(heap, x, adjNode[x][j], adjCost[x][j]);
+		}
+	}
+
+	private void relax(NodeHeap heap, int u, int v, int c) {
+		if (dist[u] == INF || dist[u] + c >= dist[v])
+			return;
+		dist[v] = dist[u] + c;
+		parent[v] = u;
+		heap.update(v, dist[v]);
+	}
+
+	private static int index_of(int[] a, int v) {
+		for (int j = 0; j < a.length; j++)
+			if (a[j] == v)
+				return j;
+		return -1;
+	}
+
+	private void rev_add(int v, int u) {
+		if (revCount[v] == revNode[v].length)
+			revNode[v] = Arrays.copyOf(revNode[v], Math.max(2, 2 * revCount[v]));
+		revNode[v][revCount[v]++] = u;
+	}
+
+	private void rev_remove(int v, int u) {
+		for (int j = 0; j < revCount[v]; j++) {
+			if (revNode[v][j] == u) {
+				// keep the order, so that ties are broken as before
+				System.arraycopy(revNode[v], j + 1, revNode[v], j, revCount[v] - j - 1);
+				revCount[v]--;
+				return;
+			}
+		}
+	}
+
+	private static int[] push(int[] a, int i, int v) {
+		if (i == a.length)
+			a = Arrays.copyOf(a, Math.max(16, 2 * i));
+		a[i] = v;
+		return a;
+	}
+
+	/**
+	 * Grows the arrays indexed by node id to hold id
+	 */
+	private void ensure(int id) {
+		int old = lsaSeq.length;
+		if (id < old)
+			return;
+		int n = Math.max(id + 1, 2 * old);
+		lsaSeq = Arrays.copyOf(lsaSeq, n);
+		lsaTime = Arrays.copyOf(lsaTime, n);
+		adjNode = Arrays.copyOf(adjNode, n);
+		adjCost = Arrays.copyOf(adjCost, n);
+		revNode = Arrays.copyOf(revNode, n);
+		revCount = Arrays.copyOf(revCount, n);
+		dist = Arrays.copyOf(dist, n);
+		parent = Arrays.copyOf(parent, n);
+		nextHop = Arrays.copyOf(nextHop, n);
+		Arrays.fill(adjNode, old, n, NONE);
+		Arrays.fill(adjCost, old, n, NONE);
+		Arrays.fill(revNode, old, n, NONE);
+		Arrays.fill(dist, old, n, INF);
+		Arrays.fill(parent, old, n, -1);
+		Arrays.fill(nextHop, old, n, UNKNOWN);
+	}
+
+	// auxiliary methods
+
+	private void trace(int now, String msg) {
+		if (tracingOn)
+			nodeObj.getOutput().println("-- trace: " + name + " time " + now + " node " + nodeId + " " + msg);
+	}
+
+}
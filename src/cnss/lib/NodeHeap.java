@@ -0,0 +1,113 @@
+package cnss.lib;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of node ids, keyed by an int, with decrease key. Used by
+ * the shortest path computations of the routing algorithms. Nodes with the
+ * same key come out by increasing id, so the computations are deterministic.
+ * The arrays grow with the largest node id seen and are never shrunk.
+ */
+class NodeHeap {
+
+	private int[] heap = new int[16];
+	private int[] pos = new int[16]; // position of each node in the heap, -1 if absent
+	private int[] keys = new int[16];
+	private int size = 0;
+
+	NodeHeap() {
+		Arrays.fill(pos, -1);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++)
+			pos[heap[i]] = -1;
+		size = 0;
+	}
+
+	/**
+	 * Inserts a node or, if it is already in the heap, changes its key
+	 */
+	void update(int node, int key) {
+		if (node >= pos.length) {
+			int n = Math.max(node + 1, pos.length * 2);
+			int old = pos.length;
+			pos = Arrays.copyOf(pos, n);
+			keys = Arrays.copyOf(keys, n);
+			Arrays.fill(pos, old, n, -1);
+		}
+		int i = pos[node];
+		if (i < 0) {
+			if (size == heap.length)
+				heap = Arrays.copyOf(heap, size * 2);
+			i = size++;
+			heap[i] = node;
+			pos[node] = i;
+			keys[node] = key;
+			up(i);
+			return;
+		}
+		int old = keys[node];
+		keys[node] = key;
+		if (key < old)
+			up(i);
+		else
+			down(i);
+	}
+
+	/**
+	 * Removes and returns the node with the smallest key
+	 */
+	int poll() {
+		int node = heap[0];
+		pos[node] = -1;
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			pos[heap[0]] = 0;
+			down(0);
+		}
+		return node;
+	}
+
+	private boolean less(int a, int b) {
+		return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+	}
+
+	private void up(int i) {
+		int node = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!less(node, heap[parent]))
+				break;
+			heap[i] = heap[parent];
+			pos[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = node;
+		pos[node] = i;
+	}
+
+	private void down(int i) {
+		int node = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && less(heap[child + 1], heap[child]))
+				child++;
+			if (!less(heap[child], node))
+				break;
+			heap[i] = heap[child];
+			pos[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = node;
+		pos[node] = i;
+	}
+
+}
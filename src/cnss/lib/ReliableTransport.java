@@ -0,0 +1,762 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cnss.simulator.DataPacket;
+import cnss.simulator.Node;
+import cnss.simulator.StateSnapshot;
+
+/**
+ * A reliable transport for the application algorithms of a node, which sends
+ * flows of bytes to other nodes over data packets and receives the flows they
+ * send to it. A flow is sent in segments of at most <code>mss</code> bytes,
+ * numbered from 0, with a sliding window given by its congestion control
+ * algorithm. Data packets only carry the header of the segment, their size
+ * being given by a virtual payload length, so the bytes of a flow are never
+ * allocated. The receiver acknowledges every segment with the cumulative ack,
+ * the time stamp of the segment and up to 3 blocks of segments received out of
+ * order (selective acks).
+ *
+ * The sender estimates the round trip time and the retransmission timeout as
+ * in RFC 6298, with a minimum of <code>minRto</code> ms. Three duplicate acks,
+ * those selectively acking new segments, or three segments selectively acked,
+ * start a recovery: the first unacked segment, and those below the highest
+ * selectively acked one, are taken as lost and retransmitted first, once per
+ * recovery. During a recovery, an ack advancing the window takes the first
+ * unacked segment as lost only if it was sent before the segment acked, which
+ * was then delivered first, as in RFC 6675; a timeout takes all the segments
+ * in flight as lost. The window is never larger than
+ * <code>maxWindow</code> segments, the receive window, which bounds the queues
+ * flows build on links without losses. Paced flows, e.g. those of a
+ * <code>BbrCongestionControl</code>, send no faster than their pacing rate.
+ *
+ * The application must hand the transport its clock ticks, which drive the
+ * timeouts and the pacing, and the data packets it receives; the node timeout
+ * is not used since it is cancelled by the delivery of data packets. Each flow
+ * only costs the transport its segments in flight and a few counters, and the
+ * clock ticks only visit the flows still sending, so a node can send and
+ * receive thousands of flows at once.
+ */
+public class ReliableTransport implements StateSnapshot {
+
+	public static final int MSS = 1000;
+	public static final int MIN_RTO = 200;
+	public static final int MAX_WINDOW = 1024;
+	public static final long UNBOUNDED = -1;
+
+	private static final byte DATA = 0;
+	private static final byte LAST = 1; // the last data segment of a flow
+	private static final byte ACK = 2;
+	private static final int DATA_HEADER = 13; // type, flow, segment, time stamp
+	private static final int ACK_HEADER = 18; // type, flow, cumulative ack, echoed segment and time stamp, blocks
+	private static final int MAX_SACK_BLOCKS = 3;
+	private static final int INITIAL_RTO = 1000;
+	private static final int MAX_RTO = 60000;
+	private static final int INITIAL_RING = 16;
+
+	// states of the segments at the sender; 0 is acked or not sent
+	private static final byte SENT = 1;
+	private static final byte SACKED = 2;
+	private static final byte LOST = 3;
+	private static final byte RESENT = 4;
+
+	/**
+	 * The sending side of a flow
+	 */
+	private static class Sender {
+		final int id;
+		final int dst;
+		final long bytes; // UNBOUNDED or the size of the flow
+		final int segments; // the number of segments of the flow
+		final int startTime;
+		final CongestionControl cc;
+
+		int una = 0; // the first unacked segment
+		int nxt = 0; // the next new segment
+		int highSack = 0; // one past the highest selectively acked segment
+		// the segments from una to nxt, in rings indexed by segment & mask
+		byte[] state = new byte[INITIAL_RING];
+		int[] sendTime = new int[INITIAL_RING];
+		int[] deliveredAt = new int[INITIAL_RING]; // the delivered count when each segment was sent
+		int mask = INITIAL_RING - 1;
+
+		int inFlight = 0;
+		int lost = 0;
+		int sacked = 0;
+		int lostScan = 0; // no lost segment is below it
+		int lostMark = 0; // the segments below it were already checked for loss
+		int dupAcks = 0;
+		boolean recovery = false;
+		int recover = 0; // the recovery ends when all segments below it are acked
+		int delivered = 0; // the number of segments acked, cumulatively or selectively
+
+		double srtt = -1;
+		double rttvar = 0;
+		int rto = INITIAL_RTO;
+		int rtoDeadline = -1;
+		double nextSend = 0; // the pacing time of the next segment
+		int activeIndex = -1; // the position in the active flows, -1 when done
+
+		long sentSegments = 0;
+		long retransmissions = 0;
+		int timeouts = 0;
+		int finishTime = -1;
+
+		Sender(int id, int dst, long bytes, int segments, int startTime, CongestionControl cc) {
+			this.id = id;
+			this.dst = dst;
+			this.bytes = bytes;
+			this.segments = segments;
+			this.startTime = startTime;
+			this.cc = cc;
+		}
+	}
+
+	/**
+	 * The receiving side of a flow
+	 */
+	private static class Receiver {
+		final int src;
+		final int flow;
+		final int firstTime;
+
+		int rcvNxt = 0; // the first segment not received
+		int high = 0; // one past the highest segment received
+		boolean[] received = new boolean[INITIAL_RING]; // segments from rcvNxt to high
+		int mask = INITIAL_RING - 1;
+		int last = -1; // the last segment of the flow, once known
+		long bytes = 0;
+		long segments = 0;
+		long duplicates = 0;
+		int finishTime = -1;
+
+		Receiver(int src, int flow, int firstTime) {
+			this.src = src;
+			this.flow = flow;
+			this.firstTime = firstTime;
+		}
+	}
+
+	private final Node nodeObj;
+	private final int nodeId;
+	private final int mss;
+	private final int minRto;
+	private final int maxWindow;
+
+	private final List<Sender> senders = new ArrayList<>(); // by flow id
+	private final List<Sender> active = new ArrayList<>(); // the flows still sending
+	private final Map<Long, Receiver> receivers = new HashMap<>();
+	private final int[] blocks = new int[2 * MAX_SACK_BLOCKS];
+
+	/**
+	 * <code>ReliableTransport</code> constructor
+	 *
+	 * @param node      the node of the application using it
+	 * @param mss       the largest number of bytes of a segment
+	 * @param minRto    the smallest retransmission timeout, in ms
+	 * @param maxWindow the largest window, in segments
+	 */
+	public ReliableTransport(Node node, int mss, int minRto, int maxWindow) {
+		if (mss < 1 || minRto < 1 || maxWindow < 1)
+			throw new IllegalArgumentException(
+					"transport: bad mss " + mss + ", minimum rto " + minRto + " or window " + maxWindow);
+		nodeObj = node;
+		nodeId = node.getId();
+		this.mss = mss;
+		this.minRto = minRto;
+		this.maxWindow = maxWindow;
+	}
+
+	public ReliableTransport(Node node) {
+		this(node, MSS, MIN_RTO, MAX_WINDOW);
+	}
+
+	/**
+	 * Creates a congestion control algorithm by name
+	 *
+	 * @param name <code>reno</code>, <code>cubic</code>, <code>bbr</code> or the
+	 *             name of a class with a public constructor without arguments
+	 * @return the algorithm
+	 */
+	public static CongestionControl congestionControl(String name) {
+		switch (name) {
+		case "reno":
+			return new RenoCongestionControl();
+		case "cubic":
+			return new CubicCongestionControl();
+		case "bbr":
+			return new BbrCongestionControl();
+		default:
+			try {
+				return (CongestionControl) Class.forName(name).getConstructor().newInstance();
+			} catch (Exception e) {
+				throw new IllegalArgumentException("unknown congestion control " + name, e);
+			}
+		}
+	}
+
+	/**
+	 * Opens a flow and starts sending it
+	 *
+	 * @param now   the current time
+	 * @param dst   the destination node
+	 * @param bytes the size of the flow, or UNBOUNDED for a flow that never ends
+	 * @param cc    its congestion control algorithm
+	 * @return the id of the flow, starting at 0
+	 */
+	public int open(int now, int dst, long bytes, CongestionControl cc) {
+		if (bytes == 0 || bytes < UNBOUNDED)
+			throw new IllegalArgumentException("transport: bad flow size " + bytes);
+		long segs = bytes == UNBOUNDED ? Integer.MAX_VALUE : (bytes + mss - 1) / mss;
+		if (segs > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("transport: flow of " + bytes + " bytes is too long");
+		Sender f = new Sender(senders.size(), dst, bytes, (int) segs, now, cc);
+		senders.add(f);
+		f.activeIndex = active.size();
+		active.add(f);
+		send_segments(now, f);
+		return f.id;
+	}
+
+	/**
+	 * Processes a data packet received by the application
+	 *
+	 * @param now the current time
+	 * @param p   the packet
+	 * @return true if it was a packet of the transport
+	 */
+	public boolean on_receive(int now, DataPacket p) {
+		byte[] pl = p.getPayload();
+		if (pl == null || pl.length < DATA_HEADER)
+			return false;
+		ByteBuffer b = ByteBuffer.wrap(pl);
+		byte type = b.get();
+		int flow = b.getInt();
+		if (type == DATA || type == LAST) {
+			on_data(now, p.getSource(), flow, type == LAST, b.getInt(), b.getInt(), p.getPayloadLength() - DATA_HEADER);
+			return true;
+		}
+		if (type != ACK || pl.length < ACK_HEADER || flow < 0 || flow >= senders.size())
+			return false;
+		Sender f = senders.get(flow);
+		if (f.dst != p.getSource())
+			return false;
+		on_ack(now, f, b);
+		return true;
+	}
+
+	/**
+	 * Processes a clock tick of the application: fires the retransmission
+	 * timeouts due and sends the segments the windows and pacing allow
+	 *
+	 * @param now the current time
+	 */
+	public void on_clock_tick(int now) {
+		for (int i = 0; i < active.size(); i++) {
+			Sender f = active.get(i);
+			if (f.rtoDeadline >= 0 && now >= f.rtoDeadline)
+				on_rto(now, f);
+			send_segments(now, f);
+		}
+	}
+
+	// sender
+
+	private void send_segments(int now, Sender f) {
+		while (f.inFlight < Math.min(f.cc.window(), maxWindow)) {
+			double rate = f.cc.pacingRate();
+			if (rate > 0 && f.nextSend >= now + 1)
+				break;
+			if (f.lost > 0) {
+				while (f.state[f.lostScan & f.mask] != LOST)
+					f.lostScan++;
+				f.lost--;
+				transmit(now, f, f.lostScan, true);
+			} else if (f.nxt < f.segments) {
+				if (f.nxt - f.una == f.state.length)
+					grow(f);
+				transmit(now, f, f.nxt++, false);
+			} else {
+				break;
+			}
+			if (rate > 0)
+				f.nextSend = Math.max(f.nextSend + 1 / rate, now); // keeps the pace when sending late
+		}
+	}
+
+	private void transmit(int now, Sender f, int seq, boolean retransmission) {
+		int len = seq == f.segments - 1 && f.bytes != UNBOUNDED ? (int) (f.bytes - (long) seq * mss) : mss;
+		byte[] header = new byte[DATA_HEADER];
+		ByteBuffer.wrap(header).put(seq == f.segments - 1 ? LAST : DATA).putInt(f.id).putInt(seq).putInt(now);
+		int i = seq & f.mask;
+		f.state[i] = retransmission ? RESENT : SENT;
+		f.sendTime[i] = now;
+		f.deliveredAt[i] = f.delivered;
+		f.inFlight++;
+		f.sentSegments++;
+		if (retransmission)
+			f.retransmissions++;
+		if (f.rtoDeadline < 0)
+			f.rtoDeadline = now + f.rto;
+		nodeObj.send(nodeObj.createDataPacket(f.dst, header, DATA_HEADER + len));
+	}
+
+	private void grow(Sender f) {
+		int n = f.state.length * 2;
+		byte[] state = new byte[n];
+		int[] sendTime = new int[n];
+		int[] deliveredAt = new int[n];
+		for (int s = f.una; s < f.nxt; s++) {
+			state[s & (n - 1)] = f.state[s & f.mask];
+			sendTime[s & (n - 1)] = f.sendTime[s & f.mask];
+			deliveredAt[s & (n - 1)] = f.deliveredAt[s & f.mask];
+		}
+		f.state = state;
+		f.sendTime = sendTime;
+		f.deliveredAt = deliveredAt;
+		f.mask = n - 1;
+	}
+
+	private void on_ack(int now, Sender f, ByteBuffer b) {
+		int cum = b.getInt();
+		int echoSeq = b.getInt();
+		int echoTs = b.getInt();
+		int nblocks = b.get();
+		if (f.finishTime >= 0 || cum < f.una || cum > f.nxt)
+			return;
+		// the delivery rate since the echoed segment was sent
+		int rateFrom = -1;
+		int rateTime = 0;
+		if (echoSeq >= f.una && echoSeq < f.nxt) {
+			rateFrom = f.deliveredAt[echoSeq & f.mask];
+			rateTime = f.sendTime[echoSeq & f.mask];
+		}
+		int acked = 0;
+		boolean advanced = cum > f.una;
+		for (int s = f.una; s < cum; s++)
+			acked += release(f, s);
+		if (advanced) {
+			f.una = cum;
+			f.dupAcks = 0;
+			f.lostScan = Math.max(f.lostScan, cum);
+			f.lostMark = Math.max(f.lostMark, cum);
+		}
+		int sacked = 0;
+		for (int k = 0; k < nblocks && b.remaining() >= 8; k++) {
+			int start = Math.max(b.getInt(), f.una);
+			int end = Math.min(b.getInt(), f.nxt);
+			for (int s = start; s < end; s++)
+				sacked += sack(f, s);
+			f.highSack = Math.max(f.highSack, end);
+		}
+		if (!advanced && sacked > 0)
+			f.dupAcks++; // as in RFC 6675, the acks of duplicate segments do not count
+		acked += sacked;
+		f.delivered += acked;
+		// loss detection
+		if (!f.recovery && (f.dupAcks >= 3 || f.sacked >= 3)) {
+			f.recovery = true;
+			f.recover = f.nxt;
+			f.cc.onLoss(now, f.inFlight);
+			mark_lost(f, f.una);
+			fast_retransmit(now, f);
+		} else if (f.recovery && f.una >= f.recover) {
+			f.recovery = false;
+		} else if (f.recovery && advanced && f.sendTime[f.una & f.mask] < echoTs) {
+			mark_lost(f, f.una); // a partial ack of a segment sent after it
+			fast_retransmit(now, f);
+		}
+		if (f.recovery) {
+			for (int s = Math.max(f.lostMark, f.una); s < f.highSack; s++)
+				mark_lost(f, s);
+			f.lostMark = Math.max(f.lostMark, f.highSack);
+		}
+		int rtt = -1;
+		if (acked > 0 && echoTs >= 0 && echoTs <= now) {
+			rtt = Math.max(1, now - echoTs);
+			update_rto(f, rtt);
+		}
+		if (acked > 0) {
+			double rate = rateFrom < 0 ? 0 : (double) (f.delivered - rateFrom) / Math.max(1, now - rateTime);
+			f.cc.onAck(now, acked, rtt, rate, f.inFlight);
+		}
+		if (advanced)
+			f.rtoDeadline = f.una < f.nxt ? now + f.rto : -1;
+		if (f.una >= f.segments) {
+			f.finishTime = now;
+			f.rtoDeadline = -1;
+			deactivate(f);
+			return;
+		}
+		send_segments(now, f);
+	}
+
+	/**
+	 * Releases a segment cumulatively acked, returning 1 if it is newly
+	 * delivered
+	 */
+	private int release(Sender f, int s) {
+		int i = s & f.mask;
+		byte st = f.state[i];
+		f.state[i] = 0;
+		if (st == SENT || st == RESENT)
+			f.inFlight--;
+		else if (st == LOST)
+			f.lost--;
+		else if (st == SACKED)
+			f.sacked--;
+		return st == SACKED ? 0 : 1;
+	}
+
+	/**
+	 * Marks a segment selectively acked, returning 1 if it is newly delivered
+	 */
+	private int sack(Sender f, int s) {
+		int i = s & f.mask;
+		byte st = f.state[i];
+		if (st == SACKED)
+			return 0;
+		if (st == SENT || st == RESENT)
+			f.inFlight--;
+		else if (st == LOST)
+			f.lost--;
+		f.state[i] = SACKED;
+		f.sacked++;
+		return 1;
+	}
+
+	private void mark_lost(Sender f, int s) {
+		int i = s & f.mask;
+		if (s >= f.nxt || f.state[i] != SENT)
+			return;
+		f.state[i] = LOST;
+		f.inFlight--;
+		f.lost++;
+		f.lostScan = Math.min(f.lostScan, s);
+	}
+
+	/**
+	 * Retransmits the first unacked segment if it is lost, whatever the window,
+	 * and restarts the timer
+	 */
+	private void fast_retransmit(int now, Sender f) {
+		if (f.state[f.una & f.mask] != LOST)
+			return;
+		f.lost--;
+		transmit(now, f, f.una, true);
+		f.rtoDeadline = now + f.rto;
+	}
+
+	private void on_rto(int now, Sender f) {
+		f.timeouts++;
+		f.cc.onTimeout(now);
+		for (int s = f.una; s < f.nxt; s++) {
+			int i = s & f.mask;
+			if (f.state[i] == SENT || f.state[i] == RESENT) {
+				f.state[i] = LOST;
+				f.inFlight--;
+				f.lost++;
+			}
+		}
+		f.lostScan = f.una;
+		f.lostMark = f.nxt;
+		f.recovery = true;
+		f.recover = f.nxt;
+		f.dupAcks = 0;
+		f.rto = Math.min(2 * f.rto, MAX_RTO);
+		f.rtoDeadline = now + f.rto;
+		f.nextSend = now;
+	}
+
+	private void update_rto(Sender f, int rtt) {
+		if (f.srtt < 0) {
+			f.srtt = rtt;
+			f.rttvar = rtt / 2.0;
+		} else {
+			f.rttvar = 0.75 * f.rttvar + 0.25 * Math.abs(f.srtt - rtt);
+			f.srtt = 0.875 * f.srtt + 0.125 * rtt;
+		}
+		f.rto = (int) Math.min(MAX_RTO, Math.max(minRto, Math.ceil(f.srtt + 4 * f.rttvar)));
+	}
+
+	private void deactivate(Sender f) {
+		Sender moved = active.remove(active.size() - 1);
+		if (moved != f) {
+			active.set(f.activeIndex, moved);
+			moved.activeIndex = f.activeIndex;
+		}
+		f.activeIndex = -1;
+	}
+
+	// receiver
+
+	private void on_data(int now, int src, int flow, boolean last, int seq, int ts, int len) {
+		long key = ((long) src << 32) | (flow & 0xffffffffL);
+		Receiver r = receivers.get(key);
+		if (r == null) {
+			r = new Receiver(src, flow, now);
+			receivers.put(key, r);
+		}
+		if (last)
+			r.last = seq;
+		if (seq < r.rcvNxt || (seq < r.high && r.received[seq & r.mask])) {
+			r.duplicates++;
+		} else {
+			while (seq - r.rcvNxt >= r.received.length)
+				grow(r);
+			r.received[seq & r.mask] = true;
+			r.segments++;
+			r.bytes += len;
+			r.high = Math.max(r.high, seq + 1);
+			while (r.rcvNxt < r.high && r.received[r.rcvNxt & r.mask]) {
+				r.received[r.rcvNxt & r.mask] = false;
+				r.rcvNxt++;
+			}
+			if (r.finishTime < 0 && r.last >= 0 && r.rcvNxt > r.last)
+				r.finishTime = now;
+		}
+		send_ack(r, seq, ts);
+	}
+
+	private void grow(Receiver r) {
+		int n = r.received.length * 2;
+		boolean[] received = new boolean[n];
+		for (int s = r.rcvNxt; s < r.high; s++)
+			received[s & (n - 1)] = r.received[s & r.mask];
+		r.received = received;
+		r.mask = n - 1;
+	}
+
+	private void send_ack(Receiver r, int seq, int ts) {
+		int n = 0;
+		for (int s = r.rcvNxt + 1; s < r.high && n < MAX_SACK_BLOCKS; s++) {
+			if (!r.received[s & r.mask])
+				continue;
+			blocks[2 * n] = s;
+			while (s < r.high && r.received[s & r.mask])
+				s++;
+			blocks[2 * n + 1] = s;
+			n++;
+		}
+		byte[] payload = new byte[ACK_HEADER + 8 * n];
+		ByteBuffer b = ByteBuffer.wrap(payload);
+		b.put(ACK).putInt(r.flow).putInt(r.rcvNxt).putInt(seq).putInt(ts).put((byte) n);
+		for (int k = 0; k < 2 * n; k++)
+			b.putInt(blocks[k]);
+		nodeObj.send(nodeObj.createDataPacket(r.src, payload));
+	}
+
+	// statistics
+
+	public int numFlows() {
+		return senders.size();
+	}
+
+	public int numActiveFlows() {
+		return active.size();
+	}
+
+	public boolean isFinished(int flow) {
+		return senders.get(flow).finishTime >= 0;
+	}
+
+	/**
+	 * Returns the number of bytes of a flow acked so far
+	 */
+	public long getAckedBytes(int flow) {
+		Sender f = senders.get(flow);
+		long b = (long) f.una * mss;
+		return f.bytes == UNBOUNDED ? b : Math.min(b, f.bytes);
+	}
+
+	/**
+	 * Returns the goodput of a flow: the bytes acked over the time from its
+	 * start to its end, or to now if it did not end
+	 *
+	 * @return the goodput in bits per second
+	 */
+	public double getGoodput(int flow, int now) {
+		Sender f = senders.get(flow);
+		int end = f.finishTime >= 0 ? f.finishTime : now;
+		return end <= f.startTime ? 0.0 : getAckedBytes(flow) * 8000.0 / (end - f.startTime);
+	}
+
+	/**
+	 * Returns the fraction of the segments sent by a flow that were
+	 * retransmissions
+	 */
+	public double getRetransmissionRate(int flow) {
+		Sender f = senders.get(flow);
+		return f.sentSegments == 0 ? 0.0 : (double) f.retransmissions / f.sentSegments;
+	}
+
+	public long getRetransmissions(int flow) {
+		return senders.get(flow).retransmissions;
+	}
+
+	/**
+	 * Returns the number of bytes received from all flows, without duplicates
+	 */
+	public long getReceivedBytes() {
+		long b = 0;
+		for (Receiver r : receivers.values())
+			b += r.bytes;
+		return b;
+	}
+
+	/**
+	 * Prints one line per flow sent and received
+	 *
+	 * @param now    the current time
+	 * @param prefix the beginning of the lines
+	 */
+	public void showState(int now, String prefix) {
+		PrintStream out = nodeObj.getOutput();
+		for (Sender f : senders) {
+			out.println(String.format("%s time %d node %d flow %d to %d acked %d bytes goodput %.0f bps"
+					+ " segments %d retransmitted %d (%.2f%%) timeouts %d srtt %.1f cwnd %d%s", prefix, now, nodeId, f.id,
+					f.dst, getAckedBytes(f.id), getGoodput(f.id, now), f.sentSegments, f.retransmissions,
+					100 * getRetransmissionRate(f.id), f.timeouts, f.srtt, f.cc.window(),
+					f.finishTime >= 0 ? " done at " + f.finishTime : ""));
+		}
+		receivers.values().stream().sorted((a, c) -> a.src != c.src ? Integer.compare(a.src, c.src)
+				: Integer.compare(a.flow, c.flow)).forEach(r -> {
+					out.println(String.format("%s time %d node %d flow %d from %d received %d bytes duplicates %d%s",
+							prefix, now, nodeId, r.flow, r.src, r.bytes, r.duplicates,
+							r.finishTime >= 0 ? " done at " + r.finishTime : ""));
+				});
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(senders.size());
+		for (Sender f : senders) {
+			out.writeInt(f.dst);
+			out.writeLong(f.bytes);
+			out.writeInt(f.startTime);
+			out.writeUTF(f.cc.getClass().getName());
+			f.cc.saveState(out);
+			out.writeInt(f.una);
+			out.writeInt(f.nxt);
+			out.writeInt(f.highSack);
+			out.writeInt(f.state.length);
+			for (int s = f.una; s < f.nxt; s++) {
+				out.writeByte(f.state[s & f.mask]);
+				out.writeInt(f.sendTime[s & f.mask]);
+				out.writeInt(f.deliveredAt[s & f.mask]);
+			}
+			out.writeInt(f.inFlight);
+			out.writeInt(f.lost);
+			out.writeInt(f.sacked);
+			out.writeInt(f.lostScan);
+			out.writeInt(f.lostMark);
+			out.writeInt(f.dupAcks);
+			out.writeBoolean(f.recovery);
+			out.writeInt(f.recover);
+			out.writeInt(f.delivered);
+			out.writeDouble(f.srtt);
+			out.writeDouble(f.rttvar);
+			out.writeInt(f.rto);
+			out.writeInt(f.rtoDeadline);
+			out.writeDouble(f.nextSend);
+			out.writeLong(f.sentSegments);
+			out.writeLong(f.retransmissions);
+			out.writeInt(f.timeouts);
+			out.writeInt(f.finishTime);
+		}
+		out.writeInt(active.size());
+		for (Sender f : active)
+			out.writeInt(f.id);
+		out.writeInt(receivers.size());
+		for (Receiver r : receivers.values()) {
+			out.writeInt(r.src);
+			out.writeInt(r.flow);
+			out.writeInt(r.firstTime);
+			out.writeInt(r.rcvNxt);
+			out.writeInt(r.high);
+			out.writeInt(r.received.length);
+			for (int s = r.rcvNxt; s < r.high; s++)
+				out.writeBoolean(r.received[s & r.mask]);
+			out.writeInt(r.last);
+			out.writeLong(r.bytes);
+			out.writeLong(r.segments);
+			out.writeLong(r.duplicates);
+			out.writeInt(r.finishTime);
+		}
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		senders.clear();
+		active.clear();
+		receivers.clear();
+		for (int n = in.readInt(), id = 0; id < n; id++) {
+			int dst = in.readInt();
+			long bytes = in.readLong();
+			int startTime = in.readInt();
+			CongestionControl cc = congestionControl(in.readUTF());
+			cc.restoreState(in);
+			long segs = bytes == UNBOUNDED ? Integer.MAX_VALUE : (bytes + mss - 1) / mss;
+			Sender f = new Sender(id, dst, bytes, (int) segs, startTime, cc);
+			f.una = in.readInt();
+			f.nxt = in.readInt();
+			f.highSack = in.readInt();
+			int len = in.readInt();
+			f.state = new byte[len];
+			f.sendTime = new int[len];
+			f.deliveredAt = new int[len];
+			f.mask = len - 1;
+			for (int s = f.una; s < f.nxt; s++) {
+				f.state[s & f.mask] = in.readByte();
+				f.sendTime[s & f.mask] = in.readInt();
+				f.deliveredAt[s & f.mask] = in.readInt();
+			}
+			f.inFlight = in.readInt();
+			f.lost = in.readInt();
+			f.sacked = in.readInt();
+			f.lostScan = in.readInt();
+			f.lostMark = in.readInt();
+			f.dupAcks = in.readInt();
+			f.recovery = in.readBoolean();
+			f.recover = in.readInt();
+			f.delivered = in.readInt();
+			f.srtt = in.readDouble();
+			f.rttvar = in.readDouble();
+			f.rto = in.readInt();
+			f.rtoDeadline = in.readInt();
+			f.nextSend = in.readDouble();
+			f.sentSegments = in.readLong();
+			f.retransmissions = in.readLong();
+			f.timeouts = in.readInt();
+			f.finishTime = in.readInt();
+			senders.add(f);
+		}
+		for (int n = in.readInt(); n > 0; n--) {
+			Sender f = senders.get(in.readInt());
+			f.activeIndex = active.size();
+			active.add(f);
+		}
+		for (int n = in.readInt(); n > 0; n--) {
+			Receiver r = new Receiver(in.readInt(), in.readInt(), in.readInt());
+			r.rcvNxt = in.readInt();
+			r.high = in.readInt();
+			r.received = new boolean[in.readInt()];
+			r.mask = r.received.length - 1;
+			for (int s = r.rcvNxt; s < r.high; s++)
+				r.received[s & r.mask] = in.readBoolean();
+			r.last = in.readInt();
+			r.bytes = in.readLong();
+			r.segments = in.readLong();
+			r.duplicates = in.readLong();
+			r.finishTime = in.readInt();
+			receivers.put(((long) r.src << 32) | (r.flow & 0xffffffffL), r);
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Reno congestion control: slow start up to the slow start threshold, then
+ * one more segment per window acknowledged; a loss halves the window and a
+ * timeout brings it back to one segment.
+ */
+public class RenoCongestionControl implements CongestionControl {
+
+	private double cwnd = INITIAL_WINDOW;
+	private double ssthresh = Integer.MAX_VALUE;
+
+	public RenoCongestionControl() {
+
+	}
+
+	public int window() {
+		return Math.max(1, (int) cwnd);
+	}
+
+	public double pacingRate() {
+		return 0;
+	}
+
+	public void onAck(int now, int acked, int rtt, double deliveryRate, int inFlight) {
+		if (cwnd < ssthresh)
+			cwnd += acked;
+		else
+			cwnd += (double) acked / cwnd;
+	}
+
+	public void onLoss(int now, int inFlight) {
+		ssthresh = Math.max(2, cwnd / 2);
+		cwnd = ssthresh;
+	}
+
+	public void onTimeout(int now) {
+		ssthresh = Math.max(2, cwnd / 2);
+		cwnd = 1;
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeDouble(cwnd);
+		out.writeDouble(ssthresh);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		cwnd = in.readDouble();
+		ssthresh = in.readDouble();
+	}
+
+}
@@ -0,0 +1,238 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A bounded set of the (source, sequence number) pairs of the packets already
+ * seen by a node. Once it holds <code>capacity</code> keys, it never allocates.
+ *
+ * By default the set is exact: keys are kept in a primitive open addressing
+ * table and, when <code>capacity</code> keys are present, the oldest one is
+ * evicted (FIFO order, kept in a ring). The table and the ring start small and
+ * grow with the number of keys, up to <code>capacity</code>, so nodes that see
+ * few packets use little memory. Optionally, the set is a pair of Bloom
+ * filters, each one receiving <code>capacity</code> keys before the older one
+ * is cleared and reused: it uses less memory per key but may report, with a
+ * probability around 1%, a key as already seen when it was not.
+ */
+class SeenPackets {
+
+	private static final long EMPTY = -1L; // sources are never negative
+	private static final int BITS_PER_KEY = 10;
+	private static final int HASHES = 4;
+	private static final int INITIAL_SIZE = 32;
+
+	private final int capacity;
+	private final boolean bloom;
+
+	// exact set: open addressing table and insertion order
+	private long[] table;
+	private long[] ring;
+	private int oldest = 0;
+	private int size = 0;
+
+	// Bloom filters: keys are added to the current generation
+	private long[] current;
+	private long[] previous;
+	private int generationSize = 0;
+
+	/**
+	 * @param capacity the number of keys remembered
+	 * @param bloom    true to use Bloom filters instead of an exact set
+	 */
+	SeenPackets(int capacity, boolean bloom) {
+		this.capacity = Math.max(1, capacity);
+		this.bloom = bloom;
+		if (bloom) {
+			int words = Integer.highestOneBit(Math.max(1, this.capacity * BITS_PER_KEY / 64 - 1)) * 2;
+			current = new long[words];
+			previous = new long[words];
+		} else {
+			ring = new long[Math.min(this.capacity, INITIAL_SIZE)];
+			table = new long[tableSize(ring.length)];
+			Arrays.fill(table, EMPTY);
+		}
+	}
+
+	/**
+	 * Adds a packet to the set
+	 *
+	 * @return true if the packet was already in the set
+	 */
+	boolean checkAndAdd(int src, int seq) {
+		long key = ((long) src << 32) | (seq & 0xffffffffL);
+		return bloom ? bloomCheckAndAdd(key) : exactCheckAndAdd(key);
+	}
+
+	private boolean exactCheckAndAdd(long key) {
+		int mask = table.length - 1;
+		int i = hash(key) & mask;
+		while (table[i] != EMPTY) {
+			if (table[i] == key)
+				return true;
+			i = (i + 1) & mask;
+		}
+		if (size == ring.length) {
+			if (ring.length < capacity) {
+				grow();
+			} else {
+				remove(ring[oldest]);
+				oldest = (oldest + 1) % ring.length;
+				size--;
+			}
+			// the table changed: look for a free slot again
+			mask = table.length - 1;
+			i = hash(key) & mask;
+			while (table[i] != EMPTY)
+				i = (i + 1) & mask;
+		}
+		table[i] = key;
+		ring[(oldest + size) % ring.length] = key;
+		size++;
+		return false;
+	}
+
+	/**
+	 * Doubles the ring, up to capacity, and rebuilds the table for it
+	 */
+	private void grow() {
+		long[] newRing = new long[Math.min(capacity, ring.length * 2)];
+		for (int i = 0; i < size; i++)
+			newRing[i] = ring[(oldest + i) % ring.length];
+		ring = newRing;
+		oldest = 0;
+		table = new long[tableSize(ring.length)];
+		Arrays.fill(table, EMPTY);
+		int mask = table.length - 1;
+		for (int k = 0; k < size; k++) {
+			int i = hash(ring[k]) & mask;
+			while (table[i] != EMPTY)
+				i = (i + 1) & mask;
+			table[i] = ring[k];
+		}
+	}
+
+	/**
+	 * Removes a key from the open addressing table, shifting back the keys of
+	 * the same cluster so that no tombstone is needed
+	 */
+	private void remove(long key) {
+		int mask = table.length - 1;
+		int i = hash(key) & mask;
+		while (table[i] != key) {
+			if (table[i] == EMPTY)
+				return;
+			i = (i + 1) & mask;
+		}
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (table[j] == EMPTY)
+				break;
+			int home = hash(table[j]) & mask;
+			// the key at j can move to i if its home slot is not in (i, j]
+			boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+			if (!stays) {
+				table[i] = table[j];
+				i = j;
+			}
+		}
+		table[i] = EMPTY;
+	}
+
+	private boolean bloomCheckAndAdd(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		int h1 = (int) (h >>> 32);
+		int h2 = (int) h | 1;
+		int mask = current.length * 64 - 1;
+		boolean inCurrent = true;
+		boolean inPrevious = true;
+		for (int k = 0; k < HASHES; k++) {
+			int bit = (h1 + k * h2) & mask;
+			long word = 1L << (bit & 63);
+			if ((current[bit >>> 6] & word) == 0)
+				inCurrent = false;
+			if ((previous[bit >>> 6] & word) == 0)
+				inPrevious = false;
+		}
+		if (inCurrent || inPrevious)
+			return true;
+		if (generationSize == capacity) {
+			long[] t = previous;
+			previous = current;
+			current = t;
+			Arrays.fill(current, 0L);
+			generationSize = 0;
+		}
+		for (int k = 0; k < HASHES; k++) {
+			int bit = (h1 + k * h2) & mask;
+			current[bit >>> 6] |= 1L << (bit & 63);
+		}
+		generationSize++;
+		return false;
+	}
+
+	/**
+	 * Returns the power of two table size that keeps the load below 1/2
+	 */
+	private static int tableSize(int keys) {
+		return Integer.highestOneBit(keys * 4 - 1) * 2;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Returns the number of keys remembered
+	 */
+	int size() {
+		return bloom ? generationSize : size;
+	}
+
+	/**
+	 * Writes the set to a checkpoint
+	 */
+	void saveState(DataOutputStream out) throws IOException {
+		if (bloom) {
+			out.writeInt(generationSize);
+			for (int i = 0; i < current.length; i++) {
+				out.writeLong(current[i]);
+				out.writeLong(previous[i]);
+			}
+			return;
+		}
+		out.writeInt(size);
+		for (int i = 0; i < size; i++)
+			out.writeLong(ring[(oldest + i) % ring.length]);
+	}
+
+	/**
+	 * Restores a set written by saveState, with the same capacity and kind
+	 */
+	void restoreState(DataInputStream in) throws IOException {
+		if (bloom) {
+			generationSize = in.readInt();
+			for (int i = 0; i < current.length; i++) {
+				current[i] = in.readLong();
+				previous[i] = in.readLong();
+			}
+			return;
+		}
+		// the set may be restored after it was used, e.g. by a time warp rollback
+		ring = new long[Math.min(capacity, INITIAL_SIZE)];
+		table = new long[tableSize(ring.length)];
+		Arrays.fill(table, EMPTY);
+		oldest = 0;
+		size = 0;
+		for (int n = in.readInt(); n > 0; n--) {
+			long key = in.readLong();
+			checkAndAdd((int) (key >>> 32), (int) key);
+		}
+	}
+
+}
@@ -0,0 +1,317 @@
+package cnss.lib;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import cnss.simulator.ControlAlgorithm;
+import cnss.simulator.Link;
+import cnss.simulator.Node;
+
+/**
+ * The next hops of the shortest paths between all pairs of nodes of a
+ * simulation, computed centrally from its links and shared by all its nodes.
+ * There is one oracle per simulation and weighting, kept with the objects the
+ * nodes of the simulation share, so it is freed with it.
+ *
+ * The paths are computed from each source in parallel, by breadth first
+ * search when all links weigh the same and by Dijkstra otherwise. Each node
+ * has a table with the interface to use for each destination, stored as bytes
+ * when the node has less than 128 interfaces; nodes with one interface need no
+ * table, they send everything through it. Among equal cost paths, the one with
+ * the lowest first interface is used, so the tables only depend on the state
+ * of the links and not on the order in which they changed. The tables are
+ * updated in place when links go up or down, only for the sources whose paths
+ * may change: those with a shortest path over a link that went down, or that
+ * are at least as close to one end of a link that came up as its weight
+ * allows from the other end.
+ */
+class ShortestPathOracle {
+
+	static final int HOPS = 0;
+	static final int LATENCY = 1;
+	static final int BANDWIDTH = 2;
+
+	static final int INF = Integer.MAX_VALUE;
+
+	private static final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+	private final Link[] links;
+	private final int weighting;
+	private final int numNodes;
+
+	// adjacency in compressed rows: the edges of node u are first[u] .. first[u+1]-1
+	private final int[] first;
+	private final int[] edgeFrom;
+	private final int[] edgeNode;
+	private final int[] edgeIface;
+	private final int[] edgeLink;
+	private final int[] edgeWeight;
+
+	private final int[] numIfaces;
+	private final byte[][] narrowTables; // interface by destination, by source
+	private final short[][] wideTables; // for nodes with 128 or more interfaces
+	private final long[][] pathLinks; // the links on the shortest paths of each source
+	private final boolean[] up; // the link states the tables were computed for
+
+	private long recomputedSources = 0;
+	private volatile int checkedAt = -1; // the last step the link states were checked
+
+	/**
+	 * Returns the oracle of the simulation of a node, creating it the first time
+	 */
+	static ShortestPathOracle of(Node node, int weighting) {
+		return node.getShared(ShortestPathOracle.class.getName() + "." + weighting,
+				k -> new ShortestPathOracle(node.getAllLinks(), weighting));
+	}
+
+	private ShortestPathOracle(Link[] links, int weighting) {
+		this.links = links;
+		this.weighting = weighting;
+		int n = 0;
+		for (Link l : links)
+			n = Math.max(n, Math.max(l.getNode(1), l.getNode(2)) + 1);
+		numNodes = n;
+		numIfaces = new int[n];
+		first = new int[n + 1];
+		for (Link l : links) {
+			first[l.getNode(1) + 1]++;
+			first[l.getNode(2) + 1]++;
+			numIfaces[l.getNode(1)] = Math.max(numIfaces[l.getNode(1)], l.getInterface(1) + 1);
+			numIfaces[l.getNode(2)] = Math.max(numIfaces[l.getNode(2)], l.getInterface(2) + 1);
+		}
+		for (int u = 0; u < n; u++)
+			first[u + 1] += first[u];
+		edgeFrom = new int[first[n]];
+		edgeNode = new int[first[n]];
+		edgeIface = new int[first[n]];
+		edgeLink = new int[first[n]];
+		edgeWeight = new int[first[n]];
+		int[] fill = Arrays.copyOf(first, n);
+		for (int i = 0; i < links.length; i++) {
+			for (int side = 1; side <= 2; side++) {
+				int u = links[i].getNode(side);
+				int e = fill[u]++;
+				edgeFrom[e] = u;
+				edgeNode[e] = links[i].getNode(3 - side);
+				edgeIface[e] = links[i].getInterface(side);
+				edgeLink[e] = i;
+				edgeWeight[e] = weight(links[i]);
+			}
+		}
+		narrowTables = new byte[n][];
+		wideTables = new short[n][];
+		for (int u = 0; u < n; u++) {
+			if (numIfaces[u] > 1 && numIfaces[u] < 128)
+				narrowTables[u] = new byte[n];
+			else if (numIfaces[u] > 1)
+				wideTables[u] = new short[n];
+		}
+		pathLinks = new long[n][(links.length + 63) / 64];
+		up = new boolean[links.length];
+		for (int i = 0; i < links.length; i++)
+			up[i] = links[i].isUp();
+		IntStream.range(0, n).parallel().forEach(this::compute);
+		recomputedSources += n;
+	}
+
+	private int weight(Link l) {
+		if (weighting == LATENCY)
+			return Math.max(1, l.getLatency());
+		if (weighting == BANDWIDTH) // as OSPF, with a 10 Gbps reference bandwidth
+			return (int) Math.max(1, Math.min(Integer.MAX_VALUE / 4, 10000000000L / Math.max(1, l.getBandWidth())));
+		return 1;
+	}
+
+	/**
+	 * Returns the interface of node u to reach dst, UNKNOWN if there is none or
+	 * LOCAL if dst is u
+	 */
+	int nextHop(int u, int dst) {
+		if (dst == u)
+			return ControlAlgorithm.LOCAL;
+		if (dst < 0 || dst >= numNodes)
+			return ControlAlgorithm.UNKNOWN;
+		if (narrowTables[u] != null)
+			return narrowTables[u][dst];
+		if (wideTables[u] != null)
+			return wideTables[u][dst];
+		return numIfaces[u] == 1 ? 0 : ControlAlgorithm.UNKNOWN;
+	}
+
+	/**
+	 * Returns the table of node u, or null if u has one interface or more than
+	 * 127 interfaces; the table is updated in place
+	 */
+	byte[] narrowTable(int u) {
+		return narrowTables[u];
+	}
+
+	int numNodes() {
+		return numNodes;
+	}
+
+	long recomputedSources() {
+		return recomputedSources;
+	}
+
+	/**
+	 * Updates the tables if links changed state since they were computed. Links
+	 * only change state at the beginning of a step, so they are checked once per
+	 * step, by the first node that forwards a packet or is notified of a change.
+	 */
+	void update(int now) {
+		if (checkedAt != now)
+			check(now);
+	}
+
+	private synchronized void check(int now) {
+		if (checkedAt == now)
+			return;
+		for (int i = 0; i < links.length; i++) {
+			if (links[i].isUp() == up[i])
+				continue;
+			boolean[] affected = new boolean[numNodes];
+			if (up[i]) { // went down: the sources with a shortest path over it
+				for (int s = 0; s < numNodes; s++)
+					affected[s] = (pathLinks[s][i >>> 6] & (1L << i)) != 0;
+			} else { // came up: the sources it gives a shortest path to one of its ends
+				int u = links[i].getNode(1);
+				int v = links[i].getNode(2);
+				int w = weight(links[i]);
+				IntStream.range(0, numNodes).parallel().forEach(s -> {
+					long du = distance(s, u);
+					long dv = distance(s, v);
+					affected[s] = du + w <= dv || dv + w <= du;
+				});
+			}
+			up[i] = !up[i];
+			int[] sources = IntStream.range(0, numNodes).filter(s -> affected[s]).toArray();
+			Arrays.stream(sources).parallel().forEach(this::compute);
+			recomputedSources += sources.length;
+		}
+		checkedAt = now;
+	}
+
+	/**
+	 * Returns the length of the path from s to d given by the tables, which is a
+	 * shortest path, or INF if there is none
+	 */
+	long distance(int s, int d) {
+		long dist = 0;
+		int u = s;
+		for (int hops = 0; u != d; hops++) {
+			int iface = nextHop(u, d);
+			if (iface < 0 || hops > numNodes)
+				return INF;
+			int e = edge(u, iface);
+			if (e < 0)
+				return INF;
+			dist += edgeWeight[e];
+			u = edgeNode[e];
+		}
+		return dist;
+	}
+
+	private int edge(int u, int iface) {
+		for (int e = first[u]; e < first[u + 1]; e++)
+			if (edgeIface[e] == iface && up[edgeLink[e]])
+				return e;
+		return -1;
+	}
+
+	/**
+	 * The working arrays of the searches run by a thread
+	 */
+	private static class Scratch {
+		final int[] dist;
+		final int[] firstHop;
+		final int[] queue;
+		final NodeHeap heap = new NodeHeap();
+
+		Scratch(int n) {
+			dist = new int[n];
+			firstHop = new int[n];
+			queue = new int[n];
+		}
+	}
+
+	/**
+	 * Computes the table and the path links of source s. The first hop of a
+	 * node is final when it is dequeued, as all the nodes before it on its
+	 * shortest paths are closer to s.
+	 */
+	private void compute(int s) {
+		if (narrowTables[s] == null && wideTables[s] == null)
+			return; // nodes with one interface send everything through it
+		Scratch sc = scratch.get();
+		if (sc == null || sc.dist.length < numNodes) {
+			sc = new Scratch(numNodes);
+			scratch.set(sc);
+		}
+		int[] dist = sc.dist;
+		int[] firstHop = sc.firstHop;
+		Arrays.fill(dist, 0, numNodes, INF);
+		Arrays.fill(firstHop, 0, numNodes, ControlAlgorithm.UNKNOWN);
+		dist[s] = 0;
+		if (weighting == HOPS) {
+			int head = 0;
+			int tail = 0;
+			sc.queue[tail++] = s;
+			while (head < tail) {
+				int u = sc.queue[head++];
+				for (int e = first[u]; e < first[u + 1]; e++) {
+					if (!up[edgeLink[e]])
+						continue;
+					int v = edgeNode[e];
+					int hop = u == s ? edgeIface[e] : firstHop[u];
+					if (dist[v] == INF) {
+						dist[v] = dist[u] + 1;
+						firstHop[v] = hop;
+						sc.queue[tail++] = v;
+					} else if (dist[v] == dist[u] + 1 && hop < firstHop[v]) {
+						firstHop[v] = hop;
+					}
+				}
+			}
+		} else {
+			NodeHeap heap = sc.heap;
+			heap.update(s, 0);
+			while (!heap.isEmpty()) {
+				int u = heap.poll();
+				for (int e = first[u]; e < first[u + 1]; e++) {
+					if (!up[edgeLink[e]])
+						continue;
+					int v = edgeNode[e];
+					int d = dist[u] + edgeWeight[e];
+					int hop = u == s ? edgeIface[e] : firstHop[u];
+					if (d < dist[v]) {
+						dist[v] = d;
+						firstHop[v] = hop;
+						heap.update(v, d);
+					} else if (d == dist[v] && hop < firstHop[v]) {
+						firstHop[v] = hop;
+					}
+				}
+			}
+		}
+		long[] paths = pathLinks[s];
+		Arrays.fill(paths, 0L);
+		for (int e = 0; e < edgeNode.length; e++) {
+			int u = edgeFrom[e];
+			if (up[edgeLink[e]] && dist[u] != INF && dist[u] + edgeWeight[e] == dist[edgeNode[e]])
+				paths[edgeLink[e] >>> 6] |= 1L << edgeLink[e];
+		}
+		if (narrowTables[s] != null) {
+			byte[] t = narrowTables[s];
+			for (int d = 0; d < numNodes; d++)
+				t[d] = (byte) firstHop[d];
+			t[s] = (byte) ControlAlgorithm.LOCAL;
+		} else if (wideTables[s] != null) {
+			short[] t = wideTables[s];
+			for (int d = 0; d < numNodes; d++)
+				t[d] = (short) firstHop[d];
+			t[s] = (short) ControlAlgorithm.LOCAL;
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+package cnss.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import cnss.simulator.ControlAlgorithm;
+import cnss.simulator.GlobalParameters;
+import cnss.simulator.Link;
+import cnss.simulator.Node;
+import cnss.simulator.Packet;
+import cnss.simulator.StateSnapshot;
+
+/**
+ * A control algorithm that forwards packets by shortest paths computed
+ * centrally, from the global view of the network, instead of by a routing
+ * protocol: it sends no control packets and its routes are always those of the
+ * current link states. The paths of all the nodes are computed once, in
+ * parallel, when the first node is initialised, and recomputed when links go
+ * up or down only for the sources whose paths may change; ties go to the
+ * lowest interface, so the routes do not depend on the order of the changes.
+ * The cost of a link is given by the parameter <code>static_weight</code>:
+ * <code>hops</code> (default), <code>latency</code> or <code>bandwidth</code>.
+ *
+ * Forwarding a packet is one lookup in the table of the node, shared with the
+ * other nodes of the simulation. Broadcast packets are not routed: they are
+ * only delivered locally.
+ */
+public class StaticShortestPathControl implements ControlAlgorithm, StateSnapshot {
+
+	private Node nodeObj;
+	private int nodeId;
+	private GlobalParameters parameters;
+	private Link[] links;
+	private int numInterfaces;
+	private String name = "static shortest path routing: ";
+	private boolean tracingOn = false;
+
+	private ShortestPathOracle oracle;
+	private byte[] table; // null if the node has one interface or more than 127
+
+	public StaticShortestPathControl() {
+
+	}
+
+	public int initialise(int now, int node_id, Node mynode, GlobalParameters parameters, Link[] links, int nint) {
+		nodeId = node_id;
+		nodeObj = mynode;
+		this.parameters = parameters;
+		this.links = links;
+		numInterfaces = nint;
+		tracingOn = parameters.containsKey("trace");
+		String w = parameters.containsKey("static_weight") ? parameters.get("static_weight") : "hops";
+		int weighting;
+		if (w.equals("latency"))
+			weighting = ShortestPathOracle.LATENCY;
+		else if (w.equals("bandwidth"))
+			weighting = ShortestPathOracle.BANDWIDTH;
+		else if (w.equals("hops"))
+			weighting = ShortestPathOracle.HOPS;
+		else
+			throw new IllegalArgumentException("unknown static_weight " + w);
+		oracle = ShortestPathOracle.of(nodeObj, weighting);
+		table = nodeId < oracle.numNodes() ? oracle.narrowTable(nodeId) : null;
+		return 0;
+	}
+
+	public void on_clock_tick(int now) {
+		trace(now, "clock tick");
+	}
+
+	public void on_timeout(int now) {
+		trace(now, "timeout");
+	}
+
+	public void on_link_up(int now, int iface) {
+		trace(now, iface + " link up");
+		oracle.update(now);
+	}
+
+	public void on_link_down(int now, int iface) {
+		trace(now, iface + " link down");
+		oracle.update(now);
+	}
+
+	public void on_receive(int now, Packet p, int iface) {
+		trace(now, "received control packet");
+	}
+
+	public void forward_packet(int now, Packet p, int iface) {
+		int dst = p.getDestination();
+		if (dst == nodeId) {
+			nodeObj.send(p.getCopy(), LOCAL);
+			trace(now, "forwarded a packet locally sent to this node");
+			return;
+		}
+		if (dst == Packet.BROADCAST) {
+			Packet localPacket = p.getCopy();
+			localPacket.setDestination(nodeId);
+			nodeObj.send(localPacket, LOCAL);
+			trace(now, "forwarded a local copy of a broadcasted packet");
+			return;
+		}
+		oracle.update(now);
+		int h = table != null && dst >= 0 && dst < table.length ? table[dst] : nextHop(dst);
+		if (h < 0 || h >= numInterfaces || !links[h].isUp()) {
+			nodeObj.send(p, UNKNOWN);
+			trace(now, "no route to " + dst);
+			return;
+		}
+		nodeObj.send(iface == LOCAL ? p.getCopy() : p, h);
+	}
+
+	public void showControlState(int now) {
+		nodeObj.getOutput().println(name + "time " + now + " node " + nodeId + " shares tables of "
+				+ oracle.numNodes() + " nodes, " + oracle.recomputedSources() + " sources computed");
+	}
+
+	public void showRoutingTable(int now) {
+		oracle.update(now);
+		StringBuilder s = new StringBuilder(name + "time " + now + " node " + nodeId + " routing table");
+		for (int d = 0; d < oracle.numNodes(); d++) {
+			long cost = oracle.distance(nodeId, d);
+			if (d != nodeId && cost < ShortestPathOracle.INF)
+				s.append("\n  " + d + " -> " + nextHop(d) + " cost " + cost);
+		}
+		nodeObj.getOutput().println(s);
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		// no state: the tables are recomputed from the links by initialise
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+	}
+
+	// auxiliary methods
+
+	private int nextHop(int dst) {
+		return nodeId < oracle.numNodes() ? oracle.nextHop(nodeId, dst) : UNKNOWN;
+	}
+
+	private void trace(int now, String msg) {
+		if (tracingOn)
+			nodeObj.getOutput().println("-- trace: " + name + " time " + now + " node " + nodeId + " " + msg);
+	}
+
+}
@@ -0,0 +1,369 @@
+package cnss.lib;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import cnss.simulator.ApplicationAlgorithm;
+import cnss.simulator.DataPacket;
+import cnss.simulator.Link;
+import cnss.simulator.Node;
+import cnss.simulator.StateSnapshot;
+
+/**
+ * An open loop traffic generator: it sends data packets at a given rate,
+ * whatever happens to them, and counts the packets it receives and their
+ * delays. Its arguments are options <code>name=value</code>:
+ *
+ * <ul>
+ * <li><code>mode</code>: <code>cbr</code> (default), <code>poisson</code>,
+ * <code>onoff</code> or <code>matrix</code>
+ * <li><code>rate</code>: the rate in bits per second (default 1000000), of the
+ * on periods in mode onoff
+ * <li><code>size</code>: the payload size in bytes (default 1000)
+ * <li><code>dst</code>: a comma separated list of destinations, or
+ * <code>all</code> for all the other nodes; each packet goes to one of them
+ * chosen at random
+ * <li><code>on</code>, <code>off</code>, <code>shape</code>: the mean on and
+ * off periods in ms (default 1000) and the shape of their Pareto distribution
+ * (default 1.5), in mode onoff
+ * <li><code>matrix</code>: the file of the traffic matrix, with lines
+ * <code>src dst rate</code>, in mode matrix; each line of the node is a
+ * Poisson stream, or a constant rate one if <code>arrivals=cbr</code>
+ * <li><code>start</code>, <code>stop</code>, <code>count</code>: when to start
+ * and stop sending and the largest number of packets to send
+ * <li><code>tick</code>: the clock tick period in ms (default 10),
+ * <code>tc</code>: the traffic class of the packets, <code>seed</code>: the
+ * seed of the draws, and <code>log</code>
+ * </ul>
+ *
+ * Packets are sent at the clock ticks: each tick sends all the packets whose
+ * arrival time has passed, so their times are exact on average but rounded up
+ * to the tick. The inter-arrival times are unit exponential draws precomputed
+ * once, in a table shared by all generators, which each generator walks from
+ * its own position with its own stride; Pareto periods are drawn from them too,
+ * as xm exp(E / shape). The packets carry no bytes, only a virtual payload of
+ * the given size, and the matrix file is read once per simulation. A
+ * generator thus costs a few dozen bytes and constant work per packet, and
+ * every node of a very large network can run one.
+ */
+public class TrafficGenerator implements ApplicationAlgorithm, StateSnapshot {
+
+	private static final int CBR = 0;
+	private static final int POISSON = 1;
+	private static final int ONOFF = 2;
+
+	private static final byte[] NO_BYTES = new byte[0];
+
+	private static final int DRAWS = 1 << 16;
+	private static final double[] EXP_DRAWS = new double[DRAWS];
+
+	static {
+		SplittableRandom r = new SplittableRandom(0x5eedL);
+		for (int i = 0; i < DRAWS; i++)
+			EXP_DRAWS[i] = -Math.log(1.0 - r.nextDouble());
+	}
+
+	private Node nodeObj;
+	private int nodeId;
+	private String[] args;
+
+	private String name = "traffic generator";
+	private boolean logOn = false;
+
+	private int mode = CBR;
+	private int size;
+	private int trafficClass = -1;
+	private int[] dsts; // the destinations of the packets, or null for all the other nodes
+	private int numNodes;
+	private double onMean = 1000;
+	private double offMean = 1000;
+	private double shape = 1.5;
+	private int stopTime = Integer.MAX_VALUE;
+	private long maxCount = Long.MAX_VALUE;
+
+	// the streams: one, or one per line of the traffic matrix
+	private int[] streamDst; // -1 for a destination drawn from dsts
+	private double[] interval; // the mean inter-arrival time, in ms
+	private int[] streamMode;
+	private double[] next; // the arrival time of the next packet
+	private double[] onEnd; // the end of the current on period
+
+	private int drawIndex;
+	private int drawStride;
+	private long seed; // of the choice of destinations
+
+	private long sent = 0;
+	private long sentBytes = 0;
+	private long received = 0;
+	private long receivedBytes = 0;
+	private long delay = 0;
+	private int maxDelay = 0;
+
+	public TrafficGenerator() {
+	}
+
+	public int initialise(int now, int node_id, Node mynode, String[] args) {
+		nodeId = node_id;
+		nodeObj = mynode;
+		this.args = args;
+		Map<String, String> opts = new HashMap<>();
+		for (String a : args) {
+			if (a.equals("log"))
+				logOn = true;
+			else if (a.indexOf('=') > 0)
+				opts.put(a.substring(0, a.indexOf('=')), a.substring(a.indexOf('=') + 1));
+			else
+				throw new IllegalArgumentException(name + ": bad argument " + a);
+		}
+		String m = opts.getOrDefault("mode", "cbr");
+		double rate = Double.parseDouble(opts.getOrDefault("rate", "1000000"));
+		size = Integer.parseInt(opts.getOrDefault("size", "1000"));
+		int tick = Integer.parseInt(opts.getOrDefault("tick", "10"));
+		int start = Integer.parseInt(opts.getOrDefault("start", "0"));
+		if (opts.containsKey("stop"))
+			stopTime = Integer.parseInt(opts.get("stop"));
+		if (opts.containsKey("count"))
+			maxCount = Long.parseLong(opts.get("count"));
+		if (opts.containsKey("tc"))
+			trafficClass = Integer.parseInt(opts.get("tc"));
+		onMean = Double.parseDouble(opts.getOrDefault("on", "1000"));
+		offMean = Double.parseDouble(opts.getOrDefault("off", "1000"));
+		shape = Double.parseDouble(opts.getOrDefault("shape", "1.5"));
+		if (size < 0 || tick < 1 || rate <= 0 || onMean <= 0 || offMean <= 0 || shape <= 1)
+			throw new IllegalArgumentException(name + ": bad arguments");
+		long s = Long.parseLong(opts.getOrDefault("seed", "0")) * 0x9e3779b97f4a7c15L + nodeId;
+		seed = mix(s);
+		drawIndex = (int) (mix(seed) & (DRAWS - 1));
+		drawStride = (int) (mix(seed + 1) & (DRAWS - 1)) | 1;
+
+		String d = opts.getOrDefault("dst", "all");
+		if (d.equals("all")) {
+			numNodes = numNodes(nodeObj);
+		} else {
+			String[] ds = d.split(",");
+			dsts = new int[ds.length];
+			for (int i = 0; i < ds.length; i++)
+				dsts[i] = Integer.parseInt(ds[i].trim());
+		}
+
+		double packetInterval = size * 8000.0 / rate; // ms
+		if (m.equals("matrix")) {
+			if (!opts.containsKey("matrix"))
+				throw new IllegalArgumentException(name + ": mode matrix needs a matrix file");
+			double[] row = matrixRow(nodeObj, opts.get("matrix"), nodeId);
+			int n = row.length / 2;
+			int arrivals = opts.getOrDefault("arrivals", "poisson").equals("cbr") ? CBR : POISSON;
+			streams(n);
+			for (int i = 0; i < n; i++) {
+				streamDst[i] = (int) row[2 * i];
+				interval[i] = size * 8000.0 / row[2 * i + 1];
+				streamMode[i] = arrivals;
+			}
+		} else {
+			if (m.equals("cbr"))
+				mode = CBR;
+			else if (m.equals("poisson"))
+				mode = POISSON;
+			else if (m.equals("onoff"))
+				mode = ONOFF;
+			else
+				throw new IllegalArgumentException(name + ": unknown mode " + m);
+			streams(1);
+			streamDst[0] = -1;
+			interval[0] = packetInterval;
+			streamMode[0] = mode;
+		}
+		for (int i = 0; i < next.length; i++) {
+			next[i] = start + (streamMode[i] == CBR ? 0 : interval[i] * draw());
+			if (streamMode[i] == ONOFF) {
+				next[i] = start;
+				onEnd[i] = start + pareto(onMean);
+			}
+		}
+		log(now, "sending " + next.length + " streams of " + size + " byte packets");
+		return tick;
+	}
+
+	public void on_clock_tick(int now) {
+		if (now >= stopTime)
+			return;
+		for (int i = 0; i < next.length; i++) {
+			while (next[i] <= now && sent < maxCount) {
+				send(i);
+				double t = next[i] + (streamMode[i] == POISSON ? interval[i] * draw() : interval[i]);
+				if (streamMode[i] == ONOFF && t >= onEnd[i]) { // an off period, then the next on period
+					t = onEnd[i] + pareto(offMean);
+					onEnd[i] = t + pareto(onMean);
+				}
+				next[i] = t;
+			}
+		}
+	}
+
+	public void on_timeout(int now) {
+		log(now, "timeout");
+	}
+
+	public void on_receive(int now, DataPacket p) {
+		received++;
+		receivedBytes += p.getSize();
+		if (p.getCreationTime() >= 0) {
+			int d = now - p.getCreationTime();
+			delay += d;
+			maxDelay = Math.max(maxDelay, d);
+		}
+	}
+
+	public void showState(int now) {
+		nodeObj.getOutput().println(String.format(
+				"%s time %d node %d sent %d packets %d bytes received %d packets %d bytes delay mean %.1f max %d",
+				name, now, nodeId, sent, sentBytes, received, receivedBytes,
+				received == 0 ? 0.0 : (double) delay / received, maxDelay));
+	}
+
+	public void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(drawIndex);
+		out.writeLong(seed);
+		for (int i = 0; i < next.length; i++) {
+			out.writeDouble(next[i]);
+			out.writeDouble(onEnd[i]);
+		}
+		out.writeLong(sent);
+		out.writeLong(sentBytes);
+		out.writeLong(received);
+		out.writeLong(receivedBytes);
+		out.writeLong(delay);
+		out.writeInt(maxDelay);
+	}
+
+	public void restoreState(DataInputStream in) throws IOException {
+		drawIndex = in.readInt();
+		seed = in.readLong();
+		for (int i = 0; i < next.length; i++) {
+			next[i] = in.readDouble();
+			onEnd[i] = in.readDouble();
+		}
+		sent = in.readLong();
+		sentBytes = in.readLong();
+		received = in.readLong();
+		receivedBytes = in.readLong();
+		delay = in.readLong();
+		maxDelay = in.readInt();
+	}
+
+	// auxiliary methods
+
+	private void streams(int n) {
+		streamDst = new int[n];
+		interval = new double[n];
+		streamMode = new int[n];
+		next = new double[n];
+		onEnd = new double[n];
+	}
+
+	private void send(int stream) {
+		int dst = streamDst[stream];
+		if (dst < 0)
+			dst = destination();
+		DataPacket p = nodeObj.createDataPacket(dst, NO_BYTES, size);
+		if (trafficClass >= 0)
+			p.setTrafficClass(trafficClass);
+		nodeObj.send(p);
+		sent++;
+		sentBytes += p.getSize();
+	}
+
+	private int destination() {
+		if (dsts != null)
+			return dsts.length == 1 ? dsts[0] : dsts[uniform(dsts.length)];
+		if (numNodes < 2)
+			return nodeId;
+		int d = uniform(numNodes - 1);
+		return d >= nodeId ? d + 1 : d;
+	}
+
+	/**
+	 * The next unit exponential draw
+	 */
+	private double draw() {
+		drawIndex = (drawIndex + drawStride) & (DRAWS - 1);
+		return EXP_DRAWS[drawIndex];
+	}
+
+	private double pareto(double mean) {
+		return mean * (shape - 1) / shape * Math.exp(draw() / shape);
+	}
+
+	private int uniform(int n) {
+		seed += 0x9e3779b97f4a7c15L;
+		return (int) ((mix(seed) >>> 33) % n);
+	}
+
+	private static long mix(long z) { // splitmix64
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the number of nodes of the simulation of a node, counted once per
+	 * simulation
+	 */
+	private static int numNodes(Node node) {
+		return node.<Integer>getShared(TrafficGenerator.class.getName() + ".nodes", k -> {
+			int n = 0;
+			for (Link l : node.getAllLinks())
+				n = Math.max(n, Math.max(l.getNode(1), l.getNode(2)) + 1);
+			return n;
+		});
+	}
+
+	/**
+	 * Returns the destinations and rates of a source in a traffic matrix file,
+	 * read once per simulation
+	 */
+	private static double[] matrixRow(Node node, String file, int src) {
+		Map<Integer, double[]> rows = node.getShared(TrafficGenerator.class.getName() + ".matrix." + file, key -> {
+			Map<Integer, List<double[]>> lines = new HashMap<>();
+			try (BufferedReader r = new BufferedReader(new FileReader(file))) {
+				for (String line = r.readLine(); line != null; line = r.readLine()) {
+					line = line.replaceAll("#.*", "").trim();
+					if (line.isEmpty())
+						continue;
+					String[] f = line.split("\\s+");
+					double rate = Double.parseDouble(f[2]);
+					if (rate > 0)
+						lines.computeIfAbsent(Integer.parseInt(f[0]), k -> new ArrayList<>())
+								.add(new double[] { Integer.parseInt(f[1]), rate });
+				}
+			} catch (IOException | RuntimeException e) {
+				throw new IllegalArgumentException("traffic generator: cannot read matrix " + file + ": " + e, e);
+			}
+			Map<Integer, double[]> m = new HashMap<>();
+			for (Map.Entry<Integer, List<double[]>> e : lines.entrySet()) {
+				double[] row = new double[2 * e.getValue().size()];
+				for (int i = 0; i < e.getValue().size(); i++) {
+					row[2 * i] = e.getValue().get(i)[0];
+					row[2 * i + 1] = e.getValue().get(i)[1];
+				}
+				m.put(e.getKey(), row);
+			}
+			return m;
+		});
+		return rows.getOrDefault(src, new double[0]);
+	}
+
+	private void log(int now, String msg) {
+		if (logOn)
+			nodeObj.getOutput().println("log: " + name + " time " + now + " node " + nodeId + " " + msg);
+	}
+
+}
@@ -0,0 +1,295 @@
+package cnss.simulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cnss.simulator.Event.EventType;
+import cnss.simulator.Packet.PacketType;
+
+/**
+ * The <code>Checkpoint</code> class groups the auxiliary methods used to write
+ * and read the objects shared by the different parts of a simulation
+ * checkpoint: strings, events, packets and random generators. Each part of
+ * the simulator (<code>Simulator</code>, <code>Node</code>, <code>Link</code>,
+ * ...) writes and reads its own state using these methods.
+ *
+ * A checkpoint file is a compact binary file written with a
+ * <code>DataOutputStream</code>, starting with MAGIC and VERSION.
+ *
+ * In memory images, used to fork a simulation, are written with a
+ * <code>SharedOutput</code>: packet payloads are not copied to the image but
+ * kept in a list shared by all the copies restored from it, which treat them
+ * as immutable.
+ */
+class Checkpoint {
+
+	static final int MAGIC = 0x434e5353; // "CNSS"
+	static final int VERSION = 9;
+
+	/**
+	 * An output stream that keeps packet payloads by reference
+	 */
+	static class SharedOutput extends DataOutputStream {
+		final List<byte[]> payloads = new ArrayList<>();
+
+		SharedOutput(OutputStream out) {
+			super(out);
+		}
+	}
+
+	/**
+	 * An input stream that reads an image written with a SharedOutput
+	 */
+	static class SharedInput extends DataInputStream {
+		final List<byte[]> payloads;
+
+		SharedInput(InputStream in, List<byte[]> payloads) {
+			super(in);
+			this.payloads = payloads;
+		}
+	}
+
+	/**
+	 * Writes a string, which may be null
+	 */
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+
+	/**
+	 * Reads a string written by writeString
+	 */
+	static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * Writes an array of strings, which may be null
+	 */
+	static void writeStrings(DataOutputStream out, String[] a) throws IOException {
+		out.writeInt(a == null ? -1 : a.length);
+		if (a != null)
+			for (String s : a)
+				writeString(out, s);
+	}
+
+	/**
+	 * Reads an array of strings written by writeStrings
+	 */
+	static String[] readStrings(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+		String[] a = new String[n];
+		for (int i = 0; i < n; i++)
+			a[i] = readString(in);
+		return a;
+	}
+
+	/**
+	 * Writes an array of longs whose length is known by the reader
+	 */
+	static void writeLongs(DataOutputStream out, long[] a) throws IOException {
+		for (long v : a)
+			out.writeLong(v);
+	}
+
+	/**
+	 * Reads an array of longs written by writeLongs
+	 */
+	static void readLongs(DataInputStream in, long[] a) throws IOException {
+		for (int i = 0; i < a.length; i++)
+			a[i] = in.readLong();
+	}
+
+	/**
+	 * Writes a packet, which may be null, including its payload and time stamps
+	 */
+	static void writePacket(DataOutputStream out, Packet p) throws IOException {
+		writePacket(out, p, p == null ? -1 : p.enqueueTime);
+	}
+
+	/**
+	 * Writes a packet with a given enqueue time stamp, the one kept by a link
+	 * side for the shared packets it queues
+	 */
+	static void writePacket(DataOutputStream out, Packet p, int enqueueTime) throws IOException {
+		out.writeBoolean(p != null);
+		if (p == null)
+			return;
+		out.writeByte(p.getType().ordinal());
+		out.writeInt(p.src);
+		out.writeInt(p.dst);
+		out.writeInt(p.ttl);
+		out.writeInt(p.seq);
+		out.writeInt(p.size);
+		out.writeInt(p.trafficClass);
+		out.writeInt(p.virtualLength);
+		out.writeInt(p.creationTime);
+		out.writeInt(enqueueTime);
+		out.writeInt(p.txStartTime);
+		if (out instanceof SharedOutput) {
+			List<byte[]> payloads = ((SharedOutput) out).payloads;
+			out.writeInt(-1 - payloads.size()); // a negative length is a reference
+			payloads.add(p.payload);
+			return;
+		}
+		out.writeInt(p.payload.length);
+		out.write(p.payload);
+	}
+
+	/**
+	 * Reads a packet written by writePacket; the packet has the same class as
+	 * the original one, as long as it is one of the simulator packet classes
+	 */
+	static Packet readPacket(DataInputStream in) throws IOException {
+		if (!in.readBoolean())
+			return null;
+		PacketType type = PacketType.values()[in.readByte()];
+		int src = in.readInt();
+		int dst = in.readInt();
+		int ttl = in.readInt();
+		int seq = in.readInt();
+		int size = in.readInt();
+		int trafficClass = in.readInt();
+		int virtualLength = in.readInt();
+		int creation = in.readInt();
+		int enqueue = in.readInt();
+		int txStart = in.readInt();
+		int length = in.readInt();
+		byte[] payload;
+		if (length < 0) {
+			payload = ((SharedInput) in).payloads.get(-1 - length);
+		} else {
+			payload = new byte[length];
+			in.readFully(payload);
+		}
+		Packet p;
+		if (type == PacketType.DATA)
+			p = new DataPacket(src, dst, payload);
+		else if (type == PacketType.CONTROL)
+			p = new ControlPacket(src, dst, payload);
+		else if (type == PacketType.TRACING)
+			p = new TracingPacket(src, dst, payload);
+		else
+			p = new Packet(src, dst, payload);
+		p.setType(type);
+		p.setTtl(ttl);
+		p.setSequenceNumber(seq);
+		p.setVirtualPayloadLength(virtualLength);
+		p.setSize(size);
+		p.setTrafficClass(trafficClass);
+		p.setCreationTime(creation);
+		p.setEnqueueTime(enqueue);
+		p.setTxStartTime(txStart);
+		return p;
+	}
+
+	/**
+	 * Returns a copy of a packet, of the same class and with the same fields,
+	 * time stamps and payload
+	 */
+	static Packet copyPacket(Packet p) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			writePacket(new DataOutputStream(bytes), p);
+			return readPacket(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		} catch (IOException e) {
+			throw new SimulatorException("cannot copy packet " + p + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes an event, including its packet and arguments
+	 */
+	static void writeEvent(DataOutputStream out, Event ev) throws IOException {
+		out.writeByte(ev.getOperation().ordinal());
+		out.writeInt(ev.getTime());
+		out.writeLong(ev.getUUID());
+		writeStrings(out, ev.getArgs());
+		writePacket(out, ev.getPacket());
+		out.writeInt(ev.getNode());
+		out.writeInt(ev.getInterface());
+	}
+
+	/**
+	 * Reads an event written by writeEvent, keeping its original UUID
+	 */
+	static Event readEvent(DataInputStream in) throws IOException {
+		EventType op = EventType.values()[in.readByte()];
+		int time = in.readInt();
+		long uuid = in.readLong();
+		String[] args = readStrings(in);
+		Packet p = readPacket(in);
+		int node = in.readInt();
+		int iface = in.readInt();
+		Event ev = new Event(op, time, 0, args, p, node, iface);
+		ev.setUUID(uuid);
+		return ev;
+	}
+
+	/**
+	 * Writes the exact state of a random generator, which may be null
+	 */
+	static void writeRandom(DataOutputStream out, Random r) throws IOException {
+		out.writeBoolean(r != null);
+		if (r == null)
+			return;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(r);
+		oos.close();
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	/**
+	 * Reads a random generator written by writeRandom
+	 */
+	static Random readRandom(DataInputStream in) throws IOException {
+		if (!in.readBoolean())
+			return null;
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (Random) ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Writes the state of an algorithm as a length prefixed block, so that a
+	 * faulty algorithm cannot corrupt the rest of the checkpoint
+	 */
+	static void writeAlgorithm(DataOutputStream out, StateSnapshot alg) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream block = new DataOutputStream(bytes);
+		alg.saveState(block);
+		block.flush();
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	/**
+	 * Reads the state of an algorithm written by writeAlgorithm
+	 */
+	static void readAlgorithm(DataInputStream in, StateSnapshot alg) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		alg.restoreState(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+}
@@ -0,0 +1,118 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * A deficit round robin scheduler. The classes with packets are visited in
+ * round robin; each visit adds the weight of the class times the quantum to
+ * its deficit, and the class transmits packets while its deficit covers them.
+ * Over time, each backlogged class gets a share of the bytes transmitted
+ * proportional to its weight. When the quantum is at least the largest packet
+ * size, every visit transmits a packet, so both operations are O(1).
+ */
+public class DrrScheduler extends EgressScheduler {
+
+	/**
+	 * The default quantum, in bytes per unit of weight
+	 */
+	public static final int QUANTUM = 1500;
+
+	private final ArrayDeque<Packet>[] queues;
+	private final int[] quantum;
+	private final long[] deficit;
+	private final int[] active; // ring of the classes with packets
+	private int head = 0;
+	private int count = 0;
+	private boolean visited = false; // the head class already got its quantum
+
+	/**
+	 * <code>DrrScheduler</code> constructor
+	 *
+	 * @param weights the weights of the classes
+	 * @param q       the quantum in bytes per unit of weight
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public DrrScheduler(int[] weights, int q) {
+		super(weights.length);
+		queues = new ArrayDeque[numClasses];
+		quantum = new int[numClasses];
+		deficit = new long[numClasses];
+		active = new int[numClasses];
+		for (int c = 0; c < numClasses; c++) {
+			queues[c] = new ArrayDeque<>();
+			quantum[c] = weights[c] * q;
+		}
+	}
+
+	/**
+	 * Constructor with the default quantum
+	 *
+	 * @param weights the weights of the classes
+	 */
+	public DrrScheduler(int[] weights) {
+		this(weights, QUANTUM);
+	}
+
+	protected void enqueue(Packet p, int cls) {
+		if (queues[cls].isEmpty())
+			active[(head + count++) % numClasses] = cls;
+		queues[cls].add(p);
+	}
+
+	protected Packet dequeue() {
+		while (true) {
+			int c = active[head];
+			if (!visited) {
+				deficit[c] += quantum[c];
+				visited = true;
+			}
+			Packet p = queues[c].peek();
+			if (p.getSize() <= deficit[c]) {
+				queues[c].poll();
+				deficit[c] -= p.getSize();
+				if (queues[c].isEmpty()) { // leaves the round
+					deficit[c] = 0;
+					head = (head + 1) % numClasses;
+					count--;
+					visited = false;
+				}
+				return p;
+			}
+			// next class, this one goes to the end of the round
+			head = (head + 1) % numClasses;
+			active[(head + count - 1) % numClasses] = c;
+			visited = false;
+		}
+	}
+
+	protected void saveQueues(DataOutputStream out) throws IOException {
+		for (int c = 0; c < numClasses; c++) {
+			out.writeLong(deficit[c]);
+			out.writeInt(queues[c].size());
+			for (Packet p : queues[c])
+				writePacket(out, p);
+		}
+		out.writeInt(count);
+		for (int i = 0; i < count; i++)
+			out.writeInt(active[(head + i) % numClasses]);
+		out.writeBoolean(visited);
+	}
+
+	protected void restoreQueues(DataInputStream in) throws IOException {
+		for (int c = 0; c < numClasses; c++) {
+			deficit[c] = in.readLong();
+			queues[c].clear();
+			for (int n = in.readInt(); n > 0; n--)
+				queues[c].add(readPacket(in));
+		}
+		head = 0;
+		count = in.readInt();
+		for (int i = 0; i < count; i++)
+			active[i] = in.readInt();
+		visited = in.readBoolean();
+	}
+
+}
@@ -0,0 +1,322 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+
+import cnss.simulator.Packet.PacketType;
+
+/**
+ * The <code>EgressScheduler</code> class is the base of the schedulers that
+ * choose the order in which the packets sent on one side of a link are
+ * transmitted. Without a scheduler, a link side is a FIFO queue whose packets
+ * are all scheduled for transmission in the step they are sent. With one, the
+ * packets wait in the scheduler and are only handed to the link when it is
+ * free, so a packet of a favoured class sent later may overtake the backlog of
+ * another class.
+ *
+ * Packets are split in classes, numbered from 0. The class of a packet is its
+ * traffic class, if set, and otherwise 0 for control packets and the last
+ * class for data packets; classes too large are mapped to the last one. The
+ * scheduler keeps, for each class, the number of packets queued, the largest
+ * queue, the packets and bytes sent and dropped and the total queueing delay.
+ *
+ * Schedulers are chosen with the global parameter <code>scheduler</code>, or
+ * <code>scheduler.node.iface</code> for the link side of a given interface:
+ * <code>fifo</code> (the default), <code>priority</code>, <code>drr</code>,
+ * <code>wfq</code> or the name of a subclass with a public constructor taking
+ * the weights. The weights of the classes are given by
+ * <code>scheduler_weights</code> (or <code>scheduler_weights.node.iface</code>)
+ * as a comma separated list, by default <code>1,1</code>; their number is the
+ * number of classes.
+ *
+ * A packet shared by the receivers of a multicast may wait in several link
+ * sides at once, so it carries no enqueue time stamp: the scheduler keeps it.
+ */
+public abstract class EgressScheduler implements StateSnapshot {
+
+	protected final int numClasses;
+
+	// statistics by class
+	private final int[] queued;
+	private final int[] maxQueued;
+	private final long[] sent;
+	private final long[] sentBytes;
+	private final long[] dropped;
+	private final long[] delay; // total queueing delay of the sent packets, in ms
+	private int size = 0;
+	// the enqueue times of the shared packets queued
+	private final IdentityHashMap<Packet, Integer> sharedEnqueueTimes = new IdentityHashMap<>();
+	private int polledEnqueueTime = -1;
+
+	/**
+	 * <code>EgressScheduler</code> constructor
+	 *
+	 * @param nclasses the number of classes
+	 */
+	protected EgressScheduler(int nclasses) {
+		if (nclasses < 1)
+			throw new SimulatorException("scheduler: at least one class is needed");
+		numClasses = nclasses;
+		queued = new int[nclasses];
+		maxQueued = new int[nclasses];
+		sent = new long[nclasses];
+		sentBytes = new long[nclasses];
+		dropped = new long[nclasses];
+		delay = new long[nclasses];
+	}
+
+	/**
+	 * Creates the scheduler of the link side of an interface, as defined by the
+	 * global parameters
+	 *
+	 * @param gp    the global parameters
+	 * @param node  the node of the link side
+	 * @param iface its interface
+	 * @return the scheduler, or null if the link side is a FIFO queue
+	 */
+	static EgressScheduler create(GlobalParameters gp, int node, int iface) {
+		String name = parameter(gp, "scheduler", node, iface);
+		if (name == null || name.equals("fifo"))
+			return null;
+		String w = parameter(gp, "scheduler_weights", node, iface);
+		String[] ws = (w == null ? "1,1" : w).split(",");
+		int[] weights = new int[ws.length];
+		for (int i = 0; i < ws.length; i++) {
+			weights[i] = Integer.parseInt(ws[i].trim());
+			if (weights[i] < 1)
+				throw new SimulatorException("scheduler: weights must be positive: " + w);
+		}
+		switch (name) {
+		case "priority":
+			return new PriorityScheduler(weights.length);
+		case "drr":
+			String q = gp.get("scheduler_quantum");
+			return new DrrScheduler(weights, q == null ? DrrScheduler.QUANTUM : Integer.parseInt(q));
+		case "wfq":
+			return new WfqScheduler(weights);
+		default:
+			try {
+				return (EgressScheduler) Class.forName(name).getConstructor(int[].class).newInstance((Object) weights);
+			} catch (Exception e) {
+				throw new SimulatorException("scheduler: cannot create " + name + ": " + e, e);
+			}
+		}
+	}
+
+	private static String parameter(GlobalParameters gp, String name, int node, int iface) {
+		String v = gp.get(name + "." + node + "." + iface);
+		return v != null ? v : gp.get(name);
+	}
+
+	/**
+	 * Returns the class of a packet
+	 *
+	 * @param p the packet
+	 * @return its class, between 0 and numClasses - 1
+	 */
+	public int classOf(Packet p) {
+		int c = p.getTrafficClass();
+		if (c < 0)
+			c = p.getType() == PacketType.DATA ? numClasses - 1 : 0;
+		return Math.min(c, numClasses - 1);
+	}
+
+	/**
+	 * Adds a packet to the queue of a class
+	 *
+	 * @param p   the packet
+	 * @param cls its class
+	 */
+	protected abstract void enqueue(Packet p, int cls);
+
+	/**
+	 * Removes the next packet to transmit; only called when there are packets
+	 *
+	 * @return the packet
+	 */
+	protected abstract Packet dequeue();
+
+	/**
+	 * Writes the queued packets and the scheduling state
+	 *
+	 * @param out where to write the state
+	 * @throws IOException
+	 */
+	protected abstract void saveQueues(DataOutputStream out) throws IOException;
+
+	/**
+	 * Restores the state written by saveQueues
+	 *
+	 * @param in where to read the state from
+	 * @throws IOException
+	 */
+	protected abstract void restoreQueues(DataInputStream in) throws IOException;
+
+	/**
+	 * Adds a packet sent to the link side
+	 *
+	 * @param p   the packet
+	 * @param now when it is enqueued
+	 */
+	final void add(Packet p, int now) {
+		int c = classOf(p);
+		if (p.isShared())
+			sharedEnqueueTimes.put(p, now);
+		size++;
+		if (++queued[c] > maxQueued[c])
+			maxQueued[c] = queued[c];
+		enqueue(p, c);
+	}
+
+	/**
+	 * Removes the next packet to transmit, which starts being transmitted now
+	 */
+	final Packet poll(int now) {
+		Packet p = dequeue();
+		int c = classOf(p);
+		size--;
+		queued[c]--;
+		sent[c]++;
+		sentBytes[c] += p.getSize();
+		polledEnqueueTime = enqueueTime(p);
+		if (polledEnqueueTime >= 0)
+			delay[c] += now - polledEnqueueTime;
+		return p;
+	}
+
+	/**
+	 * Returns when the last packet polled was enqueued
+	 *
+	 * @return the enqueue time, -1 if unknown
+	 */
+	final int getPolledEnqueueTime() {
+		return polledEnqueueTime;
+	}
+
+	private int enqueueTime(Packet p) {
+		if (!p.isShared())
+			return p.getEnqueueTime();
+		Integer t = sharedEnqueueTimes.remove(p);
+		return t == null ? -1 : t;
+	}
+
+	/**
+	 * Removes the next packet to discard it, e.g. when the link goes down
+	 */
+	final Packet drop() {
+		Packet p = dequeue();
+		int c = classOf(p);
+		size--;
+		queued[c]--;
+		dropped[c]++;
+		sharedEnqueueTimes.remove(p);
+		return p;
+	}
+
+	/**
+	 * Returns the number of packets queued
+	 *
+	 * @return the number of packets
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getNumClasses() {
+		return numClasses;
+	}
+
+	public int getQueued(int cls) {
+		return queued[cls];
+	}
+
+	public int getMaxQueued(int cls) {
+		return maxQueued[cls];
+	}
+
+	public long getSent(int cls) {
+		return sent[cls];
+	}
+
+	public long getSentBytes(int cls) {
+		return sentBytes[cls];
+	}
+
+	public long getDropped(int cls) {
+		return dropped[cls];
+	}
+
+	/**
+	 * Returns the mean queueing delay of the packets of a class sent so far
+	 *
+	 * @param cls the class
+	 * @return the mean delay in ms, 0 if none was sent
+	 */
+	public double getMeanDelay(int cls) {
+		return sent[cls] == 0 ? 0.0 : (double) delay[cls] / sent[cls];
+	}
+
+	/**
+	 * Returns the statistics of each class, one line per class
+	 *
+	 * @return the statistics
+	 */
+	public String dumpClassStats() {
+		StringBuilder s = new StringBuilder();
+		for (int c = 0; c < numClasses; c++)
+			s.append(String.format("   class %d q %d max %d s %d bytes %d d %d delay %.1f%n", c, queued[c], maxQueued[c],
+					sent[c], sentBytes[c], dropped[c], getMeanDelay(c)));
+		return s.toString();
+	}
+
+	public final void saveState(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int c = 0; c < numClasses; c++) {
+			out.writeInt(queued[c]);
+			out.writeInt(maxQueued[c]);
+			out.writeLong(sent[c]);
+			out.writeLong(sentBytes[c]);
+			out.writeLong(dropped[c]);
+			out.writeLong(delay[c]);
+		}
+		saveQueues(out);
+	}
+
+	public final void restoreState(DataInputStream in) throws IOException {
+		size = in.readInt();
+		for (int c = 0; c < numClasses; c++) {
+			queued[c] = in.readInt();
+			maxQueued[c] = in.readInt();
+			sent[c] = in.readLong();
+			sentBytes[c] = in.readLong();
+			dropped[c] = in.readLong();
+			delay[c] = in.readLong();
+		}
+		restoreQueues(in);
+	}
+
+	/**
+	 * Writes a queued packet, for the subclasses saving their queues; a shared
+	 * packet is written with the enqueue time kept by the scheduler
+	 */
+	protected final void writePacket(DataOutputStream out, Packet p) throws IOException {
+		if (p.isShared())
+			Checkpoint.writePacket(out, p, sharedEnqueueTimes.getOrDefault(p, -1));
+		else
+			Checkpoint.writePacket(out, p);
+	}
+
+	/**
+	 * Reads a packet written by writePacket
+	 */
+	protected static Packet readPacket(DataInputStream in) throws IOException {
+		return Checkpoint.readPacket(in);
+	}
+
+}
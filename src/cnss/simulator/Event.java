@@ -13,10 +13,11 @@ public class Event {
 	public static enum EventType {
 		UNKNOWN, TRACEROUTE, UPLINK, DOWNLINK, DUMP_RT, DUMP_PACKETS, 		
 		DELIVER_PACKET,
-		DUMP_CONTROLSTATE, DUMP_APPSTATE, CLOCK_INTERRUPT
+		DUMP_CONTROLSTATE, DUMP_APPSTATE, CLOCK_INTERRUPT, CHECKPOINT,
+		LINK_WAKEUP, FLUID_UPDATE, FLOW_END
 	}
 
-	public static long DISPLACEMENT = 1000000; // # of max != events per processing step
+	public static final long DISPLACEMENT = 1L << 32; // # of max != events per processing step
 
 	private EventType operation;
 	private long uuid;
@@ -35,22 +36,22 @@ public class Event {
 	 * 
 	 * @param op the name (type) of the event
 	 * @param t  the time the event is to occur
-	 * @param id an unique id of the event, t<<32+id is the UUID of the event
+	 * @param id an unique id of the event, below DISPLACEMENT; t<<32+id is the UUID of the event
 	 * @param a  the arguments to the event.
 	 */
 	public Event(EventType op, int t, long id, String[] a) {
 		operation = op;
 		time = t;
 		long longtime = (long) t;
+		if (id < 0 || id >= DISPLACEMENT)
+			throw new SimulatorException("new event: event id out of range, too many events: " + id);
 		uuid = longtime * DISPLACEMENT + id;
 		args = a;
 		packet = null;
 		node = 0;
 		itface = 0;
-		if (uuid < 0) {
-			System.err.println("new event: event with negative uuid: this");
-			System.exit(-1);
-		}
+		if (uuid < 0)
+			throw new SimulatorException("new event: event with negative uuid: " + this);
 	}
 
 	/**
@@ -59,7 +60,8 @@ public class Event {
 	 * 
 	 * @param op   the name (type) of the event
 	 * @param t    the time the event is to occur
-	 * @param id   an unique id of the event, t<<32+id is the UUID of the event
+	 * @param id   an unique id of the event, below DISPLACEMENT; t<<32+id is the UUID
+	 *             of the event
 	 * @param a    the arguments to the event.
 	 * @param p    a Packet associated with this event.
 	 * @param n    a node associated with this event.
@@ -69,15 +71,15 @@ public class Event {
 		operation = op;
 		time = t;
 		long longtime = (long) t;
+		if (id < 0 || id >= DISPLACEMENT)
+			throw new SimulatorException("new event: event id out of range, too many events: " + id);
 		uuid = longtime * DISPLACEMENT + id;
 		args = a;
 		packet = p;
 		node = n;
 		itface = itfc;
-		if (uuid < 0) {
-			System.err.println("new event: event with negative uuid: this");
-			System.exit(-1);
-		}
+		if (uuid < 0)
+			throw new SimulatorException("new event: event with negative uuid: " + this);
 	}
 
 	/**
@@ -0,0 +1,323 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The <code>EventDigest</code> class computes a rolling hash of the events
+ * processed by a simulation, to check that two runs, e.g. by different
+ * engines or versions of the simulator, execute exactly the same simulation.
+ *
+ * Each event taken from the global queue is hashed, with its time, type, node
+ * and interface and, if it carries a packet, the source, destination, type,
+ * ttl, sequence number, size, traffic class and a digest of the payload of
+ * the packet. The hashes of the events of a processing step are added, so the
+ * order in which an engine processes the events of a step does not matter,
+ * and the sum, with the clock and the number of events of the step, is mixed
+ * into the rolling hash.
+ *
+ * If the parameter <code>digest_file</code> is defined, the rolling hash is
+ * written to that file after the first step of each interval of
+ * <code>digest_interval</code> ms (parameter, default 1000), after every step
+ * with clock in the range given by <code>digest_steps from,to</code>, and at
+ * the end of the simulation, in lines with the clock of the step, the number
+ * of steps and events since the start and the hash. Two of these files are
+ * compared with
+ * <code>java cnss.simulator.EventDigest file1 file2</code>, which prints the
+ * last step where both runs agree and the first one where they do not, or the
+ * range of steps to write with <code>digest_steps</code> to find it.
+ *
+ * The rolling hash is saved in checkpoints, so a simulation restored from a
+ * checkpoint, or a copy of a fork, goes on with the hash of the original run
+ * and writes the same lines as if it had not been interrupted.
+ */
+class EventDigest {
+
+	private static final long PRIME = 0x100000001b3L; // FNV-1a 64
+	private static final long OFFSET = 0xcbf29ce484222325L;
+
+	private final String file;
+	private final int interval;
+	private final int detailFrom;
+	private final int detailTo;
+	private PrintWriter writer = null;
+	private final PrintStream err;
+
+	private long rolling = OFFSET;
+	private long steps = 0;
+	private long events = 0;
+	private int next = 0; // the clock from which the next interval line is written
+	private int last = -1; // the clock of the last step
+	private long sum = 0; // the hashes of the events of the current step
+	private int count = 0;
+
+	/**
+	 * Creates the digest of a simulation, if the parameter
+	 * <code>digest_file</code> is defined
+	 *
+	 * @param gp  the global parameters
+	 * @param err where errors go
+	 * @return the digest, or null
+	 */
+	static EventDigest create(GlobalParameters gp, PrintStream err) {
+		if (!gp.containsKey("digest_file"))
+			return null;
+		return new EventDigest(gp, err);
+	}
+
+	private EventDigest(GlobalParameters gp, PrintStream err) {
+		this.err = err;
+		file = gp.get("digest_file");
+		interval = gp.containsKey("digest_interval") ? Integer.parseInt(gp.get("digest_interval")) : 1000;
+		if (interval < 1)
+			throw new SimulatorException("digest: digest_interval must be positive: " + interval);
+		if (gp.containsKey("digest_steps")) {
+			String[] range = gp.get("digest_steps").split(",");
+			if (range.length != 2)
+				throw new SimulatorException("digest: digest_steps must be from,to: " + gp.get("digest_steps"));
+			detailFrom = Integer.parseInt(range[0]);
+			detailTo = Integer.parseInt(range[1]);
+		} else {
+			detailFrom = 0;
+			detailTo = -1;
+		}
+	}
+
+	/**
+	 * Returns the file the digests are written to
+	 *
+	 * @return the file name
+	 */
+	String getFileName() {
+		return file;
+	}
+
+	/**
+	 * Adds an event, just taken from the global queue, to the current step
+	 *
+	 * @param ev the event
+	 */
+	void event(Event ev) {
+		sum += hash(ev);
+		count++;
+	}
+
+	/**
+	 * Ends the current processing step
+	 *
+	 * @param now the clock of the step
+	 */
+	void step(int now) {
+		step(now, sum, count);
+		sum = 0;
+		count = 0;
+	}
+
+	/**
+	 * Adds a whole processing step, for the engines that add the hashes of the
+	 * events of a step themselves
+	 *
+	 * @param now     the clock of the step
+	 * @param sum     the sum of the hashes of its events
+	 * @param nevents the number of events
+	 */
+	void step(int now, long sum, int nevents) {
+		rolling = mix((rolling ^ mix(sum + nevents)) * PRIME + now);
+		steps++;
+		events += nevents;
+		last = now;
+		if (now >= next || (now >= detailFrom && now <= detailTo)) {
+			write(Integer.toString(now));
+			next = (int) Math.min(Integer.MAX_VALUE, ((long) now / interval + 1) * interval);
+		}
+	}
+
+	/**
+	 * Writes the rolling hash to a checkpoint
+	 *
+	 * @param out where to write it
+	 * @throws IOException
+	 */
+	void writeState(DataOutputStream out) throws IOException {
+		out.writeLong(rolling);
+		out.writeLong(steps);
+		out.writeLong(events);
+		out.writeInt(last);
+	}
+
+	/**
+	 * Reads the rolling hash written to a checkpoint, with which a digest goes
+	 * on; its lines are then written after the same steps as in the original
+	 * run, unless the interval changed
+	 *
+	 * @param in     where to read it from
+	 * @param digest the digest of the restored simulation, or null if it has
+	 *               none
+	 * @throws IOException
+	 */
+	static void readState(DataInputStream in, EventDigest digest) throws IOException {
+		long rolling = in.readLong();
+		long steps = in.readLong();
+		long events = in.readLong();
+		int last = in.readInt();
+		if (digest == null)
+			return;
+		digest.rolling = rolling;
+		digest.steps = steps;
+		digest.events = events;
+		digest.last = last;
+		digest.next = steps == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, ((long) last / digest.interval + 1) * digest.interval);
+	}
+
+	/**
+	 * Writes the last line and closes the file
+	 */
+	void close() {
+		write("end " + last);
+		if (writer != null)
+			writer.close();
+		writer = null;
+	}
+
+	private void write(String label) {
+		try {
+			if (writer == null) {
+				writer = new PrintWriter(new FileWriter(file));
+				writer.println("# clock steps events digest");
+			}
+		} catch (IOException e) {
+			err.println("digest: cannot open " + file + ": " + e.getMessage());
+			return;
+		}
+		writer.println(label + " " + steps + " " + events + " " + String.format("%016x", rolling));
+		writer.flush();
+	}
+
+	/**
+	 * Returns the hash of an event
+	 *
+	 * @param ev the event
+	 * @return the hash
+	 */
+	static long hash(Event ev) {
+		long h = OFFSET;
+		h = (h ^ ev.getTime()) * PRIME;
+		h = (h ^ ev.getOperation().ordinal()) * PRIME;
+		h = (h ^ ev.getNode()) * PRIME;
+		h = (h ^ ev.getInterface()) * PRIME;
+		Packet p = ev.getPacket();
+		if (p != null) {
+			h = (h ^ p.getSource()) * PRIME;
+			h = (h ^ p.getDestination()) * PRIME;
+			h = (h ^ p.getType().ordinal()) * PRIME;
+			h = (h ^ p.getTtl()) * PRIME;
+			h = (h ^ p.getSequenceNumber()) * PRIME;
+			h = (h ^ p.getSize()) * PRIME;
+			h = (h ^ p.getTrafficClass()) * PRIME;
+			byte[] payload = p.payload;
+			long d = OFFSET;
+			if (payload != null)
+				for (byte b : payload)
+					d = (d ^ (b & 0xff)) * PRIME;
+			h = (h ^ d) * PRIME;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * The finaliser of SplitMix64, so that sums of hashes stay well spread
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	// the comparison of two digest files
+
+	private static List<String[]> read(String file) throws IOException {
+		List<String[]> lines = new ArrayList<>();
+		for (String s : Files.readAllLines(Paths.get(file))) {
+			if (!s.isEmpty() && !s.startsWith("#"))
+				lines.add(s.split(" "));
+		}
+		return lines;
+	}
+
+	/**
+	 * Compares two digest files and prints where the runs diverge
+	 *
+	 * @param a   the lines of the first file
+	 * @param b   the lines of the second file
+	 * @param out where the comparison is printed
+	 * @return true if the runs are the same
+	 */
+	static boolean compare(List<String[]> a, List<String[]> b, PrintStream out) {
+		String[] agreed = null;
+		for (int i = 0; i < Math.max(a.size(), b.size()); i++) {
+			String[] x = i < a.size() ? a.get(i) : null;
+			String[] y = i < b.size() ? b.get(i) : null;
+			if (x != null && y != null && String.join(" ", x).equals(String.join(" ", y))) {
+				agreed = x;
+				continue;
+			}
+			String from = agreed == null ? "the start" : "step " + agreed[agreed.length - 4] + " (" + agreed[agreed.length - 3] + " steps)";
+			out.println("runs diverge after " + from);
+			out.println("   first: " + (x == null ? "no more digests" : String.join(" ", x)));
+			out.println("   second: " + (y == null ? "no more digests" : String.join(" ", y)));
+			long steps = agreed == null ? 0 : Long.parseLong(agreed[agreed.length - 3]);
+			if (x != null && y != null && Long.parseLong(x[x.length - 3]) == steps + 1
+					&& Long.parseLong(y[y.length - 3]) == steps + 1) {
+				// the lines are of the steps just after the last one where the runs agree
+				int tx = Integer.parseInt(x[x.length - 4]);
+				int ty = Integer.parseInt(y[y.length - 4]);
+				if (tx == ty)
+					out.println("first divergent step: " + tx);
+				else
+					out.println("first divergent step: " + Math.min(tx, ty) + ", only run by the "
+							+ (tx < ty ? "first" : "second"));
+			} else {
+				int to = Integer.MAX_VALUE;
+				if (x != null)
+					to = Math.min(to, Integer.parseInt(x[x.length - 4]));
+				if (y != null)
+					to = Math.min(to, Integer.parseInt(y[y.length - 4]));
+				int start = agreed == null ? 0 : Integer.parseInt(agreed[agreed.length - 4]) + 1;
+				out.println("to find the first divergent step, run both again with: parameter digest_steps " + start + ","
+						+ (to == Integer.MAX_VALUE ? "<stop>" : Integer.toString(to)));
+			}
+			return false;
+		}
+		out.println("runs agree: " + (agreed == null ? 0 : agreed[agreed.length - 3]) + " steps and "
+				+ (agreed == null ? 0 : agreed[agreed.length - 2]) + " events");
+		return true;
+	}
+
+	/**
+	 * main function called from the command line with the two digest files to
+	 * compare; the exit status is 0 if they agree, 1 if they do not
+	 *
+	 * @param args
+	 */
+	public static void main(String args[]) {
+		if (args.length != 2) {
+			System.out.println("Usage : java cnss.simulator.EventDigest <digest file> <digest file>");
+			System.exit(2);
+		}
+		try {
+			System.exit(compare(read(args[0]), read(args[1]), System.out) ? 0 : 1);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("digest: " + e.getMessage());
+			System.exit(2);
+		}
+	}
+
+}
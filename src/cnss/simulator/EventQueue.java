@@ -0,0 +1,82 @@
+package cnss.simulator;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import cnss.simulator.Event.EventType;
+
+/**
+ * The <code>EventQueue</code> class is the global queue of events of the
+ * simulator. Events are ordered by their UUID, i.e., by time and, for events
+ * with the same time, by creation order.
+ */
+public class EventQueue {
+
+	private SortedMap<Long, Event> events = new TreeMap<>();
+	private int[] counts = new int[EventType.values().length]; // number of events of each type
+
+	/**
+	 * Adds an event to the queue
+	 *
+	 * @param ev the event
+	 */
+	public void add(Event ev) {
+		Event old = events.put(ev.getUUID(), ev);
+		if (old != null)
+			counts[old.getOperation().ordinal()]--;
+		counts[ev.getOperation().ordinal()]++;
+	}
+
+	/**
+	 * Returns, without removing it, the first event of the queue
+	 *
+	 * @return the first event or null if the queue is empty
+	 */
+	public Event peek() {
+		if (events.isEmpty())
+			return null;
+		return events.get(events.firstKey());
+	}
+
+	/**
+	 * Removes and returns the first event of the queue
+	 *
+	 * @return the first event or null if the queue is empty
+	 */
+	public Event poll() {
+		if (events.isEmpty())
+			return null;
+		Event ev = events.remove(events.firstKey());
+		counts[ev.getOperation().ordinal()]--;
+		return ev;
+	}
+
+	/**
+	 * Returns the number of events in the queue
+	 *
+	 * @return the number of events
+	 */
+	public int size() {
+		return events.size();
+	}
+
+	/**
+	 * Returns the number of events of a given type in the queue
+	 *
+	 * @param type the type of the events
+	 * @return the number of events
+	 */
+	public int count(EventType type) {
+		return counts[type.ordinal()];
+	}
+
+	/**
+	 * Returns the events of the queue in order
+	 *
+	 * @return the events
+	 */
+	public Iterable<Event> events() {
+		return events.values();
+	}
+
+}
@@ -0,0 +1,173 @@
+package cnss.simulator;
+
+/**
+ * The <code>FluidFlow</code> class describes a flow of the fluid mode: a
+ * transfer from a source to a destination that is not split in packets but
+ * modelled by the rate it gets on each link of its path. Flows are started by
+ * the application algorithms with <code>Node.startFlow</code>; their rates are
+ * the max-min fair shares of the links they cross, recomputed only when a
+ * flow starts or ends or a link goes up or down.
+ *
+ * The objects given to the applications are snapshots: the one returned by
+ * <code>Node.getFlow</code> describes the flow at the time of the call, the
+ * one given to <code>FluidFlowListener.on_flow_end</code> the flow when it
+ * ended.
+ */
+public class FluidFlow {
+
+	/**
+	 * The size of a flow that only ends when it is stopped
+	 */
+	public static final long UNBOUNDED = -1;
+
+	final int id;
+	final int src;
+	final int dst;
+	final long size;
+	final long maxRate;
+	final int startTime;
+	int endTime = -1;
+	int latency = 0; // the propagation delay of its path, in ms
+	double sent = 0; // bytes sent so far
+	double rate = 0; // current rate, in bps
+	boolean stopped = false;
+	int[] path; // the link sides it crosses, null if there is no route
+
+	FluidFlow(int id, int src, int dst, long size, long maxRate, int startTime) {
+		this.id = id;
+		this.src = src;
+		this.dst = dst;
+		this.size = size;
+		this.maxRate = maxRate;
+		this.startTime = startTime;
+	}
+
+	/**
+	 * Returns a copy of the flow, without its path
+	 */
+	FluidFlow snapshot() {
+		FluidFlow f = new FluidFlow(id, src, dst, size, maxRate, startTime);
+		f.endTime = endTime;
+		f.latency = latency;
+		f.sent = sent;
+		f.rate = rate;
+		f.stopped = stopped;
+		return f;
+	}
+
+	/**
+	 * Returns the arguments of the event that notifies the end of the flow
+	 */
+	String[] toArgs() {
+		return new String[] { "" + id, "" + src, "" + dst, "" + size, "" + maxRate, "" + startTime, "" + endTime,
+				"" + latency, "" + Math.round(sent), "" + stopped };
+	}
+
+	/**
+	 * Rebuilds a flow from the arguments given by toArgs
+	 */
+	static FluidFlow fromArgs(String[] a) {
+		FluidFlow f = new FluidFlow(Integer.parseInt(a[0]), Integer.parseInt(a[1]), Integer.parseInt(a[2]),
+				Long.parseLong(a[3]), Long.parseLong(a[4]), Integer.parseInt(a[5]));
+		f.endTime = Integer.parseInt(a[6]);
+		f.latency = Integer.parseInt(a[7]);
+		f.sent = Long.parseLong(a[8]);
+		f.stopped = Boolean.parseBoolean(a[9]);
+		return f;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getSource() {
+		return src;
+	}
+
+	public int getDestination() {
+		return dst;
+	}
+
+	/**
+	 * Returns the number of bytes of the flow
+	 *
+	 * @return the size, or UNBOUNDED
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the largest rate the flow may get
+	 *
+	 * @return the rate in bps, 0 if it is only limited by the links
+	 */
+	public long getMaxRate() {
+		return maxRate;
+	}
+
+	public int getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the time the last byte of the flow was sent, or it was stopped
+	 *
+	 * @return the time, or -1 if the flow did not end
+	 */
+	public int getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * Returns the time the last byte of the flow reached the destination
+	 *
+	 * @return the time, or -1 if the flow did not end
+	 */
+	public int getCompletionTime() {
+		return endTime < 0 ? -1 : endTime + latency;
+	}
+
+	/**
+	 * Returns the propagation delay of the path of the flow
+	 *
+	 * @return the sum of the latencies of its links, in ms
+	 */
+	public int getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Returns the number of bytes sent so far
+	 *
+	 * @return the bytes
+	 */
+	public long getSentBytes() {
+		return Math.round(sent);
+	}
+
+	/**
+	 * Returns the current rate of the flow, 0 if it ended or has no route
+	 *
+	 * @return the rate in bps
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Tells whether the flow was stopped before sending all its bytes
+	 *
+	 * @return true if it was stopped
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	public String toString() {
+		return "flow " + id + " " + src + " -> " + dst + " size " + (size == UNBOUNDED ? "unbounded" : "" + size)
+				+ " start " + startTime + " sent " + getSentBytes() + (endTime < 0 ? " rate " + Math.round(rate)
+						: (stopped ? " stopped " : " end ") + endTime + " completed " + getCompletionTime());
+	}
+
+}
@@ -0,0 +1,20 @@
+package cnss.simulator;
+
+/**
+ * The <code>FluidFlowListener</code> interface may be implemented by
+ * application algorithms that start fluid flows, or receive them, and want to
+ * know when they end. The upcall is made to the source and to the destination
+ * of the flow when its last byte reaches the destination, i.e., the latency of
+ * its path after the last byte was sent, or after it was stopped.
+ */
+public interface FluidFlowListener {
+
+	/**
+	 * Signals the end of a fluid flow sent or received by this node
+	 *
+	 * @param now the current time
+	 * @param f   the flow, as it was when it ended
+	 */
+	public void on_flow_end(int now, FluidFlow f);
+
+}
@@ -0,0 +1,504 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import cnss.simulator.Event.EventType;
+
+/**
+ * The <code>FluidFlows</code> class is the engine of the fluid mode. Fluid
+ * flows are not split in packets: each one gets a rate on the links of its
+ * path, the shortest path in hops over the up links, and the rates are the
+ * max-min fair shares of the link capacities, computed by progressive filling.
+ * They only change when a flow starts or ends or a link goes up or down, so
+ * the engine only adds an event to the simulation when the next flow ends, and
+ * a long transfer costs a few events instead of one per packet.
+ *
+ * The capacity of each side of a link available to the fluid flows is its
+ * bandwidth times the global parameter <code>fluid_capacity</code> (default
+ * 1.0). Packets are not slowed down by the fluid flows: they are transmitted
+ * as if they had priority over them, which fits control traffic, whose load is
+ * small; a fraction of the links may be set aside for it with
+ * <code>fluid_capacity</code>. A flow without a route, because of links down,
+ * gets no rate until the links change.
+ *
+ * When a flow ends, its source and destination are notified the latency of
+ * its path later (at least 1 ms), by a <code>FLOW_END</code> event delivered
+ * to the nodes. The engine also accounts the bytes carried by each link side,
+ * printed with the flows still active at the end of the simulation if the
+ * global parameter <code>fluid_report</code> is defined.
+ */
+class FluidFlows {
+
+	private static final double DONE = 0.5; // a flow missing less than this number of bytes has ended
+
+	private final Simulator sim;
+	private final int numNodes;
+	private final Link[] links;
+	private final double capacityShare;
+
+	// adjacency in compressed rows, in the order of the links
+	private final int[] first;
+	private final int[] edgeNode;
+	private final int[] edgeSide; // the link side used to send to edgeNode: 2 * link + side - 1
+
+	private final TreeMap<Integer, FluidFlow> active = new TreeMap<>();
+	private int nextId = 0;
+	private int lastUpdate = 0; // the time up to which the bytes sent were accounted
+	private int wakeup = -1; // the time of the pending FLUID_UPDATE event
+	private boolean changed = false; // flows started or stopped, or links changed
+	private boolean woken = false;
+	private boolean routesStale = false;
+	private String frozen = null; // why flows cannot be started, null if they can
+
+	private final double[] load; // current rate of each link side, in bps
+	private final double[] carried; // bytes carried by each link side
+	private long flowsEnded = 0;
+	private double bytesEnded = 0;
+
+	// working arrays of the route and rate computations
+	private final int[] queue;
+	private final int[] parentEdge;
+	private int bfsSource = -1; // the source of the routes in parentEdge
+	private final double[] remaining;
+	private final int[] count;
+	private final int[] firstFlow;
+	private int[] sideFlows = new int[0];
+
+	/**
+	 * <code>FluidFlows</code> constructor
+	 *
+	 * @param sim    the simulation, where the engine adds its events
+	 * @param nnodes the number of nodes
+	 * @param links  the links of the simulation
+	 * @param gp     the global parameters
+	 */
+	FluidFlows(Simulator sim, int nnodes, Link[] links, GlobalParameters gp) {
+		this.sim = sim;
+		numNodes = nnodes;
+		this.links = links;
+		String c = gp.get("fluid_capacity");
+		capacityShare = c == null ? 1.0 : Double.parseDouble(c);
+		if (capacityShare <= 0 || capacityShare > 1)
+			throw new SimulatorException("fluid_capacity must be in ]0,1]: " + c);
+		first = new int[nnodes + 1];
+		for (Link l : links) {
+			first[l.getNode(1) + 1]++;
+			first[l.getNode(2) + 1]++;
+		}
+		for (int u = 0; u < nnodes; u++)
+			first[u + 1] += first[u];
+		edgeNode = new int[first[nnodes]];
+		edgeSide = new int[first[nnodes]];
+		int[] fill = Arrays.copyOf(first, nnodes);
+		for (int i = 0; i < links.length; i++) {
+			for (int side = 1; side <= 2; side++) {
+				int e = fill[links[i].getNode(side)]++;
+				edgeNode[e] = links[i].getNode(3 - side);
+				edgeSide[e] = 2 * i + side - 1;
+			}
+		}
+		load = new double[2 * links.length];
+		carried = new double[2 * links.length];
+		queue = new int[nnodes];
+		parentEdge = new int[nnodes];
+		remaining = new double[2 * links.length];
+		count = new int[2 * links.length];
+		firstFlow = new int[2 * links.length + 1];
+	}
+
+	/**
+	 * Starts a flow; its rate is computed at the end of the nodes processing of
+	 * this step
+	 *
+	 * @return the id of the flow
+	 */
+	int start(int now, int src, int dst, long size, long maxRate) {
+		if (frozen != null)
+			throw new SimulatorException(frozen);
+		FluidFlow f = new FluidFlow(nextId++, src, dst, size, maxRate, now);
+		route(f);
+		active.put(f.id, f);
+		changed = true;
+		return f.id;
+	}
+
+	/**
+	 * Refuses to start flows, while the nodes cannot share this engine
+	 *
+	 * @param reason the message of the exception thrown by start, or null to
+	 *               start flows again
+	 */
+	void freeze(String reason) {
+		frozen = reason;
+	}
+
+	/**
+	 * Stops an active flow of a source
+	 *
+	 * @return false if the source has no such active flow
+	 */
+	boolean stop(int id, int src) {
+		FluidFlow f = active.get(id);
+		if (f == null || f.src != src || f.stopped)
+			return false;
+		f.stopped = true;
+		changed = true;
+		return true;
+	}
+
+	/**
+	 * Returns a snapshot of an active flow at the current clock, or null
+	 */
+	FluidFlow get(int id) {
+		FluidFlow f = active.get(id);
+		if (f == null)
+			return null;
+		FluidFlow s = f.snapshot();
+		s.sent += f.rate * (sim.getClock() - lastUpdate) / 8000;
+		return s;
+	}
+
+	int numNodes() {
+		return numNodes;
+	}
+
+	int numActive() {
+		return active.size();
+	}
+
+	/**
+	 * Returns the current rate of the fluid flows on a link side
+	 *
+	 * @param link the index of the link
+	 * @param side the side, 1 or 2
+	 * @return the rate in bps
+	 */
+	double getLoad(int link, int side) {
+		return load[2 * link + side - 1];
+	}
+
+	/**
+	 * Forgets the routes; called when a link goes up or down
+	 */
+	void linksChanged() {
+		routesStale = true;
+		changed = true;
+	}
+
+	/**
+	 * Signals the FLUID_UPDATE event of a processing step
+	 */
+	void wakeup(int now) {
+		if (now == wakeup)
+			woken = true;
+	}
+
+	/**
+	 * Accounts the bytes sent up to now, ends the flows that sent all their
+	 * bytes or were stopped, recomputes the rates if something changed and
+	 * schedules the next end of a flow. Called after the nodes processing of
+	 * each step.
+	 *
+	 * @param now the clock of the processing step
+	 */
+	void update(int now) {
+		if (!changed && !woken)
+			return;
+		woken = false;
+		advance(now);
+		for (FluidFlow f : active.values().toArray(new FluidFlow[0])) {
+			if (f.stopped || (f.size != FluidFlow.UNBOUNDED && f.size - f.sent < DONE))
+				end(f, now);
+		}
+		if (changed) {
+			changed = false;
+			if (routesStale) {
+				routesStale = false;
+				bfsSource = -1;
+				// by source, to compute the routes from each source once
+				FluidFlow[] fs = active.values().toArray(new FluidFlow[0]);
+				Arrays.sort(fs, (a, b) -> Integer.compare(a.src, b.src));
+				for (FluidFlow f : fs)
+					route(f);
+			}
+			allocate();
+		}
+		schedule(now);
+	}
+
+	/**
+	 * Accounts the bytes sent by the flows and carried by the links since the
+	 * last update
+	 */
+	private void advance(int now) {
+		int dt = now - lastUpdate;
+		lastUpdate = now;
+		if (dt <= 0)
+			return;
+		for (FluidFlow f : active.values())
+			f.sent += f.rate * dt / 8000;
+		for (int s = 0; s < load.length; s++)
+			carried[s] += load[s] * dt / 8000;
+	}
+
+	private void end(FluidFlow f, int now) {
+		active.remove(f.id);
+		if (f.size != FluidFlow.UNBOUNDED && !f.stopped)
+			f.sent = f.size;
+		f.endTime = now;
+		f.rate = 0;
+		changed = true;
+		flowsEnded++;
+		bytesEnded += f.sent;
+		int t = now + Math.max(f.latency, 1);
+		sim.createMainQueueEvent(EventType.FLOW_END, t, f.toArgs(), f.src, 0);
+		sim.createMainQueueEvent(EventType.FLOW_END, t, f.toArgs(), f.dst, 0);
+	}
+
+	/**
+	 * Schedules a FLUID_UPDATE event when the next flow ends, unless an earlier
+	 * one is pending
+	 */
+	private void schedule(int now) {
+		double next = Double.MAX_VALUE;
+		for (FluidFlow f : active.values()) {
+			if (f.size != FluidFlow.UNBOUNDED && f.rate > 0)
+				next = Math.min(next, now + (f.size - f.sent) * 8000 / f.rate);
+		}
+		if (next >= Integer.MAX_VALUE)
+			return;
+		int t = Math.max((int) Math.ceil(next), now + 1);
+		if (wakeup > now && wakeup <= t)
+			return;
+		wakeup = t;
+		sim.createMainQueueEvent(EventType.FLUID_UPDATE, t, new String[0]);
+	}
+
+	/**
+	 * Computes the path of a flow, the shortest in hops over the up links
+	 */
+	private void route(FluidFlow f) {
+		if (bfsSource != f.src) {
+			bfsSource = f.src;
+			Arrays.fill(parentEdge, -1);
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = f.src;
+			while (head < tail) {
+				int u = queue[head++];
+				for (int e = first[u]; e < first[u + 1]; e++) {
+					int v = edgeNode[e];
+					if (v == f.src || parentEdge[v] >= 0 || !links[edgeSide[e] / 2].isUp())
+						continue;
+					parentEdge[v] = e;
+					queue[tail++] = v;
+				}
+			}
+		}
+		f.latency = 0;
+		if (parentEdge[f.dst] < 0) {
+			f.path = null;
+			return;
+		}
+		int hops = 0;
+		for (int v = f.dst; v != f.src; v = sender(parentEdge[v]))
+			hops++;
+		f.path = new int[hops];
+		for (int v = f.dst; v != f.src; v = sender(parentEdge[v])) {
+			int s = edgeSide[parentEdge[v]];
+			f.path[--hops] = s;
+			f.latency += links[s / 2].getLatency();
+		}
+	}
+
+	/**
+	 * Returns the node that sends on the link side of an edge
+	 */
+	private int sender(int e) {
+		int s = edgeSide[e];
+		return links[s / 2].getNode(s % 2 + 1);
+	}
+
+	/**
+	 * Computes the max-min fair rates of the active flows by progressive
+	 * filling: all rates grow together until a link side is full, or a flow
+	 * reaches its maximum rate, which fixes the rates of the flows crossing it,
+	 * and so on with the others
+	 */
+	private void allocate() {
+		Arrays.fill(load, 0);
+		FluidFlow[] fs = active.values().toArray(new FluidFlow[0]);
+		// the flows crossing each link side, in compressed rows
+		Arrays.fill(count, 0);
+		int unfixed = 0;
+		for (FluidFlow f : fs) {
+			f.rate = 0;
+			if (f.path == null)
+				continue;
+			unfixed++;
+			for (int s : f.path)
+				count[s]++;
+		}
+		firstFlow[0] = 0;
+		for (int s = 0; s < count.length; s++)
+			firstFlow[s + 1] = firstFlow[s] + count[s];
+		if (sideFlows.length < firstFlow[count.length])
+			sideFlows = new int[firstFlow[count.length]];
+		int[] fill = Arrays.copyOf(firstFlow, count.length);
+		int nsides = 0;
+		int[] sides = new int[count.length];
+		for (int s = 0; s < count.length; s++) {
+			if (count[s] > 0) {
+				sides[nsides++] = s;
+				remaining[s] = links[s / 2].getBandWidth() * capacityShare;
+			}
+		}
+		Integer[] capped = new Integer[fs.length];
+		int ncapped = 0;
+		for (int i = 0; i < fs.length; i++) {
+			if (fs[i].path == null)
+				continue;
+			for (int s : fs[i].path)
+				sideFlows[fill[s]++] = i;
+			if (fs[i].maxRate > 0)
+				capped[ncapped++] = i;
+		}
+		Arrays.sort(capped, 0, ncapped, (a, b) -> Long.compare(fs[a].maxRate, fs[b].maxRate));
+		boolean[] fixed = new boolean[fs.length];
+		int nextCapped = 0;
+		while (unfixed > 0) {
+			// the link side with the smallest fair share
+			int bottleneck = -1;
+			double share = Double.MAX_VALUE;
+			int live = 0;
+			for (int k = 0; k < nsides; k++) {
+				int s = sides[k];
+				if (count[s] == 0)
+					continue;
+				sides[live++] = s;
+				double r = remaining[s] / count[s];
+				if (r < share) {
+					share = r;
+					bottleneck = s;
+				}
+			}
+			nsides = live;
+			while (nextCapped < ncapped && fixed[capped[nextCapped]])
+				nextCapped++;
+			if (nextCapped < ncapped && fs[capped[nextCapped]].maxRate <= share) {
+				int i = capped[nextCapped++];
+				fix(fs[i], i, fs[i].maxRate, fixed);
+				unfixed--;
+				continue;
+			}
+			for (int j = firstFlow[bottleneck]; j < firstFlow[bottleneck + 1]; j++) {
+				int i = sideFlows[j];
+				if (!fixed[i]) {
+					fix(fs[i], i, share, fixed);
+					unfixed--;
+				}
+			}
+		}
+	}
+
+	private void fix(FluidFlow f, int i, double rate, boolean[] fixed) {
+		fixed[i] = true;
+		f.rate = rate;
+		for (int s : f.path) {
+			remaining[s] = Math.max(0, remaining[s] - rate);
+			count[s]--;
+			load[s] += rate;
+		}
+	}
+
+	/**
+	 * Prints the flows still active and the bytes carried and mean utilisation
+	 * of each link side used by fluid flows
+	 *
+	 * @param out where to print
+	 * @param now the current time
+	 */
+	void report(PrintStream out, int now) {
+		advance(now);
+		out.println("\nfluid flows at " + now + ": " + flowsEnded + " ended with " + Math.round(bytesEnded) + " bytes, "
+				+ active.size() + " active");
+		for (FluidFlow f : active.values())
+			out.println("   " + f);
+		for (int s = 0; s < carried.length; s++) {
+			if (carried[s] == 0)
+				continue;
+			Link l = links[s / 2];
+			int side = s % 2 + 1;
+			double util = now == 0 ? 0 : carried[s] * 8000 / ((double) l.getBandWidth() * now);
+			out.printf("   link %d.%d -> %d.%d carried %d bytes utilisation %.1f%% rate now %d%n", l.getNode(side),
+					l.getInterface(side), l.getNode(3 - side), l.getInterface(3 - side), Math.round(carried[s]),
+					100 * util, Math.round(load[s]));
+		}
+	}
+
+	/**
+	 * Writes the active flows and the accounting of the link sides; the routes
+	 * are recomputed after a restore
+	 *
+	 * @param out where to write the state
+	 * @throws IOException
+	 */
+	void writeState(DataOutputStream out) throws IOException {
+		out.writeInt(nextId);
+		out.writeInt(lastUpdate);
+		out.writeInt(wakeup);
+		out.writeLong(flowsEnded);
+		out.writeDouble(bytesEnded);
+		for (int s = 0; s < load.length; s++) {
+			out.writeDouble(load[s]);
+			out.writeDouble(carried[s]);
+		}
+		out.writeInt(active.size());
+		for (FluidFlow f : active.values()) {
+			out.writeInt(f.id);
+			out.writeInt(f.src);
+			out.writeInt(f.dst);
+			out.writeLong(f.size);
+			out.writeLong(f.maxRate);
+			out.writeInt(f.startTime);
+			out.writeDouble(f.sent);
+			out.writeDouble(f.rate);
+		}
+	}
+
+	/**
+	 * Restores the state written by writeState
+	 *
+	 * @param in where to read the state from
+	 * @throws IOException
+	 */
+	void readState(DataInputStream in) throws IOException {
+		nextId = in.readInt();
+		lastUpdate = in.readInt();
+		wakeup = in.readInt();
+		flowsEnded = in.readLong();
+		bytesEnded = in.readDouble();
+		for (int s = 0; s < load.length; s++) {
+			load[s] = in.readDouble();
+			carried[s] = in.readDouble();
+		}
+		active.clear();
+		bfsSource = -1;
+		for (int n = in.readInt(); n > 0; n--) {
+			FluidFlow f = new FluidFlow(in.readInt(), in.readInt(), in.readInt(), in.readLong(), in.readLong(), in.readInt());
+			f.sent = in.readDouble();
+			f.rate = in.readDouble();
+			route(f);
+			active.put(f.id, f);
+		}
+		changed = false;
+		woken = false;
+		routesStale = false;
+	}
+
+}
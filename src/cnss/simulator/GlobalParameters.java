@@ -2,6 +2,7 @@ package cnss.simulator;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class GlobalParameters {
 
@@ -44,6 +45,15 @@ public class GlobalParameters {
 		return vars.containsKey(name);
 	}
 
+	/**
+	 * Returns the names of all parameters in the map
+	 * 
+	 * @return the names of the parameters
+	 */
+	public Set<String> names() {
+		return vars.keySet();
+	}
+
 	/**
 	 * Generic toString method returning the contents of the mapping.
 	 * 
@@ -0,0 +1,286 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * The <code>Latencies</code> class accumulates the delay histograms of a
+ * simulation: the end-to-end delay of each flow (source, destination), and the
+ * queueing and serialisation delays of each link direction. Packets are
+ * stamped by the node kernel when created and when enqueued in a link, and by
+ * links when their transmission starts; this class only needs those time
+ * stamps.
+ *
+ * Flows are kept in a primitive open addressing table, so recording a delay
+ * never allocates, unless it is the first packet of a new flow. All values are
+ * in micro seconds of virtual time.
+ *
+ * Delays are only recorded if the global parameter <code>latencies</code> or
+ * <code>latency_report</code> is defined; with <code>latency_report</code>, a
+ * summary of all histograms is printed at the end of the simulation.
+ */
+public class Latencies {
+
+	private static final long EMPTY = -1L;
+
+	private int num_links;
+
+	// end-to-end delays per flow: open addressing table
+	private long[] flowKeys = new long[64];
+	private LatencyHistogram[] flowHistograms = new LatencyHistogram[64];
+	private int num_flows = 0;
+
+	// index: link * 2 + direction; direction 0 is from side 1 to side 2
+	private LatencyHistogram[] queueing;
+	private LatencyHistogram[] serialisation;
+
+	private PrintStream out = System.out;
+
+	/**
+	 * <code>Latencies</code> constructor
+	 *
+	 * @param nlinks the number of links
+	 */
+	public Latencies(int nlinks) {
+		num_links = nlinks;
+		queueing = new LatencyHistogram[nlinks * 2];
+		serialisation = new LatencyHistogram[nlinks * 2];
+		Arrays.fill(flowKeys, EMPTY);
+	}
+
+	/**
+	 * Sets the stream where the report is printed
+	 *
+	 * @param out the stream
+	 */
+	void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**********************************************************************
+	 *
+	 * RECORDING METHODS - called by nodes and links
+	 *
+	 **********************************************************************/
+
+	/**
+	 * Records the end-to-end delay of a packet delivered to its destination
+	 *
+	 * @param p   the packet
+	 * @param dst the node that received it
+	 * @param now the current virtual time
+	 */
+	void recordDelivery(Packet p, int dst, int now) {
+		if (p.getCreationTime() < 0)
+			return; // not created by a node kernel
+		flowHistogram(p.getSource(), dst, true).record((long) (now - p.getCreationTime()) * 1000L);
+	}
+
+	/**
+	 * Records the queueing and serialisation delays of a packet whose
+	 * transmission has just started
+	 *
+	 * @param link     the link index
+	 * @param dir      0 if sent by side 1, 1 if sent by side 2
+	 * @param enqueued when the packet was enqueued, -1 if unknown
+	 * @param txStart  when its transmission started
+	 * @param txTime   the transmission time in ms
+	 */
+	void recordTransmission(int link, int dir, int enqueued, int txStart, double txTime) {
+		int i = link * 2 + dir;
+		if (queueing[i] == null) {
+			queueing[i] = new LatencyHistogram();
+			serialisation[i] = new LatencyHistogram();
+		}
+		if (enqueued >= 0)
+			queueing[i].record((long) (txStart - enqueued) * 1000L);
+		serialisation[i].record((long) (txTime * 1000.0));
+	}
+
+	/**********************************************************************
+	 *
+	 * QUERY METHODS
+	 *
+	 **********************************************************************/
+
+	/**
+	 * Returns the end-to-end delay histogram of a flow
+	 *
+	 * @param src the source node
+	 * @param dst the destination node
+	 * @return the histogram, or null if no packet of this flow was delivered
+	 */
+	public LatencyHistogram getEndToEnd(int src, int dst) {
+		return flowHistogram(src, dst, false);
+	}
+
+	/**
+	 * Returns the end-to-end delay histogram of all flows together
+	 *
+	 * @return a new histogram
+	 */
+	public LatencyHistogram getEndToEnd() {
+		LatencyHistogram all = new LatencyHistogram();
+		for (int i = 0; i < flowKeys.length; i++)
+			if (flowKeys[i] != EMPTY)
+				all.add(flowHistograms[i]);
+		return all;
+	}
+
+	/**
+	 * Returns the flows with at least one delivered packet, as an array of
+	 * {source, destination} pairs
+	 *
+	 * @return the flows
+	 */
+	public int[][] getFlows() {
+		int[][] flows = new int[num_flows][];
+		int n = 0;
+		for (int i = 0; i < flowKeys.length; i++)
+			if (flowKeys[i] != EMPTY)
+				flows[n++] = new int[] { (int) (flowKeys[i] >>> 32), (int) flowKeys[i] };
+		Arrays.sort(flows, (a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+		return flows;
+	}
+
+	/**
+	 * Returns the queueing delay histogram of a link side
+	 *
+	 * @param link the link index
+	 * @param side the sending side (1, 2)
+	 * @return the histogram, or null if nothing was transmitted
+	 */
+	public LatencyHistogram getQueueing(int link, int side) {
+		return queueing[link * 2 + side - 1];
+	}
+
+	/**
+	 * Returns the serialisation delay histogram of a link side
+	 *
+	 * @param link the link index
+	 * @param side the sending side (1, 2)
+	 * @return the histogram, or null if nothing was transmitted
+	 */
+	public LatencyHistogram getSerialisation(int link, int side) {
+		return serialisation[link * 2 + side - 1];
+	}
+
+	/**
+	 * Prints all non empty histograms
+	 */
+	public void report() {
+		out.println("\nEnd-to-end delays:");
+		for (int[] f : getFlows())
+			out.println("flow " + f[0] + " -> " + f[1] + " " + getEndToEnd(f[0], f[1]));
+		out.println("all flows " + getEndToEnd());
+		out.println("\nLink delays (queueing / serialisation):");
+		for (int l = 0; l < num_links; l++) {
+			for (int side = 1; side <= 2; side++) {
+				if (getQueueing(l, side) == null)
+					continue;
+				out.println("link " + l + " side " + side + " queueing " + getQueueing(l, side));
+				out.println("link " + l + " side " + side + " serialisation " + getSerialisation(l, side));
+			}
+		}
+	}
+
+	/**
+	 * Writes all histograms to a checkpoint
+	 *
+	 * @param out where to write the histograms
+	 * @throws IOException
+	 */
+	void writeState(DataOutputStream out) throws IOException {
+		out.writeInt(num_flows);
+		for (int i = 0; i < flowKeys.length; i++)
+			if (flowKeys[i] != EMPTY) {
+				out.writeLong(flowKeys[i]);
+				flowHistograms[i].writeState(out);
+			}
+		for (int i = 0; i < queueing.length; i++) {
+			out.writeBoolean(queueing[i] != null);
+			if (queueing[i] != null) {
+				queueing[i].writeState(out);
+				serialisation[i].writeState(out);
+			}
+		}
+	}
+
+	/**
+	 * Restores the histograms written by writeState
+	 *
+	 * @param in where to read the histograms from
+	 * @throws IOException
+	 */
+	void readState(DataInputStream in) throws IOException {
+		for (int n = in.readInt(); n > 0; n--) {
+			long key = in.readLong();
+			LatencyHistogram h = flowHistogram((int) (key >>> 32), (int) key, true);
+			h.add(LatencyHistogram.readState(in));
+		}
+		for (int i = 0; i < queueing.length; i++)
+			if (in.readBoolean()) {
+				queueing[i] = LatencyHistogram.readState(in);
+				serialisation[i] = LatencyHistogram.readState(in);
+			}
+	}
+
+	/**
+	 * Looks up the histogram of a flow in the open addressing table
+	 *
+	 * @param src    the source node
+	 * @param dst    the destination node
+	 * @param create if true, a missing flow is added to the table
+	 * @return the histogram, or null if missing and not created
+	 */
+	private LatencyHistogram flowHistogram(int src, int dst, boolean create) {
+		long key = ((long) src << 32) | (dst & 0xffffffffL);
+		int mask = flowKeys.length - 1;
+		int i = hash(key) & mask;
+		while (flowKeys[i] != EMPTY) {
+			if (flowKeys[i] == key)
+				return flowHistograms[i];
+			i = (i + 1) & mask;
+		}
+		if (!create)
+			return null;
+		if ((num_flows + 1) * 2 > flowKeys.length) {
+			grow();
+			return flowHistogram(src, dst, true);
+		}
+		flowKeys[i] = key;
+		flowHistograms[i] = new LatencyHistogram();
+		num_flows++;
+		return flowHistograms[i];
+	}
+
+	/**
+	 * Doubles the capacity of the flows table
+	 */
+	private void grow() {
+		long[] oldKeys = flowKeys;
+		LatencyHistogram[] oldHistograms = flowHistograms;
+		flowKeys = new long[oldKeys.length * 2];
+		flowHistograms = new LatencyHistogram[oldKeys.length * 2];
+		Arrays.fill(flowKeys, EMPTY);
+		int mask = flowKeys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == EMPTY)
+				continue;
+			int i = hash(oldKeys[j]) & mask;
+			while (flowKeys[i] != EMPTY)
+				i = (i + 1) & mask;
+			flowKeys[i] = oldKeys[j];
+			flowHistograms[i] = oldHistograms[j];
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
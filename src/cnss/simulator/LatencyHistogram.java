@@ -0,0 +1,235 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The <code>LatencyHistogram</code> class records a distribution of delays in
+ * a fixed amount of memory, in the spirit of HdrHistogram. Values are grouped
+ * in log-linear buckets: values below 2 * SUB_BUCKETS are recorded exactly and
+ * each following power of two interval is split in SUB_BUCKETS equal parts,
+ * so the relative error of any reported value is below 1 / SUB_BUCKETS.
+ *
+ * Values are in microseconds of virtual time. Values above MAX_VALUE are
+ * recorded in the last bucket.
+ *
+ * Only the range of buckets between the smallest and the largest recorded
+ * values is allocated, so the many histograms of flows with few or similar
+ * delays (e.g. broadcast deliveries) take little memory.
+ */
+public class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int MAX_VALUE_BITS = 40; // around 12 days in micro seconds
+	public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+	static final int NUM_BUCKETS = 2 * SUB_BUCKETS + (MAX_VALUE_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private long[] counts = null; // counts[i] is the count of bucket base + i
+	private int base = 0;
+	private long total = 0;
+	private long sum = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	/**
+	 * Records one value
+	 *
+	 * @param v the value, in micro seconds
+	 */
+	public void record(long v) {
+		if (v < 0)
+			v = 0;
+		if (v > MAX_VALUE)
+			v = MAX_VALUE;
+		int i = indexOf(v);
+		if (counts == null || i < base || i >= base + counts.length)
+			cover(i, i);
+		counts[i - base]++;
+		total++;
+		sum += v;
+		if (v < min)
+			min = v;
+		if (v > max)
+			max = v;
+	}
+
+	/**
+	 * Adds all values recorded by another histogram to this one
+	 *
+	 * @param h the other histogram
+	 */
+	public void add(LatencyHistogram h) {
+		if (h.counts != null) {
+			cover(h.base, h.base + h.counts.length - 1);
+			for (int i = 0; i < h.counts.length; i++)
+				counts[h.base + i - base] += h.counts[i];
+		}
+		total += h.total;
+		sum += h.sum;
+		if (h.min < min)
+			min = h.min;
+		if (h.max > max)
+			max = h.max;
+	}
+
+	/**
+	 * Extends the allocated range of buckets to include buckets from to to;
+	 * the range grows by at least half of its size, to amortise copies
+	 */
+	private void cover(int from, int to) {
+		if (counts == null) {
+			counts = new long[to - from + 1];
+			base = from;
+			return;
+		}
+		int end = base + counts.length - 1;
+		if (from >= base && to <= end)
+			return;
+		int slack = counts.length / 2;
+		int newBase = from < base ? Math.max(0, Math.min(from, base - slack)) : base;
+		int newEnd = to > end ? Math.min(NUM_BUCKETS - 1, Math.max(to, end + slack)) : end;
+		long[] c = new long[newEnd - newBase + 1];
+		System.arraycopy(counts, 0, c, base - newBase, counts.length);
+		counts = c;
+		base = newBase;
+	}
+
+	/**
+	 * Writes the histogram to a checkpoint; only non empty buckets are written
+	 *
+	 * @param out where to write the histogram
+	 * @throws IOException
+	 */
+	void writeState(DataOutputStream out) throws IOException {
+		int used = 0;
+		int n = counts == null ? 0 : counts.length;
+		for (int i = 0; i < n; i++)
+			if (counts[i] != 0)
+				used++;
+		out.writeInt(used);
+		for (int i = 0; i < n; i++)
+			if (counts[i] != 0) {
+				out.writeShort(base + i);
+				out.writeLong(counts[i]);
+			}
+		out.writeLong(total);
+		out.writeLong(sum);
+		out.writeLong(min);
+		out.writeLong(max);
+	}
+
+	/**
+	 * Reads a histogram written by writeState
+	 *
+	 * @param in where to read the histogram from
+	 * @return the histogram
+	 * @throws IOException
+	 */
+	static LatencyHistogram readState(DataInputStream in) throws IOException {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int n = in.readInt(); n > 0; n--) {
+			int i = in.readUnsignedShort();
+			h.cover(i, i);
+			h.counts[i - h.base] = in.readLong();
+		}
+		h.total = in.readLong();
+		h.sum = in.readLong();
+		h.min = in.readLong();
+		h.max = in.readLong();
+		return h;
+	}
+
+	/**
+	 * Returns the number of recorded values
+	 *
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return total;
+	}
+
+	/**
+	 * Returns the smallest recorded value, or 0 if there are none
+	 *
+	 * @return the minimum
+	 */
+	public long getMin() {
+		return total == 0 ? 0 : min;
+	}
+
+	/**
+	 * Returns the largest recorded value
+	 *
+	 * @return the maximum
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the exact mean of the recorded values
+	 *
+	 * @return the mean
+	 */
+	public double getMean() {
+		return total == 0 ? 0.0 : (double) sum / (double) total;
+	}
+
+	/**
+	 * Returns the value below or at which a given percentage of the recorded
+	 * values fall. The highest value equivalent to the bucket is returned, so
+	 * tail values are never under estimated.
+	 *
+	 * @param percentile between 0.0 and 100.0
+	 * @return the value at that percentile
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(percentile / 100.0 * total);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestValueOf(base + i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns a one line summary of the distribution, values in ms
+	 *
+	 * @return String
+	 */
+	public String toString() {
+		return String.format("n %d min %.3f mean %.3f p50 %.3f p90 %.3f p99 %.3f p99.9 %.3f max %.3f ms", total, getMin() / 1000.0, getMean() / 1000.0,
+				getValueAtPercentile(50.0) / 1000.0, getValueAtPercentile(90.0) / 1000.0, getValueAtPercentile(99.0) / 1000.0,
+				getValueAtPercentile(99.9) / 1000.0, getMax() / 1000.0);
+	}
+
+	/**
+	 * Returns the bucket of a value
+	 */
+	static int indexOf(long v) {
+		if (v < 2 * SUB_BUCKETS)
+			return (int) v;
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((v >> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * Returns the largest value recorded in a bucket
+	 */
+	static long highestValueOf(int index) {
+		if (index < 2 * SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+}
@@ -1,7 +1,11 @@
 package cnss.simulator;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Random;
 
@@ -37,6 +41,12 @@ public class Link {
 	private Queue<Packet> out1 = new LinkedList<>();
 	private Queue<Packet> out2 = new LinkedList<>();
 
+	// the egress schedulers of each side, null if the side is a FIFO queue
+	private EgressScheduler scheduler1 = null;
+	private EgressScheduler scheduler2 = null;
+	private int wakeup1 = -1; // the time of the last wake up requested by side 1
+	private int wakeup2 = -1; // the time of the last wake up requested by side 2
+
 	// during a processing step, packets are transmitted; when the next one begins
 	// transmitting, may be the previous ones have not yet been fully transmitted.
 	private int timeOfLastBitTransmitted1 = 0;
@@ -55,6 +65,10 @@ public class Link {
 	private Random randomDrop = null;
 	private Random randomJitt = null;
 
+	private int index; // the position of this link in the simulator links array
+	private Metrics metrics; // the global metrics registry
+	private Latencies latencies = null; // the global delay histograms, only set when delays are recorded
+
 	Simulator simulator; // the simulator where this link leaves.
 	// required to allow a link to create events of packet delivery to
 	// the other extreme of the link
@@ -96,6 +110,72 @@ public class Link {
 
 	}
 
+	/**
+	 * Reseeds the random generators of this link, so that different runs of the
+	 * same configuration draw different errors and jitter
+	 * 
+	 * @param seed the seed of the run
+	 */
+	void setSeed(long seed) {
+		long base = node1 + node2 + iface1 + iface2 + seed * 1000003L;
+		if (randomDrop != null) randomDrop = new Random(10000 + base);
+		if (randomJitt != null) randomJitt = new Random(20000 + base);
+	}
+
+	/**
+	 * Sets the metrics registry where this link counts its packets
+	 * 
+	 * @param m the metrics registry
+	 * @param i the index of this link in the simulator links array
+	 */
+	void setMetrics(Metrics m, int i) {
+		metrics = m;
+		index = i;
+	}
+
+	/**
+	 * Returns the position of this link in the simulator links array
+	 * 
+	 * @return the index
+	 */
+	int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Sets the delay histograms where this link records queueing and
+	 * serialisation delays
+	 * 
+	 * @param l the delay histograms, or null if delays are not recorded
+	 */
+	void setLatencies(Latencies l) {
+		latencies = l;
+	}
+
+	/**
+	 * Sets the egress scheduler of one side of the link; it must be set before
+	 * packets are sent
+	 * 
+	 * @param side which end of the link (1, 2)
+	 * @param s    the scheduler, or null for a FIFO queue
+	 */
+	public void setScheduler(int side, EgressScheduler s) {
+		if (side == 1)
+			scheduler1 = s;
+		else
+			scheduler2 = s;
+	}
+
+	/**
+	 * Returns the egress scheduler of one side of the link
+	 * 
+	 * @param side which end of the link (1, 2)
+	 * @return the scheduler, or null if the side is a FIFO queue
+	 */
+	public EgressScheduler getScheduler(int side) {
+		return side == 1 ? scheduler1 : scheduler2;
+	}
+
 	/**
 	 * Get the node attached to a particular side of the link, 1 specifies side 1
 	 * and 2 the other side.
@@ -142,8 +222,31 @@ public class Link {
 		up = s;
 		if (!up) {
 			// the link is down, output queues should be reset
-			out1.clear();
-			out2.clear();
+			dropQueued();
+		}
+	}
+
+	/**
+	 * Drops all packets waiting in the output queues of the link
+	 */
+	private void dropQueued() {
+		if (metrics != null) {
+			for (Packet p : out1)
+				metrics.countLinkDrop(index, 0, Metrics.DropCause.LINK_DOWN, p);
+			for (Packet p : out2)
+				metrics.countLinkDrop(index, 1, Metrics.DropCause.LINK_DOWN, p);
+		}
+		out1.clear();
+		out2.clear();
+		while (scheduler1 != null && !scheduler1.isEmpty()) {
+			Packet p = scheduler1.drop();
+			if (metrics != null)
+				metrics.countLinkDrop(index, 0, Metrics.DropCause.LINK_DOWN, p);
+		}
+		while (scheduler2 != null && !scheduler2.isEmpty()) {
+			Packet p = scheduler2.drop();
+			if (metrics != null)
+				metrics.countLinkDrop(index, 1, Metrics.DropCause.LINK_DOWN, p);
 		}
 	}
 
@@ -162,27 +265,68 @@ public class Link {
 			while (out1.size() > 0) {
 				Packet p = out1.poll(); // retrieves the packet from the queue
 				if ( randomDrop != null ) {
-					if ( randomDrop.nextInt(10000) <= (int)(errors*10000) ) continue;
+					if ( randomDrop.nextInt(10000) <= (int)(errors*10000) ) {
+						metrics.countLinkDrop(index, 0, Metrics.DropCause.LINK_ERROR, p);
+						continue;
+					}
 				}
-				ProcessNextPacket1(p);
+				ProcessNextPacket1(p, p.isShared() ? now : p.getEnqueueTime());
 			}
 			// now side 2
 			if ( timeOfLastBitTransmitted2 < now ) timeOfLastBitTransmitted2 = now;
 			while (out2.size() > 0) {
 				Packet p = out2.poll(); // retrieves the packet from the queue
 				if ( randomDrop != null ) {
-					if ( randomDrop.nextInt(10000) <= (int)(errors*10000) ) continue;
+					if ( randomDrop.nextInt(10000) <= (int)(errors*10000) ) {
+						metrics.countLinkDrop(index, 1, Metrics.DropCause.LINK_ERROR, p);
+						continue;
+					}
 				}
-				ProcessNextPacket2(p);
+				ProcessNextPacket2(p, p.isShared() ? now : p.getEnqueueTime());
 			}
+			// the sides with a scheduler transmit while the link side is free
+			while (scheduler1 != null && !scheduler1.isEmpty() && timeOfLastBitTransmitted1 <= now) {
+				Packet p = scheduler1.poll(now);
+				if ( randomDrop != null ) {
+					if ( randomDrop.nextInt(10000) <= (int)(errors*10000) ) {
+						metrics.countLinkDrop(index, 0, Metrics.DropCause.LINK_ERROR, p);
+						continue;
+					}
+				}
+				ProcessNextPacket1(p, scheduler1.getPolledEnqueueTime());
+			}
+			while (scheduler2 != null && !scheduler2.isEmpty() && timeOfLastBitTransmitted2 <= now) {
+				Packet p = scheduler2.poll(now);
+				if ( randomDrop != null ) {
+					if ( randomDrop.nextInt(10000) <= (int)(errors*10000) ) {
+						metrics.countLinkDrop(index, 1, Metrics.DropCause.LINK_ERROR, p);
+						continue;
+					}
+				}
+				ProcessNextPacket2(p, scheduler2.getPolledEnqueueTime());
+			}
+			request_wakeup();
 		} else {
 			// the link is down, output queues should be reset if not yet
-			out1.clear();
-			out2.clear();
+			dropQueued();
+		}
+		if (out1.size() != 0 || out2.size() != 0)
+			throw new SimulatorException("TransmitPackets ends with non empty ouptput queues");
+	}
+
+	/**
+	 * Asks the simulator for a processing step when a side with a scheduler,
+	 * which still has packets, becomes free; each side asks for its own steps,
+	 * so that the two sides of a link may be simulated apart
+	 */
+	private void request_wakeup() {
+		if (scheduler1 != null && !scheduler1.isEmpty() && timeOfLastBitTransmitted1 != wakeup1) {
+			wakeup1 = timeOfLastBitTransmitted1;
+			outputEvents.add(new Event(EventType.LINK_WAKEUP, wakeup1, 0, null, null, node1, iface1));
 		}
-		if (out1.size() != 0 || out2.size() != 0) {
-			System.out.println("TransmitPackets ends with non empty ouptput queues");
-			System.exit(-1);
+		if (scheduler2 != null && !scheduler2.isEmpty() && timeOfLastBitTransmitted2 != wakeup2) {
+			wakeup2 = timeOfLastBitTransmitted2;
+			outputEvents.add(new Event(EventType.LINK_WAKEUP, wakeup2, 0, null, null, node2, iface2));
 		}
 	}
 
@@ -190,8 +334,9 @@ public class Link {
 	 * Processes one packet sent from side 1 of the link
 	 * 
 	 * p the Packet to be processed
+	 * enqueued when it was enqueued, -1 if unknown
 	 */
-	void ProcessNextPacket1 (Packet p) {
+	void ProcessNextPacket1 (Packet p, int enqueued) {
 		
 		// TODO: is it necessary to get the tracing done here? By the moment is by the node.
 //		if (p.getType() == PacketType.TRACING) {
@@ -209,8 +354,13 @@ public class Link {
 		if (transitTime < 1) transitTime = 1;
 		// System.out.println("TransmitPackets computed "+transitTime+" ms");
 		int deliverTime = timeOfLastBitTransmitted1+transitTime;
+		if (!p.isShared()) // the other links of a shared packet may be transmitting it too
+			p.setTxStartTime(timeOfLastBitTransmitted1);
+		if (latencies != null)
+			latencies.recordTransmission(index, 0, enqueued, timeOfLastBitTransmitted1, transmissionTime);
 		timeOfLastBitTransmitted1 += (int) transmissionTime;
 		counter2_in++; // the packet will be later received by node 2, interface 2
+		metrics.countLink(index, 0, p);
 		outputEvents.add(new Event(EventType.DELIVER_PACKET, deliverTime, 0, null, p, node2, iface2));
 	}
 
@@ -219,8 +369,9 @@ public class Link {
 	 * Processes one packet sent from side 2 of the link
 	 * 
 	 * p the Packet to be processed
+	 * enqueued when it was enqueued, -1 if unknown
 	 */
-	void ProcessNextPacket2 (Packet p) {
+	void ProcessNextPacket2 (Packet p, int enqueued) {
 		// TODO: the  same as above
 //		if (p.getType() == PacketType.TRACING) {
 //			// add the link crossed to the path - time is when the packet will start being transmitted
@@ -237,8 +388,13 @@ public class Link {
 		if (transitTime < 1) transitTime = 1;
 		// System.out.println("TransmitPackets computed "+transitTime+" ms");
 		int deliverTime = timeOfLastBitTransmitted2+transitTime;
+		if (!p.isShared())
+			p.setTxStartTime(timeOfLastBitTransmitted2);
+		if (latencies != null)
+			latencies.recordTransmission(index, 1, enqueued, timeOfLastBitTransmitted2, transmissionTime);
 		timeOfLastBitTransmitted2 += (int) transmissionTime;
 		counter1_in++; // the packet will be later received by node 1, interface 1
+		metrics.countLink(index, 1, p);
 		outputEvents.add(new Event(EventType.DELIVER_PACKET, deliverTime, 0, null, p, node1, iface1));
 	}
 
@@ -261,13 +417,35 @@ public class Link {
 	 * @param p      the packet being sent.
 	 */
 	public void enqueuePacket(int nodeid, Packet p) {
-		if (!up)
+		enqueuePacket(nodeid, p, p.getEnqueueTime());
+	}
+
+	/**
+	 * Places a packet in the out bound queue for the node specified by node id,
+	 * given the time it is enqueued. A packet shared by several receivers may
+	 * wait in several links at once, so it carries no enqueue time stamp: the
+	 * link side keeps it.
+	 * 
+	 * @param nodeid the router whose out bound queue to place the packet in.
+	 * @param p      the packet being sent.
+	 * @param now    the time it is enqueued
+	 */
+	void enqueuePacket(int nodeid, Packet p, int now) {
+		if (!up) {
+			metrics.countLinkDrop(index, nodeid == node1 ? 0 : 1, Metrics.DropCause.LINK_DOWN, p);
 			return;
+		}
 		if (nodeid == node1) {
-			out1.add(p);
+			if (scheduler1 != null)
+				scheduler1.add(p, now);
+			else
+				out1.add(p);
 			counter1_out++;
 		} else {
-			out2.add(p);
+			if (scheduler2 != null)
+				scheduler2.add(p, now);
+			else
+				out2.add(p);
 			counter2_out++;
 		}
 	}
@@ -345,19 +523,150 @@ public class Link {
 		return s;
 	}
 
+	/**
+	 * Returns the error rate of the link
+	 * 
+	 * @return the error rate
+	 */
+	public double getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the jitter of the link
+	 * 
+	 * @return the jitter
+	 */
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Writes the dynamic state of this link: its status, counters, queues,
+	 * transmission times and random generators
+	 * 
+	 * @param out where to write the state
+	 * @throws IOException
+	 */
+	void writeState(DataOutputStream out) throws IOException {
+		out.writeBoolean(up);
+		out.writeInt(counter1_in);
+		out.writeInt(counter2_in);
+		out.writeInt(counter1_out);
+		out.writeInt(counter2_out);
+		out.writeInt(timeOfLastBitTransmitted1);
+		out.writeInt(timeOfLastBitTransmitted2);
+		for (Queue<Packet> q : List.of(in1, in2, out1, out2)) {
+			out.writeInt(q.size());
+			for (Packet p : q)
+				Checkpoint.writePacket(out, p);
+		}
+		out.writeInt(outputEvents.size());
+		for (Event ev : outputEvents)
+			Checkpoint.writeEvent(out, ev);
+		Checkpoint.writeRandom(out, randomDrop);
+		Checkpoint.writeRandom(out, randomJitt);
+		out.writeInt(wakeup1);
+		out.writeInt(wakeup2);
+		if (scheduler1 != null)
+			scheduler1.saveState(out);
+		if (scheduler2 != null)
+			scheduler2.saveState(out);
+	}
+
+	/**
+	 * Restores the state written by writeState
+	 * 
+	 * @param in where to read the state from
+	 * @throws IOException
+	 */
+	void readState(DataInputStream in) throws IOException {
+		up = in.readBoolean();
+		counter1_in = in.readInt();
+		counter2_in = in.readInt();
+		counter1_out = in.readInt();
+		counter2_out = in.readInt();
+		timeOfLastBitTransmitted1 = in.readInt();
+		timeOfLastBitTransmitted2 = in.readInt();
+		for (Queue<Packet> q : List.of(in1, in2, out1, out2)) {
+			q.clear();
+			for (int n = in.readInt(); n > 0; n--)
+				q.add(Checkpoint.readPacket(in));
+		}
+		outputEvents.clear();
+		for (int n = in.readInt(); n > 0; n--)
+			outputEvents.add(Checkpoint.readEvent(in));
+		randomDrop = Checkpoint.readRandom(in);
+		randomJitt = Checkpoint.readRandom(in);
+		wakeup1 = in.readInt();
+		wakeup2 = in.readInt();
+		if (scheduler1 != null)
+			scheduler1.restoreState(in);
+		if (scheduler2 != null)
+			scheduler2.restoreState(in);
+	}
+
 	/**
 	 * Returns the packet counters for this link.
 	 * 
 	 * @return string representation of packet counters.
 	 */
 	public String dumpPacketStats() {
-		String s = up ? " u " : " d ";
+		return dumpPacketStats(getSideStats(1), getSideStats(2));
+	}
+
+	/**
+	 * The part of the packet counters of a link updated by the node of one of
+	 * its sides: the packets that node sent to the link, those the link
+	 * transmitted from that side, and the statistics of its scheduler
+	 */
+	static class SideStats {
+		final boolean up;
+		final int sent;
+		final int transmitted;
+		final String scheduler; // empty if the side is a FIFO queue
+
+		SideStats(boolean up, int sent, int transmitted, String scheduler) {
+			this.up = up;
+			this.sent = sent;
+			this.transmitted = transmitted;
+			this.scheduler = scheduler;
+		}
+	}
+
+	/**
+	 * Returns the packet counters of one side of the link
+	 * 
+	 * @param side which end of the link (1, 2)
+	 * @return the counters
+	 */
+	SideStats getSideStats(int side) {
+		EgressScheduler sc = side == 1 ? scheduler1 : scheduler2;
+		String s = "";
+		if (sc != null)
+			s = "\n  side (node:" + getNode(side) + " ifc:" + getInterface(side) + ") " + sc.getClass().getSimpleName()
+					+ "\n" + sc.dumpClassStats().stripTrailing();
+		if (side == 1)
+			return new SideStats(up, counter1_out, counter2_in, s);
+		return new SideStats(up, counter2_out, counter1_in, s);
+	}
+
+	/**
+	 * Returns the packet counters of the link made of the counters of its two
+	 * sides, which may have been taken from different copies of the link
+	 * 
+	 * @param s1 the counters of side 1
+	 * @param s2 the counters of side 2
+	 * @return string representation of packet counters.
+	 */
+	String dumpPacketStats(SideStats s1, SideStats s2) {
+		String s = s1.up ? " u " : " d ";
 		s += "(node:" + node1 + " ifc:" + iface1 + ")";
-		s += " r " + counter1_in + " s " + counter1_out;
+		s += " r " + s2.transmitted + " s " + s1.sent;
 		s += " <-->";
 		s += " (node:" + node2 + " ifc:" + iface2 + ")";
-		s += " r " + counter2_in + " s " + counter2_out;
-		return s;
+		s += " r " + s1.transmitted + " s " + s2.sent;
+		return s + s1.scheduler + s2.scheduler;
 	}
 
 }
@@ -0,0 +1,496 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import cnss.simulator.Packet.PacketType;
+
+/**
+ * The <code>Metrics</code> class is the registry of the packet and byte
+ * counters of all nodes and links of a simulation. Counters are kept in
+ * primitive arrays indexed by node id (or link index), counter and
+ * <code>PacketType</code>, so updating them never allocates.
+ *
+ * Node counters are SENT, RECV, DROP and FORW, with the same meaning as the
+ * counters shown by <code>dumpPacketStats</code>. Link counters count the
+ * packets and bytes transmitted in each direction of the link. Drops are also
+ * counted by cause, both per node and per link direction; as in
+ * <code>dumpPacketStats</code>, packets whose TTL expired are not in the DROP
+ * counter of their node, only in its TTL_EXPIRED drops.
+ *
+ * If the global parameter <code>metrics_interval</code> is defined, a
+ * snapshot of all counters is exported every <code>metrics_interval</code> ms
+ * of virtual time to the file given by the parameter <code>metrics_file</code>
+ * (default <code>metrics.csv</code>). The format is CSV, unless the parameter
+ * <code>metrics_format</code> is <code>json</code> or the file name ends with
+ * <code>.json</code>, in which case each snapshot is written as a JSON object
+ * in its own line. A snapshot labelled with time T covers all processing steps
+ * executed with clock &lt;= T.
+ */
+public class Metrics {
+
+	public static enum DropCause {
+		TTL_EXPIRED, NO_ROUTE, LINK_DOWN, LINK_ERROR
+	}
+
+	// node counters
+	public static final int SENT = 0;
+	public static final int RECV = 1;
+	public static final int DROP = 2;
+	public static final int FORW = 3;
+	static final int NUM_COUNTERS = 4;
+	static final String[] COUNTER_NAMES = { "sent", "recv", "drop", "forw" };
+
+	static final PacketType[] TYPES = PacketType.values();
+	static final int NUM_TYPES = TYPES.length;
+	static final DropCause[] CAUSES = DropCause.values();
+	static final int NUM_CAUSES = CAUSES.length;
+
+	private int num_nodes;
+	private int num_links;
+
+	// index: (node * NUM_COUNTERS + counter) * NUM_TYPES + type
+	private long[] nodePackets;
+	private long[] nodeBytes;
+	// index: node * NUM_CAUSES + cause
+	private long[] nodeDropPackets;
+	private long[] nodeDropBytes;
+	// index: (link * 2 + direction) * NUM_TYPES + type; direction 0 is from side 1 to side 2
+	private long[] linkPackets;
+	private long[] linkBytes;
+	// index: (link * 2 + direction) * NUM_CAUSES + cause
+	private long[] linkDropPackets;
+	private long[] linkDropBytes;
+
+	// periodic export
+	private int interval = 0;
+	private int next_export = 0;
+	private String file_name;
+	private boolean json = false;
+	private PrintWriter writer = null;
+	private PrintStream err = System.err;
+
+	/**
+	 * <code>Metrics</code> constructor, allocates the counters of all nodes and
+	 * links and configures the periodic export from the global parameters.
+	 *
+	 * @param nnodes the number of nodes
+	 * @param nlinks the number of links
+	 * @param gp     the global parameters
+	 */
+	public Metrics(int nnodes, int nlinks, GlobalParameters gp) {
+		num_nodes = nnodes;
+		num_links = nlinks;
+		nodePackets = new long[nnodes * NUM_COUNTERS * NUM_TYPES];
+		nodeBytes = new long[nnodes * NUM_COUNTERS * NUM_TYPES];
+		nodeDropPackets = new long[nnodes * NUM_CAUSES];
+		nodeDropBytes = new long[nnodes * NUM_CAUSES];
+		linkPackets = new long[nlinks * 2 * NUM_TYPES];
+		linkBytes = new long[nlinks * 2 * NUM_TYPES];
+		linkDropPackets = new long[nlinks * 2 * NUM_CAUSES];
+		linkDropBytes = new long[nlinks * 2 * NUM_CAUSES];
+
+		if (gp.containsKey("metrics_interval")) {
+			interval = Integer.parseInt(gp.get("metrics_interval"));
+			next_export = interval;
+			file_name = gp.containsKey("metrics_file") ? gp.get("metrics_file") : "metrics.csv";
+			json = "json".equalsIgnoreCase(gp.get("metrics_format")) || file_name.endsWith(".json");
+		}
+	}
+
+	/**
+	 * Sets the stream where export errors are printed
+	 *
+	 * @param err the stream
+	 */
+	void setErrorOutput(PrintStream err) {
+		this.err = err;
+	}
+
+	/**********************************************************************
+	 *
+	 * COUNTING METHODS - called by nodes and links
+	 *
+	 **********************************************************************/
+
+	/**
+	 * Counts a packet in one of the node counters
+	 *
+	 * @param node    the node id
+	 * @param counter SENT, RECV, DROP or FORW
+	 * @param p       the packet
+	 */
+	void countNode(int node, int counter, Packet p) {
+		int i = (node * NUM_COUNTERS + counter) * NUM_TYPES + p.getType().ordinal();
+		nodePackets[i]++;
+		nodeBytes[i] += p.getSize();
+	}
+
+	/**
+	 * Counts a packet dropped by a node by cause and, unless its TTL expired,
+	 * in its DROP counter
+	 *
+	 * @param node  the node id
+	 * @param cause the reason of the drop
+	 * @param p     the packet
+	 */
+	void countNodeDrop(int node, DropCause cause, Packet p) {
+		if (cause != DropCause.TTL_EXPIRED)
+			countNode(node, DROP, p);
+		int i = node * NUM_CAUSES + cause.ordinal();
+		nodeDropPackets[i]++;
+		nodeDropBytes[i] += p.getSize();
+	}
+
+	/**
+	 * Counts a packet transmitted by a link
+	 *
+	 * @param link the link index
+	 * @param dir  0 if sent by side 1, 1 if sent by side 2
+	 * @param p    the packet
+	 */
+	void countLink(int link, int dir, Packet p) {
+		int i = (link * 2 + dir) * NUM_TYPES + p.getType().ordinal();
+		linkPackets[i]++;
+		linkBytes[i] += p.getSize();
+	}
+
+	/**
+	 * Counts a packet dropped by a link
+	 *
+	 * @param link  the link index
+	 * @param dir   0 if sent by side 1, 1 if sent by side 2
+	 * @param cause the reason of the drop
+	 * @param p     the packet
+	 */
+	void countLinkDrop(int link, int dir, DropCause cause, Packet p) {
+		int i = (link * 2 + dir) * NUM_CAUSES + cause.ordinal();
+		linkDropPackets[i]++;
+		linkDropBytes[i] += p.getSize();
+	}
+
+	/**********************************************************************
+	 *
+	 * QUERY METHODS
+	 *
+	 **********************************************************************/
+
+	/**
+	 * Returns the number of packets of a given type counted by a node counter
+	 *
+	 * @param node    the node id
+	 * @param counter SENT, RECV, DROP or FORW
+	 * @param t       the packet type
+	 * @return the number of packets
+	 */
+	public long getNodePackets(int node, int counter, PacketType t) {
+		return nodePackets[(node * NUM_COUNTERS + counter) * NUM_TYPES + t.ordinal()];
+	}
+
+	/**
+	 * Returns the number of bytes of a given type counted by a node counter
+	 *
+	 * @param node    the node id
+	 * @param counter SENT, RECV, DROP or FORW
+	 * @param t       the packet type
+	 * @return the number of bytes
+	 */
+	public long getNodeBytes(int node, int counter, PacketType t) {
+		return nodeBytes[(node * NUM_COUNTERS + counter) * NUM_TYPES + t.ordinal()];
+	}
+
+	/**
+	 * Returns the number of packets dropped by a node for a given cause
+	 *
+	 * @param node  the node id
+	 * @param cause the cause
+	 * @return the number of packets
+	 */
+	public long getNodeDrops(int node, DropCause cause) {
+		return nodeDropPackets[node * NUM_CAUSES + cause.ordinal()];
+	}
+
+	/**
+	 * Returns the number of packets of a given type transmitted by a link side
+	 *
+	 * @param link the link index
+	 * @param side the sending side (1, 2)
+	 * @param t    the packet type
+	 * @return the number of packets
+	 */
+	public long getLinkPackets(int link, int side, PacketType t) {
+		return linkPackets[(link * 2 + side - 1) * NUM_TYPES + t.ordinal()];
+	}
+
+	/**
+	 * Returns the number of bytes of a given type transmitted by a link side
+	 *
+	 * @param link the link index
+	 * @param side the sending side (1, 2)
+	 * @param t    the packet type
+	 * @return the number of bytes
+	 */
+	public long getLinkBytes(int link, int side, PacketType t) {
+		return linkBytes[(link * 2 + side - 1) * NUM_TYPES + t.ordinal()];
+	}
+
+	/**
+	 * Returns the number of packets sent by a link side dropped for a given cause
+	 *
+	 * @param link  the link index
+	 * @param side  the sending side (1, 2)
+	 * @param cause the cause
+	 * @return the number of packets
+	 */
+	public long getLinkDrops(int link, int side, DropCause cause) {
+		return linkDropPackets[(link * 2 + side - 1) * NUM_CAUSES + cause.ordinal()];
+	}
+
+	/**
+	 * Returns the total of packets counted by a node counter, summed over all
+	 * nodes and packet types
+	 *
+	 * @param counter SENT, RECV, DROP or FORW
+	 * @return the number of packets
+	 */
+	public long getTotalPackets(int counter) {
+		long total = 0;
+		for (int n = 0; n < num_nodes; n++)
+			for (int t = 0; t < NUM_TYPES; t++)
+				total += nodePackets[(n * NUM_COUNTERS + counter) * NUM_TYPES + t];
+		return total;
+	}
+
+	/**
+	 * Returns the total of packets dropped by nodes, summed over all nodes
+	 *
+	 * @param cause the cause
+	 * @return the number of packets
+	 */
+	public long getTotalNodeDrops(DropCause cause) {
+		long total = 0;
+		for (int n = 0; n < num_nodes; n++)
+			total += nodeDropPackets[n * NUM_CAUSES + cause.ordinal()];
+		return total;
+	}
+
+	/**
+	 * Returns the total of packets dropped by links, summed over all links
+	 *
+	 * @param cause the cause
+	 * @return the number of packets
+	 */
+	public long getTotalLinkDrops(DropCause cause) {
+		long total = 0;
+		for (int l = 0; l < num_links * 2; l++)
+			total += linkDropPackets[l * NUM_CAUSES + cause.ordinal()];
+		return total;
+	}
+
+	/**********************************************************************
+	 *
+	 * PERIODIC EXPORT
+	 *
+	 **********************************************************************/
+
+	/**
+	 * Exports one snapshot per interval boundary strictly before the processing
+	 * step about to be executed at time <code>now</code>
+	 *
+	 * @param now the virtual clock of the next processing step
+	 */
+	void export_before(int now) {
+		if (interval <= 0)
+			return;
+		while (next_export < now) {
+			export(next_export);
+			next_export += interval;
+		}
+	}
+
+	/**
+	 * Exports a last snapshot labelled with the final clock of the simulation
+	 * and closes the export file
+	 *
+	 * @param now the virtual clock of the last processing step
+	 */
+	void close(int now) {
+		if (interval <= 0)
+			return;
+		export_before(now);
+		export(now);
+		if (writer != null)
+			writer.close();
+		writer = null;
+		interval = 0;
+	}
+
+	/**
+	 * Returns true if snapshots are periodically exported
+	 *
+	 * @return true if metrics_interval is defined
+	 */
+	boolean isExporting() {
+		return interval > 0;
+	}
+
+	/**
+	 * Returns the name of the export file
+	 *
+	 * @return the file name or null if snapshots are not exported
+	 */
+	String getFileName() {
+		return file_name;
+	}
+
+	/**
+	 * Writes all counters and the time of the next periodic export to a
+	 * checkpoint
+	 *
+	 * @param out where to write the state
+	 * @throws IOException
+	 */
+	void writeState(DataOutputStream out) throws IOException {
+		for (long[] a : new long[][] { nodePackets, nodeBytes, nodeDropPackets, nodeDropBytes, linkPackets, linkBytes,
+				linkDropPackets, linkDropBytes })
+			Checkpoint.writeLongs(out, a);
+		out.writeInt(next_export);
+	}
+
+	/**
+	 * Restores the state written by writeState. The next snapshots are
+	 * exported to a new file, since the file of the original run may not exist
+	 * anymore.
+	 *
+	 * @param in where to read the state from
+	 * @throws IOException
+	 */
+	void readState(DataInputStream in) throws IOException {
+		for (long[] a : new long[][] { nodePackets, nodeBytes, nodeDropPackets, nodeDropBytes, linkPackets, linkBytes,
+				linkDropPackets, linkDropBytes })
+			Checkpoint.readLongs(in, a);
+		int next = in.readInt();
+		if (interval > 0)
+			next_export = next;
+	}
+
+	/**
+	 * Writes one snapshot of all counters to the export file
+	 *
+	 * @param time the label of the snapshot
+	 */
+	private void export(int time) {
+		try {
+			if (writer == null) {
+				writer = new PrintWriter(new FileWriter(file_name));
+				if (!json)
+					writer.println("time,entity,id,counter,type,packets,bytes");
+			}
+		} catch (IOException e) {
+			err.println("metrics: cannot open " + file_name + ": " + e.getMessage());
+			interval = 0;
+			return;
+		}
+		if (json)
+			exportJson(time);
+		else
+			exportCsv(time);
+		writer.flush();
+	}
+
+	/**
+	 * Writes a snapshot as CSV lines; zero valued rows are omitted
+	 *
+	 * @param time the label of the snapshot
+	 */
+	private void exportCsv(int time) {
+		for (int n = 0; n < num_nodes; n++) {
+			for (int c = 0; c < NUM_COUNTERS; c++) {
+				for (int t = 0; t < NUM_TYPES; t++) {
+					int i = (n * NUM_COUNTERS + c) * NUM_TYPES + t;
+					if (nodePackets[i] > 0)
+						writer.println(time + ",node," + n + "," + COUNTER_NAMES[c] + "," + TYPES[t] + "," + nodePackets[i] + "," + nodeBytes[i]);
+				}
+			}
+			for (int c = 0; c < NUM_CAUSES; c++) {
+				int i = n * NUM_CAUSES + c;
+				if (nodeDropPackets[i] > 0)
+					writer.println(time + ",node," + n + ",drop_" + CAUSES[c] + ",ALL," + nodeDropPackets[i] + "," + nodeDropBytes[i]);
+			}
+		}
+		for (int l = 0; l < num_links; l++) {
+			for (int d = 0; d < 2; d++) {
+				String dir = d == 0 ? "1_2" : "2_1";
+				for (int t = 0; t < NUM_TYPES; t++) {
+					int i = (l * 2 + d) * NUM_TYPES + t;
+					if (linkPackets[i] > 0)
+						writer.println(time + ",link," + l + ",tx_" + dir + "," + TYPES[t] + "," + linkPackets[i] + "," + linkBytes[i]);
+				}
+				for (int c = 0; c < NUM_CAUSES; c++) {
+					int i = (l * 2 + d) * NUM_CAUSES + c;
+					if (linkDropPackets[i] > 0)
+						writer.println(time + ",link," + l + ",drop_" + dir + "_" + CAUSES[c] + ",ALL," + linkDropPackets[i] + "," + linkDropBytes[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a snapshot as a single line JSON object; counters are written as
+	 * [packets, bytes] pairs, one per packet type or drop cause
+	 *
+	 * @param time the label of the snapshot
+	 */
+	private void exportJson(int time) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"time\":").append(time).append(",\"nodes\":[");
+		for (int n = 0; n < num_nodes; n++) {
+			if (n > 0)
+				sb.append(',');
+			sb.append("{\"id\":").append(n);
+			for (int c = 0; c < NUM_COUNTERS; c++) {
+				int base = (n * NUM_COUNTERS + c) * NUM_TYPES;
+				sb.append(",\"").append(COUNTER_NAMES[c]).append("\":");
+				appendPairs(sb, TYPES, nodePackets, nodeBytes, base);
+			}
+			sb.append(",\"drops\":");
+			appendPairs(sb, CAUSES, nodeDropPackets, nodeDropBytes, n * NUM_CAUSES);
+			sb.append('}');
+		}
+		sb.append("],\"links\":[");
+		for (int l = 0; l < num_links; l++) {
+			if (l > 0)
+				sb.append(',');
+			sb.append("{\"id\":").append(l);
+			for (int d = 0; d < 2; d++) {
+				String dir = d == 0 ? "1_2" : "2_1";
+				sb.append(",\"tx_").append(dir).append("\":");
+				appendPairs(sb, TYPES, linkPackets, linkBytes, (l * 2 + d) * NUM_TYPES);
+				sb.append(",\"drops_").append(dir).append("\":");
+				appendPairs(sb, CAUSES, linkDropPackets, linkDropBytes, (l * 2 + d) * NUM_CAUSES);
+			}
+			sb.append('}');
+		}
+		sb.append("]}");
+		writer.println(sb);
+	}
+
+	/**
+	 * Auxiliary method of exportJson(): appends an object mapping each name to
+	 * its [packets, bytes] pair
+	 */
+	private void appendPairs(StringBuilder sb, Object[] names, long[] packets, long[] bytes, int base) {
+		sb.append('{');
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append('"').append(names[i]).append("\":[").append(packets[base + i]).append(',').append(bytes[base + i]).append(']');
+		}
+		sb.append('}');
+	}
+
+}
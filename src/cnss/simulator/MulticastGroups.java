@@ -0,0 +1,328 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The <code>MulticastGroups</code> class keeps the multicast groups of a
+ * simulation, joined and left by the nodes with down calls, and the
+ * distribution trees used by the node kernels to deliver the data packets sent
+ * to them. If the global parameter <code>kernel_broadcast</code> is defined,
+ * data packets sent to <code>Packet.BROADCAST</code> are also delivered this
+ * way, to all the other nodes.
+ *
+ * The tree of a (source, group) pair is the shortest path tree, in hops, from
+ * the source over the up links, pruned to the branches leading to members. It
+ * is computed once, when the first packet is sent, and kept until the group
+ * membership or the state of a link changes. The tree gives each node of it
+ * the interfaces the packet must be sent to, so a node forwarding a multicast
+ * packet neither copies it nor calls its control algorithm: the same packet
+ * instance crosses all the links of the tree and is delivered to all members.
+ * It is therefore read only (see <code>Packet.isShared</code>) and carries no
+ * per hop time stamps, which the link sides keep. Packets in flight keep the
+ * tree they were sent with.
+ */
+class MulticastGroups {
+
+	private static final int[] NO_INTERFACES = new int[0];
+
+	/**
+	 * A distribution tree: the nodes it reaches, by increasing id, with the
+	 * interfaces each one sends the packets to and whether it delivers them
+	 * locally
+	 */
+	static class Tree {
+		private final int[] nodes;
+		private final int[][] fanout;
+		private final boolean[] deliver;
+
+		private Tree(int[] nodes, int[][] fanout, boolean[] deliver) {
+			this.nodes = nodes;
+			this.fanout = fanout;
+			this.deliver = deliver;
+		}
+
+		/**
+		 * Returns the position of a node in the tree, or -1 if it is not in it
+		 */
+		int indexOf(int node) {
+			int i = Arrays.binarySearch(nodes, node);
+			return i < 0 ? -1 : i;
+		}
+
+		int[] fanout(int index) {
+			return fanout[index];
+		}
+
+		boolean delivers(int index) {
+			return deliver[index];
+		}
+	}
+
+	/**
+	 * The members of a group and its trees by source
+	 */
+	private static class Group {
+		final BitSet members = new BitSet();
+		final Map<Integer, Tree> trees = new HashMap<>();
+	}
+
+	private final int numNodes;
+	private final boolean kernelBroadcast;
+	private final Link[] links;
+
+	// adjacency in compressed rows, in the order of the links
+	private final int[] first;
+	private final int[] edgeNode;
+	private final int[] edgeIface;
+	private final int[] edgeLink;
+
+	private final TreeMap<Integer, Group> groups = new TreeMap<>();
+	private final Group broadcast = new Group(); // its members are not used
+
+	// working arrays of the tree computation
+	private final int[] queue;
+	private final boolean[] reached;
+	private final int[] parent;
+	private final int[] parentIface; // the interface of the parent to the node
+	private final boolean[] inTree;
+	private final boolean[] deliverTo;
+	private final int[] childCount;
+	private final int[] index; // the position of each node in the tree
+
+	private long treesComputed = 0;
+	private String frozen = null; // why joins and leaves are refused, null if they are not
+
+	/**
+	 * <code>MulticastGroups</code> constructor
+	 *
+	 * @param nnodes the number of nodes
+	 * @param links  the links of the simulation
+	 * @param gp     the global parameters
+	 */
+	MulticastGroups(int nnodes, Link[] links, GlobalParameters gp) {
+		numNodes = nnodes;
+		this.links = links;
+		kernelBroadcast = gp.containsKey("kernel_broadcast");
+		first = new int[nnodes + 1];
+		for (Link l : links) {
+			first[l.getNode(1) + 1]++;
+			first[l.getNode(2) + 1]++;
+		}
+		for (int u = 0; u < nnodes; u++)
+			first[u + 1] += first[u];
+		edgeNode = new int[first[nnodes]];
+		edgeIface = new int[first[nnodes]];
+		edgeLink = new int[first[nnodes]];
+		int[] fill = Arrays.copyOf(first, nnodes);
+		for (int i = 0; i < links.length; i++) {
+			for (int side = 1; side <= 2; side++) {
+				int e = fill[links[i].getNode(side)]++;
+				edgeNode[e] = links[i].getNode(3 - side);
+				edgeIface[e] = links[i].getInterface(side);
+				edgeLink[e] = i;
+			}
+		}
+		queue = new int[nnodes];
+		reached = new boolean[nnodes];
+		parent = new int[nnodes];
+		parentIface = new int[nnodes];
+		inTree = new boolean[nnodes];
+		deliverTo = new boolean[nnodes];
+		childCount = new int[nnodes];
+		index = new int[nnodes];
+	}
+
+	/**
+	 * Tells whether the data packets sent to an address are delivered by the
+	 * kernel
+	 *
+	 * @param address the destination address
+	 * @return true if it is a multicast group, or the broadcast address when
+	 *         kernel broadcast is on
+	 */
+	boolean isKernelDelivered(int address) {
+		return Packet.isMulticast(address) || (kernelBroadcast && address == Packet.BROADCAST);
+	}
+
+	/**
+	 * Refuses all further joins and leaves, for executions where the members
+	 * of the groups cannot be shared by all nodes
+	 *
+	 * @param reason the message of the exception thrown by join and leave, or
+	 *               null to accept them again
+	 */
+	synchronized void freeze(String reason) {
+		frozen = reason;
+	}
+
+	/**
+	 * Adds a node to a group
+	 */
+	synchronized void join(int group, int node) {
+		if (frozen != null)
+			throw new SimulatorException(frozen);
+		Group g = groups.computeIfAbsent(group, k -> new Group());
+		if (!g.members.get(node)) {
+			g.members.set(node);
+			g.trees.clear();
+		}
+	}
+
+	/**
+	 * Removes a node from a group
+	 */
+	synchronized void leave(int group, int node) {
+		if (frozen != null)
+			throw new SimulatorException(frozen);
+		Group g = groups.get(group);
+		if (g != null && g.members.get(node)) {
+			g.members.clear(node);
+			g.trees.clear();
+		}
+	}
+
+	synchronized boolean isMember(int group, int node) {
+		Group g = groups.get(group);
+		return g != null && g.members.get(node);
+	}
+
+	/**
+	 * Forgets all trees; called when a link goes up or down
+	 */
+	synchronized void linksChanged() {
+		broadcast.trees.clear();
+		for (Group g : groups.values())
+			g.trees.clear();
+	}
+
+	/**
+	 * Returns the number of trees computed so far
+	 */
+	synchronized long getTreesComputed() {
+		return treesComputed;
+	}
+
+	/**
+	 * Returns the tree of a packet sent to a group, or to all nodes, and marks
+	 * the packet as shared
+	 *
+	 * @param p the packet
+	 * @return its distribution tree
+	 */
+	synchronized Tree treeOf(Packet p) {
+		if (p.tree == null) {
+			int dst = p.getDestination();
+			Group g = dst == Packet.BROADCAST ? broadcast : groups.computeIfAbsent(dst, k -> new Group());
+			Tree t = g.trees.get(p.getSource());
+			if (t == null) {
+				t = compute(p.getSource(), g == broadcast ? null : g.members);
+				g.trees.put(p.getSource(), t);
+			}
+			p.tree = t;
+		}
+		p.shared = true;
+		return p.tree;
+	}
+
+	/**
+	 * Computes the tree from a source to the members of a group, or to all
+	 * nodes if members is null
+	 */
+	private Tree compute(int src, BitSet members) {
+		treesComputed++;
+		Arrays.fill(reached, false);
+		reached[src] = true;
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = src;
+		while (head < tail) {
+			int u = queue[head++];
+			for (int e = first[u]; e < first[u + 1]; e++) {
+				int v = edgeNode[e];
+				if (reached[v] || !links[edgeLink[e]].isUp())
+					continue;
+				reached[v] = true;
+				parent[v] = u;
+				parentIface[v] = edgeIface[e];
+				queue[tail++] = v;
+			}
+		}
+		// prune: keep the reached members and their ancestors
+		Arrays.fill(inTree, false);
+		Arrays.fill(deliverTo, false);
+		Arrays.fill(childCount, 0);
+		inTree[src] = true;
+		int size = 1;
+		for (int i = 1; i < tail; i++) {
+			int v = queue[i];
+			if (members != null && !members.get(v))
+				continue;
+			deliverTo[v] = true;
+			for (int u = v; !inTree[u]; u = parent[u]) {
+				inTree[u] = true;
+				childCount[parent[u]]++;
+				size++;
+			}
+		}
+		int[] nodes = new int[size];
+		int[][] fanout = new int[size][];
+		boolean[] deliver = new boolean[size];
+		for (int u = 0, i = 0; u < numNodes; u++) {
+			if (!inTree[u])
+				continue;
+			nodes[i] = u;
+			deliver[i] = deliverTo[u];
+			fanout[i] = childCount[u] == 0 ? NO_INTERFACES : new int[childCount[u]];
+			index[u] = i++;
+		}
+		for (int u = 0; u < numNodes; u++)
+			if (inTree[u] && u != src)
+				fanout[index[parent[u]]][--childCount[parent[u]]] = parentIface[u];
+		for (int[] f : fanout)
+			Arrays.sort(f);
+		return new Tree(nodes, fanout, deliver);
+	}
+
+	/**
+	 * Writes the members of all groups; the trees are recomputed after a
+	 * restore
+	 *
+	 * @param out where to write the state
+	 * @throws IOException
+	 */
+	synchronized void writeState(DataOutputStream out) throws IOException {
+		out.writeInt(groups.size());
+		for (Map.Entry<Integer, Group> e : groups.entrySet()) {
+			BitSet m = e.getValue().members;
+			out.writeInt(e.getKey());
+			out.writeInt(m.cardinality());
+			for (int n = m.nextSetBit(0); n >= 0; n = m.nextSetBit(n + 1))
+				out.writeInt(n);
+		}
+	}
+
+	/**
+	 * Restores the state written by writeState
+	 *
+	 * @param in where to read the state from
+	 * @throws IOException
+	 */
+	synchronized void readState(DataInputStream in) throws IOException {
+		groups.clear();
+		broadcast.trees.clear();
+		for (int n = in.readInt(); n > 0; n--) {
+			Group g = new Group();
+			groups.put(in.readInt(), g);
+			for (int m = in.readInt(); m > 0; m--)
+				g.members.set(in.readInt());
+		}
+	}
+
+}
@@ -1,8 +1,17 @@
 package cnss.simulator;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import cnss.simulator.Event.EventType;
 import cnss.simulator.Packet.PacketType;
@@ -59,6 +68,19 @@ public class Node {
 
 	private int packet_counter = 0; // allows the generation of sequence numbers
 
+	private Metrics metrics; // the global metrics registry
+	private Latencies latencies = null; // the global delay histograms, only set when delays are recorded
+	private Profiler profiler = null; // only set when profiling is on
+	private int control_prof_id;
+	private int app_prof_id;
+
+	private PrintStream out; // where the output of this node and its algorithms goes
+	private Link[] allLinks = new Link[0]; // all the links of the simulation
+	private MulticastGroups groups; // the multicast groups of the simulation
+	private FluidFlows fluid; // the fluid flows of the simulation
+	private Map<String, Object> shared = new ConcurrentHashMap<>(); // the objects shared by the nodes of the simulation
+	private List<Runnable> endActions = new ArrayList<>(); // run when the simulation ends
+
 	/**
 	 * <code>Node</code> constructor takes the node id, the number of interfaces,
 	 * the class name of the control algorithm to load as well as the class name of
@@ -73,6 +95,22 @@ public class Node {
 	 * @param gp a reference to the global parameters collection
 	 */
 	public Node(int i, int n, String c, String a, String[] ags, GlobalParameters gp) {
+		this(i, n, c, a, ags, gp, System.out);
+	}
+
+	/**
+	 * <code>Node</code> constructor whose output goes to a given stream instead
+	 * of the standard output
+	 * 
+	 * @param i   node id
+	 * @param n   number of interfaces
+	 * @param c   class name of the control algorithm to load.
+	 * @param a   class name of the application algorithm to load.
+	 * @param gp  a reference to the global parameters collection
+	 * @param out where the output of the node goes
+	 */
+	public Node(int i, int n, String c, String a, String[] ags, GlobalParameters gp, PrintStream out) {
+		this.out = out;
 		node_id = i;
 		num_interfaces = n;
 		links = new Link[n];
@@ -86,14 +124,14 @@ public class Node {
 			control_alg = (ControlAlgorithm) (Class.forName(control_class_name)).getDeclaredConstructor().newInstance();
 			app_alg = (ApplicationAlgorithm) (Class.forName(application_class_name)).getDeclaredConstructor().newInstance();
 		} catch (Exception exp) {
-			exp.printStackTrace();
+			throw new SimulatorException("node " + i + ": cannot load algorithm classes " + c + " and " + a + ": " + exp, exp);
 		}
 
 		counter[SENT] = 0;
 		counter[RECV] = 0;
 		counter[DROP] = 0;
 		counter[FORW] = 0;
-		System.out.println("Created " + this);
+		out.println("Created " + this);
 	}
 
 	/**
@@ -110,7 +148,7 @@ public class Node {
 		int n1 = l.getNode(1);
 		int i2 = l.getInterface(2);
 		int n2 = l.getNode(2);
-		System.out.println("Added link to node " + node_id + " - " + l);
+		out.println("Added link to node " + node_id + " - " + l);
 		if (n1 == node_id) {
 			links[i1] = l;
 		} else if (n2 == node_id) {
@@ -118,6 +156,72 @@ public class Node {
 		}
 	}
 
+	/**
+	 * Sets the metrics registry where this node counts its packets
+	 * 
+	 * @param m the metrics registry
+	 */
+	void setMetrics(Metrics m) {
+		metrics = m;
+	}
+
+	/**
+	 * Sets the delay histograms where this node records end-to-end delays
+	 * 
+	 * @param l the delay histograms, or null if delays are not recorded
+	 */
+	void setLatencies(Latencies l) {
+		latencies = l;
+	}
+
+	/**
+	 * Sets the links of the whole simulation
+	 * 
+	 * @param all the links of the simulation
+	 */
+	void setAllLinks(Link[] all) {
+		allLinks = all;
+	}
+
+	/**
+	 * Sets the multicast groups of the simulation
+	 * 
+	 * @param g the multicast groups
+	 */
+	void setMulticastGroups(MulticastGroups g) {
+		groups = g;
+	}
+
+	/**
+	 * Sets the objects shared by all the nodes of the simulation
+	 * 
+	 * @param s the shared objects, by name
+	 */
+	void setShared(Map<String, Object> s) {
+		shared = s;
+	}
+
+	/**
+	 * Sets the fluid flows engine of the simulation
+	 * 
+	 * @param f the fluid flows engine
+	 */
+	void setFluidFlows(FluidFlows f) {
+		fluid = f;
+	}
+
+	/**
+	 * Sets the profiler which accounts the time spent in the upcalls of this
+	 * node algorithms
+	 * 
+	 * @param p the profiler
+	 */
+	void setProfiler(Profiler p) {
+		profiler = p;
+		control_prof_id = p.register(control_class_name);
+		app_prof_id = p.register(application_class_name);
+	}
+
 	/**
 	 * This <code>Node</code> starts by initializing the control and application objects
 	 */
@@ -125,8 +229,11 @@ public class Node {
 		now = 0; // it is redundant, but ....
 		next_app_timeout = -1;
 		next_control_timeout = -1;
+		long t0 = upcall_start();
 		control_clock_tick_period = control_alg.initialise(now, node_id, this, parameters, links, num_interfaces);
+		t0 = upcall_end(control_prof_id, Profiler.INITIALISE, t0);
 		app_clock_tick_period = app_alg.initialise(now, node_id, this, args);
+		upcall_end(app_prof_id, Profiler.INITIALISE, t0);
 		if (control_clock_tick_period > 0) {
 			next_control_clock_tick = control_clock_tick_period;
 			outputEvents.add(new Event(EventType.CLOCK_INTERRUPT, next_control_clock_tick, 0, null, null, node_id, 0));
@@ -202,16 +309,27 @@ public class Node {
 	 * @param now the current virtual time
 	 */
 	public void dumpPacketStats(int now) {
+		String s = packetStatsHeader(now);
+		for (int i = 0; i < links.length; i++) {
+			s = s + links[i].dumpPacketStats() + "\n";
+		}
+		out.print(s);
+	}
+
+	/**
+	 * Returns the first line of the packet stats dump, with the counters of
+	 * this node; the lines of its links follow
+	 * 
+	 * @param now the current time
+	 * @return the header
+	 */
+	String packetStatsHeader(int now) {
 		String s = "\nPkt stats for node " + node_id + " time "+now+" - ";
 		s = s + " s " + counter[SENT];
 		s = s + " r " + counter[RECV];
 		s = s + " d " + counter[DROP];
 		s = s + " f " + counter[FORW];
-		s = s + "\n";
-		for (int i = 0; i < links.length; i++) {
-			s = s + links[i].dumpPacketStats() + "\n";
-		}
-		System.out.print(s);
+		return s + "\n";
 	}
 
 	/**
@@ -224,6 +342,148 @@ public class Node {
 	}
 	
 	
+	/******************************************************************************
+	 * 
+	 * Methods for checkpointing and restoring the state of this node
+	 * 
+	 ******************************************************************************/
+
+	/**
+	 * Returns the class name of the first algorithm of this node that does not
+	 * implement <code>StateSnapshot</code>
+	 * 
+	 * @return the class name or null if the node can be checkpointed
+	 */
+	String checkpointBlocker() {
+		if (!(control_alg instanceof StateSnapshot))
+			return control_class_name;
+		if (!(app_alg instanceof StateSnapshot))
+			return application_class_name;
+		return null;
+	}
+
+	/**
+	 * Writes the kernel state of this node followed by the state of its
+	 * algorithms
+	 * 
+	 * @param out where to write the state
+	 * @throws IOException
+	 */
+	void writeState(DataOutputStream out) throws IOException {
+		out.writeInt(now);
+		out.writeInt(next_app_timeout);
+		out.writeInt(next_control_timeout);
+		out.writeInt(next_app_clock_tick);
+		out.writeInt(next_control_clock_tick);
+		out.writeInt(app_clock_tick_period);
+		out.writeInt(control_clock_tick_period);
+		for (int i = 0; i < counter.length; i++)
+			out.writeInt(counter[i]);
+		out.writeInt(packet_counter);
+		out.writeInt(inputEvents.size());
+		for (Event ev : inputEvents)
+			Checkpoint.writeEvent(out, ev);
+		out.writeInt(outputEvents.size());
+		for (Event ev : outputEvents)
+			Checkpoint.writeEvent(out, ev);
+		Checkpoint.writeAlgorithm(out, (StateSnapshot) control_alg);
+		Checkpoint.writeAlgorithm(out, (StateSnapshot) app_alg);
+	}
+
+	/**
+	 * Restores the state written by writeState. The node must have been
+	 * initialized before; the events it generated while initializing are
+	 * discarded.
+	 * 
+	 * @param in where to read the state from
+	 * @throws IOException
+	 */
+	void readState(DataInputStream in) throws IOException {
+		now = in.readInt();
+		next_app_timeout = in.readInt();
+		next_control_timeout = in.readInt();
+		next_app_clock_tick = in.readInt();
+		next_control_clock_tick = in.readInt();
+		app_clock_tick_period = in.readInt();
+		control_clock_tick_period = in.readInt();
+		for (int i = 0; i < counter.length; i++)
+			counter[i] = in.readInt();
+		packet_counter = in.readInt();
+		inputEvents.clear();
+		for (int n = in.readInt(); n > 0; n--)
+			inputEvents.add(Checkpoint.readEvent(in));
+		outputEvents.clear();
+		for (int n = in.readInt(); n > 0; n--)
+			outputEvents.add(Checkpoint.readEvent(in));
+		Checkpoint.readAlgorithm(in, (StateSnapshot) control_alg);
+		Checkpoint.readAlgorithm(in, (StateSnapshot) app_alg);
+	}
+
+	/**
+	 * Returns the stream where the output of this node goes; algorithms should
+	 * print their logs and state to it instead of the standard output
+	 * 
+	 * @return the output stream
+	 */
+	public PrintStream getOutput() {
+		return out;
+	}
+
+	/**
+	 * Sets the stream where the output of this node goes
+	 * 
+	 * @param o the output stream
+	 */
+	void setOutput(PrintStream o) {
+		out = o;
+	}
+
+	/**
+	 * Returns the number of interfaces of this node
+	 * 
+	 * @return the number of interfaces
+	 */
+	int getNumInterfaces() {
+		return num_interfaces;
+	}
+
+	/**
+	 * Returns the link attached to an interface of this node
+	 * 
+	 * @param iface the interface
+	 * @return the link, or null if the interface has none
+	 */
+	Link getLink(int iface) {
+		return links[iface];
+	}
+
+	/**
+	 * Returns the class name of the control algorithm of this node
+	 * 
+	 * @return the class name
+	 */
+	String getControlClassName() {
+		return control_class_name;
+	}
+
+	/**
+	 * Returns the class name of the application algorithm of this node
+	 * 
+	 * @return the class name
+	 */
+	String getApplicationClassName() {
+		return application_class_name;
+	}
+
+	/**
+	 * Returns the arguments of the application algorithm of this node
+	 * 
+	 * @return the arguments
+	 */
+	String[] getArgs() {
+		return args;
+	}
+
 	/******************************************************************************
 	 * 
 	 * Methods for processing the events scheduled by the simulator for this node
@@ -237,12 +497,13 @@ public class Node {
 	 * @param now the current time stamp
 	 */
 	private void process_packet_to_drop (Packet p, int now) {
+		metrics.countNodeDrop(node_id, Metrics.DropCause.TTL_EXPIRED, p);
 		String message = new String("--> node "+node_id+" at "+now+" dropping expired ");
 		if (p.getType() == PacketType.DATA) message += "packet "+p;
 		else if (p.getType() == PacketType.CONTROL) message += "packet "+p;
 		else if (p.getType() == PacketType.TRACING) 
 			message += "trace route packet "+new String(p.getPayload(), StandardCharsets.UTF_8);
-		System.out.println(message);
+		out.println(message);
 	}
 	
 	/**
@@ -257,12 +518,13 @@ public class Node {
 		if ( p.getSource() == node_id && p.getTtl() == Packet.INITIALTTL-1) {
 			// it is a tracing packet being sent now
 			counter[SENT]++;
+			metrics.countNode(node_id, Metrics.SENT, p);
 			ev.setInterface(LOCAL);
 			// set the sequence number now
 			packet_counter++;
 			p.setSequenceNumber(packet_counter);
 			tmp = " "+node_id;
-			System.out.println("--> node "+node_id+" time "+now+" traceroute to: "+p.getDestination());
+			out.println("--> node "+node_id+" time "+now+" traceroute to: "+p.getDestination());
 		}
 		else tmp = new String(p.getPayload(), StandardCharsets.UTF_8)+" -> "+node_id;
 		p.setPayload(tmp.getBytes());
@@ -279,21 +541,32 @@ public class Node {
 	private void process_deliver_packet_event (Event ev, int now) {
 
 		Packet p = ev.getPacket();
+		if (p.getType() == PacketType.DATA && groups.isKernelDelivered(p.getDestination())) {
+			process_multicast_packet(p, now);
+			return;
+		}
 		if (p.getTtl() == 1) {
 			process_packet_to_drop(p,now);
 			return; 
 		}	
 		if (p.getDestination() == node_id || p.getDestination() == Packet.ONEHOP) { // local packet
 			counter[RECV]++;
+			metrics.countNode(node_id, Metrics.RECV, p);
+			if (latencies != null)
+				latencies.recordDelivery(p, node_id, now);
 			if (p.getType() == PacketType.DATA) {
 				next_app_timeout = 0; // cancels all waiting timeouts
+				long t0 = upcall_start();
 				app_alg.on_receive(now, p.toDataPacket()); // delivers an exact copy of the packet
+				upcall_end(app_prof_id, Profiler.ON_RECEIVE, t0);
 			} else if (p.getType() == PacketType.CONTROL) {
 				next_control_timeout = 0; // cancels all waiting timeouts
+				long t0 = upcall_start();
 				control_alg.on_receive(now, p, ev.getInterface());
+				upcall_end(control_prof_id, Profiler.ON_RECEIVE, t0);
 			} else if (p.getType() == PacketType.TRACING) {
 				// make the result of the tracing available
-				System.out.println("--> node "+node_id+" time "+now+" received traceroute: " 
+				out.println("--> node "+node_id+" time "+now+" received traceroute: " 
 				+ new String(p.getPayload(), StandardCharsets.UTF_8)+ " -> "+node_id);
 			} else {
 				panic("--> node "+node_id+" at "+now+" process_deliver_packet: unknown packet type " + p);
@@ -303,11 +576,54 @@ public class Node {
 			p.decrementTtl();
 			if (p.getType() == PacketType.TRACING) process_tracing_packet_to_forward (p, ev, now);	
 			counter[FORW]++;
+			metrics.countNode(node_id, Metrics.FORW, p);
+			long t0 = upcall_start();
 			control_alg.forward_packet(now, p, ev.getInterface());
+			upcall_end(control_prof_id, Profiler.FORWARD_PACKET, t0);
 		}
 	}
 
-	
+
+	/**
+	 * Process a data <code>Packet</code> sent to a multicast group, or to all
+	 * nodes, by the kernel: it is delivered locally if this node is a member and
+	 * sent, without copies, to the interfaces given by its distribution tree. The
+	 * packet is shared by all its receivers, so it is read only: its TTL is not
+	 * decremented, as the tree has no loops, and it is not stamped with the
+	 * times of each hop.
+	 * 
+	 * @param p the packet
+	 * @param now the current time stamp
+	 */
+	private void process_multicast_packet (Packet p, int now) {
+		MulticastGroups.Tree tree = groups.treeOf(p);
+		int i = tree.indexOf(node_id);
+		if (i < 0) { // the tree changed while the packet was in flight
+			counter[DROP]++;
+			metrics.countNodeDrop(node_id, Metrics.DropCause.NO_ROUTE, p);
+			return;
+		}
+		if (tree.delivers(i)) {
+			counter[RECV]++;
+			metrics.countNode(node_id, Metrics.RECV, p);
+			if (latencies != null)
+				latencies.recordDelivery(p, node_id, now);
+			next_app_timeout = 0; // cancels all waiting timeouts
+			long t0 = upcall_start();
+			app_alg.on_receive(now, (DataPacket) p); // the shared packet, not a copy
+			upcall_end(app_prof_id, Profiler.ON_RECEIVE, t0);
+		}
+		int[] fanout = tree.fanout(i);
+		if (fanout.length > 0 && p.getSource() != node_id) {
+			counter[FORW]++;
+			metrics.countNode(node_id, Metrics.FORW, p);
+		}
+		for (int iface : fanout) {
+			links[iface].enqueuePacket(node_id, p, now); // the link side keeps the enqueue time
+			counter[SENT]++;
+			metrics.countNode(node_id, Metrics.SENT, p);
+		}
+	}
 
 	/**
 	 * Process the <code>Event</code>s scheduled by the simulator for this
@@ -323,19 +639,30 @@ public class Node {
 				panic("--> node "+node_id+" at "+now+" process_events: event out of order " + ev);
 			}
 			if (ev.getOperation() == EventType.UPLINK) {
-				System.out.println("--> node "+node_id+" at "+now+" interface "+ev.getInterface()+" going up");
+				out.println("--> node "+node_id+" at "+now+" interface "+ev.getInterface()+" going up");
+				long t0 = upcall_start();
 				control_alg.on_link_up(now, ev.getInterface());
+				upcall_end(control_prof_id, Profiler.ON_LINK_UP, t0);
 			}
 			else if (ev.getOperation() == EventType.DOWNLINK) {
-				System.out.println("--> node "+node_id+" at "+now+" interface "+ev.getInterface()+" going down");
+				out.println("--> node "+node_id+" at "+now+" interface "+ev.getInterface()+" going down");
+				long t0 = upcall_start();
 				control_alg.on_link_down(now, ev.getInterface());
+				upcall_end(control_prof_id, Profiler.ON_LINK_DOWN, t0);
 			}
 			else if (ev.getOperation() == EventType.DELIVER_PACKET) {
 				process_deliver_packet_event (ev, now);
 			}
+			else if (ev.getOperation() == EventType.FLOW_END) {
+				if (app_alg instanceof FluidFlowListener) {
+					long t0 = upcall_start();
+					((FluidFlowListener) app_alg).on_flow_end(now, FluidFlow.fromArgs(ev.getArgs()));
+					upcall_end(app_prof_id, Profiler.ON_FLOW_END, t0);
+				}
+			}
 			else if ( ev.getOperation() == EventType.CLOCK_INTERRUPT ) {
 				// clock interrupt events will all be processed after all other type of events
-				// System.out.println("node process_events: clock interrupt event " + ev);
+				// out.println("node process_events: clock interrupt event " + ev);
 			}
 			else {
 				panic("--> node process_events: unknown event " + ev);
@@ -344,17 +671,29 @@ public class Node {
 		
 		// all events are processed, now process CLOCK INTERRUPTS
 		if ( next_control_clock_tick == now) {
+			long t0 = upcall_start();
 			control_alg.on_clock_tick(now);
+			upcall_end(control_prof_id, Profiler.ON_CLOCK_TICK, t0);
 			next_control_clock_tick = now + control_clock_tick_period;
 			outputEvents.add(new Event(EventType.CLOCK_INTERRUPT, next_control_clock_tick, 0, null, null, node_id, 0));
 		}
 		if ( next_app_clock_tick == now) {
+			long t0 = upcall_start();
 			app_alg.on_clock_tick(now);
+			upcall_end(app_prof_id, Profiler.ON_CLOCK_TICK, t0);
 			next_app_clock_tick = now + app_clock_tick_period;
 			outputEvents.add(new Event(EventType.CLOCK_INTERRUPT, next_app_clock_tick, 0, null, null, node_id, 0));
 		}
-		if ( next_control_timeout == now) control_alg.on_timeout(now);
-		if ( next_app_timeout == now) app_alg.on_timeout(now);
+		if ( next_control_timeout == now) {
+			long t0 = upcall_start();
+			control_alg.on_timeout(now);
+			upcall_end(control_prof_id, Profiler.ON_TIMEOUT, t0);
+		}
+		if ( next_app_timeout == now) {
+			long t0 = upcall_start();
+			app_alg.on_timeout(now);
+			upcall_end(app_prof_id, Profiler.ON_TIMEOUT, t0);
+		}
 	}
 
 	
@@ -378,7 +717,14 @@ public class Node {
 		if (p.getType() != PacketType.DATA) down_call_panic("send: can only send data packets");
 		// counter[SENT] will be incremented after the packet is forwarded
 		counter[FORW]++;
+		metrics.countNode(node_id, Metrics.FORW, p);
+		if (groups.isKernelDelivered(p.getDestination())) {
+			process_multicast_packet(p, now);
+			return;
+		}
+		long t0 = upcall_start();
 		control_alg.forward_packet(now, p, LOCAL);
+		upcall_end(control_prof_id, Profiler.FORWARD_PACKET, t0);
 		
 	}
 
@@ -396,7 +742,8 @@ public class Node {
 		if (iface == UNKNOWN || iface >= num_interfaces) {
 			// increase drop counter and drop the packet since it is impossible to send it
 			counter[DROP]++;
-			if ( traceForwarding ) System.out.println("node "+node_id+" time "+now+" packet sent to UNKNOWN "+p);
+			metrics.countNodeDrop(node_id, Metrics.DropCause.NO_ROUTE, p);
+			if ( traceForwarding ) out.println("node "+node_id+" time "+now+" packet sent to UNKNOWN "+p);
 			
 		}
 		else if (p.getDestination() == node_id) {
@@ -404,11 +751,14 @@ public class Node {
 			Event ev = new Event(EventType.DELIVER_PACKET, now + 1, 0, null, p, node_id, LOCAL);
 			outputEvents.add(ev);
 			counter[SENT]++;
+			metrics.countNode(node_id, Metrics.SENT, p);
 		}	
 		else {
+			p.setEnqueueTime(now);
 			links[iface].enqueuePacket(node_id, p); // the link side is relative to the node calling it
 			counter[SENT]++;
-			if ( traceForwarding ) System.out.println("node "+node_id+" time "+now+" forwarded packet "+p);
+			metrics.countNode(node_id, Metrics.SENT, p);
+			if ( traceForwarding ) out.println("node "+node_id+" time "+now+" forwarded packet "+p);
 		}
 	}
 
@@ -448,11 +798,27 @@ public class Node {
 	 */
 	public DataPacket createDataPacket(int receiver, byte[] payload) {
 		DataPacket p = new DataPacket(node_id, receiver, payload);
+		p.setCreationTime(now);
 		packet_counter++;
 		p.setSequenceNumber(packet_counter);
 		return p;
 	}
 
+	/**
+	 * Creates a data packet with the current node as sender, whose size counts a
+	 * declared payload length instead of the bytes it carries
+	 * 
+	 * @param receiver      the receiver id
+	 * @param payload       the bytes carried by the packet
+	 * @param virtualLength the declared payload length
+	 * @return the created data packet
+	 */
+	public DataPacket createDataPacket(int receiver, byte[] payload, int virtualLength) {
+		DataPacket p = createDataPacket(receiver, payload);
+		p.setVirtualPayloadLength(virtualLength);
+		return p;
+	}
+
 	/**
 	 * Creates a control packet with the current node as sender.
 	 * ControlAlgorithm could implement the same functionality
@@ -465,11 +831,149 @@ public class Node {
 	 */
 	public ControlPacket createControlPacket(int sender, int receiver, byte[] payload) {
 		ControlPacket p = new ControlPacket(sender, receiver, payload);
+		p.setCreationTime(now);
 		packet_counter++;
 		p.setSequenceNumber(packet_counter);
 		return p;
 	}
 
+	/**
+	 * Joins a multicast group: the data packets sent to the group address from
+	 * now on are delivered to this node. A node does not receive the packets it
+	 * sends itself.
+	 * 
+	 * @param group the group address, at most Packet.MULTICAST
+	 */
+	public void join(int group) {
+		if (!Packet.isMulticast(group)) down_call_panic("join: not a multicast group address " + group);
+		groups.join(group, node_id);
+	}
+
+	/**
+	 * Leaves a multicast group
+	 * 
+	 * @param group the group address, at most Packet.MULTICAST
+	 */
+	public void leave(int group) {
+		if (!Packet.isMulticast(group)) down_call_panic("leave: not a multicast group address " + group);
+		groups.leave(group, node_id);
+	}
+
+	/**
+	 * Tells whether this node is a member of a multicast group
+	 * 
+	 * @param group the group address
+	 * @return true if it joined the group and did not leave it
+	 */
+	public boolean isMember(int group) {
+		return groups.isMember(group, node_id);
+	}
+
+	/**
+	 * Starts a fluid flow from this node: a transfer that is not split in
+	 * packets but gets, on each link of its path, its max-min fair share of the
+	 * link. If the application algorithm implements
+	 * <code>FluidFlowListener</code>, it is notified when the flow ends, as is
+	 * the application of the destination.
+	 * 
+	 * @param dst     the destination node
+	 * @param bytes   the size of the flow, or FluidFlow.UNBOUNDED for a flow
+	 *                that only ends when it is stopped
+	 * @param maxRate the largest rate of the flow in bps, 0 if it is only
+	 *                limited by the links
+	 * @return the id of the flow
+	 */
+	public int startFlow(int dst, long bytes, long maxRate) {
+		if (fluid == null) down_call_panic("startFlow: no fluid flows engine");
+		if (dst < 0 || dst == node_id || dst >= fluid.numNodes()) down_call_panic("startFlow: bad destination " + dst);
+		if (bytes <= 0 && bytes != FluidFlow.UNBOUNDED) down_call_panic("startFlow: bad size " + bytes);
+		if (maxRate < 0) down_call_panic("startFlow: bad rate " + maxRate);
+		return fluid.start(now, node_id, dst, bytes, maxRate);
+	}
+
+	/**
+	 * Starts a fluid flow only limited by the links
+	 * 
+	 * @param dst   the destination node
+	 * @param bytes the size of the flow, or FluidFlow.UNBOUNDED
+	 * @return the id of the flow
+	 */
+	public int startFlow(int dst, long bytes) {
+		return startFlow(dst, bytes, 0);
+	}
+
+	/**
+	 * Stops a fluid flow started by this node before it sends all its bytes
+	 * 
+	 * @param id the id of the flow
+	 * @return false if this node has no such flow active
+	 */
+	public boolean stopFlow(int id) {
+		return fluid != null && fluid.stop(id, node_id);
+	}
+
+	/**
+	 * Returns the state of a fluid flow still active
+	 * 
+	 * @param id the id of the flow
+	 * @return a snapshot of the flow, or null if it ended
+	 */
+	public FluidFlow getFlow(int id) {
+		return fluid == null ? null : fluid.get(id);
+	}
+
+	/**
+	 * Returns all the links of the simulation, not only those of this node. It
+	 * is meant for control algorithms that compute routes with a global view of
+	 * the network instead of running a routing protocol; the links must not be
+	 * modified.
+	 * 
+	 * @return the links of the simulation
+	 */
+	public Link[] getAllLinks() {
+		return allLinks;
+	}
+
+	/**
+	 * Returns an object shared by all the nodes of the simulation, created by
+	 * the first node asking for it. It is meant for the caches of algorithms,
+	 * such as centrally computed routes, which live as long as the simulation
+	 * and are not seen by other simulations running in the same JVM. Nodes may
+	 * be initialised in parallel, so the object must be thread safe if they
+	 * modify it.
+	 * 
+	 * @param <T>    the type of the object
+	 * @param key    its name, e.g. the name of the class using it
+	 * @param create creates it from its name
+	 * @return the object
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getShared(String key, Function<String, ? extends T> create) {
+		return (T) shared.computeIfAbsent(key, create);
+	}
+
+	/**
+	 * Registers an action run when the simulation ends, to free what an
+	 * algorithm holds beyond the simulation, such as threads; the actions of a
+	 * node run once, in the order they were registered
+	 * 
+	 * @param action the action
+	 */
+	public void atEnd(Runnable action) {
+		endActions.add(action);
+	}
+
+	/**
+	 * Runs the end actions of the node, called by the simulator when the
+	 * simulation ends
+	 */
+	void end() {
+		List<Runnable> actions = endActions;
+		endActions = new ArrayList<>();
+		for (Runnable action : actions)
+			action.run();
+	}
+
 	/**
 	 * Returns the interface state for the specified interface - is it up or down?
 	 * 
@@ -484,6 +988,36 @@ public class Node {
 	}
 	
 	
+	/***************************************************************************
+	 * 
+	 * Auxiliary methods for profiling upcalls
+	 * 
+	 ***************************************************************************/
+
+	/**
+	 * Returns the start time of an upcall if profiling is on
+	 * 
+	 * @return System.nanoTime() or 0 if profiling is off
+	 */
+	private long upcall_start() {
+		return profiler == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Accounts the end of an upcall if profiling is on
+	 * 
+	 * @param classId the profiling id of the algorithm class
+	 * @param upcall  the upcall
+	 * @param t0      the start time of the upcall
+	 * @return System.nanoTime() or 0 if profiling is off
+	 */
+	private long upcall_end(int classId, int upcall, long t0) {
+		if (profiler == null)
+			return 0;
+		profiler.upcall(classId, upcall, t0);
+		return System.nanoTime();
+	}
+
 	/***************************************************************************
 	 * 
 	 * Auxiliary method for impossible to proceed situations
@@ -491,23 +1025,21 @@ public class Node {
 	 ***************************************************************************/
 
 	/**
-	 * Aborts the execution in a situation of panic
+	 * Aborts the simulation in a situation of panic
 	 * 
-	 * @param message to be printed before Simulator panic abortion
+	 * @param message the message of the SimulatorException thrown
 	 */
 	private void panic (String message) {
-		System.err.println("system panic situation: "+message);
-		System.exit(-1);
+		throw new SimulatorException("system panic situation: "+message);
 	}
 	
 	/**
-	 * Aborts the execution in a situation of panic
+	 * Aborts the simulation in a situation of panic
 	 * 
-	 * @param message to be printed before Simulator panic abortion
+	 * @param message the message of the SimulatorException thrown
 	 */
 	private void down_call_panic (String message) {
-		System.err.println("down call bad usage panic situation: "+message);
-		System.exit(-1);
+		throw new SimulatorException("down call bad usage panic situation: "+message);
 	}
 
 }
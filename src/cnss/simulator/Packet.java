@@ -14,26 +14,33 @@ public class Packet {
 	/**
 	 * The size of a Packet with no payload - similar to IP
 	 */
-	public static int HEADERSIZE = 20;
+	public static final int HEADERSIZE = 20;
 	/**
 	 * The size of a Packet with no payload - similar to IP
 	 */
-	public static int INITIALTTL = 32;
+	public static final int INITIALTTL = 32;
 	
 	/**
 	 * A packet with destination ONEHOP is directed to the first node that receives it
 	 */
-	public static int ONEHOP = 10000;
+	public static final int ONEHOP = 10000;
 	
 	/**
 	 * A packet with destination BROADCAST is directed to all nodes
 	 */
-	public static int BROADCAST = 11111;
+	public static final int BROADCAST = 11111;
+
+	/**
+	 * Destinations from MULTICAST down are multicast group addresses; packets
+	 * sent to them are delivered by the node kernel to the members of the group.
+	 * They are negative, so they never clash with the ids of the nodes.
+	 */
+	public static final int MULTICAST = -2;
 
 	/**
 	 * The unknown address.
 	 */
-	public static int UNKNOWNADDR = -1;
+	public static final int UNKNOWNADDR = -1;
 
 	protected int src;
 	protected int dst;
@@ -41,7 +48,16 @@ public class Packet {
 	protected int seq;
 	protected int size; // size of the packet including payload size
 	protected byte[] payload;
+	protected int virtualLength = -1; // the declared payload length, -1 if it is the length of the payload
 	protected PacketType type;
+	protected int trafficClass = -1; // the class used by link schedulers, -1 if given by the type
+	// time stamps set by the kernel; -1 means not yet stamped
+	protected int creationTime = -1; // when created by a node
+	protected int enqueueTime = -1;  // when enqueued in the last link crossed
+	protected int txStartTime = -1;  // when its transmission started in that link
+	// set by the kernel when the packet is shared by the receivers of a multicast
+	boolean shared = false;
+	MulticastGroups.Tree tree = null; // its distribution tree, null if not yet known
 
 	/**
 	 * <code>Packet</code> constructor for the super class. This defaults to setting
@@ -73,6 +89,9 @@ public class Packet {
 		copy.setType(type);
 		copy.setTtl(ttl);
 		copy.setSequenceNumber(seq);
+		copy.setTrafficClass(trafficClass);
+		copy.setVirtualPayloadLength(virtualLength);
+		copy.copyTimeStamps(this);
 		// copy.setPayload(copypl) would be useless
 		// copy.setSize(this.getSize()) would be useless
 		return copy;
@@ -93,6 +112,7 @@ public class Packet {
 	 * @param s the source address
 	 */
 	public void setSource(int s) {
+		check_not_shared();
 		src = s;
 	}
 
@@ -111,6 +131,7 @@ public class Packet {
 	 * @param t packet type
 	 */
 	public void setType(PacketType t) {
+		check_not_shared();
 		type = t;
 	}
 
@@ -129,6 +150,7 @@ public class Packet {
 	 * @param s the size of the packet
 	 */
 	public void setSize(int s) {
+		check_not_shared();
 		size = s;
 	}
 
@@ -147,6 +169,7 @@ public class Packet {
 	 * @param d the new destination address
 	 */
 	public void setDestination(int d) {
+		check_not_shared();
 		dst = d;
 	}
 
@@ -156,6 +179,7 @@ public class Packet {
 	 * @param s sequence number
 	 */
 	public void setSequenceNumber(int s) {
+		check_not_shared();
 		seq = s;
 	}
 
@@ -168,6 +192,125 @@ public class Packet {
 		return seq;
 	}
 
+	/**
+	 * Gets the traffic class of the packet, used by the egress schedulers of
+	 * links to choose its queue.
+	 * 
+	 * @return the traffic class, or -1 if the class is given by the packet type
+	 */
+	public int getTrafficClass() {
+		return trafficClass;
+	}
+
+	/**
+	 * Sets the traffic class of the packet; class 0 has the highest priority.
+	 * 
+	 * @param c the traffic class, or -1 to let the packet type define it
+	 */
+	public void setTrafficClass(int c) {
+		check_not_shared();
+		trafficClass = c;
+	}
+
+	/**
+	 * Gets the time when the packet was created by a node kernel.
+	 * 
+	 * @return the creation time or -1 if it was not created by a node kernel
+	 */
+	public int getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * Gets the time when the packet was enqueued in the last link it crossed.
+	 * A shared packet crosses several links at once and is not stamped.
+	 * 
+	 * @return the enqueue time or -1 if it was not yet sent, or is shared
+	 */
+	public int getEnqueueTime() {
+		return enqueueTime;
+	}
+
+	/**
+	 * Gets the time when the transmission of the packet started in the last
+	 * link it crossed. A shared packet crosses several links at once and is not
+	 * stamped.
+	 * 
+	 * @return the transmission start time or -1 if it was not yet transmitted,
+	 *         or is shared
+	 */
+	public int getTxStartTime() {
+		return txStartTime;
+	}
+
+	/**
+	 * Sets the creation time stamp; only used by the kernel.
+	 * 
+	 * @param t the creation time
+	 */
+	void setCreationTime(int t) {
+		creationTime = t;
+	}
+
+	/**
+	 * Sets the link enqueue time stamp; only used by the kernel.
+	 * 
+	 * @param t the enqueue time
+	 */
+	void setEnqueueTime(int t) {
+		check_not_shared();
+		enqueueTime = t;
+	}
+
+	/**
+	 * Sets the transmission start time stamp; only used by the kernel.
+	 * 
+	 * @param t the transmission start time
+	 */
+	void setTxStartTime(int t) {
+		check_not_shared();
+		txStartTime = t;
+	}
+
+	/**
+	 * Copies the time stamps of another packet to this one.
+	 * 
+	 * @param p the other packet
+	 */
+	void copyTimeStamps(Packet p) {
+		creationTime = p.creationTime;
+		enqueueTime = p.enqueueTime;
+		txStartTime = p.txStartTime;
+	}
+
+	/**
+	 * Tells whether an address is a multicast group address
+	 * 
+	 * @param address the address
+	 * @return true if it is a multicast group address
+	 */
+	public static boolean isMulticast(int address) {
+		return address <= MULTICAST;
+	}
+
+	/**
+	 * Tells whether this packet is shared by several receivers, which is the
+	 * case of the packets delivered by the kernel to multicast groups. A shared
+	 * packet is read only: it cannot be modified, getPayload returns a copy of
+	 * its payload and it is not stamped with the times of each link it crosses;
+	 * getCopy returns a packet that can be modified.
+	 * 
+	 * @return true if the packet is shared
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+
+	private void check_not_shared() {
+		if (shared)
+			throw new SimulatorException("a packet shared by several receivers cannot be modified: " + this);
+	}
+
 	/**
 	 * Simple to string method.
 	 * 
@@ -188,23 +331,60 @@ public class Packet {
 	 * @param d the packets payload
 	 */
 	public void setPayload(byte[] d) {
+		check_not_shared();
 		payload = d;
-		size = HEADERSIZE + payload.length;
+		size = HEADERSIZE + getPayloadLength();
 	}
 
 	/**
-	 * Gets the Payload of the packet.
+	 * Gets the Payload of the packet; a copy of it if the packet is shared.
 	 * 
 	 * @return Payload the packets's payload.
 	 */
 	public byte[] getPayload() {
-		return payload;
+		return shared ? payload.clone() : payload;
+	}
+
+	/**
+	 * Declares the length of the payload, counted in the size of the packet
+	 * instead of the number of bytes it carries; a packet can thus stand for a
+	 * large one, and be transmitted by links as such, while carrying only a few
+	 * bytes, e.g. those of a header.
+	 * 
+	 * @param n the declared length, or -1 to count the bytes of the payload
+	 */
+	public void setVirtualPayloadLength(int n) {
+		check_not_shared();
+		if (n < -1)
+			throw new SimulatorException("setVirtualPayloadLength: negative length " + n);
+		virtualLength = n;
+		size = HEADERSIZE + getPayloadLength();
+	}
+
+	/**
+	 * Gets the declared length of the payload
+	 * 
+	 * @return the length, or -1 if the bytes of the payload are counted
+	 */
+	public int getVirtualPayloadLength() {
+		return virtualLength;
+	}
+
+	/**
+	 * Gets the length of the payload counted in the size of the packet: the
+	 * declared length, if any, or the number of bytes of the payload
+	 * 
+	 * @return the length
+	 */
+	public int getPayloadLength() {
+		return virtualLength >= 0 ? virtualLength : payload.length;
 	}
 
 	/**
 	 * Reduces the ttl by 1.
 	 */
 	public void decrementTtl() {
+		check_not_shared();
 		ttl--;
 	}
 
@@ -223,6 +403,7 @@ public class Packet {
 	 * @param int ttl to set
 	 */
 	public void setTtl(int ttl) {
+		check_not_shared();
 		this.ttl = ttl;
 	}
 
@@ -233,21 +414,22 @@ public class Packet {
 	 * @return p as a DataPacket
 	 */
 	public DataPacket toDataPacket() {
-	    if ( type != PacketType.DATA ) {
-	    	System.err.println("toDataPacket: not a DataPacket");
-	    	System.exit(-1);
-	    }
+	    if ( type != PacketType.DATA )
+	    	throw new SimulatorException("toDataPacket: not a DataPacket");
 	    // a brute force copy
         byte[] pl = new byte[this.payload.length];
 	    System.arraycopy(this.payload, 0, pl, 0, pl.length);
 	    DataPacket copy = new DataPacket(this.src, this.dst, pl);
 	    copy.setSource(this.src);
 	    copy.setDestination(this.dst);
+	    copy.setVirtualPayloadLength(this.virtualLength);
 	    copy.setPayload(pl);
 	    copy.setTtl(this.ttl);
 	    copy.setSequenceNumber(this.seq);
 	    copy.setSize(this.size);
 	    copy.setType(PacketType.DATA);
+	    copy.setTrafficClass(this.trafficClass);
+	    copy.copyTimeStamps(this);
 	    return copy;   
 	    
 	}
@@ -0,0 +1,296 @@
+package cnss.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * The <code>ParallelStartup</code> class runs a task on each node, e.g. its
+ * construction or its initialisation, on several threads, with the result of
+ * running them one after the other: the nodes are split in chunks of
+ * consecutive nodes, each one run by one thread in order, and the output the
+ * nodes print while a chunk runs is kept in a buffer of the chunk. The buffers
+ * are then printed in the order of the chunks and, if a task throws an
+ * exception, the output up to it is printed and the exception of the first
+ * node in order is thrown again. Chunks are run in batches, so that the
+ * buffers of a batch are all that is kept in memory.
+ *
+ * The nodes must print to the stream given by <code>getOutput</code>, which
+ * sends what is printed by a thread running a chunk to its buffer, and
+ * anything else to the output of the simulation.
+ */
+class ParallelStartup {
+
+	private static final int MAX_CHUNK = 1024; // nodes
+	private static final int CHUNKS_PER_THREAD = 4; // per batch, for a fair share of the uneven chunks
+
+	private final int threads;
+	private final PrintStream out;
+	private final Output router;
+
+	/**
+	 * <code>ParallelStartup</code> constructor
+	 *
+	 * @param threads the number of threads
+	 * @param out     the output of the simulation
+	 */
+	ParallelStartup(int threads, PrintStream out) {
+		this.threads = threads;
+		this.out = out;
+		router = new Output(out);
+	}
+
+	/**
+	 * Returns the stream the nodes print to, which sends the output of each
+	 * chunk to its buffer; after the startup it is the output of the simulation
+	 *
+	 * @return the stream
+	 */
+	PrintStream getOutput() {
+		return router;
+	}
+
+	/**
+	 * Runs a task on the nodes 0 .. n-1, as if run in that order
+	 *
+	 * @param n    the number of nodes
+	 * @param task the task, given the index of a node
+	 * @throws RuntimeException the first one, in order, thrown by the task
+	 */
+	void run(int n, IntConsumer task) {
+		int chunk = (int) Math.max(1, Math.min(MAX_CHUNK, (long) n / (threads * CHUNKS_PER_THREAD)));
+		int batch = threads * CHUNKS_PER_THREAD;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (int from = 0; from < n; from += batch * chunk) {
+				List<Chunk> chunks = new ArrayList<>();
+				for (int i = from; i < n && i < from + batch * chunk; i += chunk)
+					chunks.add(new Chunk(i, Math.min(n, i + chunk), task, router));
+				List<Callable<Void>> calls = new ArrayList<>(chunks);
+				for (Future<Void> f : pool.invokeAll(calls))
+					f.get();
+				for (Chunk c : chunks) {
+					c.buffer.flush();
+					out.write(c.bytes.toByteArray(), 0, c.bytes.size());
+					if (c.failure != null) {
+						out.flush();
+						throw c.failure;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimulatorException("startup interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new SimulatorException("startup: " + e.getCause(), e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Consecutive nodes run by one thread
+	 */
+	private static final class Chunk implements Callable<Void> {
+		final int from;
+		final int to;
+		final IntConsumer task;
+		final Output router;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final PrintStream buffer = new PrintStream(bytes);
+		volatile boolean done = false;
+		RuntimeException failure = null;
+
+		Chunk(int from, int to, IntConsumer task, Output router) {
+			this.from = from;
+			this.to = to;
+			this.task = task;
+			this.router = router;
+		}
+
+		public Void call() {
+			router.current.set(this);
+			try {
+				for (int i = from; i < to; i++)
+					task.accept(i);
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				done = true;
+				router.current.remove();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A stream that prints to the buffer of the chunk run by the current
+	 * thread, or else to the output of the simulation. The threads started by
+	 * a node while its chunk runs print to the buffer of the chunk until it
+	 * ends, so they must hand off with the thread of the chunk, never print at
+	 * the same time. Its methods are not synchronized on the stream, as each
+	 * thread prints to its own buffer.
+	 */
+	private static final class Output extends PrintStream {
+
+		private final PrintStream out;
+		private final ThreadLocal<Chunk> current = new InheritableThreadLocal<>();
+
+		Output(PrintStream out) {
+			super(out);
+			this.out = out;
+		}
+
+		private PrintStream target() {
+			Chunk c = current.get();
+			return c == null || c.done ? out : c.buffer;
+		}
+
+		public void write(int b) {
+			target().write(b);
+		}
+
+		public void write(byte[] buf, int off, int len) {
+			target().write(buf, off, len);
+		}
+
+		public void write(byte[] buf) throws IOException {
+			target().write(buf);
+		}
+
+		public void flush() {
+			target().flush();
+		}
+
+		public void close() {
+			target().close();
+		}
+
+		public boolean checkError() {
+			return target().checkError();
+		}
+
+		public void print(boolean b) {
+			target().print(b);
+		}
+
+		public void print(char c) {
+			target().print(c);
+		}
+
+		public void print(int i) {
+			target().print(i);
+		}
+
+		public void print(long l) {
+			target().print(l);
+		}
+
+		public void print(float f) {
+			target().print(f);
+		}
+
+		public void print(double d) {
+			target().print(d);
+		}
+
+		public void print(char[] s) {
+			target().print(s);
+		}
+
+		public void print(String s) {
+			target().print(s);
+		}
+
+		public void print(Object obj) {
+			target().print(obj);
+		}
+
+		public void println() {
+			target().println();
+		}
+
+		public void println(boolean x) {
+			target().println(x);
+		}
+
+		public void println(char x) {
+			target().println(x);
+		}
+
+		public void println(int x) {
+			target().println(x);
+		}
+
+		public void println(long x) {
+			target().println(x);
+		}
+
+		public void println(float x) {
+			target().println(x);
+		}
+
+		public void println(double x) {
+			target().println(x);
+		}
+
+		public void println(char[] x) {
+			target().println(x);
+		}
+
+		public void println(String x) {
+			target().println(x);
+		}
+
+		public void println(Object x) {
+			target().println(x);
+		}
+
+		public PrintStream printf(String format, Object... args) {
+			target().printf(format, args);
+			return this;
+		}
+
+		public PrintStream printf(Locale l, String format, Object... args) {
+			target().printf(l, format, args);
+			return this;
+		}
+
+		public PrintStream format(String format, Object... args) {
+			target().format(format, args);
+			return this;
+		}
+
+		public PrintStream format(Locale l, String format, Object... args) {
+			target().format(l, format, args);
+			return this;
+		}
+
+		public PrintStream append(CharSequence csq) {
+			target().append(csq);
+			return this;
+		}
+
+		public PrintStream append(CharSequence csq, int start, int end) {
+			target().append(csq, start, end);
+			return this;
+		}
+
+		public PrintStream append(char c) {
+			target().append(c);
+			return this;
+		}
+	}
+
+}
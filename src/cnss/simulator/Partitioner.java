@@ -0,0 +1,638 @@
+package cnss.simulator;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The <code>Partitioner</code> class splits the nodes of a network in
+ * partitions of about the same weight, cutting links of the smallest total
+ * weight, for the engines that run the nodes of a simulation on several
+ * threads. It uses a multilevel heuristic in the spirit of METIS: the graph is
+ * coarsened by merging the nodes joined by the heaviest links, the coarsest
+ * graph is split in blocks of a breadth first order and the partition is
+ * refined, level by level, by moving the nodes of its boundary to the
+ * partition they are most connected to.
+ *
+ * The weight of a link, the cost of cutting it, grows with its expected
+ * traffic and shrinks with its latency, as the partitions of its nodes must
+ * synchronise more often when its latency is small. The weight of a node, its
+ * share of the work, grows with its degree and the traffic of its links. By
+ * default the expected traffic of a link is its bandwidth, relative to the
+ * smallest one, in a logarithmic scale; it may be given instead by
+ * <code>setLinkTraffic</code>. Links with errors or jitter are never cut:
+ * their two directions draw from one random generator.
+ *
+ * It may also be started with
+ * <code>java cnss.simulator.Partitioner [-p partitions] [-o file] config_file</code>,
+ * which prints the statistics of the partition and writes to the file the
+ * partition and the locality number of each node.
+ */
+public class Partitioner {
+
+	private static final int SCALE = 64; // the weight of a link with traffic 1 and latency 0
+
+	/**
+	 * A graph of one level: adjacency lists in compressed form, with the
+	 * weights of the vertices and edges, and the vertex of the next (coarser)
+	 * level each vertex is merged into
+	 */
+	private static final class Graph {
+		final int n;
+		final int[] first;
+		final int[] adj;
+		final long[] ew;
+		final long[] vw;
+		int[] coarse;
+
+		Graph(int n, int[] first, int[] adj, long[] ew, long[] vw) {
+			this.n = n;
+			this.first = first;
+			this.adj = adj;
+			this.ew = ew;
+			this.vw = vw;
+		}
+	}
+
+	private final Node[] nodes;
+	private final Link[] links;
+	private double[] traffic; // expected traffic of each link
+	private double imbalance = 1.05;
+	private long seed = 1;
+
+	/**
+	 * <code>Partitioner</code> constructor
+	 *
+	 * @param sim the loaded simulation
+	 */
+	public Partitioner(Simulator sim) {
+		nodes = sim.getNodes();
+		links = sim.getLinks();
+		long min = Long.MAX_VALUE;
+		for (Link l : links)
+			min = Math.min(min, Math.max(1, l.getBandWidth()));
+		traffic = new double[links.length];
+		for (int j = 0; j < links.length; j++)
+			traffic[j] = 1 + Math.log(Math.max(1, links[j].getBandWidth()) / (double) min) / Math.log(2);
+	}
+
+	/**
+	 * Sets the expected traffic of each link, in any unit
+	 *
+	 * @param t the traffic, indexed as the links of the simulation
+	 */
+	public void setLinkTraffic(double[] t) {
+		if (t.length != links.length)
+			throw new IllegalArgumentException("partitioner: one traffic value per link expected");
+		traffic = t.clone();
+	}
+
+	/**
+	 * Sets the largest weight of a partition, relative to the mean one
+	 *
+	 * @param f the factor, at least 1 (default 1.05)
+	 */
+	public void setImbalance(double f) {
+		if (f < 1)
+			throw new IllegalArgumentException("partitioner: imbalance must be at least 1: " + f);
+		imbalance = f;
+	}
+
+	/**
+	 * Sets the seed of the random visit orders
+	 *
+	 * @param s the seed
+	 */
+	public void setSeed(long s) {
+		seed = s;
+	}
+
+	private static boolean is_random(Link l) {
+		return l.getErrors() > 0.0001 || l.getJitter() > 0.0001;
+	}
+
+	/**
+	 * Returns the weight of a link, the cost of cutting it
+	 */
+	private long link_weight(int j) {
+		return Math.max(1, Math.round(SCALE * traffic[j] / (1 + links[j].getLatency())));
+	}
+
+	/**
+	 * Splits the nodes in partitions
+	 *
+	 * @param k the number of partitions
+	 * @return the partition, from 0 to k-1, of each node
+	 */
+	public int[] partition(int k) {
+		int n = nodes.length;
+		if (k < 1)
+			throw new IllegalArgumentException("partitioner: the number of partitions must be positive: " + k);
+		if (k == 1 || n <= 1)
+			return new int[n];
+		// the nodes of random links are merged before anything else
+		int[] root = new int[n];
+		for (int u = 0; u < n; u++)
+			root[u] = u;
+		for (Link l : links) {
+			if (is_random(l)) {
+				int a = find(root, l.getNode(1));
+				int b = find(root, l.getNode(2));
+				root[Math.max(a, b)] = Math.min(a, b);
+			}
+		}
+		int[] group = new int[n];
+		int groups = 0;
+		for (int u = 0; u < n; u++)
+			group[u] = find(root, u) == u ? groups++ : -1;
+		for (int u = 0; u < n; u++)
+			group[u] = group[find(root, u)];
+		long[] vw = new long[groups];
+		for (int u = 0; u < n; u++)
+			vw[group[u]] += 4;
+		int[] ends = new int[2 * links.length];
+		long[] w = new long[links.length];
+		for (int j = 0; j < links.length; j++) {
+			ends[2 * j] = group[links[j].getNode(1)];
+			ends[2 * j + 1] = group[links[j].getNode(2)];
+			w[j] = link_weight(j);
+			long work = Math.round(4 * traffic[j]);
+			vw[ends[2 * j]] += work;
+			vw[ends[2 * j + 1]] += work;
+		}
+		Graph g = build(groups, ends, w, vw);
+		int[] part = multilevel(g, Math.min(k, groups));
+		// the partitions left empty by the refinement are dropped
+		int[] id = new int[k];
+		Arrays.fill(id, -1);
+		int used = 0;
+		int[] result = new int[n];
+		for (int u = 0; u < n; u++) {
+			int p = part[group[u]];
+			if (id[p] < 0)
+				id[p] = used++;
+			result[u] = id[p];
+		}
+		return result;
+	}
+
+	private static int find(int[] root, int u) {
+		while (root[u] != u) {
+			root[u] = root[root[u]];
+			u = root[u];
+		}
+		return u;
+	}
+
+	/**
+	 * Builds a graph from a list of edges, merging parallel edges and dropping
+	 * loops
+	 */
+	private static Graph build(int n, int[] ends, long[] w, long[] vw) {
+		int[] first = new int[n + 1];
+		for (int e = 0; e < w.length; e++) {
+			if (ends[2 * e] != ends[2 * e + 1]) {
+				first[ends[2 * e] + 1]++;
+				first[ends[2 * e + 1] + 1]++;
+			}
+		}
+		for (int u = 0; u < n; u++)
+			first[u + 1] += first[u];
+		int[] adj = new int[first[n]];
+		long[] ew = new long[first[n]];
+		int[] fill = Arrays.copyOf(first, n);
+		for (int e = 0; e < w.length; e++) {
+			int a = ends[2 * e];
+			int b = ends[2 * e + 1];
+			if (a == b)
+				continue;
+			adj[fill[a]] = b;
+			ew[fill[a]++] = w[e];
+			adj[fill[b]] = a;
+			ew[fill[b]++] = w[e];
+		}
+		return compact(n, first, adj, ew, vw);
+	}
+
+	/**
+	 * Merges the parallel edges of adjacency lists
+	 */
+	private static Graph compact(int n, int[] first, int[] adj, long[] ew, long[] vw) {
+		int[] slot = new int[n];
+		Arrays.fill(slot, -1);
+		int[] nfirst = new int[n + 1];
+		int m = 0;
+		for (int u = 0; u < n; u++) {
+			int start = m;
+			for (int e = first[u]; e < first[u + 1]; e++) {
+				int v = adj[e];
+				if (slot[v] >= start) {
+					ew[slot[v]] += ew[e];
+				} else {
+					slot[v] = m;
+					adj[m] = v;
+					ew[m++] = ew[e];
+				}
+			}
+			nfirst[u + 1] = m;
+		}
+		return new Graph(n, nfirst, Arrays.copyOf(adj, m), Arrays.copyOf(ew, m), vw);
+	}
+
+	/**
+	 * Partitions a graph: coarsening, initial partition and refinement during
+	 * the uncoarsening
+	 */
+	private int[] multilevel(Graph g, int k) {
+		Random random = new Random(seed);
+		long total = 0;
+		for (long x : g.vw)
+			total += x;
+		long maxPart = (long) Math.ceil(imbalance * total / k);
+		// coarsen while the graph shrinks and is much larger than k
+		Graph[] levels = new Graph[64];
+		int depth = 0;
+		levels[0] = g;
+		while (levels[depth].n > 20 * k && depth < levels.length - 1) {
+			Graph c = coarsen(levels[depth], maxPart / 2, random);
+			if (c.n > levels[depth].n * 0.95)
+				break;
+			levels[++depth] = c;
+		}
+		// initial partitions from a few starts, the best one is kept
+		Graph coarsest = levels[depth];
+		int[] best = null;
+		long bestCut = Long.MAX_VALUE;
+		for (int attempt = 0; attempt < 4; attempt++) {
+			int[] part = grow(coarsest, k, random.nextInt(coarsest.n), total);
+			refine(coarsest, part, k, maxPart, random);
+			long cut = cut(coarsest, part);
+			if (cut < bestCut) {
+				bestCut = cut;
+				best = part;
+			}
+		}
+		// project and refine
+		int[] part = best;
+		for (int d = depth - 1; d >= 0; d--) {
+			Graph f = levels[d];
+			int[] fine = new int[f.n];
+			for (int u = 0; u < f.n; u++)
+				fine[u] = part[f.coarse[u]];
+			refine(f, fine, k, maxPart, random);
+			part = fine;
+		}
+		return part;
+	}
+
+	/**
+	 * Merges each vertex with its unmatched neighbour joined by the heaviest
+	 * edge, as long as their weight does not exceed maxWeight
+	 */
+	private static Graph coarsen(Graph g, long maxWeight, Random random) {
+		int[] order = permutation(g.n, random);
+		int[] match = new int[g.n];
+		Arrays.fill(match, -1);
+		g.coarse = new int[g.n];
+		int cn = 0;
+		for (int v : order) {
+			if (match[v] >= 0)
+				continue;
+			int best = v;
+			long bestW = -1;
+			for (int e = g.first[v]; e < g.first[v + 1]; e++) {
+				int u = g.adj[e];
+				if (match[u] < 0 && g.ew[e] > bestW && g.vw[u] + g.vw[v] <= maxWeight) {
+					best = u;
+					bestW = g.ew[e];
+				}
+			}
+			match[v] = best;
+			match[best] = v;
+			g.coarse[v] = cn;
+			g.coarse[best] = cn;
+			cn++;
+		}
+		long[] vw = new long[cn];
+		for (int v = 0; v < g.n; v++)
+			vw[g.coarse[v]] += g.vw[v];
+		// the edges of the merged vertices, grouped by coarse vertex
+		int[] first = new int[cn + 1];
+		for (int v = 0; v < g.n; v++)
+			first[g.coarse[v] + 1] += g.first[v + 1] - g.first[v];
+		for (int c = 0; c < cn; c++)
+			first[c + 1] += first[c];
+		int[] adj = new int[g.adj.length];
+		long[] ew = new long[g.adj.length];
+		int[] fill = Arrays.copyOf(first, cn);
+		for (int v = 0; v < g.n; v++) {
+			int c = g.coarse[v];
+			for (int e = g.first[v]; e < g.first[v + 1]; e++) {
+				int d = g.coarse[g.adj[e]];
+				if (d == c)
+					continue;
+				adj[fill[c]] = d;
+				ew[fill[c]++] = g.ew[e];
+			}
+		}
+		// drop the slots of the internal edges before merging the parallel ones
+		int m = 0;
+		int[] nfirst = new int[cn + 1];
+		for (int c = 0; c < cn; c++) {
+			for (int e = first[c]; e < fill[c]; e++) {
+				adj[m] = adj[e];
+				ew[m++] = ew[e];
+			}
+			nfirst[c + 1] = m;
+		}
+		return compact(cn, nfirst, adj, ew, vw);
+	}
+
+	private static int[] permutation(int n, Random random) {
+		int[] p = new int[n];
+		for (int i = 0; i < n; i++)
+			p[i] = i;
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = p[i];
+			p[i] = p[j];
+			p[j] = t;
+		}
+		return p;
+	}
+
+	/**
+	 * Splits a breadth first order of the graph, from a start vertex, in k
+	 * blocks of about the same weight
+	 */
+	private static int[] grow(Graph g, int k, int start, long total) {
+		int[] order = new int[g.n];
+		boolean[] seen = new boolean[g.n];
+		int head = 0;
+		int tail = 0;
+		for (int s = 0; s < g.n; s++) {
+			int r = (start + s) % g.n;
+			if (seen[r])
+				continue;
+			seen[r] = true;
+			order[tail++] = r;
+			while (head < tail) {
+				int v = order[head++];
+				for (int e = g.first[v]; e < g.first[v + 1]; e++) {
+					if (!seen[g.adj[e]]) {
+						seen[g.adj[e]] = true;
+						order[tail++] = g.adj[e];
+					}
+				}
+			}
+		}
+		int[] part = new int[g.n];
+		long sum = 0;
+		int p = 0;
+		for (int v : order) {
+			if (p < k - 1 && sum >= (p + 1) * total / k)
+				p++;
+			part[v] = p;
+			sum += g.vw[v];
+		}
+		return part;
+	}
+
+	/**
+	 * Moves the vertices of the boundary to the partition they are most
+	 * connected to, while the cut decreases and the partitions are not too
+	 * heavy; a vertex of a partition that is too heavy may also be moved with
+	 * a loss
+	 */
+	private static void refine(Graph g, int[] part, int k, long maxPart, Random random) {
+		long[] pw = new long[k];
+		for (int v = 0; v < g.n; v++)
+			pw[part[v]] += g.vw[v];
+		long[] conn = new long[k];
+		int[] touched = new int[k];
+		for (int pass = 0; pass < 8; pass++) {
+			int moves = 0;
+			for (int v : permutation(g.n, random)) {
+				int p = part[v];
+				int nt = 0;
+				boolean boundary = false;
+				for (int e = g.first[v]; e < g.first[v + 1]; e++) {
+					int q = part[g.adj[e]];
+					if (q != p)
+						boundary = true;
+					if (conn[q] == 0)
+						touched[nt++] = q;
+					conn[q] += g.ew[e];
+				}
+				boolean heavy = pw[p] > maxPart;
+				if (boundary || heavy) {
+					int best = -1;
+					long bestGain = Long.MIN_VALUE;
+					for (int i = 0; i < nt; i++) {
+						int q = touched[i];
+						if (q == p || pw[q] + g.vw[v] > maxPart)
+							continue;
+						long gain = conn[q] - conn[p];
+						if (gain > bestGain || (gain == bestGain && pw[q] < pw[best])) {
+							best = q;
+							bestGain = gain;
+						}
+					}
+					if (heavy && best < 0) {
+						// the lightest partition takes it
+						for (int q = 0; q < k; q++)
+							if (q != p && (best < 0 || pw[q] < pw[best]))
+								best = q;
+						bestGain = 0;
+						if (pw[best] + g.vw[v] > maxPart)
+							best = -1;
+					}
+					if (best >= 0 && (heavy || bestGain > 0 || (bestGain == 0 && pw[best] + g.vw[v] < pw[p]))) {
+						pw[p] -= g.vw[v];
+						pw[best] += g.vw[v];
+						part[v] = best;
+						moves++;
+					}
+				}
+				for (int i = 0; i < nt; i++)
+					conn[touched[i]] = 0;
+			}
+			if (moves == 0)
+				break;
+		}
+	}
+
+	private static long cut(Graph g, int[] part) {
+		long cut = 0;
+		for (int v = 0; v < g.n; v++)
+			for (int e = g.first[v]; e < g.first[v + 1]; e++)
+				if (part[g.adj[e]] != part[v])
+					cut += g.ew[e];
+		return cut / 2;
+	}
+
+	/**
+	 * Numbers the nodes so that the nodes of each partition are consecutive
+	 * and, in each partition, neighbours have close numbers: the nodes are
+	 * numbered in the breadth first order of the links inside their partition
+	 *
+	 * @param part the partition of each node
+	 * @return the new number of each node
+	 */
+	public int[] renumber(int[] part) {
+		int n = nodes.length;
+		int k = 0;
+		for (int p : part)
+			k = Math.max(k, p + 1);
+		// the links of each node, in the order of the configuration
+		int[] first = new int[n + 1];
+		for (Link l : links) {
+			first[l.getNode(1) + 1]++;
+			first[l.getNode(2) + 1]++;
+		}
+		for (int u = 0; u < n; u++)
+			first[u + 1] += first[u];
+		int[] adj = new int[first[n]];
+		int[] fill = Arrays.copyOf(first, n);
+		for (Link l : links) {
+			adj[fill[l.getNode(1)]++] = l.getNode(2);
+			adj[fill[l.getNode(2)]++] = l.getNode(1);
+		}
+		int[] number = new int[n];
+		Arrays.fill(number, -1);
+		int[] queue = new int[n];
+		int next = 0;
+		for (int p = 0; p < k; p++) {
+			for (int s = 0; s < n; s++) {
+				if (part[s] != p || number[s] >= 0)
+					continue;
+				int head = next;
+				number[s] = next;
+				queue[next++] = s;
+				while (head < next) {
+					int v = queue[head++];
+					for (int e = first[v]; e < first[v + 1]; e++) {
+						int u = adj[e];
+						if (part[u] == p && number[u] < 0) {
+							number[u] = next;
+							queue[next++] = u;
+						}
+					}
+				}
+			}
+		}
+		return number;
+	}
+
+	/**
+	 * Prints the statistics of a partition: for each partition, its nodes,
+	 * weight, internal and cut links and the smallest latency of its cut
+	 * links, which bounds how far it may run ahead of the others without
+	 * rolling back; then the totals
+	 *
+	 * @param out  where to print
+	 * @param part the partition of each node
+	 */
+	public void printStats(PrintStream out, int[] part) {
+		int k = 0;
+		for (int p : part)
+			k = Math.max(k, p + 1);
+		int[] count = new int[k];
+		long[] weight = new long[k];
+		int[] internal = new int[k];
+		int[] cut = new int[k];
+		int[] lookahead = new int[k];
+		int[] boundary = new int[k];
+		Arrays.fill(lookahead, Integer.MAX_VALUE);
+		for (int u = 0; u < part.length; u++) {
+			count[part[u]]++;
+			weight[part[u]] += 4;
+		}
+		boolean[] onBoundary = new boolean[part.length];
+		long cutWeight = 0;
+		long totalWeight = 0;
+		int cutLinks = 0;
+		for (int j = 0; j < links.length; j++) {
+			int a = links[j].getNode(1);
+			int b = links[j].getNode(2);
+			long work = Math.round(4 * traffic[j]);
+			weight[part[a]] += work;
+			weight[part[b]] += work;
+			totalWeight += link_weight(j);
+			if (part[a] == part[b]) {
+				internal[part[a]]++;
+				continue;
+			}
+			cutLinks++;
+			cutWeight += link_weight(j);
+			for (int u : new int[] { a, b }) {
+				cut[part[u]]++;
+				lookahead[part[u]] = Math.min(lookahead[part[u]], links[j].getLatency());
+				if (!onBoundary[u]) {
+					onBoundary[u] = true;
+					boundary[part[u]]++;
+				}
+			}
+		}
+		long sum = 0;
+		long max = 0;
+		for (int p = 0; p < k; p++) {
+			sum += weight[p];
+			max = Math.max(max, weight[p]);
+		}
+		double mean = k == 0 ? 0 : sum / (double) k;
+		out.println("\npartition of " + part.length + " nodes and " + links.length + " links in " + k + " partitions");
+		for (int p = 0; p < k; p++)
+			out.printf("   partition %d: %d nodes, weight %d (%.2f of the mean), %d internal links, %d cut links, %d boundary nodes, lookahead %s%n",
+					p, count[p], weight[p], mean == 0 ? 0 : weight[p] / mean, internal[p], cut[p], boundary[p],
+					lookahead[p] == Integer.MAX_VALUE ? "none" : lookahead[p] + " ms");
+		out.printf("   cut %d links (%.1f%%), %.1f%% of the link weight, imbalance %.2f%n", cutLinks,
+				links.length == 0 ? 0 : 100.0 * cutLinks / links.length,
+				totalWeight == 0 ? 0 : 100.0 * cutWeight / totalWeight, mean == 0 ? 0 : max / mean);
+	}
+
+	/**
+	 * main function called from the command line with the configuration file,
+	 * optionally preceded by -p and the number of partitions (default: the
+	 * number of processors) and by -o and the file where to write, for each
+	 * node, its id, partition and locality number
+	 *
+	 * @param args
+	 */
+	public static void main(String args[]) throws IOException {
+		int k = Runtime.getRuntime().availableProcessors();
+		String file = null;
+		int a = 0;
+		while (args.length - a > 2 && (args[a].equals("-p") || args[a].equals("-o"))) {
+			if (args[a].equals("-p"))
+				k = Integer.parseInt(args[a + 1]);
+			else
+				file = args[a + 1];
+			a += 2;
+		}
+		if (args.length != a + 1) {
+			System.out.println("Usage : java cnss.simulator.Partitioner [-p <partitions>] [-o <file>] <config file>");
+			System.exit(1);
+		}
+		try {
+			Simulator sim = new Simulator(args[a], new PrintStream(OutputStream.nullOutputStream()), System.err);
+			Partitioner partitioner = new Partitioner(sim);
+			int[] part = partitioner.partition(k);
+			partitioner.printStats(System.out, part);
+			if (file != null) {
+				int[] number = partitioner.renumber(part);
+				try (PrintStream out = new PrintStream(new FileOutputStream(file))) {
+					for (int u = 0; u < part.length; u++)
+						out.println(u + " " + part[u] + " " + number[u]);
+				}
+			}
+		} catch (SimulatorException | IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+	}
+
+}
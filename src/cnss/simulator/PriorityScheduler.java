@@ -0,0 +1,77 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * A strict priority scheduler: the packets of a class are only transmitted
+ * when no packet of a lower numbered class is queued; within a class, the
+ * order is FIFO. By default, control packets are in class 0 and data packets
+ * in class 1, so routing updates never wait behind data. A bit mask of the
+ * non empty classes makes both operations O(1); there are at most 32 classes.
+ */
+public class PriorityScheduler extends EgressScheduler {
+
+	private final ArrayDeque<Packet>[] queues;
+	private int nonEmpty = 0; // bit c is set if class c has packets
+
+	/**
+	 * <code>PriorityScheduler</code> constructor
+	 *
+	 * @param nclasses the number of classes, at most 32
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PriorityScheduler(int nclasses) {
+		super(nclasses);
+		if (nclasses > 32)
+			throw new SimulatorException("priority scheduler: at most 32 classes");
+		queues = new ArrayDeque[nclasses];
+		for (int c = 0; c < nclasses; c++)
+			queues[c] = new ArrayDeque<>();
+	}
+
+	/**
+	 * Constructor used when the scheduler is chosen by name; only the number of
+	 * weights matters
+	 *
+	 * @param weights the weights of the classes
+	 */
+	public PriorityScheduler(int[] weights) {
+		this(weights.length);
+	}
+
+	protected void enqueue(Packet p, int cls) {
+		queues[cls].add(p);
+		nonEmpty |= 1 << cls;
+	}
+
+	protected Packet dequeue() {
+		int c = Integer.numberOfTrailingZeros(nonEmpty);
+		Packet p = queues[c].poll();
+		if (queues[c].isEmpty())
+			nonEmpty &= ~(1 << c);
+		return p;
+	}
+
+	protected void saveQueues(DataOutputStream out) throws IOException {
+		for (ArrayDeque<Packet> q : queues) {
+			out.writeInt(q.size());
+			for (Packet p : q)
+				writePacket(out, p);
+		}
+	}
+
+	protected void restoreQueues(DataInputStream in) throws IOException {
+		nonEmpty = 0;
+		for (int c = 0; c < numClasses; c++) {
+			queues[c].clear();
+			for (int n = in.readInt(); n > 0; n--)
+				queues[c].add(readPacket(in));
+			if (!queues[c].isEmpty())
+				nonEmpty |= 1 << c;
+		}
+	}
+
+}
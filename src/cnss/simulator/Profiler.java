@@ -0,0 +1,209 @@
+package cnss.simulator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The <code>Profiler</code> class measures where the wall time of a simulation
+ * goes. It is only created if the global parameter <code>profile</code> is
+ * defined. It records the wall time spent by the <code>Simulator</code> main
+ * loop in each phase of the processing steps (global events processing, nodes
+ * processing and links transmission), the number of global events processed,
+ * and the cumulative time and number of calls of each upcall of each algorithm
+ * class.
+ *
+ * Upcall times are inclusive: the time of an application <code>on_receive</code>
+ * upcall includes the time of the <code>forward_packet</code> upcalls of the
+ * control algorithm triggered by the packets it sends.
+ *
+ * If the global parameter <code>profile_progress</code> is defined, a progress
+ * line is printed every <code>profile_progress</code> ms of wall time.
+ */
+public class Profiler {
+
+	// main loop phases
+	public static final int EVENTS = 0;
+	public static final int NODES = 1;
+	public static final int LINKS = 2;
+	static final String[] PHASE_NAMES = { "process_events", "nodes processing", "links transmission" };
+
+	// algorithms upcalls
+	public static final int INITIALISE = 0;
+	public static final int ON_CLOCK_TICK = 1;
+	public static final int ON_TIMEOUT = 2;
+	public static final int ON_RECEIVE = 3;
+	public static final int FORWARD_PACKET = 4;
+	public static final int ON_LINK_UP = 5;
+	public static final int ON_LINK_DOWN = 6;
+	public static final int ON_FLOW_END = 7;
+	static final int NUM_UPCALLS = 8;
+	static final String[] UPCALL_NAMES = { "initialise", "on_clock_tick", "on_timeout", "on_receive", "forward_packet", "on_link_up", "on_link_down",
+			"on_flow_end" };
+
+	private long[] phaseTime = new long[3];
+	private long events = 0;
+	private long steps = 0;
+
+	private List<String> classes = new ArrayList<>();
+	private long[] upcallTime = new long[0]; // index: class * NUM_UPCALLS + upcall
+	private long[] upcallCount = new long[0];
+
+	private long start;
+	private long progressPeriod = 0; // in ns
+	private long nextProgress;
+	private PrintStream out = System.out;
+
+	/**
+	 * <code>Profiler</code> constructor
+	 *
+	 * @param gp the global parameters
+	 */
+	public Profiler(GlobalParameters gp) {
+		if (gp.containsKey("profile_progress"))
+			progressPeriod = Long.parseLong(gp.get("profile_progress")) * 1000000L;
+		start = System.nanoTime();
+		nextProgress = start + progressPeriod;
+	}
+
+	/**
+	 * Sets the stream where the progress lines and the summary tables are printed
+	 *
+	 * @param out the stream
+	 */
+	void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Registers an algorithm class and returns its profiling id
+	 *
+	 * @param className the class name
+	 * @return the id to use in calls to <code>upcall</code>
+	 */
+	synchronized int register(String className) {
+		int id = classes.indexOf(className);
+		if (id >= 0)
+			return id;
+		classes.add(className);
+		long[] t = new long[classes.size() * NUM_UPCALLS];
+		long[] c = new long[classes.size() * NUM_UPCALLS];
+		System.arraycopy(upcallTime, 0, t, 0, upcallTime.length);
+		System.arraycopy(upcallCount, 0, c, 0, upcallCount.length);
+		upcallTime = t;
+		upcallCount = c;
+		return classes.size() - 1;
+	}
+
+	/**
+	 * Accounts the end of an upcall
+	 *
+	 * @param classId the profiling id of the algorithm class
+	 * @param upcall  the upcall
+	 * @param t0      the value of System.nanoTime() when the upcall started
+	 */
+	void upcall(int classId, int upcall, long t0) {
+		int i = classId * NUM_UPCALLS + upcall;
+		upcallTime[i] += System.nanoTime() - t0;
+		upcallCount[i]++;
+	}
+
+	/**
+	 * Accounts the end of a phase of a processing step
+	 *
+	 * @param phase EVENTS, NODES or LINKS
+	 * @param t0    the value of System.nanoTime() when the phase started
+	 * @return the current value of System.nanoTime()
+	 */
+	long phase(int phase, long t0) {
+		long t = System.nanoTime();
+		phaseTime[phase] += t - t0;
+		return t;
+	}
+
+	/**
+	 * Accounts one processed global event
+	 */
+	void event() {
+		events++;
+	}
+
+	/**
+	 * Accounts the end of a processing step and prints a progress line if due
+	 *
+	 * @param now the virtual clock of the processing step
+	 */
+	void step(int now) {
+		steps++;
+		if (progressPeriod > 0) {
+			long t = System.nanoTime();
+			if (t >= nextProgress) {
+				nextProgress = t + progressPeriod;
+				double wall = (t - start) / 1e9;
+				out.printf("profile: sim time %d ms wall time %.1f s sim/wall %.2f events/s %.0f%n", now, wall, now / 1000.0 / wall, events / wall);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of global events processed
+	 *
+	 * @return the number of events
+	 */
+	public long getEvents() {
+		return events;
+	}
+
+	/**
+	 * Returns the number of processing steps executed
+	 *
+	 * @return the number of steps
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the wall time spent in a phase of the processing steps
+	 *
+	 * @param phase EVENTS, NODES or LINKS
+	 * @return the time in ns
+	 */
+	public long getPhaseTime(int phase) {
+		return phaseTime[phase];
+	}
+
+	/**
+	 * Returns the wall time elapsed since the simulation started
+	 *
+	 * @return the time in ns
+	 */
+	public long getWallTime() {
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Prints the summary tables
+	 *
+	 * @param now the virtual clock of the last processing step
+	 */
+	public void report(int now) {
+		double wall = getWallTime() / 1e9;
+		out.printf("%nProfile: %d steps, %d events, sim time %d ms, wall time %.3f s, sim/wall %.2f, events/s %.0f%n", steps, events, now, wall,
+				now / 1000.0 / wall, events / wall);
+		out.printf("%-22s %12s %7s%n", "phase", "time (ms)", "%");
+		for (int p = 0; p < phaseTime.length; p++)
+			out.printf("%-22s %12.3f %7.2f%n", PHASE_NAMES[p], phaseTime[p] / 1e6, 100.0 * phaseTime[p] / 1e9 / wall);
+		out.printf("%n%-40s %-15s %12s %12s %10s%n", "algorithm class", "upcall", "calls", "time (ms)", "us/call");
+		for (int c = 0; c < classes.size(); c++) {
+			for (int u = 0; u < NUM_UPCALLS; u++) {
+				int i = c * NUM_UPCALLS + u;
+				if (upcallCount[i] == 0)
+					continue;
+				out.printf("%-40s %-15s %12d %12.3f %10.3f%n", classes.get(c), UPCALL_NAMES[u], upcallCount[i], upcallTime[i] / 1e6,
+						upcallTime[i] / 1e3 / upcallCount[i]);
+			}
+		}
+	}
+
+}
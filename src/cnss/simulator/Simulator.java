@@ -19,6 +19,11 @@ package cnss.simulator;
  *
  * This <code>main_loop</code> ends when there are no more global events to process
  * or the end of simulation time is reached.
+ *
+ * The state of a running simulation can be saved in a checkpoint file, at the
+ * end of a processing step, with the config command
+ * <code>checkpoint time file</code>; the simulation can then be resumed from
+ * that file with <code>java cnss.simulator.Simulator --restore file</code>.
  * 
  * TODO:
  * 
@@ -31,13 +36,23 @@ package cnss.simulator;
  * @version 1.0, September 2021                                                            
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import cnss.simulator.Event.EventType;
 
@@ -45,18 +60,34 @@ public class Simulator {
 	private String config_file;
 
 	private List<Node> tmp_nodes = new ArrayList<>();
+	private List<NodeDefinition> tmp_definitions = new ArrayList<>(); // nodes built when the simulation is wired
 	private List<Link> tmp_links = new ArrayList<>();
 	private Node[] nodes;
 	private Link[] links;
 	private GlobalParameters globalParameters = new GlobalParameters();
+	private Metrics metrics;
+	private Latencies latencies;
+	private MulticastGroups groups;
+	private FluidFlows fluid;
+	private Profiler profiler = null; // only created if the parameter profile is defined
+	private EventDigest digest = null; // only created if the parameter digest_file is defined
 
-	private SortedMap<Long, Event> events = new TreeMap<>();
+	private EventQueue events = new EventQueue();
 
-	private int nextEventId = 0; // allows the generation of global events UUIDs
+	private long nextEventId = 0; // allows the generation of global events UUIDs, below Event.DISPLACEMENT
+	private long processed_events = 0; // the number of global events processed
 //	private int packet_counter = 0; // allows the generation of tracing packets sequence numbers
 
 	private int stop_time = 600000;
 
+	private List<String> pending_checkpoints = new ArrayList<>(); // files to write at the end of this step
+	private int restored_time = -1; // clock of the checkpoint this simulation was restored from
+	private boolean started = false; // true once nodes are initialized or the simulation resumed
+	private int now = 0; // clock of the last processing step executed
+
+	private PrintStream out = System.out; // where the output of the simulation goes
+	private PrintStream err = System.err; // where warnings go
+
 	/**
 	 * <code>Simulator</code> constructor, loads the configuration given the config
 	 * file cf.
@@ -64,9 +95,60 @@ public class Simulator {
 	 * @param cf configuration file
 	 */
 	public Simulator(String cf) {
+		this(cf, System.out, System.err);
+	}
+
+	/**
+	 * <code>Simulator</code> constructor, loads the configuration given the config
+	 * file cf. All the output of the simulation, including the output of nodes
+	 * and their algorithms, goes to the given streams.
+	 * 
+	 * @param cf  configuration file
+	 * @param out where the output of the simulation goes
+	 * @param err where warnings go
+	 * @throws SimulatorException if the configuration is not valid
+	 */
+	public Simulator(String cf, PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
 		config_file = cf;
-		System.out.println("Loading configuration : " + config_file);
-		config(config_file);
+		out.println("Loading configuration : " + config_file);
+		try (BufferedReader input = new BufferedReader(new FileReader(cf))) {
+			config(input);
+		} catch (IOException e) {
+			throw new SimulatorException("cannot read configuration " + cf + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * <code>Simulator</code> constructor, loads the configuration from a reader,
+	 * e.g. a configuration generated in memory. All the output of the simulation
+	 * goes to the given streams.
+	 * 
+	 * @param name   the name of the configuration
+	 * @param config the configuration
+	 * @param out    where the output of the simulation goes
+	 * @param err    where warnings go
+	 * @throws SimulatorException if the configuration is not valid
+	 */
+	public Simulator(String name, Reader config, PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+		config_file = name;
+		out.println("Loading configuration : " + config_file);
+		try {
+			config(new BufferedReader(config));
+		} catch (IOException e) {
+			throw new SimulatorException("cannot read configuration " + name + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Constructor used by <code>restore</code> and <code>SimulatorBuilder</code>
+	 */
+	Simulator(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
 	}
 
 	/**
@@ -88,33 +170,41 @@ public class Simulator {
 	 * <code>config</code> loads the configuration file and configures the
 	 * simulator.
 	 * 
-	 * @param String    filename of the configuration file
-	 * @param Simulator s, reference to the simulator object
+	 * @param input the configuration file
+	 * @throws IOException if the file cannot be read
 	 */
-	private void config(String filename) {
-		System.out.println("Reading file");
-		try {
-			BufferedReader input = new BufferedReader(new FileReader(filename));
-
-			String str;
-			int i = 0;
-			while ((str = input.readLine()) != null) {
-				// System.err.println(i+" "+str);
+	private void config(BufferedReader input) throws IOException {
+		out.println("Reading file");
+		String str;
+		int i = 0;
+		while ((str = input.readLine()) != null) {
+			// System.err.println(i+" "+str);
+			try {
 				process_config_line(str);
-				i++;
+			} catch (SimulatorException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				throw new SimulatorException("config line - wrong config line:" + str + " (" + e + ")", e);
 			}
-
-			input.close();
-		} catch (IOException e) {
-			System.err.println(e.getMessage());
+			i++;
 		}
+		wire();
+	}
 
+	/**
+	 * Builds the nodes and links vectors from the configured nodes and links,
+	 * connects them and creates the registries shared by all of them
+	 */
+	void wire() {
+		build_nodes();
 		// adding nodes and links to their vectors
 		nodes = new Node[tmp_nodes.size()];
 		links = new Link[tmp_links.size()];
 
 		// nodes have their own id
 		for (Node nd : tmp_nodes) {
+			if (nd.getId() < 0 || nd.getId() >= nodes.length || nodes[nd.getId()] != null)
+				throw new SimulatorException("config - node ids must be distinct and in 0.." + (nodes.length - 1) + ": " + nd.getId());
 			nodes[nd.getId()] = nd;
 		}
 
@@ -127,10 +217,201 @@ public class Simulator {
 
 		// adding to each node its links
 		for (int i = 0; i < links.length; i++) {
+			for (int side = 1; side <= 2; side++) {
+				int n = links[i].getNode(side);
+				if (n < 0 || n >= nodes.length || links[i].getInterface(side) < 0
+						|| links[i].getInterface(side) >= nodes[n].getNumInterfaces())
+					throw new SimulatorException("config - link to an unknown node or interface: " + links[i]);
+			}
 			nodes[links[i].getNode(1)].addLinks(links[i]);
 			nodes[links[i].getNode(2)].addLinks(links[i]);
 		}
 
+		// different seeds draw different link errors and jitter
+		if (globalParameters.containsKey("seed")) {
+			long seed = Long.parseLong(globalParameters.get("seed"));
+			for (int i = 0; i < links.length; i++)
+				links[i].setSeed(seed);
+		}
+
+		// all nodes and links count their packets in the same registry
+		metrics = new Metrics(nodes.length, links.length, globalParameters);
+		metrics.setErrorOutput(err);
+		latencies = new Latencies(links.length);
+		latencies.setOutput(out);
+		// delays are only recorded if asked for, as they cost every delivery and transmission
+		boolean delays = globalParameters.containsKey("latencies") || globalParameters.containsKey("latency_report");
+		groups = new MulticastGroups(nodes.length, links, globalParameters);
+		fluid = new FluidFlows(this, nodes.length, links, globalParameters);
+		Map<String, Object> shared = new ConcurrentHashMap<>(); // the caches of the algorithms, freed with the simulation
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].setMetrics(metrics);
+			nodes[i].setLatencies(delays ? latencies : null);
+			nodes[i].setAllLinks(links);
+			nodes[i].setMulticastGroups(groups);
+			nodes[i].setFluidFlows(fluid);
+			nodes[i].setShared(shared);
+		}
+		for (int i = 0; i < links.length; i++) {
+			links[i].setMetrics(metrics, i);
+			links[i].setLatencies(delays ? latencies : null);
+			for (int side = 1; side <= 2; side++)
+				links[i].setScheduler(side, EgressScheduler.create(globalParameters, links[i].getNode(side), links[i].getInterface(side)));
+		}
+		if (globalParameters.containsKey("profile")) {
+			profiler = new Profiler(globalParameters);
+			profiler.setOutput(out);
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i].setProfiler(profiler);
+			}
+		}
+
+	}
+
+	/**
+	 * Defines a global parameter
+	 * 
+	 * @param name  the name of the parameter
+	 * @param value its value
+	 */
+	void setParameter(String name, String value) {
+		globalParameters.put(name, value);
+		if (name.equalsIgnoreCase("stop"))
+			stop_time = Integer.parseInt(value);
+	}
+
+	/**
+	 * Defines a node, built when the simulation is wired
+	 * 
+	 * @param id      the node id
+	 * @param nint    the number of interfaces
+	 * @param control the class name of the control algorithm
+	 * @param app     the class name of the application algorithm
+	 * @param args    the arguments of the application algorithm
+	 */
+	void defineNode(int id, int nint, String control, String app, String[] args) {
+		tmp_definitions.add(new NodeDefinition(id, nint, control, app, args));
+	}
+
+	/**
+	 * A node of the configuration, not yet built
+	 */
+	private static final class NodeDefinition {
+		final int id;
+		final int nint;
+		final String control;
+		final String app;
+		final String[] args;
+
+		NodeDefinition(int id, int nint, String control, String app, String[] args) {
+			this.id = id;
+			this.nint = nint;
+			this.control = control;
+			this.app = app;
+			this.args = args;
+		}
+	}
+
+	/**
+	 * Builds the defined nodes, in the order of their definitions, on several
+	 * threads if the parameter <code>parallel_startup</code> is defined; their
+	 * output is printed in the same order
+	 */
+	private void build_nodes() {
+		Node[] built = new Node[tmp_definitions.size()];
+		ParallelStartup startup = parallel_startup();
+		if (startup == null) {
+			for (int i = 0; i < built.length; i++)
+				built[i] = build_node(tmp_definitions.get(i), out);
+		} else {
+			startup.run(built.length, i -> built[i] = build_node(tmp_definitions.get(i), startup.getOutput()));
+			for (Node nd : built)
+				nd.setOutput(out);
+		}
+		for (Node nd : built)
+			tmp_nodes.add(nd);
+		tmp_definitions.clear();
+	}
+
+	private Node build_node(NodeDefinition d, PrintStream output) {
+		return new Node(d.id, d.nint, d.control, d.app, d.args, globalParameters, output);
+	}
+
+	/**
+	 * Returns the runner of the node constructions and initialisations on
+	 * several threads, or null if they run on this one: the parameter
+	 * <code>parallel_startup</code> gives the number of threads, by default the
+	 * number of processors; it is ignored when profiling, which measures the
+	 * time of the initialisations
+	 */
+	private ParallelStartup parallel_startup() {
+		if (!globalParameters.containsKey("parallel_startup") || globalParameters.containsKey("profile"))
+			return null;
+		String value = globalParameters.get("parallel_startup");
+		int threads = value.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(value);
+		if (threads < 1)
+			throw new SimulatorException("config - parallel_startup must be a positive number of threads: " + value);
+		return threads == 1 ? null : new ParallelStartup(threads, out);
+	}
+
+	/**
+	 * Adds a link, before the simulation is wired
+	 * 
+	 * @param l the link
+	 */
+	void addLink(Link l) {
+		tmp_links.add(l);
+	}
+
+	/**
+	 * Returns the global parameters of this simulation
+	 * 
+	 * @return the global parameters
+	 */
+	GlobalParameters getParameters() {
+		return globalParameters;
+	}
+
+	/**
+	 * Returns the stream where the warnings of this simulation go
+	 * 
+	 * @return the error stream
+	 */
+	PrintStream getErrors() {
+		return err;
+	}
+
+	/**
+	 * Returns the global queue of events, for the engines that run the
+	 * processing steps themselves
+	 * 
+	 * @return the queue
+	 */
+	EventQueue getEventQueue() {
+		return events;
+	}
+
+	/**
+	 * Detaches the nodes from the engines shared by all nodes, multicast groups
+	 * and fluid flows, for executions where each node only sees part of the
+	 * simulation: joins and leaves throw an exception and flows cannot be
+	 * started
+	 * 
+	 * @param reason the message of the exceptions
+	 */
+	void detachSharedEngines(String reason) {
+		groups.freeze(reason);
+		for (Node nd : nodes)
+			nd.setFluidFlows(null);
+	}
+
+	/**
+	 * Returns the stream where the output of this simulation goes
+	 * 
+	 * @return the output stream
+	 */
+	PrintStream getOutput() {
+		return out;
 	}
 
 	/**
@@ -148,27 +429,21 @@ public class Simulator {
 
 		if (result[0].equalsIgnoreCase("parameter")) {
 			String name = result[1];
-			if ( result.length == 3 ) {
-				globalParameters.put(result[1], result[2]);
-				if (result[1].equalsIgnoreCase("stop"))
-					stop_time = Integer.parseInt(result[2]);
-			}
+			if ( result.length == 3 )
+				setParameter(name, result[2]);
 			else if ( result.length == 2 ) 
-				globalParameters.put(result[1], "");
-			else {
-				System.err.println("config line - parameter with wrong number of arguments:"+s);
-				System.exit(-1);
-			}
+				setParameter(name, "");
+			else
+				throw new SimulatorException("config line - parameter with wrong number of arguments:"+s);
 		} // parameter
 
 		else if (result[0].equalsIgnoreCase("node")) {
 			String[] args = new String[result.length - 5];
 			for (int i = 0; i < args.length; i++)
 				args[i] = result[i + 5];
-			Node nd = new Node(Integer.parseInt(result[1]), Integer.parseInt(result[2]), result[3], result[4], args, globalParameters);
 			// result[1] = node id, result[2] = # interfaces, result[3] = control class name,
 			// result[4] = app class name result[5] = args[0] .....
-			tmp_nodes.add(nd);
+			defineNode(Integer.parseInt(result[1]), Integer.parseInt(result[2]), result[3], result[4], args);
 		} // node
 
 		else if (result[0].equalsIgnoreCase("link")) {
@@ -247,15 +522,20 @@ public class Simulator {
 			args[0] = result[2];
 			createMainQueueEvent(EventType.DUMP_PACKETS, Integer.parseInt(result[1]), args);
 		} // dump stats
+
+		else if (result[0].equalsIgnoreCase("checkpoint")) {
+			// result[1] = time, result[2] = checkpoint file name
+			String[] args = new String[1];
+			args[0] = result[2];
+			createMainQueueEvent(EventType.CHECKPOINT, Integer.parseInt(result[1]), args);
+		} // checkpoint
 		
 		else if (result[0].startsWith("#")) {
 			// skipping comments
 		} 
 		
-		else {
-			System.err.println("config line - wrong config line:"+s);
-			System.exit(-1);
-		}
+		else
+			throw new SimulatorException("config line - wrong config line:"+s);
 	}
 
 	/**********************************************************************
@@ -271,12 +551,16 @@ public class Simulator {
 	 */
 	private void process_events(int now) {
 		while (events.size() > 0) {
-			long uuid = events.firstKey();
-			Event ev = events.get(uuid);
+			Event ev = events.peek();
 			if (ev.getTime() > now)
 				return; // nothing to do at this time
 			// otherwise treat the event
-			events.remove(uuid);
+			events.poll();
+			processed_events++;
+			if (digest != null)
+				digest.event(ev); // before the event is changed by its processing
+			if (profiler != null)
+				profiler.event();
 
 			switch (ev.getOperation()) {
 			// we start by events directly set in the configuration file
@@ -285,6 +569,7 @@ public class Simulator {
 				Packet packet = new TracingPacket(Integer.parseInt(ev.getArgument(0)), Integer.parseInt(ev.getArgument(1)), new byte[0]);
 				// the packet sequence number is a dummy one; only when sent be the first node it will be set correctly
 				packet.setSequenceNumber(-1);
+				packet.setCreationTime(now);
 				ev.setPacket(packet);
 				ev.setNode(packet.getSource());
 				ev.setOperation(EventType.DELIVER_PACKET);
@@ -301,6 +586,8 @@ public class Simulator {
 						} else {
 							links[i].setState(false);
 						}
+						groups.linksChanged();
+						fluid.linksChanged();
 						// the two sides of the link must be notified;
 						ev.setNode(links[i].getNode(1));
 						ev.setInterface(links[i].getInterface(1));
@@ -349,15 +636,23 @@ public class Simulator {
 					nodes[Integer.parseInt(ev.getArgument(0))].dumpAppState(now);
 				}
 				break;
+			case CHECKPOINT: // executed at the end of this processing step
+				pending_checkpoints.add(ev.getArgument(0));
+				break;
+			case LINK_WAKEUP: // links with schedulers transmit their next packets in this step
+				break;
+			case FLUID_UPDATE: // a fluid flow ends; the rates are recomputed after the nodes processing
+				fluid.wakeup(now);
+				break;
 	
 				
 			case DELIVER_PACKET:
 			case CLOCK_INTERRUPT:
+			case FLOW_END:
 				nodes[ev.getNode()].addInputEvent(ev);
 				break;
 			default:
-				System.out.println("Unknown event " + ev);
-				System.exit(-1);
+				throw new SimulatorException("Unknown event " + ev);
 			}
 		}
 	}
@@ -371,45 +666,203 @@ public class Simulator {
 	 * <code>process_packets</code> in all links.
 	 */
 	public void main_loop() {
-		System.out.println("\nsimulation starts - first processing step with clock = 0\n");
+		runUntil(stop_time);
+		finish();
+	}
+
+	/**
+	 * Ends the simulation: warns about the events not run, exports the last
+	 * metrics snapshot and prints the reports. Called by <code>main_loop</code>;
+	 * a simulation driven by <code>runUntil</code> or <code>step</code> may call
+	 * it when done.
+	 */
+	public void finish() {
+		if (events.size() > 0) {
+			now = events.peek().getTime();
+			check_completed();
+		}
+		metrics.close(Math.min(now, stop_time));
+		if (digest != null)
+			digest.close();
+		if (globalParameters.containsKey("latency_report"))
+			latencies.report();
+		if (globalParameters.containsKey("fluid_report"))
+			fluid.report(out, Math.min(now, stop_time));
+		if (profiler != null)
+			profiler.report(now);
+		end_nodes();
+		out.println("\nsimulation ended - last processing step with clock = " + now + "\n");
+	}
+
+	/**
+	 * Runs the end actions of the nodes; called by <code>finish</code>, or
+	 * instead of it when the simulation failed
+	 */
+	void end_nodes() {
+		if (nodes != null)
+			for (Node n : nodes)
+				if (n != null)
+					n.end();
+	}
+
+	/**
+	 * Runs all the processing steps with clock &lt;= <code>time</code> and
+	 * pauses the simulation; nodes are initialized by the first call. The
+	 * simulation may then be resumed by another call, or by
+	 * <code>main_loop</code>, or forked.
+	 * 
+	 * @param time the clock of the last processing step to run
+	 * @return the clock of the last processing step executed
+	 */
+	public int runUntil(int time) {
+		if (!started)
+			start();
+		while (events.size() > 0 && events.peek().getTime() <= time) {
+			now = events.peek().getTime();
+			process_step(now);
+		}
+		return now;
+	}
+
+	/**
+	 * Runs the next processing step, i.e., the step with the clock of the first
+	 * event in the global queue; nodes are initialized by the first call. The
+	 * stop time is not checked.
+	 * 
+	 * @return the clock of the executed step, or -1 if there are no more events
+	 */
+	public int step() {
+		if (!started)
+			start();
+		if (events.size() == 0)
+			return -1;
+		now = events.peek().getTime();
+		process_step(now);
+		return now;
+	}
+
+	/**
+	 * Runs processing steps until the network is quiescent, i.e., until no
+	 * packet is in transit and no scripted event remains, or the stop time is
+	 * reached. Pending clock ticks and timeouts do not prevent quiescence.
+	 * 
+	 * @return the clock of the last processing step executed
+	 */
+	public int runUntilQuiescent() {
+		if (!started)
+			start();
+		while (!isQuiescent() && events.peek().getTime() <= stop_time) {
+			now = events.peek().getTime();
+			process_step(now);
+		}
+		return now;
+	}
+
+	/**
+	 * Returns true if no packet is in transit and no scripted event remains,
+	 * i.e., if the global queue only has clock ticks and timeouts
+	 * 
+	 * @return true if the network is quiescent
+	 */
+	public boolean isQuiescent() {
+		return events.size() == events.count(EventType.CLOCK_INTERRUPT);
+	}
+
+	/**
+	 * Initializes all nodes at time step 0, or just announces the simulation
+	 * resumes if it was restored from a checkpoint
+	 */
+	private void start() {
+		started = true;
+		// a restored simulation already has the digest of its checkpoint
+		if (digest == null)
+			digest = EventDigest.create(globalParameters, err);
+		if (restored_time >= 0) {
+			// nodes and links were restored with the state they had at the end of the checkpointed step
+			now = restored_time;
+			out.println("\nsimulation resumes - last processing step before the checkpoint with clock = " + now + "\n");
+			return;
+		}
+		out.println("\nsimulation starts - first processing step with clock = 0\n");
 		// start all nodes
-		// nodes are initialized at time step 0
-		nextEventId = 0;
-		int now = 0;
+		// nodes are initialized at time step 0; the events they generate are
+		// numbered after those of the configuration, which run first
+		now = 0;
 		// initialize all nodes
-		for (int i = 0; i < nodes.length; i++) {
-			nodes[i].initialize();
-			enqueue_generated_events(nodes[i], now);
+		ParallelStartup startup = parallel_startup();
+		if (startup == null) {
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i].initialize();
+				enqueue_generated_events(nodes[i], now);
+			}
+		} else {
+			// the nodes only touch their own state, their link ends and their
+			// counters; the shared engines would see them in any order
+			String reason = "multicast groups and fluid flows cannot be used while nodes are initialised in parallel";
+			groups.freeze(reason);
+			fluid.freeze(reason);
+			for (Node nd : nodes)
+				nd.setOutput(startup.getOutput());
+			try {
+				startup.run(nodes.length, i -> nodes[i].initialize());
+			} finally {
+				for (Node nd : nodes)
+					nd.setOutput(out);
+				groups.freeze(null);
+				fluid.freeze(null);
+			}
+			// their events are numbered in the order of the nodes, as if they ran one by one
+			for (int i = 0; i < nodes.length; i++)
+				enqueue_generated_events(nodes[i], now);
 		}
+		fluid.update(now);
 		// transmit packets sent during initialization of nodes
 		// enqueue in the global queue the generated delivery events
 		for (int i = 0; i < links.length; i++) {
 			links[i].transmitPackets(0);
 			enqueue_packets_to_deliver(links[i], now);
 		}
+	}
 
-		while (events.size() > 0) {
-			now = events.get(events.firstKey()).getTime();
-			if (now > stop_time) {
-				check_completed();
-				break;
-			}
-			// process queued events scheduled for now 
-			process_events(now);
-			// make each node to process its events and enqueue in the
-			// global queue the events it generates
-			for (int i = 0; i < nodes.length; i++) {
-				nodes[i].process_input_events(now);
-				enqueue_generated_events(nodes[i], now);
-			}
-			// transmit packets sent during this time step and
-			// enqueue in the global queue the generated delivery events
-			for (int i = 0; i < links.length; i++) {
-				links[i].transmitPackets(now);
-				enqueue_packets_to_deliver(links[i], now);
-			}
+	/**
+	 * Executes one processing step
+	 * 
+	 * @param now the clock of the processing step
+	 */
+	private void process_step(int now) {
+		// export the metrics snapshots due before this processing step
+		metrics.export_before(now);
+		long t0 = profiler == null ? 0 : System.nanoTime();
+		// process queued events scheduled for now 
+		process_events(now);
+		if (profiler != null)
+			t0 = profiler.phase(Profiler.EVENTS, t0);
+		// make each node to process its events and enqueue in the
+		// global queue the events it generates
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].process_input_events(now);
+			enqueue_generated_events(nodes[i], now);
+		}
+		// the fluid flows started, stopped or ended in this step change the rates of the others
+		fluid.update(now);
+		if (profiler != null)
+			t0 = profiler.phase(Profiler.NODES, t0);
+		// transmit packets sent during this time step and
+		// enqueue in the global queue the generated delivery events
+		for (int i = 0; i < links.length; i++) {
+			links[i].transmitPackets(now);
+			enqueue_packets_to_deliver(links[i], now);
+		}
+		if (profiler != null) {
+			profiler.phase(Profiler.LINKS, t0);
+			profiler.step(now);
 		}
-		System.out.println("\nsimulation ended - last processing step with clock = " + now + "\n");
+		if (digest != null)
+			digest.step(now);
+		// the state is consistent at the end of a step: write the requested checkpoints
+		for (String file : pending_checkpoints)
+			write_checkpoint(file, now);
+		pending_checkpoints.clear();
 	}
 
 	/**
@@ -419,12 +872,424 @@ public class Simulator {
 	 * @param args
 	 */
 	public static void main(String args[]) {
-		if (args.length != 1) {
+		boolean restore = args.length >= 2 && args.length <= 3 && args[0].equals("--restore");
+		if (args.length != 1 && !restore) {
 			System.out.println("Usage : java Simulator <config file>");
+			System.out.println("        java Simulator --restore <checkpoint file> [<config file>]");
 			System.exit(1);
 		}
-		// instantiates and configures the simulator and starts it
-		new Simulator(args[0]).main_loop();
+		try {
+			if (restore) { // restores the simulator from a checkpoint and resumes it
+				System.out.println("Restoring checkpoint : " + args[1]);
+				restore(args[1], args.length == 3 ? args[2] : null).main_loop();
+			}
+			else // instantiates and configures the simulator and starts it
+				new Simulator(args[0]).main_loop();
+		} catch (SimulatorException e) {
+			System.out.flush();
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+	}
+
+	/**********************************************************************
+	 * 
+	 * CHECKPOINT AND RESTORE
+	 * 
+	 **********************************************************************/
+
+	/**
+	 * Writes the state of the simulation, at the end of the processing step with
+	 * clock <code>now</code>, to a checkpoint file. The checkpoint is skipped if
+	 * some algorithm does not implement <code>StateSnapshot</code>.
+	 * 
+	 * @param file the checkpoint file name
+	 * @param now  virtual clock of the executed processing step
+	 */
+	private void write_checkpoint(String file, int now) {
+		String blocker = checkpoint_blocker();
+		if (blocker != null) {
+			err.println("checkpoint " + file + " at " + now + " skipped: " + blocker);
+			return;
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			save_state(out);
+		} catch (IOException e) {
+			err.println("checkpoint " + file + " at " + now + " failed: " + e.getMessage());
+			return;
+		}
+		out.println("--> checkpoint " + file + " written at " + now);
+	}
+
+	/**
+	 * Creates a simulator with the state saved in a checkpoint file. Nodes are
+	 * initialized as usual, but the events they generate are discarded and
+	 * their state, as well as the state of their algorithms, is restored from the
+	 * checkpoint.
+	 * 
+	 * The optional configuration file may only contain parameters, which
+	 * override the saved ones, and events scheduled after the checkpoint.
+	 * 
+	 * @param file the checkpoint file name
+	 * @param cf   an optional configuration file, or null
+	 * @return the restored simulator, ready to resume with <code>main_loop</code>
+	 * @throws SimulatorException if the checkpoint cannot be restored
+	 */
+	public static Simulator restore(String file, String cf) {
+		return restore(file, cf, System.out, System.err);
+	}
+
+	/**
+	 * Creates a simulator with the state saved in a checkpoint file, as
+	 * <code>restore(file, cf)</code>, whose output goes to the given streams.
+	 * 
+	 * @param file the checkpoint file name
+	 * @param cf   an optional configuration file, or null
+	 * @param out  where the output of the simulation goes
+	 * @param err  where warnings go
+	 * @return the restored simulator, ready to resume with <code>main_loop</code>
+	 * @throws SimulatorException if the checkpoint cannot be restored
+	 */
+	public static Simulator restore(String file, String cf, PrintStream out, PrintStream err) {
+		List<String> extra = new ArrayList<>();
+		if (cf != null) {
+			try (BufferedReader input = new BufferedReader(new FileReader(cf))) {
+				String str;
+				while ((str = input.readLine()) != null)
+					extra.add(str);
+			} catch (IOException e) {
+				throw new SimulatorException("cannot read configuration " + cf + ": " + e.getMessage(), e);
+			}
+		}
+		for (String str : extra) {
+			String[] result = str.split("\\s");
+			if (result[0].equalsIgnoreCase("node") || result[0].equalsIgnoreCase("link"))
+				throw new SimulatorException("restore: nodes and links cannot be added to a checkpoint:" + str);
+		}
+		Simulator sim;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			sim = load_state(in, extra, out, err);
+		} catch (IOException e) {
+			throw new SimulatorException("restore: cannot read " + file + ": " + e.getMessage(), e);
+		}
+		// events of the configuration file
+		for (String str : extra) {
+			String[] result = str.split("\\s");
+			if (result.length == 1 || result[0].equalsIgnoreCase("parameter") || result[0].startsWith("#"))
+				continue;
+			sim.addEvent(str);
+		}
+		return sim;
+	}
+
+	/**
+	 * Forks a paused simulation into <code>n</code> independent copies, with
+	 * the same state, that can then be run concurrently, each one on its own
+	 * thread. The simulation is paused between processing steps, e.g. after
+	 * <code>runUntil</code>; all its algorithms must implement
+	 * <code>StateSnapshot</code>. The copies share the payloads of the packets
+	 * in transit, which must not be modified in place.
+	 * 
+	 * The simulation is saved once in memory, as in a checkpoint, and each copy
+	 * is restored from that image: its nodes, links and algorithms are built
+	 * again from the saved configuration and then read their state, as they
+	 * are all modified by the simulation. A fork thus costs about as much as
+	 * restoring a checkpoint n times, without the file, mostly spent copying
+	 * the state of the algorithms.
+	 * 
+	 * If metrics are exported, copy i exports them to the file
+	 * <code>metrics_file</code> with "-i" added before its extension, and so
+	 * are the event digests to <code>digest_file</code>.
+	 * 
+	 * @param n the number of copies
+	 * @return the copies
+	 * @throws IllegalStateException if some algorithm cannot be saved
+	 */
+	public Simulator[] fork(int n) {
+		if (!started)
+			start();
+		String blocker = checkpoint_blocker();
+		if (blocker != null)
+			throw new IllegalStateException("cannot fork: " + blocker);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Checkpoint.SharedOutput image_out = new Checkpoint.SharedOutput(bytes);
+		Simulator[] copies = new Simulator[n];
+		try {
+			save_state(image_out);
+			image_out.flush();
+			byte[] image = bytes.toByteArray();
+			for (int i = 0; i < n; i++) {
+				List<String> extra = new ArrayList<>();
+				if (metrics.isExporting())
+					extra.add("parameter metrics_file " + fork_file_name(metrics.getFileName(), i));
+				if (digest != null)
+					extra.add("parameter digest_file " + fork_file_name(digest.getFileName(), i));
+				copies[i] = load_state(new Checkpoint.SharedInput(new ByteArrayInputStream(image), image_out.payloads), extra, out, err);
+			}
+		} catch (IOException e) {
+			// in memory streams never fail, unless an algorithm does
+			throw new IllegalStateException("cannot fork: " + e.getMessage(), e);
+		}
+		return copies;
+	}
+
+	/**
+	 * Runs several simulations to completion, each one on its own thread, and
+	 * waits for all of them, e.g. the copies returned by <code>fork</code>
+	 * 
+	 * @param sims the simulations
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void runAll(Simulator[] sims) throws InterruptedException {
+		Thread[] threads = new Thread[sims.length];
+		for (int i = 0; i < sims.length; i++) {
+			threads[i] = new Thread(sims[i]::main_loop, "simulator-" + i);
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+	}
+
+	/**
+	 * Schedules an event given by a configuration file line, e.g.
+	 * <code>downlink 6000 0.1 2.0</code>, in a simulation that has not started
+	 * yet or is paused. The event must be scheduled after the current clock.
+	 * 
+	 * @param line the event, with the syntax of the configuration file
+	 * @throws SimulatorException if the line is not a valid event
+	 */
+	public void addEvent(String line) {
+		String[] result = line.split("\\s");
+		if (result.length < 3 || result[0].equalsIgnoreCase("parameter") || result[0].equalsIgnoreCase("node")
+				|| result[0].equalsIgnoreCase("link"))
+			throw new SimulatorException("not an event:" + line);
+		try {
+			if ((started || restored_time >= 0) && Integer.parseInt(result[1]) <= Math.max(now, restored_time))
+				throw new SimulatorException("event scheduled before the current clock " + Math.max(now, restored_time) + ":" + line);
+			process_config_line(line);
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new SimulatorException("wrong event:" + line, e);
+		}
+	}
+
+	/**
+	 * Returns a description of the first algorithm that does not implement
+	 * <code>StateSnapshot</code>
+	 * 
+	 * @return the description or null if the simulation can be saved
+	 */
+	private String checkpoint_blocker() {
+		for (int i = 0; i < nodes.length; i++) {
+			String blocker = nodes[i].checkpointBlocker();
+			if (blocker != null)
+				return blocker + " of node " + i + " does not implement StateSnapshot";
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the configuration and the state of the simulation, at the end of
+	 * the current processing step
+	 * 
+	 * @param out where to write the state
+	 * @throws IOException
+	 */
+	private void save_state(DataOutputStream out) throws IOException {
+		out.writeInt(Checkpoint.MAGIC);
+		out.writeInt(Checkpoint.VERSION);
+		out.writeInt(now);
+		out.writeLong(nextEventId);
+		out.writeLong(processed_events);
+		// the configuration
+		out.writeInt(globalParameters.names().size());
+		for (String name : globalParameters.names()) {
+			out.writeUTF(name);
+			out.writeUTF(globalParameters.get(name));
+		}
+		out.writeInt(nodes.length);
+		for (Node nd : nodes) {
+			out.writeInt(nd.getId());
+			out.writeInt(nd.getNumInterfaces());
+			out.writeUTF(nd.getControlClassName());
+			out.writeUTF(nd.getApplicationClassName());
+			Checkpoint.writeStrings(out, nd.getArgs());
+		}
+		out.writeInt(links.length);
+		for (Link l : links) {
+			out.writeInt(l.getNode(1));
+			out.writeInt(l.getInterface(1));
+			out.writeInt(l.getNode(2));
+			out.writeInt(l.getInterface(2));
+			out.writeLong(l.getBandWidth());
+			out.writeInt(l.getLatency());
+			out.writeDouble(l.getErrors());
+			out.writeDouble(l.getJitter());
+		}
+		// the state
+		for (Node nd : nodes)
+			nd.writeState(out);
+		for (Link l : links)
+			l.writeState(out);
+		out.writeInt(events.size());
+		for (Event ev : events.events())
+			Checkpoint.writeEvent(out, ev);
+		metrics.writeState(out);
+		latencies.writeState(out);
+		groups.writeState(out);
+		fluid.writeState(out);
+		out.writeBoolean(digest != null);
+		if (digest != null)
+			digest.writeState(out);
+	}
+
+	/**
+	 * Creates a simulator with the configuration and state written by
+	 * save_state
+	 * 
+	 * @param in    where to read the state from
+	 * @param extra configuration lines whose parameters override the saved ones
+	 * @param out   where the output of the simulation goes
+	 * @param err   where warnings go
+	 * @return the simulator
+	 * @throws IOException
+	 */
+	private static Simulator load_state(DataInputStream in, List<String> extra, PrintStream out, PrintStream err)
+			throws IOException {
+		Simulator sim = new Simulator(out, err);
+		if (in.readInt() != Checkpoint.MAGIC || in.readInt() != Checkpoint.VERSION)
+			throw new IOException("not a checkpoint of this simulator version");
+		sim.restored_time = in.readInt();
+		sim.nextEventId = in.readLong();
+		sim.processed_events = in.readLong();
+		for (int n = in.readInt(); n > 0; n--)
+			sim.process_config_line("parameter " + in.readUTF() + " " + in.readUTF());
+		for (String str : extra) {
+			if (str.split("\\s")[0].equalsIgnoreCase("parameter"))
+				sim.process_config_line(str);
+		}
+		for (int n = in.readInt(); n > 0; n--) {
+			int id = in.readInt();
+			int nint = in.readInt();
+			String control = in.readUTF();
+			String app = in.readUTF();
+			String[] args = Checkpoint.readStrings(in);
+			sim.defineNode(id, nint, control, app, args);
+		}
+		for (int n = in.readInt(); n > 0; n--)
+			sim.tmp_links.add(new Link(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readLong(),
+					in.readInt(), in.readDouble(), in.readDouble(), sim));
+		sim.wire();
+		for (Node nd : sim.nodes) {
+			nd.initialize();
+			nd.readState(in);
+		}
+		for (Link l : sim.links)
+			l.readState(in);
+		for (int n = in.readInt(); n > 0; n--)
+			sim.events.add(Checkpoint.readEvent(in));
+		sim.metrics.readState(in);
+		sim.latencies.readState(in);
+		sim.groups.readState(in);
+		sim.fluid.readState(in);
+		// the digest goes on with the hash of the checkpoint, or starts from it
+		// if the simulation had none
+		sim.digest = EventDigest.create(sim.globalParameters, err);
+		if (in.readBoolean())
+			EventDigest.readState(in, sim.digest);
+		return sim;
+	}
+
+	/**
+	 * Adds "-i" before the extension of a file name
+	 */
+	static String fork_file_name(String name, int i) {
+		int dot = name.lastIndexOf('.');
+		if (dot <= name.lastIndexOf('/'))
+			return name + "-" + i;
+		return name.substring(0, dot) + "-" + i + name.substring(dot);
+	}
+
+	/**
+	 * Returns the nodes of this simulation, indexed by node id
+	 * 
+	 * @return the nodes
+	 */
+	public Node[] getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the links of this simulation
+	 * 
+	 * @return the links
+	 */
+	public Link[] getLinks() {
+		return links;
+	}
+
+	/**
+	 * Returns the metrics registry of this simulation
+	 * 
+	 * @return the metrics registry
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the end-to-end, queueing and serialisation delay histograms of
+	 * this simulation, which are empty unless the parameter
+	 * <code>latencies</code> or <code>latency_report</code> is defined
+	 * 
+	 * @return the delay histograms
+	 */
+	public Latencies getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * Returns the clock of the last processing step executed
+	 * 
+	 * @return the clock
+	 */
+	public int getClock() {
+		return now;
+	}
+
+	/**
+	 * Returns the number of events in the global queue
+	 * 
+	 * @return the number of events
+	 */
+	public int getPendingEvents() {
+		return events.size();
+	}
+
+	/**
+	 * Returns the stop time of this simulation, set by the parameter stop
+	 * 
+	 * @return the stop time
+	 */
+	public int getStopTime() {
+		return stop_time;
+	}
+
+	/**
+	 * Returns the number of global events processed since the simulation started
+	 * 
+	 * @return the number of events
+	 */
+	public long getProcessedEvents() {
+		return processed_events;
+	}
+
+	/**
+	 * Returns the profiler of this simulation
+	 * 
+	 * @return the profiler or null if the parameter profile is not defined
+	 */
+	public Profiler getProfiler() {
+		return profiler;
 	}
 
 	/**********************************************************************
@@ -447,7 +1312,7 @@ public class Simulator {
 	public void createMainQueueEvent(EventType op, int t, String[] a, Packet p, int n, int s) {
 		nextEventId++;
 		Event ev = new Event(op, t, nextEventId, a, p, n, s);
-		events.put(ev.getUUID(), ev);
+		events.add(ev);
 		// System.out.println("Adding "+ev);
 	}
 
@@ -462,7 +1327,7 @@ public class Simulator {
 	public void createMainQueueEvent(EventType op, int t, String[] a) {
 		nextEventId++;
 		Event ev = new Event(op, t, nextEventId, a);
-		events.put(ev.getUUID(), ev);
+		events.add(ev);
 		// System.out.println("Adding "+ev);
 	}
 	
@@ -479,7 +1344,7 @@ public class Simulator {
 		Event ev = new Event(op, t, nextEventId, a);
 		ev.setNode(node);
 		ev.setInterface(iface);
-		events.put(ev.getUUID(), ev);
+		events.add(ev);
 		// System.out.println("Adding "+ev);
 	}
 
@@ -493,7 +1358,7 @@ public class Simulator {
 	public void createMainQueueEvent(Event e) {
 		nextEventId++;
 		Event ev = new Event(e.getOperation(), e.getTime(), nextEventId, e.getArgs(), e.getPacket(), e.getNode(), e.getInterface());
-		events.put(ev.getUUID(), ev);
+		events.add(ev);
 		// System.out.println("Adding "+ev);
 	}
 
@@ -509,7 +1374,7 @@ public class Simulator {
 		Event ev = l.getOutputEvent();
 		while (ev != null) {
 			if (ev.getTime() <= now) {
-				System.err.println("Time: " + now + " link: " + l + " new deliver packet event time younger than now");
+				err.println("Time: " + now + " link: " + l + " new deliver packet event time younger than now");
 				return;
 			}
 			createMainQueueEvent(ev);
@@ -528,7 +1393,7 @@ public class Simulator {
 		Event e = nd.getOutputEvent();
 		while (e != null) {
 			if (e.getTime() <= now) {
-				System.err.println("Time: " + now + " node: " + nd + " new deliver packet event time younger than now");
+				err.println("Time: " + now + " node: " + nd + " new deliver packet event time younger than now");
 				return;
 			}
 			createMainQueueEvent(e);
@@ -541,7 +1406,7 @@ public class Simulator {
 	 */
 	private void check_completed() {
 		if (events.size() > 0) {
-			System.out.println("\nwarning - " + events.size() + " events not run; stoped too early?");
+			out.println("\nwarning - " + events.size() + " events not run; stoped too early?");
 		}
 	}
 
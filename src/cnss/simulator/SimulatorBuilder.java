@@ -0,0 +1,277 @@
+package cnss.simulator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import cnss.simulator.Event.EventType;
+
+/**
+ * The <code>SimulatorBuilder</code> class builds a simulation
+ * programmatically, without a configuration file: global parameters, nodes,
+ * links and scripted events are added by method calls, with the same meaning
+ * as the corresponding configuration file lines. For example:
+ *
+ * <pre>
+ * Simulator sim = new SimulatorBuilder()
+ * 		.parameter("stop", "10000")
+ * 		.node(0, 2, FloodingSwitch.class, EmptyApp.class)
+ * 		.node(1, 1, EndSystemControl.class, Sender.class)
+ * 		.node(2, 1, EndSystemControl.class, Receiver.class)
+ * 		.link(0, 0, 1, 0, 1000000, 50)
+ * 		.link(0, 1, 2, 0, 1000000, 50)
+ * 		.downLink(6000, 0, 1, 2, 0)
+ * 		.quiet()
+ * 		.build();
+ * sim.runUntilQuiescent();
+ * </pre>
+ *
+ * The built simulation is then driven with <code>main_loop</code>,
+ * <code>runUntil</code>, <code>step</code> or <code>runUntilQuiescent</code>.
+ * Errors throw a <code>SimulatorException</code>.
+ */
+public class SimulatorBuilder {
+
+	// what each call adds to the simulation: parameters, nodes and links before it is wired, events after
+	private List<Consumer<Simulator>> definitions = new ArrayList<>();
+	private List<Consumer<Simulator>> events = new ArrayList<>();
+	private PrintStream out = System.out;
+	private PrintStream err = System.err;
+
+	/**
+	 * Defines a global parameter
+	 *
+	 * @param name  the name of the parameter
+	 * @param value its value
+	 * @return this builder
+	 */
+	public SimulatorBuilder parameter(String name, String value) {
+		definitions.add(sim -> sim.setParameter(name, value));
+		return this;
+	}
+
+	/**
+	 * Defines a global parameter without value, e.g. <code>trace</code>
+	 *
+	 * @param name the name of the parameter
+	 * @return this builder
+	 */
+	public SimulatorBuilder parameter(String name) {
+		return parameter(name, "");
+	}
+
+	/**
+	 * Adds a node
+	 *
+	 * @param id      the node id; ids must be 0 .. number of nodes - 1
+	 * @param nint    the number of interfaces
+	 * @param control the class name of the control algorithm
+	 * @param app     the class name of the application algorithm
+	 * @param args    the arguments of the application algorithm
+	 * @return this builder
+	 */
+	public SimulatorBuilder node(int id, int nint, String control, String app, String... args) {
+		String[] a = args.clone();
+		definitions.add(sim -> sim.defineNode(id, nint, control, app, a.clone()));
+		return this;
+	}
+
+	/**
+	 * Adds a node
+	 *
+	 * @param id      the node id; ids must be 0 .. number of nodes - 1
+	 * @param nint    the number of interfaces
+	 * @param control the class of the control algorithm
+	 * @param app     the class of the application algorithm
+	 * @param args    the arguments of the application algorithm
+	 * @return this builder
+	 */
+	public SimulatorBuilder node(int id, int nint, Class<? extends ControlAlgorithm> control,
+			Class<? extends ApplicationAlgorithm> app, String... args) {
+		return node(id, nint, control.getName(), app.getName(), args);
+	}
+
+	/**
+	 * Adds a link without errors nor jitter, starting up
+	 *
+	 * @param n1      the node of side 1
+	 * @param i1      its interface
+	 * @param n2      the node of side 2
+	 * @param i2      its interface
+	 * @param bwidth  the bandwidth in bps
+	 * @param latency the latency in ms
+	 * @return this builder
+	 */
+	public SimulatorBuilder link(int n1, int i1, int n2, int i2, long bwidth, int latency) {
+		return link(n1, i1, n2, i2, bwidth, latency, 0.0, 0.0, true);
+	}
+
+	/**
+	 * Adds a link
+	 *
+	 * @param n1      the node of side 1
+	 * @param i1      its interface
+	 * @param n2      the node of side 2
+	 * @param i2      its interface
+	 * @param bwidth  the bandwidth in bps
+	 * @param latency the latency in ms
+	 * @param errors  the error rate in %
+	 * @param jitter  the jitter in %
+	 * @param up      the initial state of the link
+	 * @return this builder
+	 */
+	public SimulatorBuilder link(int n1, int i1, int n2, int i2, long bwidth, int latency, double errors, double jitter,
+			boolean up) {
+		definitions.add(sim -> {
+			Link l = new Link(n1, i1, n2, i2, bwidth, latency, errors, jitter, sim);
+			if (!up)
+				l.setState(false);
+			sim.addLink(l);
+		});
+		return this;
+	}
+
+	/**
+	 * Schedules a traceroute from src to dst
+	 *
+	 * @param time the time of the event
+	 * @param src  the origin node
+	 * @param dst  the destination node
+	 * @return this builder
+	 */
+	public SimulatorBuilder traceRoute(int time, int src, int dst) {
+		return event(EventType.TRACEROUTE, time, Integer.toString(src), Integer.toString(dst));
+	}
+
+	/**
+	 * Schedules the link between n1.i1 and n2.i2 going up
+	 *
+	 * @param time the time of the event
+	 * @return this builder
+	 */
+	public SimulatorBuilder upLink(int time, int n1, int i1, int n2, int i2) {
+		return event(EventType.UPLINK, time, Integer.toString(n1), Integer.toString(i1), Integer.toString(n2),
+				Integer.toString(i2));
+	}
+
+	/**
+	 * Schedules the link between n1.i1 and n2.i2 going down
+	 *
+	 * @param time the time of the event
+	 * @return this builder
+	 */
+	public SimulatorBuilder downLink(int time, int n1, int i1, int n2, int i2) {
+		return event(EventType.DOWNLINK, time, Integer.toString(n1), Integer.toString(i1), Integer.toString(n2),
+				Integer.toString(i2));
+	}
+
+	/**
+	 * Schedules a dump of the routing tables
+	 *
+	 * @param time the time of the event
+	 * @param node the node id, or -1 for all nodes
+	 * @return this builder
+	 */
+	public SimulatorBuilder dumpRoutes(int time, int node) {
+		return event(EventType.DUMP_RT, time, target(node));
+	}
+
+	/**
+	 * Schedules a dump of the packet counters
+	 *
+	 * @param time the time of the event
+	 * @param node the node id, or -1 for all nodes
+	 * @return this builder
+	 */
+	public SimulatorBuilder dumpPacketStats(int time, int node) {
+		return event(EventType.DUMP_PACKETS, time, target(node));
+	}
+
+	/**
+	 * Schedules a dump of the control algorithms state
+	 *
+	 * @param time the time of the event
+	 * @param node the node id, or -1 for all nodes
+	 * @return this builder
+	 */
+	public SimulatorBuilder dumpControlState(int time, int node) {
+		return event(EventType.DUMP_CONTROLSTATE, time, target(node));
+	}
+
+	/**
+	 * Schedules a dump of the application algorithms state
+	 *
+	 * @param time the time of the event
+	 * @param node the node id, or -1 for all nodes
+	 * @return this builder
+	 */
+	public SimulatorBuilder dumpAppState(int time, int node) {
+		return event(EventType.DUMP_APPSTATE, time, target(node));
+	}
+
+	/**
+	 * Schedules a checkpoint of the simulation
+	 *
+	 * @param time the time of the event
+	 * @param file the checkpoint file name
+	 * @return this builder
+	 */
+	public SimulatorBuilder checkpoint(int time, String file) {
+		return event(EventType.CHECKPOINT, time, file);
+	}
+
+	/**
+	 * Sets the streams where the output of the simulation goes; by default, the
+	 * standard output and error streams
+	 *
+	 * @param out where the output goes
+	 * @param err where warnings go
+	 * @return this builder
+	 */
+	public SimulatorBuilder output(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+		return this;
+	}
+
+	/**
+	 * Discards all the output of the simulation
+	 *
+	 * @return this builder
+	 */
+	public SimulatorBuilder quiet() {
+		PrintStream none = new PrintStream(OutputStream.nullOutputStream());
+		return output(none, none);
+	}
+
+	/**
+	 * Builds the simulation; the builder may be reused to build other
+	 * simulations with the same definition
+	 *
+	 * @return the simulation, ready to run
+	 * @throws SimulatorException if the definition is not valid
+	 */
+	public Simulator build() {
+		Simulator sim = new Simulator(out, err);
+		for (Consumer<Simulator> d : definitions)
+			d.accept(sim);
+		sim.wire();
+		for (Consumer<Simulator> e : events)
+			e.accept(sim);
+		return sim;
+	}
+
+	// auxiliary methods
+
+	private SimulatorBuilder event(EventType type, int time, String... args) {
+		events.add(sim -> sim.createMainQueueEvent(type, time, args.clone()));
+		return this;
+	}
+
+	private static String target(int node) {
+		return node < 0 ? "all" : Integer.toString(node);
+	}
+
+}
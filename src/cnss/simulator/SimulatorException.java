@@ -0,0 +1,33 @@
+package cnss.simulator;
+
+/**
+ * The <code>SimulatorException</code> is thrown when a simulation cannot
+ * proceed: a wrong configuration, an algorithm class that cannot be loaded, a
+ * bad usage of a node down call or an inconsistent kernel state. It replaces
+ * aborting the whole JVM, so that several simulations can run in the same
+ * process; the command line simulator prints its message and exits.
+ */
+public class SimulatorException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * <code>SimulatorException</code> constructor
+	 *
+	 * @param message the description of the problem
+	 */
+	public SimulatorException(String message) {
+		super(message);
+	}
+
+	/**
+	 * <code>SimulatorException</code> constructor
+	 *
+	 * @param message the description of the problem
+	 * @param cause   the exception that caused the problem
+	 */
+	public SimulatorException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
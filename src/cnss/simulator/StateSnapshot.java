@@ -0,0 +1,42 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The <code>StateSnapshot</code> interface should be implemented by control and
+ * application algorithms whose state must be saved in simulation checkpoints.
+ * A simulation can only be checkpointed if all its algorithms implement it.
+ *
+ * When a simulation is restored, each algorithm is first instantiated and
+ * initialised as usual, by calling <code>initialise</code>; the packets it
+ * sends and the timeouts it sets during that call are discarded. Then
+ * <code>restoreState</code> is called with the state written by
+ * <code>saveState</code> when the checkpoint was taken. Algorithms only need
+ * to save what <code>initialise</code> does not rebuild by itself.
+ *
+ * The time warp engine (<code>TimeWarpSimulator</code>) also uses these
+ * methods to undo the processing steps of a node: there,
+ * <code>restoreState</code> is called on an algorithm that kept running after
+ * <code>saveState</code>, and must overwrite all of its state.
+ */
+public interface StateSnapshot {
+
+	/**
+	 * Writes the state of the algorithm
+	 *
+	 * @param out where to write the state
+	 * @throws IOException if the state cannot be written
+	 */
+	public void saveState(DataOutputStream out) throws IOException;
+
+	/**
+	 * Restores the state of the algorithm, as written by saveState
+	 *
+	 * @param in where to read the state from
+	 * @throws IOException if the state cannot be read
+	 */
+	public void restoreState(DataInputStream in) throws IOException;
+
+}
@@ -0,0 +1,299 @@
+package cnss.simulator;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import cnss.simulator.Metrics.DropCause;
+
+/**
+ * The <code>Sweep</code> class runs many simulations of the same configuration
+ * template, concurrently, in one JVM, and collects their results in one table.
+ * It is started with <code>java cnss.simulator.Sweep sweep_file</code>, where
+ * the sweep file contains lines such as:
+ *
+ * <pre>
+ * template network.txt
+ * vary bwidth 1000000 10000000 100000000
+ * range stop 10000 50000 10000
+ * seeds 1 20
+ * threads 8
+ * results results.csv
+ * logs sweep-logs
+ * </pre>
+ *
+ * Each <code>${name}</code> of the template is replaced by a value of the
+ * parameter <code>name</code>, given by a <code>vary</code> line (a list of
+ * values) or by a <code>range</code> line (from, to and step, inclusive). The
+ * simulations run for all the combinations of values and, if a
+ * <code>seeds</code> line (first and last seed) is present, for each seed:
+ * <code>${seed}</code> is replaced by the seed and the line
+ * <code>parameter seed</code> is added to the configuration, so links draw
+ * different errors and jitter. Runs are executed by a pool of
+ * <code>threads</code> threads (default: the number of processors). The
+ * output of each run is discarded, unless a <code>logs</code> directory is
+ * given, where run i writes run-i.log. As the runs write their files at the
+ * same time, each one has its own metrics, digest and checkpoint files: run i
+ * writes name-i.ext instead of the name.ext of the template, as the copies of
+ * a fork do. The results table (CSV, default
+ * sweep.csv) has one line per run with the values of its parameters, its seed,
+ * its status, the final clock, the number of events, the wall time and the
+ * global packet counters, drops and end-to-end delays (the line
+ * <code>parameter latencies</code> is added to each run to record them). A
+ * run that fails, with an error of its configuration or anything thrown by an
+ * algorithm, even an error such as a stack overflow, has the error as its
+ * status and is reported, with its parameters, to the error stream.
+ */
+public class Sweep {
+
+	private String template;
+	private List<String> names = new ArrayList<>();
+	private List<String[]> values = new ArrayList<>();
+	private long first_seed = 0;
+	private long last_seed = -1; // no seeds
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String results_file = "sweep.csv";
+	private String logs_dir = null;
+
+	private List<String[]> runs = new ArrayList<>(); // the values of each run, seed last
+	private String[] results;
+
+	/**
+	 * <code>Sweep</code> constructor, reads the sweep file and the template
+	 *
+	 * @param file the sweep file
+	 * @throws IOException if a file cannot be read
+	 * @throws SimulatorException if the sweep file is not valid
+	 */
+	public Sweep(String file) throws IOException {
+		try (BufferedReader input = new BufferedReader(new FileReader(file))) {
+			String str;
+			while ((str = input.readLine()) != null) {
+				String[] result = str.trim().split("\\s+");
+				if (result[0].isEmpty() || result[0].startsWith("#"))
+					continue;
+				try {
+					process_sweep_line(result);
+				} catch (RuntimeException e) {
+					throw new SimulatorException("sweep line - wrong sweep line:" + str, e);
+				}
+			}
+		}
+		if (template == null)
+			throw new SimulatorException("sweep: no template");
+		combine(0, new String[names.size() + 1]);
+		results = new String[runs.size()];
+	}
+
+	/**
+	 * Processes one line of the sweep file
+	 */
+	private void process_sweep_line(String[] result) throws IOException {
+		if (result[0].equalsIgnoreCase("template")) {
+			template = new String(Files.readAllBytes(Paths.get(result[1])));
+		} else if (result[0].equalsIgnoreCase("vary")) {
+			String[] v = new String[result.length - 2];
+			System.arraycopy(result, 2, v, 0, v.length);
+			names.add(result[1]);
+			values.add(v);
+		} else if (result[0].equalsIgnoreCase("range")) {
+			BigDecimal from = new BigDecimal(result[2]);
+			BigDecimal to = new BigDecimal(result[3]);
+			BigDecimal step = new BigDecimal(result[4]);
+			if (step.signum() <= 0)
+				throw new SimulatorException("range step must be positive");
+			List<String> v = new ArrayList<>();
+			for (BigDecimal x = from; x.compareTo(to) <= 0; x = x.add(step))
+				v.add(x.toPlainString());
+			names.add(result[1]);
+			values.add(v.toArray(new String[0]));
+		} else if (result[0].equalsIgnoreCase("seeds")) {
+			first_seed = Long.parseLong(result[1]);
+			last_seed = Long.parseLong(result[2]);
+		} else if (result[0].equalsIgnoreCase("threads")) {
+			threads = Integer.parseInt(result[1]);
+		} else if (result[0].equalsIgnoreCase("results")) {
+			results_file = result[1];
+		} else if (result[0].equalsIgnoreCase("logs")) {
+			logs_dir = result[1];
+		} else {
+			throw new SimulatorException("unknown command " + result[0]);
+		}
+	}
+
+	/**
+	 * Builds the list of runs: all combinations of values, times all seeds
+	 */
+	private void combine(int i, String[] run) {
+		if (i < names.size()) {
+			for (String v : values.get(i)) {
+				run[i] = v;
+				combine(i + 1, run);
+			}
+			return;
+		}
+		if (last_seed < first_seed) {
+			runs.add(run.clone());
+			return;
+		}
+		for (long seed = first_seed; seed <= last_seed; seed++) {
+			run[i] = Long.toString(seed);
+			runs.add(run.clone());
+		}
+	}
+
+	/**
+	 * Runs all the simulations on a pool of threads and writes the results
+	 * table
+	 *
+	 * @throws IOException if the results or the logs cannot be written
+	 * @throws InterruptedException if interrupted while waiting for the runs
+	 */
+	public void run() throws IOException, InterruptedException {
+		if (logs_dir != null)
+			Files.createDirectories(Paths.get(logs_dir));
+		System.out.println("sweep: " + runs.size() + " runs on " + threads + " threads");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int r = 0; r < runs.size(); r++) {
+			final int run = r;
+			pool.execute(() -> results[run] = run_one(run));
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		try (PrintWriter writer = new PrintWriter(results_file)) {
+			StringBuilder header = new StringBuilder("run");
+			for (String name : names)
+				header.append(',').append(name);
+			if (last_seed >= first_seed)
+				header.append(",seed");
+			header.append(",status,clock,events,wall_ms,sent,recv,drop,forw");
+			for (DropCause cause : DropCause.values())
+				header.append(',').append(cause.name().toLowerCase());
+			header.append(",e2e_count,e2e_mean_ms,e2e_p99_ms");
+			writer.println(header);
+			for (String line : results)
+				writer.println(line);
+		}
+		System.out.println("sweep: results written to " + results_file);
+	}
+
+	/**
+	 * Runs one simulation and returns its line of the results table
+	 */
+	private String run_one(int run) {
+		String[] v = runs.get(run);
+		String config = template;
+		for (int i = 0; i < names.size(); i++)
+			config = config.replace("${" + names.get(i) + "}", v[i]);
+		StringBuilder line = new StringBuilder().append(run);
+		for (int i = 0; i < names.size(); i++)
+			line.append(',').append(v[i]);
+		if (last_seed >= first_seed) {
+			String seed = v[names.size()];
+			config = config.replace("${seed}", seed) + "\nparameter seed " + seed + "\n";
+			line.append(',').append(seed);
+		}
+		config = own_files(config, run) + "parameter latencies\n"; // for the end-to-end delays of the results
+		long t0 = System.nanoTime();
+		StringBuilder stats = new StringBuilder(); // only appended to the line if the run ends
+		Simulator sim = null;
+		try (PrintStream out = new PrintStream(logs_dir == null ? OutputStream.nullOutputStream()
+				: new FileOutputStream(Paths.get(logs_dir, "run-" + run + ".log").toFile()))) {
+			sim = new Simulator("run " + run, new StringReader(config), out, out);
+			sim.main_loop();
+			Metrics m = sim.getMetrics();
+			LatencyHistogram e2e = sim.getLatencies().getEndToEnd();
+			stats.append(",ok,").append(sim.getClock()).append(',').append(sim.getProcessedEvents());
+			stats.append(',').append((System.nanoTime() - t0) / 1000000);
+			stats.append(',').append(m.getTotalPackets(Metrics.SENT)).append(',').append(m.getTotalPackets(Metrics.RECV));
+			stats.append(',').append(m.getTotalPackets(Metrics.DROP)).append(',').append(m.getTotalPackets(Metrics.FORW));
+			for (DropCause cause : DropCause.values())
+				stats.append(',').append(m.getTotalNodeDrops(cause) + m.getTotalLinkDrops(cause));
+			stats.append(',').append(e2e.getCount());
+			stats.append(',').append(String.format(Locale.ROOT, "%.3f", e2e.getMean() / 1000.0));
+			stats.append(',').append(String.format(Locale.ROOT, "%.3f", e2e.getValueAtPercentile(99.0) / 1000.0));
+			line.append(stats);
+		} catch (SimulatorException | IOException e) {
+			failed(run, line, String.valueOf(e.getMessage()));
+		} catch (Throwable e) {
+			// thrown by an algorithm, maybe an error such as a stack overflow: the message alone may be null
+			failed(run, line, e.toString());
+		} finally {
+			if (sim != null)
+				sim.end_nodes(); // the threads of the programs blocked when the run failed
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Gives a run its own metrics, digest and checkpoint files, as the runs
+	 * write them at the same time: name.ext becomes name-run.ext
+	 */
+	private static String own_files(String config, int run) {
+		StringBuilder s = new StringBuilder();
+		boolean metrics = false;
+		boolean metricsFile = false;
+		for (String line : config.split("\n")) {
+			String[] f = line.trim().split("\\s+");
+			if (f.length == 3 && f[0].equalsIgnoreCase("parameter")
+					&& (f[1].equals("metrics_file") || f[1].equals("digest_file"))) {
+				metricsFile |= f[1].equals("metrics_file");
+				line = "parameter " + f[1] + " " + Simulator.fork_file_name(f[2], run);
+			} else if (f.length == 3 && f[0].equalsIgnoreCase("checkpoint")) {
+				line = "checkpoint " + f[1] + " " + Simulator.fork_file_name(f[2], run);
+			} else if (f.length >= 2 && f[0].equalsIgnoreCase("parameter") && f[1].equals("metrics_interval")) {
+				metrics = true;
+			}
+			s.append(line).append('\n');
+		}
+		if (metrics && !metricsFile) // the default metrics file
+			s.append("parameter metrics_file ").append(Simulator.fork_file_name("metrics.csv", run)).append('\n');
+		return s.toString();
+	}
+
+	/**
+	 * Ends the line of a failed run with its error, and tells which run failed
+	 */
+	private void failed(int run, StringBuilder line, String error) {
+		line.append(",\"error: ").append(error.replace('"', '\'')).append('"');
+		StringBuilder which = new StringBuilder();
+		String[] v = runs.get(run);
+		for (int i = 0; i < v.length; i++)
+			which.append(i > 0 ? ", " : "").append(i < names.size() ? names.get(i) : "seed").append('=').append(v[i]);
+		System.err.println("sweep: run " + run + " (" + which + ") failed: " + error);
+	}
+
+	/**
+	 * main function called from the command line with one argument which is the
+	 * sweep file.
+	 *
+	 * @param args
+	 */
+	public static void main(String args[]) throws Exception {
+		if (args.length != 1) {
+			System.out.println("Usage : java cnss.simulator.Sweep <sweep file>");
+			System.exit(1);
+		}
+		try {
+			new Sweep(args[0]).run();
+		} catch (SimulatorException e) {
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+	}
+
+}
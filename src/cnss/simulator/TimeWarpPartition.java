@@ -0,0 +1,714 @@
+package cnss.simulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import cnss.simulator.Event.EventType;
+
+/**
+ * A <code>TimeWarpPartition</code> is one logical process of a
+ * <code>TimeWarpSimulator</code>: it runs, optimistically, the processing
+ * steps of the nodes of one partition. It owns a full copy of the simulation,
+ * built from the same configuration, but only initializes and processes its
+ * own nodes and the links with one of them at a side.
+ *
+ * Events are ordered by a <code>Stamp</code> that gives them, without a global
+ * counter, the order the sequential simulator gives them by their UUID. The
+ * packets transmitted to a node of another partition are sent to it as
+ * messages. Before a node or a link changes in a processing step, its state
+ * is saved; a message older than the last step executed (a straggler) rolls
+ * back the steps not older than it, restoring those states, putting back the
+ * events they consumed and sending anti-messages that cancel the messages
+ * they sent. The output of the nodes is kept, with the key that orders it as
+ * the sequential simulator prints it, until the global virtual time commits
+ * it.
+ */
+class TimeWarpPartition {
+
+	// the phases of a processing step that produce output, in order
+	static final int INIT = 0;
+	static final int EVENTS = 1;
+	static final int NODES = 2;
+
+	/**
+	 * The key of an event: its time and, for events with the same time, the
+	 * order they were created in by the sequential simulator, i.e., the step
+	 * that created them (0 for the configuration, 1 for the initialization, t+2
+	 * for step t), the node, or link side after all nodes, that created them,
+	 * and their order among the events of that node or link side
+	 */
+	static final class Stamp implements Comparable<Stamp> {
+		final int time;
+		final int created;
+		final int rank;
+		final long seq;
+
+		Stamp(int time, int created, int rank, long seq) {
+			this.time = time;
+			this.created = created;
+			this.rank = rank;
+			this.seq = seq;
+		}
+
+		public int compareTo(Stamp o) {
+			if (time != o.time)
+				return Integer.compare(time, o.time);
+			if (created != o.created)
+				return Integer.compare(created, o.created);
+			if (rank != o.rank)
+				return Integer.compare(rank, o.rank);
+			return Long.compare(seq, o.seq);
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Stamp && compareTo((Stamp) o) == 0;
+		}
+
+		public int hashCode() {
+			return (int) (time * 31L + created * 17L + rank * 7L + seq);
+		}
+	}
+
+	/**
+	 * An event waiting in the queue of the partition
+	 */
+	private static final class Pending {
+		final Event ev;
+		final int link; // the link that asked for a LINK_WAKEUP event
+		final boolean config; // an event of the configuration, present in all partitions
+
+		Pending(Event ev, int link, boolean config) {
+			this.ev = ev;
+			this.link = link;
+			this.config = config;
+		}
+	}
+
+	/**
+	 * A packet delivery sent by another partition, or an anti-message that
+	 * cancels it if ev is null
+	 */
+	private static final class Message {
+		final Stamp stamp;
+		final Event ev;
+
+		Message(Stamp stamp, Event ev) {
+			this.stamp = stamp;
+			this.ev = ev;
+		}
+	}
+
+	/**
+	 * What is needed to undo a processing step
+	 */
+	private static final class Step {
+		final int time;
+		final List<Stamp> consumed = new ArrayList<>();
+		final List<Pending> consumedEvents = new ArrayList<>();
+		final List<Stamp> created = new ArrayList<>();
+		final List<Stamp> sent = new ArrayList<>();
+		final List<Integer> sentTo = new ArrayList<>();
+		final List<Integer> nodes = new ArrayList<>();
+		final List<byte[]> nodeStates = new ArrayList<>();
+		final List<Integer> links = new ArrayList<>();
+		final List<byte[]> linkStates = new ArrayList<>();
+		long digest = 0; // the sum of the hashes of the events, if digested
+		int events = 0;
+
+		Step(int time) {
+			this.time = time;
+		}
+	}
+
+	/**
+	 * The output of a node in a phase of a processing step, or the counters of
+	 * a link side taken for a packet stats dump
+	 */
+	static final class Record implements Comparable<Record> {
+		final int time;
+		final int phase;
+		final Stamp event; // the dump event, null outside the EVENTS phase
+		final int node; // the node, or the link whose side counters are taken
+		final String text;
+		final int[] links; // the links of a packet stats dump, printed after the text
+		final int side; // the side of the link whose counters are taken, 0 if none
+		final Link.SideStats stats;
+
+		Record(int time, int phase, Stamp event, int node, String text, int[] links, int side, Link.SideStats stats) {
+			this.time = time;
+			this.phase = phase;
+			this.event = event;
+			this.node = node;
+			this.text = text;
+			this.links = links;
+			this.side = side;
+			this.stats = stats;
+		}
+
+		public int compareTo(Record o) {
+			if (time != o.time)
+				return Integer.compare(time, o.time);
+			if (phase != o.phase)
+				return Integer.compare(phase, o.phase);
+			if (event != null && event != o.event) {
+				int c = event.compareTo(o.event);
+				if (c != 0)
+					return c;
+			}
+			return Integer.compare(node, o.node);
+		}
+	}
+
+	/**
+	 * The stream given to the nodes of the partition: what they print is
+	 * captured and becomes a record; before the simulation starts, it is
+	 * discarded
+	 */
+	private static final class Capture extends OutputStream {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream target; // null while capturing
+
+		Capture(PrintStream target) {
+			this.target = target;
+		}
+
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) {
+			if (target != null)
+				target.write(b, off, len);
+			else
+				bytes.write(b, off, len);
+		}
+	}
+
+	final int id;
+	private final TimeWarpSimulator engine;
+	private final Simulator sim;
+	private final Node[] nodes;
+	private final Link[] links;
+	private final int[] partition; // the partition of each node
+	private final boolean[] localLink; // links with a side in this partition
+	private final PrintStream err;
+	private final Capture capture;
+	private final boolean digesting; // the parameter digest_file is defined
+
+	private final TreeMap<Stamp, Pending> queue = new TreeMap<>();
+	private final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<>();
+	private final ArrayDeque<Step> steps = new ArrayDeque<>(); // the steps not yet committed
+	private final ArrayList<Record> records = new ArrayList<>(); // the output not yet committed
+	private int lvt = -1; // the local virtual time: the clock of the last step executed
+	private int committed = -1; // the clock of the last step committed
+
+	// the nodes and links saved by the current step, and those to process
+	private Step step;
+	private final int[] nodeSavedBy;
+	private final int[] linkSavedBy;
+	private int stepCount = 0;
+	private final boolean[] nodeActive;
+	private final boolean[] linkActive;
+	private final List<Integer> activeNodes = new ArrayList<>();
+	private final List<Integer> activeLinks = new ArrayList<>();
+	private final ByteArrayOutputStream state = new ByteArrayOutputStream();
+	private final DataOutputStream stateOut = new DataOutputStream(state);
+
+	private long processedSteps = 0;
+	private long rolledBackSteps = 0;
+	private long antiMessages = 0;
+
+	/**
+	 * Loads a copy of the simulation for a partition
+	 *
+	 * @param id        the partition
+	 * @param engine    the engine the partition belongs to
+	 * @param cf        the configuration file
+	 * @param partition the partition of each node
+	 * @param err       where warnings go
+	 */
+	TimeWarpPartition(int id, TimeWarpSimulator engine, String cf, int[] partition, PrintStream err) {
+		this.id = id;
+		this.engine = engine;
+		this.err = err;
+		// the loading of the configuration was already printed
+		capture = new Capture(new PrintStream(OutputStream.nullOutputStream()));
+		sim = new Simulator(cf, new PrintStream(capture, false), err);
+		capture.target = null;
+		sim.detachSharedEngines("multicast groups and fluid flows are not supported by the time warp engine");
+		nodes = sim.getNodes();
+		links = sim.getLinks();
+		digesting = sim.getParameters().containsKey("digest_file");
+		this.partition = partition;
+		localLink = new boolean[links.length];
+		for (int j = 0; j < links.length; j++)
+			localLink[j] = isLocal(links[j].getNode(1)) || isLocal(links[j].getNode(2));
+		nodeSavedBy = new int[nodes.length];
+		linkSavedBy = new int[links.length];
+		nodeActive = new boolean[nodes.length];
+		linkActive = new boolean[links.length];
+		// the events of the configuration keep their order: their UUIDs were numbered first
+		for (Event ev : sim.getEventQueue().events()) {
+			long seq = ev.getUUID() - ev.getTime() * Event.DISPLACEMENT;
+			queue.put(new Stamp(ev.getTime(), 0, 0, seq), new Pending(ev, -1, true));
+		}
+	}
+
+	private boolean isLocal(int node) {
+		return partition[node] == id;
+	}
+
+	/**
+	 * Initializes the nodes of the partition and transmits the packets they
+	 * sent, as the sequential simulator does at time step 0
+	 */
+	void initialize() {
+		step = null;
+		for (int n = 0; n < nodes.length; n++) {
+			if (!isLocal(n))
+				continue;
+			nodes[n].initialize();
+			flush(0, INIT, null, n);
+			enqueue_generated_events(n, 0, 1);
+		}
+		for (int j = 0; j < links.length; j++) {
+			if (!localLink[j])
+				continue;
+			links[j].transmitPackets(0);
+			enqueue_packets_to_deliver(j, 0, 1);
+		}
+	}
+
+	/**
+	 * Returns the time of the next event of the partition
+	 *
+	 * @return the time, or Integer.MAX_VALUE if there is none
+	 */
+	int nextTime() {
+		return queue.isEmpty() ? Integer.MAX_VALUE : queue.firstKey().time;
+	}
+
+	/**
+	 * Executes the processing steps with clock &lt;= limit, handling the
+	 * messages received before each one
+	 *
+	 * @param limit the clock of the last step to execute
+	 */
+	void runUntil(int limit) {
+		drain();
+		while (!queue.isEmpty() && queue.firstKey().time <= limit) {
+			process_step(queue.firstKey().time);
+			drain();
+		}
+	}
+
+	/**
+	 * Handles the messages received, rolling back if some is a straggler
+	 *
+	 * @return true if there was some message
+	 */
+	boolean drain() {
+		boolean any = false;
+		Message m;
+		while ((m = inbox.poll()) != null) {
+			any = true;
+			if (m.ev == null) {
+				// the delivery was cancelled; if it was already processed, undo it first
+				if (queue.remove(m.stamp) == null) {
+					rollback(m.stamp.time);
+					if (queue.remove(m.stamp) == null)
+						throw new SimulatorException("time warp: anti-message without message at " + m.stamp.time);
+				}
+			} else {
+				if (m.stamp.time <= lvt)
+					rollback(m.stamp.time);
+				queue.put(m.stamp, new Pending(m.ev, -1, false));
+			}
+		}
+		return any;
+	}
+
+	/**
+	 * Executes one processing step
+	 *
+	 * @param now the clock of the processing step
+	 */
+	private void process_step(int now) {
+		step = new Step(now);
+		stepCount++;
+		while (!queue.isEmpty() && queue.firstKey().time == now) {
+			Map.Entry<Stamp, Pending> e = queue.pollFirstEntry();
+			step.consumed.add(e.getKey());
+			step.consumedEvents.add(e.getValue());
+			// the events of the configuration are digested by one partition
+			if (digesting && (!e.getValue().config || id == 0)) {
+				step.digest += EventDigest.hash(e.getValue().ev);
+				step.events++;
+			}
+			process_event(e.getKey(), e.getValue(), now);
+		}
+		// the nodes, then the links, in the order of the sequential simulator
+		activeNodes.sort(null);
+		for (int n : activeNodes) {
+			nodeActive[n] = false;
+			for (int i = 0; i < nodes[n].getNumInterfaces(); i++) {
+				Link l = nodes[n].getLink(i);
+				if (l != null)
+					activate_link(l.getIndex());
+			}
+			nodes[n].process_input_events(now);
+			flush(now, NODES, null, n);
+			enqueue_generated_events(n, now, now + 2);
+		}
+		activeNodes.clear();
+		activeLinks.sort(null);
+		for (int j : activeLinks) {
+			linkActive[j] = false;
+			links[j].transmitPackets(now);
+			enqueue_packets_to_deliver(j, now, now + 2);
+		}
+		activeLinks.clear();
+		steps.addLast(step);
+		step = null;
+		lvt = now;
+		processedSteps++;
+	}
+
+	/**
+	 * Handles an event of the queue; the events of the configuration are
+	 * shared by all the partitions and by the re-executions of the step, so
+	 * they are not changed
+	 */
+	private void process_event(Stamp stamp, Pending pd, int now) {
+		Event ev = pd.ev;
+		switch (ev.getOperation()) {
+		case TRACEROUTE:
+			int src = Integer.parseInt(ev.getArgument(0));
+			if (isLocal(src)) {
+				Packet packet = new TracingPacket(src, Integer.parseInt(ev.getArgument(1)), new byte[0]);
+				packet.setSequenceNumber(-1);
+				packet.setCreationTime(now);
+				input(src, new Event(EventType.DELIVER_PACKET, now, 0, ev.getArgs(), packet, src, ev.getInterface()));
+			}
+			break;
+		case UPLINK:
+		case DOWNLINK:
+			// all partitions change the link: the nodes may read the state of any link
+			for (int j = 0; j < links.length; j++) {
+				Link l = links[j];
+				if (l.getNode(1) == Integer.parseInt(ev.getArgument(0)) && l.getInterface(1) == Integer.parseInt(ev.getArgument(1))
+						&& l.getNode(2) == Integer.parseInt(ev.getArgument(2)) && l.getInterface(2) == Integer.parseInt(ev.getArgument(3))) {
+					save_link(j);
+					l.setState(ev.getOperation() == EventType.UPLINK);
+					for (int side = 1; side <= 2; side++) {
+						if (isLocal(l.getNode(side)))
+							input(l.getNode(side), new Event(ev.getOperation(), now, 0, side == 1 ? ev.getArgs() : new String[0],
+									null, l.getNode(side), l.getInterface(side)));
+					}
+				}
+			}
+			break;
+		case DUMP_RT:
+		case DUMP_CONTROLSTATE:
+		case DUMP_APPSTATE:
+			for (int n : dumped(ev)) {
+				if (!isLocal(n))
+					continue;
+				if (ev.getOperation() == EventType.DUMP_RT)
+					nodes[n].dumpRoutingTable(now);
+				else if (ev.getOperation() == EventType.DUMP_CONTROLSTATE)
+					nodes[n].dumpControlState(now);
+				else
+					nodes[n].dumpAppState(now);
+				flush(now, EVENTS, stamp, n);
+			}
+			break;
+		case DUMP_PACKETS:
+			// the counters of a link side are updated by the partition of its node
+			boolean[] taken = new boolean[2 * links.length];
+			for (int n : dumped(ev)) {
+				int[] ls = new int[nodes[n].getNumInterfaces()];
+				for (int i = 0; i < ls.length; i++) {
+					ls[i] = nodes[n].getLink(i).getIndex();
+					for (int side = 1; side <= 2; side++) {
+						int k = 2 * ls[i] + side - 1;
+						if (isLocal(links[ls[i]].getNode(side)) && !taken[k]) {
+							taken[k] = true;
+							records.add(new Record(now, EVENTS, stamp, ls[i], null, null, side, links[ls[i]].getSideStats(side)));
+						}
+					}
+				}
+				if (isLocal(n))
+					records.add(new Record(now, EVENTS, stamp, n, nodes[n].packetStatsHeader(now), ls, 0, null));
+			}
+			break;
+		case LINK_WAKEUP:
+			activate_link(pd.link);
+			break;
+		case DELIVER_PACKET:
+			// the packet is copied: a rolled back step delivers it again
+			input(ev.getNode(), new Event(EventType.DELIVER_PACKET, now, 0, ev.getArgs(),
+					Checkpoint.copyPacket(ev.getPacket()), ev.getNode(), ev.getInterface()));
+			break;
+		case CLOCK_INTERRUPT:
+			input(ev.getNode(), ev);
+			break;
+		default:
+			throw new SimulatorException("time warp: unsupported event " + ev);
+		}
+	}
+
+	/**
+	 * Returns the nodes of a dump event
+	 */
+	private int[] dumped(Event ev) {
+		if (ev.getArgument(0).equals("all")) {
+			int[] all = new int[nodes.length];
+			for (int n = 0; n < all.length; n++)
+				all[n] = n;
+			return all;
+		}
+		return new int[] { Integer.parseInt(ev.getArgument(0)) };
+	}
+
+	/**
+	 * Gives an event to a node of the partition, which will process it in this
+	 * step
+	 */
+	private void input(int n, Event ev) {
+		save_node(n);
+		nodes[n].addInputEvent(ev);
+		if (!nodeActive[n]) {
+			nodeActive[n] = true;
+			activeNodes.add(n);
+		}
+	}
+
+	/**
+	 * Marks a link to transmit its packets in this step
+	 */
+	private void activate_link(int j) {
+		save_link(j);
+		if (!linkActive[j]) {
+			linkActive[j] = true;
+			activeLinks.add(j);
+		}
+	}
+
+	/**
+	 * Saves the state of a node before it changes for the first time in the
+	 * current step
+	 */
+	private void save_node(int n) {
+		if (step == null || nodeSavedBy[n] == stepCount)
+			return;
+		nodeSavedBy[n] = stepCount;
+		try {
+			state.reset();
+			nodes[n].writeState(stateOut);
+			stateOut.flush();
+		} catch (IOException e) {
+			throw new SimulatorException("time warp: cannot save node " + n + ": " + e.getMessage(), e);
+		}
+		step.nodes.add(n);
+		step.nodeStates.add(state.toByteArray());
+	}
+
+	/**
+	 * Saves the state of a link before it changes for the first time in the
+	 * current step
+	 */
+	private void save_link(int j) {
+		if (step == null || linkSavedBy[j] == stepCount)
+			return;
+		linkSavedBy[j] = stepCount;
+		try {
+			state.reset();
+			links[j].writeState(stateOut);
+			stateOut.flush();
+		} catch (IOException e) {
+			throw new SimulatorException("time warp: cannot save link " + links[j] + ": " + e.getMessage(), e);
+		}
+		step.links.add(j);
+		step.linkStates.add(state.toByteArray());
+	}
+
+	/**
+	 * Makes what a node printed a record of the output
+	 */
+	private void flush(int now, int phase, Stamp event, int n) {
+		if (capture.bytes.size() == 0)
+			return;
+		records.add(new Record(now, phase, event, n, capture.bytes.toString(Charset.defaultCharset()), null, 0, null));
+		capture.bytes.reset();
+	}
+
+	/**
+	 * Queues the events generated by a node, as the sequential simulator does
+	 */
+	private void enqueue_generated_events(int n, int now, int created) {
+		long seq = 0;
+		Event e = nodes[n].getOutputEvent();
+		while (e != null) {
+			if (e.getTime() <= now) {
+				err.println("Time: " + now + " node: " + nodes[n] + " new deliver packet event time younger than now");
+				return;
+			}
+			add(new Stamp(e.getTime(), created, n, seq++), new Pending(e, -1, false));
+			e = nodes[n].getOutputEvent();
+		}
+	}
+
+	/**
+	 * Queues the events generated by a link, or sends them to the partition of
+	 * the node they deliver a packet to
+	 */
+	private void enqueue_packets_to_deliver(int j, int now, int created) {
+		long seq = 0;
+		Event ev = links[j].getOutputEvent();
+		while (ev != null) {
+			if (ev.getTime() <= now) {
+				err.println("Time: " + now + " link: " + links[j] + " new deliver packet event time younger than now");
+				return;
+			}
+			// the events of each side are ordered apart, as the partitions of its two nodes create them
+			Link l = links[j];
+			boolean side1 = ev.getOperation() == EventType.LINK_WAKEUP
+					? ev.getNode() == l.getNode(1) && ev.getInterface() == l.getInterface(1)
+					: ev.getNode() == l.getNode(2) && ev.getInterface() == l.getInterface(2);
+			Stamp stamp = new Stamp(ev.getTime(), created, nodes.length + 1 + 2 * j + (side1 ? 0 : 1), seq++);
+			if (ev.getOperation() == EventType.LINK_WAKEUP || isLocal(ev.getNode())) {
+				add(stamp, new Pending(ev, j, false));
+			} else {
+				int to = partition[ev.getNode()];
+				engine.getPartition(to).inbox.add(new Message(stamp, ev));
+				if (step != null) {
+					step.sent.add(stamp);
+					step.sentTo.add(to);
+				}
+			}
+			ev = links[j].getOutputEvent();
+		}
+	}
+
+	private void add(Stamp stamp, Pending pd) {
+		queue.put(stamp, pd);
+		if (step != null)
+			step.created.add(stamp);
+	}
+
+	/**
+	 * Undoes the steps with clock &gt;= time
+	 *
+	 * @param time the clock of the straggler
+	 */
+	private void rollback(int time) {
+		if (time <= committed)
+			throw new SimulatorException("time warp: straggler at " + time + " before the global virtual time");
+		while (!steps.isEmpty() && steps.peekLast().time >= time) {
+			Step s = steps.pollLast();
+			try {
+				for (int k = 0; k < s.nodes.size(); k++)
+					nodes[s.nodes.get(k)].readState(new DataInputStream(new ByteArrayInputStream(s.nodeStates.get(k))));
+				for (int k = 0; k < s.links.size(); k++)
+					links[s.links.get(k)].readState(new DataInputStream(new ByteArrayInputStream(s.linkStates.get(k))));
+			} catch (IOException e) {
+				throw new SimulatorException("time warp: cannot restore step " + s.time + ": " + e.getMessage(), e);
+			}
+			for (Stamp c : s.created)
+				queue.remove(c);
+			for (int k = 0; k < s.consumed.size(); k++)
+				queue.put(s.consumed.get(k), s.consumedEvents.get(k));
+			for (int k = 0; k < s.sent.size(); k++) {
+				engine.getPartition(s.sentTo.get(k)).inbox.add(new Message(s.sent.get(k), null));
+				antiMessages++;
+			}
+			rolledBackSteps++;
+		}
+		int n = records.size();
+		while (n > 0 && records.get(n - 1).time >= time)
+			n--;
+		records.subList(n, records.size()).clear();
+		lvt = steps.isEmpty() ? committed : steps.peekLast().time;
+	}
+
+	/**
+	 * Forgets the saved states of the steps older than the global virtual
+	 * time, which cannot be rolled back, and returns their output; the event
+	 * digests of these steps are added to those of the other partitions
+	 *
+	 * @param gvt     the global virtual time
+	 * @param digests the sum of the hashes and the number of events of each
+	 *                step, or null if not digested
+	 * @return the records older than gvt
+	 */
+	List<Record> commit(int gvt, Map<Integer, long[]> digests) {
+		while (!steps.isEmpty() && steps.peekFirst().time < gvt) {
+			Step s = steps.pollFirst();
+			committed = s.time;
+			if (digests != null) {
+				long[] d = digests.computeIfAbsent(s.time, k -> new long[2]);
+				d[0] += s.digest;
+				d[1] += s.events;
+			}
+		}
+		int n = 0;
+		while (n < records.size() && records.get(n).time < gvt)
+			n++;
+		List<Record> done = new ArrayList<>(records.subList(0, n));
+		records.subList(0, n).clear();
+		return done;
+	}
+
+	/**
+	 * Returns the number of events in the queue; the events of the
+	 * configuration, which all partitions have, are only counted if asked
+	 */
+	int pendingEvents(boolean config) {
+		int count = 0;
+		for (Pending pd : queue.values())
+			if (config || !pd.config)
+				count++;
+		return count;
+	}
+
+	int getClock() {
+		return lvt;
+	}
+
+	long getProcessedSteps() {
+		return processedSteps;
+	}
+
+	long getRolledBackSteps() {
+		return rolledBackSteps;
+	}
+
+	long getAntiMessages() {
+		return antiMessages;
+	}
+
+	/**
+	 * Returns the links of the partition, for the composition of packet stats
+	 */
+	Link[] getLinks() {
+		return links;
+	}
+
+	public String toString() {
+		return "partition " + id;
+	}
+
+}
@@ -0,0 +1,443 @@
+package cnss.simulator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import cnss.simulator.Event.EventType;
+
+/**
+ * The <code>TimeWarpSimulator</code> class runs a simulation in parallel with
+ * the optimistic Time Warp protocol, and prints the same output as the
+ * sequential simulator. It is meant for networks with links of very small
+ * latency, where a conservative engine could only run a few steps ahead of the
+ * slowest partition. It is started with
+ * <code>java cnss.simulator.TimeWarpSimulator [-p partitions] config_file</code>.
+ *
+ * The nodes are split in partitions by a <code>Partitioner</code>, or in blocks
+ * of consecutive ids with the parameter <code>timewarp_partition blocks</code>.
+ * Each partition is run by a <code>TimeWarpPartition</code> in its own thread,
+ * without waiting for the
+ * others: a partition that receives a packet in its past rolls back. The
+ * engine proceeds in rounds: the partitions execute the steps up to a window
+ * beyond the global virtual time (GVT), the earliest time a partition may
+ * still be rolled back to; then the messages in transit are handled and the
+ * GVT is computed, the states saved for the steps before it are discarded and
+ * their output is printed, in the order of the sequential simulator. The
+ * window is halved after a round where more than a fifth of the steps were
+ * rolled back, and doubled, up to <code>timewarp_window</code> ms (parameter,
+ * default 100), after a round with few rollbacks. With the parameter
+ * <code>timewarp_stats</code>, the number of rounds, steps, rolled back steps
+ * and anti-messages is printed to the error stream at the end, and the
+ * statistics of the partition at the start.
+ * With the parameter <code>digest_file</code>, the events of the committed
+ * steps are digested as by the sequential simulator (see
+ * <code>EventDigest</code>), so that the two digests can be compared.
+ *
+ * All the algorithms must implement <code>StateSnapshot</code>, whose methods
+ * save and restore the state of the nodes. The engine does not support
+ * metrics exports, latency recording and reports, profiling, checkpoints, kernel broadcast,
+ * multicast groups and fluid flows. Links with errors or jitter draw them from
+ * one random generator for both directions, so their two nodes must be in the
+ * same partition.
+ */
+public class TimeWarpSimulator {
+
+	private static final String[] UNSUPPORTED = { "metrics_interval", "latencies", "latency_report", "fluid_report", "profile",
+			"kernel_broadcast" };
+
+	private final TimeWarpPartition[] partitions;
+	private final PrintStream out;
+	private final PrintStream err;
+	private final int stopTime;
+	private final int maxWindow;
+	private int window;
+	private final boolean stats;
+	private final EventDigest digest; // only created if the parameter digest_file is defined
+
+	private int gvt = 0;
+	private long rounds = 0;
+
+	/**
+	 * <code>TimeWarpSimulator</code> constructor, loads the configuration and
+	 * splits the nodes in partitions as set by the parameter
+	 * <code>timewarp_partition</code>
+	 *
+	 * @param cf         configuration file
+	 * @param partitions the number of partitions
+	 * @throws SimulatorException if the configuration is not valid or cannot be
+	 *                            run by this engine
+	 */
+	public TimeWarpSimulator(String cf, int partitions) {
+		this(cf, partitions, null, System.out, System.err);
+	}
+
+	/**
+	 * <code>TimeWarpSimulator</code> constructor, loads the configuration with
+	 * the nodes split in given partitions. All the output goes to the given
+	 * streams.
+	 *
+	 * @param cf        configuration file
+	 * @param partition the partition, from 0, of each node
+	 * @param out       where the output of the simulation goes
+	 * @param err       where warnings go
+	 * @throws SimulatorException if the configuration is not valid or cannot be
+	 *                            run by this engine
+	 */
+	public TimeWarpSimulator(String cf, int[] partition, PrintStream out, PrintStream err) {
+		this(cf, 0, partition, out, err);
+	}
+
+	private TimeWarpSimulator(String cf, int nparts, int[] partition, PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+		// the first copy prints the loading of the configuration, as the sequential simulator
+		Simulator sim = new Simulator(cf, out, err);
+		check(sim);
+		GlobalParameters gp = sim.getParameters();
+		stats = gp.containsKey("timewarp_stats");
+		digest = EventDigest.create(gp, err);
+		if (partition == null) {
+			String how = gp.containsKey("timewarp_partition") ? gp.get("timewarp_partition") : "multilevel";
+			if (how.equals("blocks")) {
+				partition = blocks(sim, nparts);
+			} else if (how.equals("multilevel")) {
+				if (nparts < 1)
+					throw new SimulatorException("time warp: the number of partitions must be positive: " + nparts);
+				partition = new Partitioner(sim).partition(nparts);
+			} else {
+				throw new SimulatorException("time warp: unknown timewarp_partition " + how);
+			}
+		}
+		check_partition(sim, partition);
+		if (stats)
+			new Partitioner(sim).printStats(err, partition);
+		int n = 0;
+		for (int p : partition)
+			n = Math.max(n, p + 1);
+		partitions = new TimeWarpPartition[n];
+		for (int p = 0; p < n; p++)
+			partitions[p] = new TimeWarpPartition(p, this, cf, partition, err);
+		stopTime = sim.getStopTime();
+		maxWindow = gp.containsKey("timewarp_window") ? Integer.parseInt(gp.get("timewarp_window")) : 100;
+		if (maxWindow < 1)
+			throw new SimulatorException("time warp: timewarp_window must be positive: " + maxWindow);
+		window = maxWindow;
+	}
+
+	/**
+	 * Checks that the simulation only uses what this engine supports
+	 */
+	private static void check(Simulator sim) {
+		for (String name : UNSUPPORTED)
+			if (sim.getParameters().containsKey(name))
+				throw new SimulatorException("time warp: parameter " + name + " is not supported");
+		for (Event ev : sim.getEventQueue().events())
+			if (ev.getOperation() == EventType.CHECKPOINT)
+				throw new SimulatorException("time warp: checkpoints are not supported");
+		Node[] nodes = sim.getNodes();
+		for (int i = 0; i < nodes.length; i++) {
+			String blocker = nodes[i].checkpointBlocker();
+			if (blocker != null)
+				throw new SimulatorException("time warp: " + blocker + " of node " + i + " does not implement StateSnapshot");
+		}
+	}
+
+	/**
+	 * Tells whether a link draws random errors or jitter
+	 */
+	private static boolean is_random(Link l) {
+		return l.getErrors() > 0.0001 || l.getJitter() > 0.0001;
+	}
+
+	/**
+	 * Checks that a partition covers all nodes and does not cut links with
+	 * errors or jitter
+	 */
+	private static void check_partition(Simulator sim, int[] partition) {
+		if (partition.length != sim.getNodes().length)
+			throw new SimulatorException("time warp: the partition must have one entry per node");
+		for (int p : partition)
+			if (p < 0)
+				throw new SimulatorException("time warp: negative partition " + p);
+		for (Link l : sim.getLinks())
+			if (is_random(l) && partition[l.getNode(1)] != partition[l.getNode(2)])
+				throw new SimulatorException("time warp: link with errors or jitter cut by the partition: " + l);
+	}
+
+	/**
+	 * Splits the nodes in blocks of about the same number of consecutive ids;
+	 * the nodes of links with errors or jitter stay in the block of the
+	 * smallest of them
+	 *
+	 * @param sim    the simulation
+	 * @param nparts the number of blocks
+	 * @return the block of each node
+	 */
+	static int[] blocks(Simulator sim, int nparts) {
+		int n = sim.getNodes().length;
+		if (nparts < 1)
+			throw new SimulatorException("time warp: the number of partitions must be positive: " + nparts);
+		nparts = Math.min(nparts, Math.max(1, n));
+		// union-find of the nodes joined by random links
+		int[] root = new int[n];
+		for (int u = 0; u < n; u++)
+			root[u] = u;
+		for (Link l : sim.getLinks()) {
+			if (!is_random(l))
+				continue;
+			int a = find(root, l.getNode(1));
+			int b = find(root, l.getNode(2));
+			root[Math.max(a, b)] = Math.min(a, b);
+		}
+		int[] size = new int[n];
+		for (int u = 0; u < n; u++)
+			size[find(root, u)]++;
+		int[] partition = new int[n];
+		int p = 0;
+		int count = 0;
+		for (int u = 0; u < n; u++) {
+			int r = find(root, u);
+			if (r == u) {
+				// a group starts at its smallest node
+				if (p < nparts - 1 && count >= (long) (p + 1) * n / nparts)
+					p++;
+				partition[u] = p;
+				count += size[u];
+			} else {
+				partition[u] = partition[r];
+			}
+		}
+		return partition;
+	}
+
+	private static int find(int[] root, int u) {
+		while (root[u] != u) {
+			root[u] = root[root[u]];
+			u = root[u];
+		}
+		return u;
+	}
+
+	TimeWarpPartition getPartition(int p) {
+		return partitions[p];
+	}
+
+	/**
+	 * Runs the simulation until the stop time and prints its end, as
+	 * <code>Simulator.main_loop</code>
+	 */
+	public void main_loop() {
+		long t0 = System.nanoTime();
+		out.println("\nsimulation starts - first processing step with clock = 0\n");
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(partitions.length, Runtime.getRuntime().availableProcessors()));
+		try {
+			run_all(pool, p -> p.initialize());
+			drain();
+			while (true) {
+				gvt = Integer.MAX_VALUE;
+				for (TimeWarpPartition p : partitions)
+					gvt = Math.min(gvt, p.nextTime());
+				print(gvt);
+				if (gvt > stopTime)
+					break;
+				int limit = (int) Math.min(stopTime, (long) gvt + window - 1);
+				long steps = getProcessedSteps();
+				long undone = getRolledBackSteps();
+				run_all(pool, p -> p.runUntil(limit));
+				drain();
+				rounds++;
+				// less optimism when the partitions undo much of their work
+				steps = getProcessedSteps() - steps;
+				undone = getRolledBackSteps() - undone;
+				if (undone * 5 > steps)
+					window = Math.max(1, window / 2);
+				else if (undone * 20 < steps)
+					window = (int) Math.min(maxWindow, 2L * window);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		// as finish(): the events of the configuration are in all partitions
+		int pending = partitions[0].pendingEvents(true);
+		for (int p = 1; p < partitions.length; p++)
+			pending += partitions[p].pendingEvents(false);
+		int now = 0;
+		if (pending > 0) {
+			now = gvt;
+			out.println("\nwarning - " + pending + " events not run; stoped too early?");
+		} else {
+			for (TimeWarpPartition p : partitions)
+				now = Math.max(now, p.getClock());
+		}
+		if (digest != null)
+			digest.close();
+		out.println("\nsimulation ended - last processing step with clock = " + now + "\n");
+		if (stats)
+			err.println("time warp: " + partitions.length + " partitions, " + rounds + " rounds, " + getProcessedSteps()
+					+ " steps, " + getRolledBackSteps() + " rolled back, " + getAntiMessages() + " anti-messages, "
+					+ (System.nanoTime() - t0) / 1000000 + " ms");
+	}
+
+	/**
+	 * Runs a task on each partition, in parallel, and waits for all of them
+	 */
+	private void run_all(ExecutorService pool, Consumer<TimeWarpPartition> task) {
+		List<Callable<Void>> calls = new ArrayList<>();
+		for (TimeWarpPartition p : partitions)
+			calls.add(() -> {
+				task.accept(p);
+				return null;
+			});
+		try {
+			for (Future<Void> f : pool.invokeAll(calls))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SimulatorException("time warp: interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new SimulatorException("time warp: " + e.getCause(), e.getCause());
+		}
+	}
+
+	/**
+	 * Handles the messages in transit, until there are none; the rollbacks
+	 * they cause may send anti-messages
+	 */
+	private void drain() {
+		boolean any = true;
+		while (any) {
+			any = false;
+			for (TimeWarpPartition p : partitions)
+				any |= p.drain();
+		}
+	}
+
+	/**
+	 * Prints the output of the steps before the global virtual time, which
+	 * are final
+	 */
+	private void print(int gvt) {
+		List<TimeWarpPartition.Record> records = new ArrayList<>();
+		TreeMap<Integer, long[]> digests = digest == null ? null : new TreeMap<>();
+		for (TimeWarpPartition p : partitions)
+			records.addAll(p.commit(gvt, digests));
+		records.sort(null);
+		if (digest != null)
+			for (Map.Entry<Integer, long[]> e : digests.entrySet())
+				digest.step(e.getKey(), e.getValue()[0], (int) e.getValue()[1]);
+		// the link sides of each packet stats dump, taken by the partitions of their nodes
+		Map<TimeWarpPartition.Stamp, Map<Integer, Link.SideStats>> sides = new HashMap<>();
+		for (TimeWarpPartition.Record r : records)
+			if (r.side != 0)
+				sides.computeIfAbsent(r.event, k -> new HashMap<>()).put(2 * r.node + r.side - 1, r.stats);
+		Link[] links = partitions[0].getLinks();
+		for (TimeWarpPartition.Record r : records) {
+			if (r.side != 0)
+				continue;
+			if (r.links == null) {
+				out.print(r.text);
+				continue;
+			}
+			String s = r.text;
+			Map<Integer, Link.SideStats> taken = sides.get(r.event);
+			for (int j : r.links)
+				s = s + links[j].dumpPacketStats(taken.get(2 * j), taken.get(2 * j + 1)) + "\n";
+			out.print(s);
+		}
+	}
+
+	/**
+	 * Returns the global virtual time: every step before it is final
+	 *
+	 * @return the time
+	 */
+	public int getGlobalVirtualTime() {
+		return gvt;
+	}
+
+	/**
+	 * Returns the number of rounds of the engine
+	 *
+	 * @return the rounds
+	 */
+	public long getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Returns the number of processing steps executed by the partitions,
+	 * including those rolled back
+	 *
+	 * @return the steps
+	 */
+	public long getProcessedSteps() {
+		long s = 0;
+		for (TimeWarpPartition p : partitions)
+			s += p.getProcessedSteps();
+		return s;
+	}
+
+	/**
+	 * Returns the number of processing steps undone by rollbacks
+	 *
+	 * @return the steps
+	 */
+	public long getRolledBackSteps() {
+		long s = 0;
+		for (TimeWarpPartition p : partitions)
+			s += p.getRolledBackSteps();
+		return s;
+	}
+
+	/**
+	 * Returns the number of anti-messages sent by rollbacks
+	 *
+	 * @return the anti-messages
+	 */
+	public long getAntiMessages() {
+		long s = 0;
+		for (TimeWarpPartition p : partitions)
+			s += p.getAntiMessages();
+		return s;
+	}
+
+	/**
+	 * main function called from the command line with the configuration file,
+	 * optionally preceded by -p and the number of partitions (default: the
+	 * number of processors)
+	 *
+	 * @param args
+	 */
+	public static void main(String args[]) {
+		int nparts = Runtime.getRuntime().availableProcessors();
+		int a = 0;
+		if (args.length == 3 && args[0].equals("-p")) {
+			nparts = Integer.parseInt(args[1]);
+			a = 2;
+		}
+		if (args.length != a + 1) {
+			System.out.println("Usage : java cnss.simulator.TimeWarpSimulator [-p <partitions>] <config file>");
+			System.exit(1);
+		}
+		try {
+			new TimeWarpSimulator(args[a], nparts).main_loop();
+		} catch (SimulatorException e) {
+			System.out.flush();
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package cnss.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A weighted fair queuing scheduler, in its self-clocked variant (SCFQ): each
+ * packet gets a virtual finish time, the finish time of the previous packet of
+ * its class or the finish time of the packet being transmitted, whichever is
+ * later, plus its size divided by the weight of its class; the packet with
+ * the smallest finish time is transmitted first. Within a class the finish
+ * times increase, so only the heads of the class queues are compared and both
+ * operations are O(1) in the number of packets.
+ */
+public class WfqScheduler extends EgressScheduler {
+
+	private static final long SCALE = 1L << 16; // finish times are in 1/SCALE bytes
+
+	private final ArrayDeque<Packet>[] queues;
+	private final long[][] finish; // finish times of the queued packets, as rings
+	private final int[] first; // position of the head finish time
+	private final int[] weights;
+	private final long[] lastFinish;
+	private long virtualTime = 0;
+
+	/**
+	 * <code>WfqScheduler</code> constructor
+	 *
+	 * @param weights the weights of the classes
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public WfqScheduler(int[] weights) {
+		super(weights.length);
+		this.weights = weights.clone();
+		queues = new ArrayDeque[numClasses];
+		finish = new long[numClasses][16];
+		first = new int[numClasses];
+		lastFinish = new long[numClasses];
+		for (int c = 0; c < numClasses; c++)
+			queues[c] = new ArrayDeque<>();
+	}
+
+	protected void enqueue(Packet p, int cls) {
+		long f = Math.max(virtualTime, lastFinish[cls]) + p.getSize() * SCALE / weights[cls];
+		lastFinish[cls] = f;
+		int n = queues[cls].size();
+		long[] ring = finish[cls];
+		if (n == ring.length) { // grows, unrolling the ring
+			long[] r = new long[n * 2];
+			for (int i = 0; i < n; i++)
+				r[i] = ring[(first[cls] + i) % n];
+			finish[cls] = ring = r;
+			first[cls] = 0;
+		}
+		ring[(first[cls] + n) % ring.length] = f;
+		queues[cls].add(p);
+	}
+
+	protected Packet dequeue() {
+		int best = -1;
+		for (int c = 0; c < numClasses; c++)
+			if (!queues[c].isEmpty() && (best < 0 || finish[c][first[c]] < finish[best][first[best]]))
+				best = c;
+		virtualTime = finish[best][first[best]];
+		first[best] = (first[best] + 1) % finish[best].length;
+		Packet p = queues[best].poll();
+		if (size() == 1) { // the scheduler becomes idle
+			virtualTime = 0;
+			Arrays.fill(lastFinish, 0);
+		}
+		return p;
+	}
+
+	protected void saveQueues(DataOutputStream out) throws IOException {
+		out.writeLong(virtualTime);
+		for (int c = 0; c < numClasses; c++) {
+			out.writeLong(lastFinish[c]);
+			out.writeInt(queues[c].size());
+			int i = first[c];
+			for (Packet p : queues[c]) {
+				out.writeLong(finish[c][i]);
+				writePacket(out, p);
+				i = (i + 1) % finish[c].length;
+			}
+		}
+	}
+
+	protected void restoreQueues(DataInputStream in) throws IOException {
+		virtualTime = in.readLong();
+		for (int c = 0; c < numClasses; c++) {
+			lastFinish[c] = in.readLong();
+			queues[c].clear();
+			int n = in.readInt();
+			finish[c] = new long[Math.max(16, Integer.highestOneBit(Math.max(1, n)) * 2)];
+			first[c] = 0;
+			for (int i = 0; i < n; i++) {
+				finish[c][i] = in.readLong();
+				queues[c].add(readPacket(in));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,17 @@
+package cnss.lib;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that <code>DistanceVectorRouting</code> converges to the shortest paths
+ * after links fail and come up again
+ */
+class DistanceVectorRoutingTest {
+
+	@Test
+	void convergesAfterLinkFailures() {
+		for (long seed = 1; seed <= 3; seed++)
+			new RoutingConvergence(seed).assertConverges("cnss.lib.DistanceVectorRouting");
+	}
+
+}
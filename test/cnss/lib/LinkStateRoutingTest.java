@@ -0,0 +1,17 @@
+package cnss.lib;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that <code>LinkStateRouting</code> converges to the shortest paths
+ * after links fail and come up again
+ */
+class LinkStateRoutingTest {
+
+	@Test
+	void convergesAfterLinkFailures() {
+		for (long seed = 1; seed <= 3; seed++)
+			new RoutingConvergence(seed).assertConverges("cnss.lib.LinkStateRouting");
+	}
+
+}
@@ -0,0 +1,72 @@
+package cnss.lib;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import cnss.simulator.Simulator;
+
+/**
+ * Tests of the loss recovery of <code>ReliableTransport</code>, through the
+ * state shown by <code>BulkTransferApp</code>
+ */
+class ReliableTransportTest {
+
+	private static final Pattern FLOW = Pattern
+			.compile("node (\\d+) flow \\d+ to \\d+ acked (\\d+) bytes .* segments (\\d+) retransmitted (\\d+) ");
+
+	/**
+	 * Two flows share a lossless 1 Mbps bottleneck, the second one starting
+	 * behind the queue of the first: no ack may start a retransmission of
+	 * segments only delayed in the queue
+	 */
+	private static String sharedBottleneck(String cc) {
+		return "parameter stop 60000\n"
+				+ "node 0 1 cnss.lib.EndSystemControl cnss.lib.BulkTransferApp cc=" + cc + " 3:300000\n"
+				+ "node 1 1 cnss.lib.EndSystemControl cnss.lib.BulkTransferApp cc=" + cc + " 3:1000000:1000\n"
+				+ "node 2 3 cnss.lib.StaticShortestPathControl cnss.lib.EmptyApp\n"
+				+ "node 3 1 cnss.lib.EndSystemControl cnss.lib.BulkTransferApp\n"
+				+ "link 0.0 2.0 10000000 5 0 0\n"
+				+ "link 1.0 2.1 10000000 5 0 0\n"
+				+ "link 2.2 3.0 1000000 20 0 0\n"
+				+ "dumpappstate 59999 all\n";
+	}
+
+	private static void assertFewRetransmissions(String cc) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+		Simulator sim = new Simulator(cc, new StringReader(sharedBottleneck(cc)), out, out);
+		sim.main_loop();
+		Matcher m = FLOW.matcher(bytes.toString(StandardCharsets.UTF_8));
+		int flows = 0;
+		while (m.find()) {
+			flows++;
+			long acked = Long.parseLong(m.group(2));
+			long segments = Long.parseLong(m.group(3));
+			long retransmitted = Long.parseLong(m.group(4));
+			assertEquals(m.group(1).equals("0") ? 300000 : 1000000, acked, cc + " node " + m.group(1));
+			// the second flow may time out once, as its first rtt exceeds the initial rto
+			assertTrue(retransmitted <= segments / 50, cc + " node " + m.group(1) + ": " + m.group());
+		}
+		assertEquals(2, flows, cc);
+	}
+
+	@Test
+	void renoDoesNotRetransmitOnLosslessBottleneck() {
+		assertFewRetransmissions("reno");
+	}
+
+	@Test
+	void cubicDoesNotRetransmitOnLosslessBottleneck() {
+		assertFewRetransmissions("cubic");
+	}
+
+}
@@ -0,0 +1,168 @@
+package cnss.lib;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import cnss.simulator.Simulator;
+
+/**
+ * A random network whose links fail, to check that a routing algorithm
+ * converges to the shortest paths, in hops, of the links left up: some links
+ * go down at 5000, one of them comes up again at 10000, and the last node
+ * loses all its links, so that every other node must drop its route to it
+ */
+class RoutingConvergence {
+
+	private static final int NODES = 30;
+
+	private static final Pattern TABLE = Pattern.compile("time \\d+ node (\\d+) routing table");
+	private static final Pattern ROUTE = Pattern.compile("  (\\d+) -> (\\d+) cost (\\d+)");
+
+	private final List<int[]> edges = new ArrayList<>(); // u, interface of u, v, interface of v
+	private final Set<Integer> down = new HashSet<>();
+	private final int repaired;
+
+	RoutingConvergence(long seed) {
+		Random rnd = new Random(seed);
+		Set<Long> pairs = new HashSet<>();
+		int[] degree = new int[NODES];
+		for (int v = 1; v < NODES; v++)
+			add(rnd.nextInt(v), v, degree, pairs);
+		while (edges.size() < 3 * NODES / 2) {
+			int u = rnd.nextInt(NODES);
+			int v = rnd.nextInt(NODES);
+			if (u < v && !pairs.contains((long) u * NODES + v))
+				add(u, v, degree, pairs);
+		}
+		for (int i = 0; i < edges.size(); i++)
+			if (edges.get(i)[2] == NODES - 1)
+				down.add(i);
+		int isolating = down.size();
+		int first = -1;
+		while (down.size() < isolating + 4) {
+			int i = rnd.nextInt(edges.size());
+			if (down.add(i) && first < 0)
+				first = i;
+		}
+		repaired = first;
+	}
+
+	private void add(int u, int v, int[] degree, Set<Long> pairs) {
+		pairs.add((long) u * NODES + v);
+		edges.add(new int[] { u, degree[u]++, v, degree[v]++ });
+	}
+
+	private String ends(int i) {
+		int[] e = edges.get(i);
+		return e[0] + "." + e[1] + " " + e[2] + "." + e[3];
+	}
+
+	/**
+	 * Returns the configuration of the network, routed by a control algorithm
+	 */
+	String config(String control) {
+		int[] degree = new int[NODES];
+		for (int[] e : edges) {
+			degree[e[0]]++;
+			degree[e[2]]++;
+		}
+		StringBuilder s = new StringBuilder("parameter stop 29500\n");
+		for (int u = 0; u < NODES; u++)
+			s.append("node " + u + " " + degree[u] + " " + control + " cnss.lib.EmptyApp\n");
+		for (int i = 0; i < edges.size(); i++)
+			s.append("link " + ends(i) + " 1000000 " + (5 + i % 7) + " 0 0\n");
+		for (int i : down)
+			s.append("downlink 5000 " + ends(i) + "\n");
+		s.append("uplink 10000 " + ends(repaired) + "\n");
+		s.append("dumproutes 29000 all\n");
+		return s.toString();
+	}
+
+	/**
+	 * Runs the network with a control algorithm and checks that the routes it
+	 * dumps are the shortest paths of the links left up
+	 */
+	void assertConverges(String control) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+		new Simulator(control, new StringReader(config(control)), out, new PrintStream(OutputStream.nullOutputStream()))
+				.main_loop();
+		// the neighbour behind each interface, and the hop distances, over the links left up
+		int[][] neighbour = new int[NODES][NODES];
+		List<List<Integer>> adjacent = new ArrayList<>();
+		for (int u = 0; u < NODES; u++)
+			adjacent.add(new ArrayList<>());
+		for (int i = 0; i < edges.size(); i++) {
+			int[] e = edges.get(i);
+			neighbour[e[0]][e[1]] = e[2];
+			neighbour[e[2]][e[3]] = e[0];
+			if (!down.contains(i) || i == repaired) {
+				adjacent.get(e[0]).add(e[2]);
+				adjacent.get(e[2]).add(e[0]);
+			}
+		}
+		int[][] hops = new int[NODES][];
+		for (int u = 0; u < NODES; u++)
+			hops[u] = distances(adjacent, u);
+
+		String[] tables = bytes.toString(StandardCharsets.UTF_8).split("\n(?=\\S)");
+		int checked = 0;
+		for (String table : tables) {
+			Matcher t = TABLE.matcher(table);
+			if (!t.find())
+				continue;
+			int u = Integer.parseInt(t.group(1));
+			int routes = 0;
+			Matcher r = ROUTE.matcher(table);
+			while (r.find()) {
+				int d = Integer.parseInt(r.group(1));
+				int next = neighbour[u][Integer.parseInt(r.group(2))];
+				int cost = Integer.parseInt(r.group(3));
+				String route = control + " node " + u + " to " + d;
+				assertEquals(hops[u][d], cost, route);
+				assertTrue(adjacent.get(u).contains(next) && hops[next][d] == cost - 1, route + " through " + next);
+				routes++;
+			}
+			long reachable = Arrays.stream(hops[u]).filter(h -> h > 0 && h < Integer.MAX_VALUE).count();
+			assertEquals(reachable, routes, control + " node " + u + " routes");
+			checked++;
+		}
+		assertEquals(NODES, checked, control + " routing tables");
+	}
+
+	/**
+	 * Breadth first search from a node
+	 */
+	private static int[] distances(List<List<Integer>> adjacent, int from) {
+		int[] d = new int[NODES];
+		Arrays.fill(d, Integer.MAX_VALUE);
+		d[from] = 0;
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		queue.add(from);
+		while (!queue.isEmpty()) {
+			int u = queue.poll();
+			for (int v : adjacent.get(u))
+				if (d[v] == Integer.MAX_VALUE) {
+					d[v] = d[u] + 1;
+					queue.add(v);
+				}
+		}
+		return d;
+	}
+
+}
@@ -0,0 +1,119 @@
+package cnss.lib;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cnss.simulator.Simulator;
+import cnss.simulator.TimeWarpSimulator;
+
+/**
+ * Tests that the routes of <code>StaticShortestPathControl</code> only depend
+ * on the state of the links, so the Time Warp engine, whose partitions update
+ * their own copies of the tables at different times, dumps the same routes as
+ * the sequential simulator
+ */
+class StaticShortestPathControlTest {
+
+	private static final int NODES = 40;
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * A random connected graph whose links have few distinct latencies, so many
+	 * pairs of nodes have several shortest paths, with links going down and up
+	 */
+	private static String flappingGraph(long seed) {
+		Random rnd = new Random(seed);
+		List<int[]> edges = new ArrayList<>();
+		Set<Long> pairs = new HashSet<>();
+		for (int v = 1; v < NODES; v++) {
+			int u = rnd.nextInt(v);
+			edges.add(new int[] { u, v });
+			pairs.add((long) u * NODES + v);
+		}
+		while (edges.size() < 2 * NODES) {
+			int u = rnd.nextInt(NODES);
+			int v = rnd.nextInt(NODES);
+			if (u < v && pairs.add((long) u * NODES + v))
+				edges.add(new int[] { u, v });
+		}
+		int[] degree = new int[NODES];
+		String[] ends = new String[edges.size()];
+		StringBuilder links = new StringBuilder();
+		for (int i = 0; i < edges.size(); i++) {
+			int u = edges.get(i)[0];
+			int v = edges.get(i)[1];
+			ends[i] = u + "." + degree[u]++ + " " + v + "." + degree[v]++;
+			links.append("link " + ends[i] + " 1000000 " + 10 * (1 + rnd.nextInt(3)) + " 0 0\n");
+		}
+		StringBuilder s = new StringBuilder("parameter stop 60000\nparameter static_weight latency\n");
+		for (int u = 0; u < NODES; u++)
+			s.append("node " + u + " " + degree[u] + " cnss.lib.StaticShortestPathControl cnss.lib.EmptyApp\n");
+		s.append(links);
+		List<Integer> down = new ArrayList<>();
+		int t = 1000;
+		for (int k = 0; k < 40; k++) {
+			t += 1 + rnd.nextInt(1000);
+			if (!down.isEmpty() && rnd.nextInt(10) < 4) {
+				s.append("uplink " + t + " " + ends[down.remove(rnd.nextInt(down.size()))] + "\n");
+			} else {
+				int i = rnd.nextInt(ends.length);
+				if (!down.contains(i)) {
+					down.add(i);
+					s.append("downlink " + t + " " + ends[i] + "\n");
+				}
+			}
+			if (k % 10 == 9)
+				s.append("dumproutes " + (t + 1) + " all\n");
+		}
+		s.append("dumproutes 59000 all\n");
+		return s.toString();
+	}
+
+	private static String sequential(String cf) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+		new Simulator(cf, out, out).main_loop();
+		return bytes.toString(StandardCharsets.UTF_8);
+	}
+
+	private static String timeWarp(String cf, int[] partition) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+		new TimeWarpSimulator(cf, partition, out, new PrintStream(new ByteArrayOutputStream())).main_loop();
+		return bytes.toString(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void timeWarpDumpsTheSequentialRoutes() throws IOException {
+		for (long seed = 1; seed <= 3; seed++) {
+			Path cf = dir.resolve("flaps" + seed + ".txt");
+			Files.writeString(cf, flappingGraph(seed));
+			String expected = sequential(cf.toString());
+			assertTrue(expected.contains(" cost "), "no routes dumped");
+			for (int parts : new int[] { 3, 4, 8 }) {
+				int[] partition = new int[NODES];
+				for (int u = 0; u < NODES; u++)
+					partition[u] = u % parts;
+				assertEquals(expected, timeWarp(cf.toString(), partition), "seed " + seed + ", " + parts + " partitions");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package cnss.simulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a simulation restored from a checkpoint proceeds exactly as the
+ * run that wrote it: same output and same event digest after the checkpoint
+ */
+class CheckpointTest {
+
+	private static final String NL = System.lineSeparator();
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * A ring of six routers with a chord, each one sending Poisson traffic to
+	 * all the others, over lossy links with jitter; a link of the ring fails
+	 * at 4000 and is repaired at 6000 if <code>failure</code>
+	 */
+	static String ring(boolean failure) {
+		StringBuilder s = new StringBuilder("parameter stop 8000\nparameter seed 7\n");
+		for (int u = 0; u < 6; u++)
+			s.append("node " + u + " " + (u % 3 == 0 ? 3 : 2) + " cnss.lib.LinkStateRouting cnss.lib.TrafficGenerator"
+					+ " mode=poisson rate=200000 size=500 dst=all seed=" + (u + 1) + "\n");
+		for (int u = 0; u < 6; u++)
+			s.append("link " + u + "." + (u == 0 ? 0 : 1) + " " + (u + 1) % 6 + "." + (u == 5 ? 1 : 0) + " 1000000 10 0.01 0.2\n");
+		s.append("link 0.2 3.2 1000000 20 0.01 0.2\n");
+		if (failure)
+			s.append("downlink 4000 0.0 1.0\nuplink 6000 0.0 1.0\n");
+		s.append("dumproutes 7000 all\ndumpappstate 7999 all\ndumppacketstats 7999 all\n");
+		return s.toString();
+	}
+
+	/**
+	 * The digest lines of the steps after a clock, and the last one
+	 */
+	static List<String> digestsAfter(Path file, int time) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (String s : Files.readAllLines(file)) {
+			String clock = s.split(" ")[0];
+			if (clock.equals("end") || (!clock.equals("#") && Integer.parseInt(clock) > time))
+				lines.add(s);
+		}
+		return lines;
+	}
+
+	/**
+	 * Runs a configuration and returns its output
+	 */
+	private static String run(String config) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+		new Simulator("ring", new StringReader(config), out, new PrintStream(OutputStream.nullOutputStream())).main_loop();
+		return bytes.toString(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Restores a checkpoint, runs it and returns its output, from the step
+	 * after the checkpoint on
+	 */
+	private static String restore(Path checkpoint, Path config) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+		Simulator.restore(checkpoint.toString(), config.toString(), out, new PrintStream(OutputStream.nullOutputStream()))
+				.main_loop();
+		String output = bytes.toString(StandardCharsets.UTF_8);
+		String resumed = "simulation resumes - last processing step before the checkpoint with clock = 3000" + NL + NL;
+		assertTrue(output.contains(resumed), output);
+		return output.substring(output.indexOf(resumed) + resumed.length());
+	}
+
+	/**
+	 * Checks that a run restored from the checkpoint at 3000 of a full run has
+	 * the output and the digest of the full run after the checkpoint
+	 *
+	 * @param checkpointed the configuration of the run writing the checkpoint
+	 * @param full         the configuration of the uninterrupted run
+	 * @param extra        the events added when restoring
+	 */
+	private void assertRestoredAsFull(String checkpointed, String full, String extra) throws IOException {
+		Path checkpoint = dir.resolve("ring.ckp");
+		run("parameter digest_file " + dir.resolve("checkpointed.txt") + "\n" + checkpointed + "checkpoint 3000 " + checkpoint + "\n");
+		// the full run writes a checkpoint too, to find where its output goes on
+		Path fullDigest = dir.resolve("full.txt");
+		String output = run("parameter digest_file " + fullDigest + "\n" + full + "checkpoint 3000 " + dir.resolve("full.ckp") + "\n");
+		assertTrue(output.contains(" routing table"), "no routes dumped");
+		String written = "written at 3000" + NL;
+		String expected = output.substring(output.indexOf(written) + written.length());
+
+		Path config = dir.resolve("restore.txt");
+		Path restoredDigest = dir.resolve("restored.txt");
+		Files.writeString(config, "parameter digest_file " + restoredDigest + "\n" + extra);
+		assertEquals(expected, restore(checkpoint, config));
+		List<String> digests = digestsAfter(fullDigest, 3000);
+		assertTrue(digests.size() > 2, "no digests after the checkpoint");
+		assertEquals(digests, digestsAfter(restoredDigest, 3000));
+	}
+
+	@Test
+	void restoredRunGoesOnAsTheFullRun() throws IOException {
+		assertRestoredAsFull(ring(true), ring(true), "");
+	}
+
+	@Test
+	void eventsAddedWhenRestoringRunAsConfigured() throws IOException {
+		assertRestoredAsFull(ring(false), ring(true), "downlink 4000 0.0 1.0\nuplink 6000 0.0 1.0\n");
+	}
+
+}
@@ -0,0 +1,81 @@
+package cnss.simulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the deficit round robin and weighted fair queuing schedulers
+ * share the bytes transmitted between backlogged classes in proportion to
+ * their weights, whatever the sizes of their packets
+ */
+class EgressSchedulerTest {
+
+	private static final int[] WEIGHTS = { 1, 2, 5 };
+
+	/**
+	 * A packet of a class, with a payload of 100 to 1500 bytes if
+	 * <code>mixed</code> and of 500 (class + 1) bytes otherwise, so that the
+	 * classes send packets of different sizes
+	 */
+	private static Packet packet(int cls, boolean mixed, Random rnd) {
+		Packet p = new Packet(1, 2, new byte[mixed ? 100 + rnd.nextInt(1400) : 500 * (cls + 1)]);
+		p.setTrafficClass(cls);
+		return p;
+	}
+
+	/**
+	 * Keeps the classes in <code>busy</code> backlogged, transmits some bytes
+	 * and returns the share of the bytes of each class
+	 */
+	private static double[] shares(EgressScheduler s, boolean[] busy, boolean mixed) {
+		Random rnd = new Random(1);
+		for (int c = 0; c < busy.length; c++)
+			for (int i = 0; busy[c] && i < 10; i++)
+				s.add(packet(c, mixed, rnd), 0);
+		long total = 0;
+		for (int now = 1; total < 20000000; now++) {
+			Packet p = s.poll(now);
+			total += p.getSize();
+			s.add(packet(s.classOf(p), mixed, rnd), now);
+		}
+		double[] share = new double[busy.length];
+		for (int c = 0; c < busy.length; c++)
+			share[c] = (double) s.getSentBytes(c) / total;
+		return share;
+	}
+
+	private static void assertWeightedShares(String name, EgressScheduler s, boolean[] busy, boolean mixed) {
+		double[] share = shares(s, busy, mixed);
+		int sum = 0;
+		for (int c = 0; c < busy.length; c++)
+			sum += busy[c] ? WEIGHTS[c] : 0;
+		for (int c = 0; c < busy.length; c++)
+			assertEquals(busy[c] ? (double) WEIGHTS[c] / sum : 0, share[c], 0.005, name + " class " + c);
+	}
+
+	@Test
+	void drrSharesBytesByWeight() {
+		boolean[] all = { true, true, true };
+		assertWeightedShares("drr", new DrrScheduler(WEIGHTS), all, false);
+		assertWeightedShares("drr", new DrrScheduler(WEIGHTS), all, true);
+		assertWeightedShares("drr", new DrrScheduler(WEIGHTS, 300), all, true);
+	}
+
+	@Test
+	void wfqSharesBytesByWeight() {
+		boolean[] all = { true, true, true };
+		assertWeightedShares("wfq", new WfqScheduler(WEIGHTS), all, false);
+		assertWeightedShares("wfq", new WfqScheduler(WEIGHTS), all, true);
+	}
+
+	@Test
+	void idleClassesLeaveTheirShareToTheOthers() {
+		boolean[] two = { true, true, false };
+		assertWeightedShares("drr", new DrrScheduler(WEIGHTS), two, true);
+		assertWeightedShares("wfq", new WfqScheduler(WEIGHTS), two, true);
+	}
+
+}
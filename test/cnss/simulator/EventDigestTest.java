@@ -0,0 +1,103 @@
+package cnss.simulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that <code>EventDigest</code> tells apart runs that differ and finds
+ * the first step where they do
+ */
+class EventDigestTest {
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * Two hosts sending packets to each other over a switch, through links
+	 * whose errors and jitter are drawn with the seed
+	 */
+	private static String network(int seed, Path digest) {
+		return "parameter stop 5000\n"
+				+ "parameter seed " + seed + "\n"
+				+ "parameter digest_file " + digest + "\n"
+				+ "node 0 2 cnss.lib.FloodingSwitch cnss.lib.EmptyApp\n"
+				+ "node 1 1 cnss.lib.EndSystemControl cnss.lib.TrafficGenerator mode=poisson rate=100000 dst=2\n"
+				+ "node 2 1 cnss.lib.EndSystemControl cnss.lib.TrafficGenerator mode=poisson rate=100000 dst=1\n"
+				+ "link 0.0 1.0 1000000 50 0.05 0.1\n"
+				+ "link 0.1 2.0 1000000 50 0.05 0.2\n";
+	}
+
+	private List<String[]> run(int seed, String name) throws IOException {
+		Path digest = dir.resolve(name);
+		PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+		new Simulator(name, new StringReader(network(seed, digest)), quiet, quiet).main_loop();
+		List<String[]> lines = new ArrayList<>();
+		for (String s : Files.readAllLines(digest))
+			if (!s.startsWith("#"))
+				lines.add(s.split(" "));
+		return lines;
+	}
+
+	private static String compare(List<String[]> a, List<String[]> b, boolean same) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals(same, EventDigest.compare(a, b, new PrintStream(bytes, true, StandardCharsets.UTF_8)));
+		return bytes.toString(StandardCharsets.UTF_8);
+	}
+
+	private static String[] line(String clock, long steps, long events, String hash) {
+		return new String[] { clock, Long.toString(steps), Long.toString(events), hash };
+	}
+
+	@Test
+	void sameRunsAgree() throws IOException {
+		List<String[]> a = run(1, "a.txt");
+		assertTrue(a.size() > 2, "no digests written");
+		assertEquals("end", a.get(a.size() - 1)[0]);
+		assertTrue(compare(a, run(1, "b.txt"), true).startsWith("runs agree: "));
+	}
+
+	@Test
+	void differentSeedsDiverge() throws IOException {
+		assertTrue(compare(run(1, "a.txt"), run(2, "b.txt"), false).startsWith("runs diverge after "));
+	}
+
+	@Test
+	void findsTheFirstDivergentStep() {
+		List<String[]> a = new ArrayList<>();
+		a.add(line("0", 1, 5, "00000000000000aa"));
+		a.add(line("1000", 2, 9, "00000000000000bb"));
+		a.add(line("1001", 3, 12, "00000000000000cc"));
+		List<String[]> b = new ArrayList<>(a.subList(0, 2));
+		b.add(line("1001", 3, 12, "00000000000000dd"));
+		assertTrue(compare(a, b, false).contains("first divergent step: 1001" + System.lineSeparator()));
+		// a step only run by the second run
+		b.set(2, line("1002", 3, 12, "00000000000000cc"));
+		assertTrue(compare(a, b, false).contains("first divergent step: 1001, only run by the first"));
+	}
+
+	@Test
+	void givesTheStepsToDigestWhenTheFilesSkipThem() {
+		List<String[]> a = new ArrayList<>();
+		a.add(line("0", 1, 5, "00000000000000aa"));
+		a.add(line("1000", 40, 90, "00000000000000bb"));
+		List<String[]> b = new ArrayList<>(a.subList(0, 1));
+		b.add(line("1000", 40, 90, "00000000000000cc"));
+		assertTrue(compare(a, b, false).contains("run both again with: parameter digest_steps 1,1000"));
+	}
+
+}
@@ -0,0 +1,99 @@
+package cnss.simulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that the copies of a forked simulation, and the simulation itself,
+ * proceed exactly as an uninterrupted run, with the network of
+ * <code>CheckpointTest</code>
+ */
+class ForkTest {
+
+	private static final String NL = System.lineSeparator();
+
+	@TempDir
+	Path dir;
+
+	private static PrintStream quiet() {
+		return new PrintStream(OutputStream.nullOutputStream());
+	}
+
+	/**
+	 * Runs a configuration with a digest and returns its digest lines after
+	 * 3000
+	 */
+	private List<String> fullDigests(String config, String name) throws IOException {
+		Path digest = dir.resolve(name);
+		new Simulator(name, new StringReader("parameter digest_file " + digest + "\n" + config), quiet(), quiet()).main_loop();
+		List<String> lines = CheckpointTest.digestsAfter(digest, 3000);
+		assertTrue(lines.size() > 2, "no digests after the fork");
+		return lines;
+	}
+
+	@Test
+	void copiesGoOnAsTheFullRun() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+		String config = CheckpointTest.ring(true);
+		Path fullDigest = dir.resolve("full.txt");
+		new Simulator("ring", new StringReader("parameter digest_file " + fullDigest + "\n" + config), out, quiet()).main_loop();
+		String full = bytes.toString(StandardCharsets.UTF_8);
+		List<String> digests = CheckpointTest.digestsAfter(fullDigest, 3000);
+		assertTrue(digests.size() > 2, "no digests after the fork");
+
+		bytes.reset();
+		Path digest = dir.resolve("forked.txt");
+		Simulator sim = new Simulator("ring", new StringReader("parameter digest_file " + digest + "\n" + config), out, quiet());
+		sim.runUntil(3000);
+		String before = bytes.toString(StandardCharsets.UTF_8);
+		assertTrue(full.startsWith(before));
+		String expected = full.substring(before.length());
+		Simulator[] copies = sim.fork(2);
+		String resumed = NL + "simulation resumes - last processing step before the checkpoint with clock = 3000" + NL + NL;
+		for (int i = 0; i < copies.length; i++) {
+			bytes.reset();
+			copies[i].main_loop();
+			assertEquals(resumed + expected, bytes.toString(StandardCharsets.UTF_8), "copy " + i);
+			assertEquals(digests, CheckpointTest.digestsAfter(dir.resolve("forked-" + i + ".txt"), 3000), "copy " + i);
+		}
+		// forking does not change the simulation
+		bytes.reset();
+		sim.main_loop();
+		assertEquals(expected, bytes.toString(StandardCharsets.UTF_8));
+		assertEquals(digests, CheckpointTest.digestsAfter(digest, 3000));
+	}
+
+	@Test
+	void concurrentCopiesRunTheirOwnEvents() throws IOException, InterruptedException {
+		List<String> withFailure = fullDigests(CheckpointTest.ring(true), "failure.txt");
+		List<String> without = fullDigests(CheckpointTest.ring(false), "none.txt");
+
+		Path digest = dir.resolve("forked.txt");
+		Simulator sim = new Simulator("forked",
+				new StringReader("parameter digest_file " + digest + "\n" + CheckpointTest.ring(false)), quiet(), quiet());
+		sim.runUntil(3000);
+		Simulator[] copies = sim.fork(4);
+		for (int i = 0; i < copies.length; i += 2) {
+			copies[i].addEvent("downlink 4000 0.0 1.0");
+			copies[i].addEvent("uplink 6000 0.0 1.0");
+		}
+		Simulator.runAll(copies);
+		for (int i = 0; i < copies.length; i++)
+			assertEquals(i % 2 == 0 ? withFailure : without,
+					CheckpointTest.digestsAfter(dir.resolve("forked-" + i + ".txt"), 3000), "copy " + i);
+	}
+
+}